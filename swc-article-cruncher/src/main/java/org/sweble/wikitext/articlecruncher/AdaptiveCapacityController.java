@@ -0,0 +1,422 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.utils.AdjustableLimit;
+import org.sweble.wikitext.articlecruncher.utils.DaemonThreadFactory;
+import org.sweble.wikitext.articlecruncher.utils.QueueStats;
+import org.sweble.wikitext.articlecruncher.utils.WeightedBlockingQueue;
+
+/**
+ * Grows and shrinks the in-flight limits of a pipeline, that is the
+ * capacities of its queues and the number of jobs processing nodes work on
+ * at the same time.
+ * 
+ * The controller periodically looks at three signals:
+ * <ul>
+ * <li>The occupancy of the heap after the last garbage collection. If it
+ * exceeds {@link #setMaxHeapOccupancy(double)}, all limits are halved and
+ * left alone for a few intervals. The occupancy only changes when the
+ * garbage collector runs. Therefore it is only acted upon again once a
+ * collection happened since it was last looked at. Until then, limits are
+ * not grown.</li>
+ * <li>The storer latency, measured as the average time a job waits in the
+ * queue the storers take from. If it exceeds
+ * {@link #setMaxStorerLatency(long, TimeUnit)}, the storers are the
+ * bottleneck and all limits are reduced, since more buffering would only
+ * cost memory.</li>
+ * <li>The throughput of the storers in units of weight (wikitext bytes) per
+ * second. If producers had to wait for one of the controlled queues, all
+ * limits are grown. If the throughput did not improve after growing, the
+ * step is undone and the limits are left alone for a few intervals.</li>
+ * </ul>
+ * 
+ * All limits are changed by the same factor and stay within the bounds given
+ * to {@link #addLimit(String, AdjustableLimit, long, long)}.
+ */
+public class AdaptiveCapacityController
+{
+	private static final Logger logger = Logger.getLogger(AdaptiveCapacityController.class);
+	
+	public static enum Decision
+	{
+		GROW,
+		SHRINK,
+		HOLD
+	}
+	
+	// =========================================================================
+	
+	private final WeightedBlockingQueue<?> storerQueue;
+	
+	private final List<Knob> knobs = new ArrayList<Knob>();
+	
+	private double maxHeapOccupancy = 0.75;
+	
+	private long maxStorerLatencyNanos = TimeUnit.SECONDS.toNanos(2);
+	
+	private double growFactor = 1.25;
+	
+	private double minGain = 0.05;
+	
+	private int settleIntervals = 5;
+	
+	private QueueStats lastStorerStats;
+	
+	private double throughputBeforeGrow;
+	
+	private Decision lastDecision = Decision.HOLD;
+	
+	private int holdFor;
+	
+	private long lastCollections = -1;
+	
+	private double lastHeapOccupancy = Double.NaN;
+	
+	private ScheduledExecutorService scheduler;
+	
+	// =========================================================================
+	
+	/**
+	 * @param storerQueue
+	 *            The queue the storers take jobs from. Throughput and storer
+	 *            latency are measured on this queue.
+	 */
+	public AdaptiveCapacityController(WeightedBlockingQueue<?> storerQueue)
+	{
+		this.storerQueue = storerQueue;
+		this.lastStorerStats = storerQueue.getStats();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Puts a limit under the control of this controller. If the limit is a
+	 * {@link WeightedBlockingQueue}, the time producers wait for it is taken
+	 * as a sign that the limit is too tight.
+	 */
+	public synchronized void addLimit(
+			String name,
+			AdjustableLimit limit,
+			long min,
+			long max)
+	{
+		if (min <= 0 || min > max)
+			throw new IllegalArgumentException("Invalid bounds");
+		
+		knobs.add(new Knob(name, limit, min, max));
+	}
+	
+	public synchronized void setMaxHeapOccupancy(double maxHeapOccupancy)
+	{
+		if (maxHeapOccupancy <= 0 || maxHeapOccupancy > 1)
+			throw new IllegalArgumentException("Occupancy must be in (0, 1]");
+		this.maxHeapOccupancy = maxHeapOccupancy;
+	}
+	
+	public synchronized void setMaxStorerLatency(long latency, TimeUnit unit)
+	{
+		this.maxStorerLatencyNanos = unit.toNanos(latency);
+	}
+	
+	/**
+	 * @param growFactor
+	 *            The factor by which limits are grown. Limits which have to
+	 *            be reduced because of storer latency are divided by this
+	 *            factor.
+	 */
+	public synchronized void setGrowFactor(double growFactor)
+	{
+		if (growFactor <= 1)
+			throw new IllegalArgumentException("Grow factor must be greater than 1");
+		this.growFactor = growFactor;
+	}
+	
+	public synchronized Decision getLastDecision()
+	{
+		return lastDecision;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Starts adjusting the limits every <code>intervalMillis</code>
+	 * milliseconds.
+	 */
+	public synchronized void start(long intervalMillis)
+	{
+		if (scheduler != null)
+			throw new IllegalStateException("Controller already started");
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(AdaptiveCapacityController.class.getSimpleName()));
+		
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					adjust();
+				}
+				catch (RuntimeException e)
+				{
+					logger.error("Adjusting in-flight limits failed", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	public synchronized void stop()
+	{
+		if (scheduler == null)
+			return;
+		
+		scheduler.shutdownNow();
+		scheduler = null;
+	}
+	
+	/**
+	 * Looks at the signals gathered since the last call and adjusts the
+	 * limits.
+	 */
+	public synchronized Decision adjust()
+	{
+		QueueStats stats = storerQueue.getStats();
+		QueueStats last = lastStorerStats;
+		lastStorerStats = stats;
+		
+		long takes = stats.getTakes() - last.getTakes();
+		long elapsed = Math.max(1, stats.getTimestamp() - last.getTimestamp());
+		double throughput = (stats.getWeightTaken() - last.getWeightTaken()) * 1e9 / elapsed;
+		long latency = (takes == 0) ? 0 : (stats.getResidenceNanos() - last.getResidenceNanos()) / takes;
+		
+		boolean pressure = false;
+		for (Knob knob : knobs)
+			pressure |= knob.sampleProducerWait();
+		
+		long collections = countCollections();
+		double heap = measureHeapOccupancy();
+		
+		boolean heapChanged = (collections != lastCollections) || (heap != lastHeapOccupancy);
+		lastCollections = collections;
+		lastHeapOccupancy = heap;
+		
+		Decision decision;
+		if (heap > maxHeapOccupancy)
+		{
+			if (heapChanged && holdFor == 0)
+			{
+				logger.warn(String.format(
+						"Heap occupancy at %.0f%%, halving in-flight limits",
+						heap * 100));
+				
+				scale(0.5);
+				decision = Decision.SHRINK;
+				holdFor = settleIntervals;
+			}
+			else
+			{
+				// Either the last shrink has not settled yet or no collection
+				// happened since, so the occupancy tells nothing new
+				if (holdFor > 0)
+					--holdFor;
+				decision = Decision.HOLD;
+			}
+		}
+		else if (latency > maxStorerLatencyNanos)
+		{
+			logger.info(String.format(
+					"Storer latency at %.3fs, reducing in-flight limits",
+					latency / 1e9));
+			
+			scale(1 / growFactor);
+			decision = Decision.SHRINK;
+		}
+		else if (lastDecision == Decision.GROW
+				&& throughput < throughputBeforeGrow * (1 + minGain))
+		{
+			// Growing did not pay off, take the step back
+			scale(1 / growFactor);
+			decision = Decision.SHRINK;
+			holdFor = settleIntervals;
+		}
+		else if (holdFor > 0)
+		{
+			--holdFor;
+			decision = Decision.HOLD;
+		}
+		else if (pressure && takes > 0)
+		{
+			throughputBeforeGrow = throughput;
+			decision = scale(growFactor) ? Decision.GROW : Decision.HOLD;
+		}
+		else
+		{
+			decision = Decision.HOLD;
+		}
+		
+		if (logger.isDebugEnabled())
+		{
+			logger.debug(String.format(
+					"%s: throughput=%.0f/s, storer latency=%.3fms, heap=%.0f%%, limits=%s",
+					decision,
+					throughput,
+					latency / 1e6,
+					heap * 100,
+					knobs));
+		}
+		
+		lastDecision = decision;
+		return decision;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Returns the number of garbage collections that happened so far. Only if
+	 * it changed, the occupancy returned by {@link #measureHeapOccupancy()}
+	 * can have changed.
+	 */
+	protected long countCollections()
+	{
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+	
+	/**
+	 * Returns the fraction of the maximum heap size that was still in use
+	 * after the last garbage collection.
+	 */
+	protected double measureHeapOccupancy()
+	{
+		long used = 0;
+		long max = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() != MemoryType.HEAP)
+				continue;
+			
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null)
+				usage = pool.getUsage();
+			
+			long poolMax = usage.getMax() >= 0 ? usage.getMax() : usage.getCommitted();
+			used += usage.getUsed();
+			max += poolMax;
+		}
+		
+		if (max <= 0)
+		{
+			Runtime rt = Runtime.getRuntime();
+			return (double) (rt.totalMemory() - rt.freeMemory()) / rt.maxMemory();
+		}
+		
+		return (double) used / max;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return Whether any limit changed.
+	 */
+	private boolean scale(double factor)
+	{
+		boolean changed = false;
+		for (Knob knob : knobs)
+			changed |= knob.scale(factor);
+		
+		if (changed)
+			logger.info("In-flight limits adjusted: " + knobs);
+		
+		return changed;
+	}
+	
+	// =========================================================================
+	
+	private static final class Knob
+	{
+		private final String name;
+		
+		private final AdjustableLimit limit;
+		
+		private final long min;
+		
+		private final long max;
+		
+		private long lastPutWaitNanos;
+		
+		public Knob(String name, AdjustableLimit limit, long min, long max)
+		{
+			this.name = name;
+			this.limit = limit;
+			this.min = min;
+			this.max = max;
+		}
+		
+		/**
+		 * @return Whether producers waited for the limit since the last call.
+		 */
+		public boolean sampleProducerWait()
+		{
+			if (!(limit instanceof WeightedBlockingQueue))
+				return false;
+			
+			long putWaitNanos = ((WeightedBlockingQueue<?>) limit).getStats().getPutWaitNanos();
+			boolean waited = putWaitNanos > lastPutWaitNanos;
+			lastPutWaitNanos = putWaitNanos;
+			return waited;
+		}
+		
+		public boolean scale(double factor)
+		{
+			long current = limit.getLimit();
+			
+			long scaled = Math.round(current * factor);
+			if (factor > 1 && scaled == current)
+				++scaled;
+			
+			scaled = Math.max(min, Math.min(max, scaled));
+			if (scaled == current)
+				return false;
+			
+			limit.setLimit(scaled);
+			return true;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return name + "=" + limit.getLimit();
+		}
+	}
+}
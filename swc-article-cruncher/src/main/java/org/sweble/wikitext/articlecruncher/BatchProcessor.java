@@ -0,0 +1,44 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.util.List;
+
+/**
+ * A processor that can process all jobs of a {@link JobBatch} in one go.
+ * 
+ * Processing nodes call {@link #processBatch(List)} for batches and
+ * {@link #process(Job)} for jobs that were not batched.
+ */
+public interface BatchProcessor
+		extends
+			Processor
+{
+	/**
+	 * Process a list of jobs. The processor has to set the outcome of each
+	 * job using {@link Job#processed(Object)} or {@link Job#failed(Exception)}.
+	 * 
+	 * If this method throws an exception, all jobs that are still
+	 * unprocessed are handed to {@link #process(Job)} one by one. A bad job
+	 * therefore only fails itself and not the whole batch.
+	 * 
+	 * @param jobs
+	 *            The jobs to process.
+	 */
+	public void processBatch(List<Job> jobs) throws Exception;
+}
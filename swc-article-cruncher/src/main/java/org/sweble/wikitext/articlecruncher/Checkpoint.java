@@ -0,0 +1,266 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The progress of a cruncher run, as recorded by a {@link CheckpointTracker}.
+ * 
+ * Jobs are assumed to be generated in the order of the ids of the pages they
+ * belong to, which is the order of the pages in a dump. A checkpoint states
+ * that all pages up to and including {@link #getLastStoredPageId()} have been
+ * stored. Of the pages generated after that page, only the in-flight pages
+ * have not been stored yet.
+ * 
+ * The byte offsets are the positions in the compressed and decompressed dump
+ * at the time the last stored page was generated. They are informational,
+ * dumps are resumed at the stream of the last stored page (see
+ * {@link #isStored(long)}).
+ * 
+ * Checkpoints are written as a properties file.
+ */
+public final class Checkpoint
+{
+	private static final int VERSION = 1;
+	
+	// =========================================================================
+	
+	private final long lastStoredPageId;
+	
+	private final long lastGeneratedPageId;
+	
+	private final long compressedOffset;
+	
+	private final long decompressedOffset;
+	
+	private final long[] inFlightJobIds;
+	
+	private final long[] inFlightPageIds;
+	
+	private final long timestamp;
+	
+	// =========================================================================
+	
+	/**
+	 * @param lastStoredPageId
+	 *            The page up to which all pages have been stored, or -1.
+	 * @param lastGeneratedPageId
+	 *            The last page for which a job was generated, or -1.
+	 */
+	public Checkpoint(
+			long lastStoredPageId,
+			long lastGeneratedPageId,
+			long compressedOffset,
+			long decompressedOffset,
+			long[] inFlightJobIds,
+			long[] inFlightPageIds,
+			long timestamp)
+	{
+		this.lastStoredPageId = lastStoredPageId;
+		this.lastGeneratedPageId = lastGeneratedPageId;
+		this.compressedOffset = compressedOffset;
+		this.decompressedOffset = decompressedOffset;
+		this.inFlightJobIds = inFlightJobIds.clone();
+		this.inFlightPageIds = inFlightPageIds.clone();
+		this.timestamp = timestamp;
+		
+		Arrays.sort(this.inFlightPageIds);
+	}
+	
+	// =========================================================================
+	
+	public long getLastStoredPageId()
+	{
+		return lastStoredPageId;
+	}
+	
+	public long getLastGeneratedPageId()
+	{
+		return lastGeneratedPageId;
+	}
+	
+	public long getCompressedOffset()
+	{
+		return compressedOffset;
+	}
+	
+	public long getDecompressedOffset()
+	{
+		return decompressedOffset;
+	}
+	
+	/**
+	 * The ids of the jobs that were generated but not yet stored. Job ids
+	 * are only unique within one run.
+	 */
+	public long[] getInFlightJobIds()
+	{
+		return inFlightJobIds.clone();
+	}
+	
+	/**
+	 * The ids of the pages of all jobs that were generated after the last
+	 * stored page but not yet stored, in ascending order.
+	 */
+	public long[] getInFlightPageIds()
+	{
+		return inFlightPageIds.clone();
+	}
+	
+	/**
+	 * The time the checkpoint was taken in milliseconds since the epoch.
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	/**
+	 * Whether a page was stored before this checkpoint was taken and can be
+	 * skipped when resuming. Pages of which only some revisions were stored
+	 * count as in-flight and will be processed again.
+	 */
+	public boolean isStored(long pageId)
+	{
+		if (pageId <= lastStoredPageId)
+			return true;
+		
+		if (pageId > lastGeneratedPageId)
+			return false;
+		
+		return Arrays.binarySearch(inFlightPageIds, pageId) < 0;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Writes the checkpoint to a temporary file first and then renames it,
+	 * so that a crash never leaves a truncated checkpoint behind.
+	 */
+	public void write(File file) throws IOException
+	{
+		Properties p = new Properties();
+		p.setProperty("version", String.valueOf(VERSION));
+		p.setProperty("lastStoredPageId", String.valueOf(lastStoredPageId));
+		p.setProperty("lastGeneratedPageId", String.valueOf(lastGeneratedPageId));
+		p.setProperty("compressedOffset", String.valueOf(compressedOffset));
+		p.setProperty("decompressedOffset", String.valueOf(decompressedOffset));
+		p.setProperty("inFlightJobIds", join(inFlightJobIds));
+		p.setProperty("inFlightPageIds", join(inFlightPageIds));
+		p.setProperty("timestamp", String.valueOf(timestamp));
+		
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try
+		{
+			p.store(out, "Article cruncher checkpoint");
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		if (!tmp.renameTo(file))
+		{
+			// Some platforms do not replace existing files
+			if (!file.delete() || !tmp.renameTo(file))
+				throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+	}
+	
+	public static Checkpoint read(File file) throws IOException
+	{
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			p.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		try
+		{
+			int version = Integer.parseInt(p.getProperty("version"));
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+			
+			return new Checkpoint(
+					Long.parseLong(p.getProperty("lastStoredPageId")),
+					Long.parseLong(p.getProperty("lastGeneratedPageId")),
+					Long.parseLong(p.getProperty("compressedOffset")),
+					Long.parseLong(p.getProperty("decompressedOffset")),
+					split(p.getProperty("inFlightJobIds")),
+					split(p.getProperty("inFlightPageIds")),
+					Long.parseLong(p.getProperty("timestamp")));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Malformed checkpoint: " + file, e);
+		}
+	}
+	
+	// =========================================================================
+	
+	private static String join(long[] values)
+	{
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < values.length; ++i)
+		{
+			if (i > 0)
+				b.append(',');
+			b.append(values[i]);
+		}
+		return b.toString();
+	}
+	
+	private static long[] split(String s)
+	{
+		if (s == null || s.isEmpty())
+			return new long[0];
+		
+		String[] parts = s.split(",");
+		long[] values = new long[parts.length];
+		for (int i = 0; i < parts.length; ++i)
+			values[i] = Long.parseLong(parts[i].trim());
+		return values;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String toString()
+	{
+		return String.format(
+				"[ Checkpoint: last stored page = %d; last generated page = %d; in-flight jobs = %d; compressed offset = %d ]",
+				lastStoredPageId,
+				lastGeneratedPageId,
+				inFlightJobIds.length,
+				compressedOffset);
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.utils.DaemonThreadFactory;
+
+/**
+ * Keeps track of which pages have been stored, so that an interrupted run
+ * can be resumed from a {@link Checkpoint}.
+ * 
+ * A job generator registers each job it emitted together with the ids of
+ * the pages in that job and its current position in the dump. A job counts
+ * as stored once its trace was removed from the {@link JobTraceSet}, which
+ * storers do after storing a job. The tracker finds the longest prefix of
+ * registered jobs that have all been stored; the last page of that prefix
+ * becomes the last stored page of the next checkpoint.
+ * 
+ * A slow job holds the last stored page back, as a resumed run has to start
+ * reading before that job. Jobs registered after it still count as stored
+ * (see {@link Checkpoint#isStored(long)}). The tracker only keeps jobs that
+ * were not stored when it last looked. It looks whenever a checkpoint is
+ * taken and whenever the number of kept jobs doubled, so its memory and the
+ * cost of a checkpoint depend on the number of jobs in flight, not on the
+ * number of jobs registered behind a slow job.
+ * 
+ * Checkpoints can be written periodically by a background thread, see
+ * {@link #start(File, long)}.
+ */
+public final class CheckpointTracker
+{
+	private static final Logger logger = Logger.getLogger(CheckpointTracker.class);
+	
+	private static final int MIN_SWEEP_THRESHOLD = 1024;
+	
+	// =========================================================================
+	
+	private final JobTraceSet jobTraces;
+	
+	/** Registered jobs not known to be stored, in the order of registration. */
+	private final LinkedHashMap<JobTrace, Entry> pending = new LinkedHashMap<JobTrace, Entry>();
+	
+	private int sweepThreshold = MIN_SWEEP_THRESHOLD;
+	
+	private Entry lastRegistered;
+	
+	private final Object writeLock = new Object();
+	
+	private long lastStoredPageId;
+	
+	private long lastGeneratedPageId;
+	
+	private long compressedOffset;
+	
+	private long decompressedOffset;
+	
+	private ScheduledExecutorService scheduler;
+	
+	private File file;
+	
+	// =========================================================================
+	
+	public CheckpointTracker(JobTraceSet jobTraces)
+	{
+		this(jobTraces, null);
+	}
+	
+	/**
+	 * @param resumedFrom
+	 *            The checkpoint the run was resumed from. Its progress is
+	 *            carried over until the first job was stored.
+	 */
+	public CheckpointTracker(JobTraceSet jobTraces, Checkpoint resumedFrom)
+	{
+		this.jobTraces = jobTraces;
+		
+		if (resumedFrom != null)
+		{
+			this.lastStoredPageId = resumedFrom.getLastStoredPageId();
+			this.lastGeneratedPageId = resumedFrom.getLastStoredPageId();
+			this.compressedOffset = resumedFrom.getCompressedOffset();
+			this.decompressedOffset = resumedFrom.getDecompressedOffset();
+		}
+		else
+		{
+			this.lastStoredPageId = -1;
+			this.lastGeneratedPageId = -1;
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Registers a job after it was emitted. Jobs have to be registered in the
+	 * order in which they were emitted and after their trace was added to
+	 * the job trace set.
+	 * 
+	 * @param pageIds
+	 *            The ids of the pages the job (or the jobs in a batch) belong
+	 *            to, in ascending order.
+	 * @param compressedOffset
+	 *            The number of compressed bytes read from the dump when the
+	 *            job was generated.
+	 * @param decompressedOffset
+	 *            The number of decompressed bytes read from the dump when the
+	 *            job was generated.
+	 */
+	public synchronized void register(
+			Job job,
+			long[] pageIds,
+			long compressedOffset,
+			long decompressedOffset)
+	{
+		if (pageIds.length == 0)
+			throw new IllegalArgumentException("A job must belong to at least one page");
+		
+		Entry entry = new Entry(
+				job.getTrace(),
+				pageIds,
+				compressedOffset,
+				decompressedOffset,
+				lastRegistered);
+		
+		pending.put(entry.trace, entry);
+		lastRegistered = entry;
+		
+		lastGeneratedPageId = Math.max(lastGeneratedPageId, pageIds[pageIds.length - 1]);
+		
+		if (pending.size() >= sweepThreshold)
+		{
+			sweep();
+			sweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, 2 * pending.size());
+		}
+	}
+	
+	/**
+	 * Takes a checkpoint of the current progress.
+	 */
+	public synchronized Checkpoint checkpoint()
+	{
+		sweep();
+		
+		List<Long> jobIds = new ArrayList<Long>();
+		List<Long> pageIds = new ArrayList<Long>();
+		for (Entry e : pending.values())
+		{
+			jobIds.add(e.trace.getJobId());
+			for (long id : e.pageIds)
+				pageIds.add(id);
+		}
+		
+		return new Checkpoint(
+				lastStoredPageId,
+				lastGeneratedPageId,
+				compressedOffset,
+				decompressedOffset,
+				toArray(jobIds),
+				toArray(pageIds),
+				System.currentTimeMillis());
+	}
+	
+	/**
+	 * Forgets stored jobs and advances the last stored page to the end of the
+	 * stored prefix.
+	 */
+	private void sweep()
+	{
+		Iterator<Entry> i = pending.values().iterator();
+		while (i.hasNext())
+		{
+			if (!jobTraces.contains(i.next().trace))
+				i.remove();
+		}
+		
+		// The prefix ends with the last registered job or with the job
+		// registered right before the first job that was not stored
+		if (pending.isEmpty())
+		{
+			if (lastRegistered == null)
+				return;
+			
+			lastStoredPageId = Math.max(lastStoredPageId, lastRegistered.getLastPageId());
+			compressedOffset = lastRegistered.compressedOffset;
+			decompressedOffset = lastRegistered.decompressedOffset;
+		}
+		else
+		{
+			Entry first = pending.values().iterator().next();
+			if (!first.hasPrevious)
+				return;
+			
+			// The first job may hold further revisions of the same page
+			long last = Math.min(first.previousLastPageId, first.pageIds[0] - 1);
+			
+			lastStoredPageId = Math.max(lastStoredPageId, last);
+			compressedOffset = first.previousCompressedOffset;
+			decompressedOffset = first.previousDecompressedOffset;
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Starts writing a checkpoint to the given file every
+	 * <code>intervalMillis</code> milliseconds.
+	 */
+	public synchronized void start(final File file, long intervalMillis)
+	{
+		if (scheduler != null)
+			throw new IllegalStateException("Checkpointing already started");
+		
+		this.file = file;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(CheckpointTracker.class.getSimpleName()));
+		
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					write(file);
+				}
+				catch (IOException e)
+				{
+					logger.error("Writing checkpoint failed", e);
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops writing checkpoints periodically and writes a final checkpoint.
+	 */
+	public void stop() throws IOException
+	{
+		File file;
+		synchronized (this)
+		{
+			if (scheduler == null)
+				return;
+			
+			scheduler.shutdownNow();
+			scheduler = null;
+			file = this.file;
+		}
+		
+		write(file);
+	}
+	
+	public void write(File file) throws IOException
+	{
+		Checkpoint checkpoint;
+		
+		// An older checkpoint must not overwrite a newer one
+		synchronized (writeLock)
+		{
+			checkpoint = checkpoint();
+			checkpoint.write(file);
+		}
+		
+		logger.info("Wrote checkpoint " + checkpoint);
+	}
+	
+	// =========================================================================
+	
+	private static long[] toArray(List<Long> list)
+	{
+		long[] array = new long[list.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	// =========================================================================
+	
+	private static final class Entry
+	{
+		private final JobTrace trace;
+		
+		private final long[] pageIds;
+		
+		private final long compressedOffset;
+		
+		private final long decompressedOffset;
+		
+		// Copied from the job registered before this one, so that entries
+		// do not keep each other alive
+		
+		private final boolean hasPrevious;
+		
+		private final long previousLastPageId;
+		
+		private final long previousCompressedOffset;
+		
+		private final long previousDecompressedOffset;
+		
+		public Entry(
+				JobTrace trace,
+				long[] pageIds,
+				long compressedOffset,
+				long decompressedOffset,
+				Entry previous)
+		{
+			this.trace = trace;
+			this.pageIds = Arrays.copyOf(pageIds, pageIds.length);
+			this.compressedOffset = compressedOffset;
+			this.decompressedOffset = decompressedOffset;
+			
+			this.hasPrevious = (previous != null);
+			this.previousLastPageId = hasPrevious ? previous.getLastPageId() : -1;
+			this.previousCompressedOffset = hasPrevious ? previous.compressedOffset : 0;
+			this.previousDecompressedOffset = hasPrevious ? previous.decompressedOffset : 0;
+		}
+		
+		public long getLastPageId()
+		{
+			return pageIds[pageIds.length - 1];
+		}
+	}
+}
@@ -17,8 +17,11 @@
 
 package org.sweble.wikitext.articlecruncher;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
+import org.sweble.wikitext.articlecruncher.telemetry.CruncherTelemetry;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 
@@ -26,12 +29,18 @@ public class Gatherer
 		extends
 			WorkerBase
 {
+	private static final int BATCH_SIZE = 64;
+	
+	// =========================================================================
+	
 	private final BlockingQueue<Job> inTray;
 	
 	private final BlockingQueue<Job> processedJobs;
 	
 	private final BlockingQueue<Job> outTray;
 	
+	private final CruncherTelemetry telemetry;
+	
 	// =========================================================================
 	
 	public Gatherer(
@@ -39,6 +48,20 @@ public class Gatherer
 			BlockingQueue<Job> inTray,
 			BlockingQueue<Job> processedJobs,
 			BlockingQueue<Job> outTray)
+	{
+		this(abortHandler, inTray, processedJobs, outTray, null);
+	}
+	
+	/**
+	 * @param telemetry
+	 *            If not null, every processed job is recorded.
+	 */
+	public Gatherer(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			BlockingQueue<Job> processedJobs,
+			BlockingQueue<Job> outTray,
+			CruncherTelemetry telemetry)
 	{
 		super(getClassName(), abortHandler);
 		
@@ -47,6 +70,7 @@ public class Gatherer
 		this.inTray = inTray;
 		this.processedJobs = processedJobs;
 		this.outTray = outTray;
+		this.telemetry = telemetry;
 	}
 	
 	private static String getClassName()
@@ -61,24 +85,39 @@ public class Gatherer
 	@Override
 	protected void work() throws Throwable
 	{
+		List<Job> batch = new ArrayList<Job>(BATCH_SIZE);
 		while (true)
 		{
-			Job processed = processedJobs.take();
-			++count;
-			
-			processed.signOff(getClass(), null);
+			// Take whatever else is ready without blocking again
+			batch.add(processedJobs.take());
+			processedJobs.drainTo(batch, BATCH_SIZE - 1);
 			
-			// TODO: Decide what to do with it.
-			boolean tryAgain = false;
-			
-			if (tryAgain)
-			{
-				inTray.put(processed);
-			}
-			else
+			for (Job processed : batch)
 			{
-				outTray.put(processed);
+				++count;
+				
+				processed.signOff(getClass(), null);
+				
+				// TODO: Decide what to do with it.
+				boolean tryAgain = false;
+				
+				if (tryAgain)
+				{
+					inTray.put(processed);
+				}
+				else
+				{
+					if (telemetry != null)
+					{
+						telemetry.recordProcessed(processed);
+						processed.getTrace().gathered();
+					}
+					
+					outTray.put(processed);
+				}
 			}
+			
+			batch.clear();
 		}
 	}
 	
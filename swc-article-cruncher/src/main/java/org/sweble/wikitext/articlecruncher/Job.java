@@ -85,6 +85,26 @@ public abstract class Job
 		trace.signOff(signer, signature);
 	}
 	
+	/**
+	 * Returns an estimate of how much work it takes to process this job, for
+	 * example the size of a page's text in bytes. Processing nodes can use it
+	 * to schedule big jobs first. The default implementation returns 0.
+	 */
+	public long getSizeHint()
+	{
+		return 0;
+	}
+	
+	/**
+	 * Returns a short description of this job, for example the title of the
+	 * page it belongs to, which is shown in telemetry reports. The default
+	 * implementation returns <code>null</code>.
+	 */
+	public String getLabel()
+	{
+		return null;
+	}
+	
 	// =========================================================================
 	
 	/**
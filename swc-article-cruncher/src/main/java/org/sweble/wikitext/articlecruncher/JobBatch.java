@@ -0,0 +1,234 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A job that carries a list of jobs through the cruncher.
+ * 
+ * Batches amortize the per-job overhead of the cruncher (trace bookkeeping,
+ * queue transfers and hand-offs between threads) over many small jobs. Only
+ * the trace of the batch is added to the {@link JobTraceSet}. Whoever signs
+ * off the trace of the batch also signs off the traces of all jobs in the
+ * batch, so each job's trace still tells which stages it passed. The jobs in
+ * a batch keep their own history: each job has its own result or exception
+ * after processing.
+ * 
+ * The batch itself always ends up in the HAS_RESULT state with a
+ * <code>null</code> result. Storers have to look at the individual jobs.
+ * 
+ * Batches are usually created by a {@link JobBatcher}.
+ */
+public class JobBatch
+		extends
+			Job
+{
+	private static final Logger logger = Logger.getLogger(JobBatch.class);
+	
+	private final List<Job> jobs;
+	
+	private final long sizeHint;
+	
+	// =========================================================================
+	
+	public JobBatch(List<Job> jobs)
+	{
+		super(new BatchTrace(jobs));
+		
+		this.jobs = Collections.unmodifiableList(jobs);
+		
+		long sizeHint = 0;
+		for (Job job : jobs)
+			sizeHint += job.getSizeHint();
+		this.sizeHint = sizeHint;
+	}
+	
+	// =========================================================================
+	
+	public List<Job> getJobs()
+	{
+		return jobs;
+	}
+	
+	public int size()
+	{
+		return jobs.size();
+	}
+	
+	/**
+	 * Returns the sum of the size hints of all jobs in this batch.
+	 */
+	@Override
+	public long getSizeHint()
+	{
+		return sizeHint;
+	}
+	
+	/**
+	 * Returns the number of jobs in this batch for which processing failed.
+	 */
+	public int getFailedCount()
+	{
+		int failed = 0;
+		for (Job job : jobs)
+		{
+			if (job.getState() == JobProcessingState.FAILED)
+				++failed;
+		}
+		return failed;
+	}
+	
+	/**
+	 * Returns the exception that made the {@link BatchProcessor} abandon this
+	 * batch or <code>null</code> if the batch was not processed by a batch
+	 * processor or the batch processor did not fail. The jobs the batch
+	 * processor left unprocessed were processed one by one afterwards.
+	 */
+	public Exception getBatchFailure()
+	{
+		return ((BatchTrace) getTrace()).batchFailure;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Processes a job or, if the job is a batch, all jobs in the batch.
+	 * 
+	 * If the job is not a batch the result of the processor is stored in the
+	 * job and exceptions are passed on to the caller. For a batch, exceptions
+	 * are stored in the individual jobs instead and the batch itself is marked
+	 * as processed.
+	 */
+	public static void process(Processor processor, Job job) throws Exception
+	{
+		JobTrace trace = job.getTrace();
+		trace.processingStarted();
+		try
+		{
+			if (job instanceof JobBatch)
+			{
+				((JobBatch) job).processAll(processor);
+			}
+			else
+			{
+				job.processed(processor.process(job));
+			}
+		}
+		finally
+		{
+			trace.processingFinished();
+		}
+	}
+	
+	/**
+	 * Marks a job as failed or, if the job is a batch, all jobs in the batch
+	 * that were not processed yet and the batch itself.
+	 */
+	public static void fail(Job job, Exception e)
+	{
+		if (job instanceof JobBatch)
+		{
+			for (Job j : ((JobBatch) job).jobs)
+			{
+				if (j.getState() == JobProcessingState.UNPROCESSED)
+					j.failed(e);
+			}
+		}
+		
+		job.failed(e);
+	}
+	
+	private void processAll(Processor processor)
+	{
+		if (processor instanceof BatchProcessor)
+		{
+			try
+			{
+				((BatchProcessor) processor).processBatch(jobs);
+			}
+			catch (Exception e)
+			{
+				// Process the remaining jobs one by one
+				((BatchTrace) getTrace()).batchFailure = e;
+				
+				logger.warn("Batch processing failed, processing the remaining jobs one by one", e);
+			}
+			
+			// Each job took as long as the whole batch
+			long started = getTrace().getProcessingStartedNanos();
+			long finished = System.nanoTime();
+			for (Job job : jobs)
+			{
+				if (job.getState() != JobProcessingState.UNPROCESSED)
+					job.getTrace().setProcessingNanos(started, finished);
+			}
+		}
+		
+		for (Job job : jobs)
+		{
+			if (job.getState() != JobProcessingState.UNPROCESSED)
+				continue;
+			
+			JobTrace trace = job.getTrace();
+			trace.processingStarted();
+			try
+			{
+				job.processed(processor.process(job));
+			}
+			catch (Exception e)
+			{
+				job.failed(e);
+			}
+			finally
+			{
+				trace.processingFinished();
+			}
+		}
+		
+		processed(null);
+	}
+	
+	// =========================================================================
+	
+	private static final class BatchTrace
+			extends
+				JobTrace
+	{
+		private final List<Job> jobs;
+		
+		private Exception batchFailure;
+		
+		public BatchTrace(List<Job> jobs)
+		{
+			this.jobs = jobs;
+		}
+		
+		@Override
+		public void signOff(Class<?> signer, String signature)
+		{
+			super.signOff(signer, signature);
+			
+			for (Job job : jobs)
+				job.getTrace().signOff(signer, signature);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Collects the jobs of a job generator into {@link JobBatch}es.
+ * 
+ * A batch is emitted once it holds <code>maxJobs</code> jobs or once the
+ * size hints of its jobs add up to at least <code>maxBytes</code>. Emitting a
+ * batch means adding its trace to the job trace set and putting it into the
+ * in tray, just like a job generator does with single jobs. If
+ * <code>maxJobs</code> is 1, batching is disabled and all jobs are emitted
+ * as they are.
+ * 
+ * A job generator has to call {@link #flush()} after it added its last job.
+ */
+public class JobBatcher
+{
+	private final BlockingQueue<Job> inTray;
+	
+	private final JobTraceSet jobTraces;
+	
+	private final Class<?> signer;
+	
+	private final int maxJobs;
+	
+	private final long maxBytes;
+	
+	private List<Job> jobs;
+	
+	private long bytes;
+	
+	private long batchCount;
+	
+	// =========================================================================
+	
+	/**
+	 * @param signer
+	 *            The class that signs off the traces of the emitted jobs,
+	 *            usually the job generator.
+	 * @param maxJobs
+	 *            The maximum number of jobs in a batch.
+	 * @param maxBytes
+	 *            The size at which a batch is emitted even if it holds less
+	 *            than <code>maxJobs</code> jobs. See {@link Job#getSizeHint()}.
+	 */
+	public JobBatcher(
+			BlockingQueue<Job> inTray,
+			JobTraceSet jobTraces,
+			Class<?> signer,
+			int maxJobs,
+			long maxBytes)
+	{
+		if (maxJobs <= 0)
+			throw new IllegalArgumentException("maxJobs must be positive");
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes must be positive");
+		
+		this.inTray = inTray;
+		this.jobTraces = jobTraces;
+		this.signer = signer;
+		this.maxJobs = maxJobs;
+		this.maxBytes = maxBytes;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Returns the number of jobs or batches emitted so far.
+	 */
+	public long getBatchCount()
+	{
+		return batchCount;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The emitted batch or job if adding the job completed a batch,
+	 *         <code>null</code> otherwise.
+	 */
+	public Job add(Job job) throws InterruptedException
+	{
+		if (maxJobs == 1)
+			return emit(job);
+		
+		if (jobs == null)
+			jobs = new ArrayList<Job>(maxJobs);
+		
+		jobs.add(job);
+		bytes += job.getSizeHint();
+		
+		if (jobs.size() >= maxJobs || bytes >= maxBytes)
+			return flush();
+		
+		return null;
+	}
+	
+	/**
+	 * Emits the current batch if it is not empty.
+	 * 
+	 * @return The emitted batch or <code>null</code> if there was nothing to
+	 *         emit.
+	 */
+	public Job flush() throws InterruptedException
+	{
+		if (jobs == null || jobs.isEmpty())
+			return null;
+		
+		JobBatch batch = new JobBatch(jobs);
+		jobs = null;
+		bytes = 0;
+		
+		return emit(batch);
+	}
+	
+	// =========================================================================
+	
+	private Job emit(Job job) throws InterruptedException
+	{
+		JobTrace trace = job.getTrace();
+		trace.signOff(signer, null);
+		
+		jobTraces.add(trace);
+		
+		inTray.put(job);
+		
+		++batchCount;
+		
+		return job;
+	}
+}
@@ -62,6 +62,14 @@ public class JobTrace
 	
 	private final long jobId = jobIdCounter.incrementAndGet();
 	
+	private final long createdNanos = System.nanoTime();
+	
+	private long processingStartedNanos;
+	
+	private long processingFinishedNanos;
+	
+	private long gatheredNanos;
+	
 	private List<Signer> signers;
 	
 	// =========================================================================
@@ -85,6 +93,64 @@ public class JobTrace
 	
 	// =========================================================================
 	
+	/**
+	 * The value of {@link System#nanoTime()} when the trace was created.
+	 */
+	public long getCreatedNanos()
+	{
+		return createdNanos;
+	}
+	
+	/**
+	 * The value of {@link System#nanoTime()} when processing of the job
+	 * started or 0 if the job has not been processed yet.
+	 */
+	public long getProcessingStartedNanos()
+	{
+		return processingStartedNanos;
+	}
+	
+	/**
+	 * The value of {@link System#nanoTime()} when processing of the job
+	 * finished or 0 if the job has not been processed yet.
+	 */
+	public long getProcessingFinishedNanos()
+	{
+		return processingFinishedNanos;
+	}
+	
+	/**
+	 * The value of {@link System#nanoTime()} when the processed job was
+	 * handed over to the storers or 0 if that has not happened yet.
+	 */
+	public long getGatheredNanos()
+	{
+		return gatheredNanos;
+	}
+	
+	public void processingStarted()
+	{
+		processingStartedNanos = System.nanoTime();
+	}
+	
+	public void processingFinished()
+	{
+		processingFinishedNanos = System.nanoTime();
+	}
+	
+	public void setProcessingNanos(long startedNanos, long finishedNanos)
+	{
+		processingStartedNanos = startedNanos;
+		processingFinishedNanos = finishedNanos;
+	}
+	
+	public void gathered()
+	{
+		gatheredNanos = System.nanoTime();
+	}
+	
+	// =========================================================================
+	
 	@Override
 	public int hashCode()
 	{
@@ -21,12 +21,46 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.sweble.wikitext.articlecruncher.telemetry.CruncherTelemetry;
+
 public class JobTraceSet
 {
-	private Set<JobTrace> traces = new HashSet<JobTrace>();
+	/**
+	 * Guarded by the monitor of this set unless a subclass provides a set
+	 * that is safe for concurrent use.
+	 */
+	protected final Set<JobTrace> traces;
+	
+	private volatile CruncherTelemetry telemetry;
+	
+	// =========================================================================
+	
+	public JobTraceSet()
+	{
+		this(new HashSet<JobTrace>());
+	}
+	
+	/**
+	 * @param traces
+	 *            The set that stores the traces.
+	 */
+	protected JobTraceSet(Set<JobTrace> traces)
+	{
+		this.traces = traces;
+	}
 	
 	// =========================================================================
 	
+	/**
+	 * @param telemetry
+	 *            If not null, the removal of a trace is recorded as the end
+	 *            of storing its job.
+	 */
+	public void setTelemetry(CruncherTelemetry telemetry)
+	{
+		this.telemetry = telemetry;
+	}
+	
 	public synchronized void add(JobTrace trace)
 	{
 		traces.add(trace);
@@ -35,15 +69,33 @@ public class JobTraceSet
 	public synchronized boolean remove(JobTrace trace)
 	{
 		boolean removed = traces.remove(trace);
+		if (removed)
+			stored(trace);
 		notifyAll();
 		return removed;
 	}
 	
+	public synchronized boolean contains(JobTrace trace)
+	{
+		return traces.contains(trace);
+	}
+	
 	public synchronized Set<JobTrace> getTraces()
 	{
 		return Collections.unmodifiableSet(traces);
 	}
 	
+	// =========================================================================
+	
+	protected void stored(JobTrace trace)
+	{
+		CruncherTelemetry t = telemetry;
+		if (t != null)
+			t.recordStored(trace);
+	}
+	
+	// =========================================================================
+	
 	public synchronized void waitForCompletion(int timeoutInSeconds) throws InterruptedException
 	{
 		while (!traces.isEmpty())
@@ -18,15 +18,23 @@
 package org.sweble.wikitext.articlecruncher;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.telemetry.CruncherTelemetry;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
 import org.sweble.wikitext.articlecruncher.utils.ExecutorType;
 import org.sweble.wikitext.articlecruncher.utils.MyExecutorService;
+import org.sweble.wikitext.articlecruncher.utils.QueueStats;
+import org.sweble.wikitext.articlecruncher.utils.RingBlockingQueue;
+import org.sweble.wikitext.articlecruncher.utils.WaitStrategy;
+import org.sweble.wikitext.articlecruncher.utils.WeightedBlockingQueue;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 import org.sweble.wikitext.articlecruncher.utils.WorkerLauncher;
 import org.sweble.wikitext.articlecruncher.utils.WorkerSynchronizer;
@@ -40,12 +48,52 @@ public class Nexus
 		SHUTDOWN
 	}
 	
+	/**
+	 * The kind of queues that connect the workers of the Nexus.
+	 */
+	public static enum PipelineType
+	{
+		/**
+		 * Lock-based {@link LinkedBlockingDeque}s and a {@link JobTraceSet}
+		 * guarded by a single monitor.
+		 */
+		BLOCKING_QUEUES,
+		
+		/**
+		 * Lock-free {@link RingBlockingQueue}s and a
+		 * {@link StripedJobTraceSet}. Best combined with the
+		 * {@link org.sweble.wikitext.articlecruncher.pnodes.DirectProcessingNode}.
+		 */
+		RING_BUFFERS
+	}
+	
 	// =========================================================================
 	
 	private static final Logger logger = Logger.getLogger(Nexus.class);
 	
 	private static final int COMPLETION_TIMEOUT_IN_SECONDS = 60 * 5;
 	
+	private static final long ADJUST_INTERVAL_IN_MILLIS = 1000;
+	
+	/**
+	 * An adaptive pipeline keeps its capacities within this factor of the
+	 * initial capacities.
+	 */
+	private static final long ADAPTIVE_RANGE = 16;
+	
+	/**
+	 * Jobs without a size hint count as one byte.
+	 */
+	private static final WeightedBlockingQueue.Weigher<Job> JOB_WEIGHER =
+			new WeightedBlockingQueue.Weigher<Job>()
+			{
+				@Override
+				public long weigh(Job job)
+				{
+					return Math.max(1, job.getSizeHint());
+				}
+			};
+	
 	// =========================================================================
 	
 	private BlockingQueue<Job> inTray;
@@ -56,6 +104,10 @@ public class Nexus
 	
 	private JobTraceSet jobTraces = new JobTraceSet();
 	
+	private AdaptiveCapacityController capacityController;
+	
+	private final CruncherTelemetry telemetry = new CruncherTelemetry();
+	
 	private MyExecutorService executor;
 	
 	private Throwable emergencyCause;
@@ -86,6 +138,27 @@ public class Nexus
 			int inTrayCapacity,
 			int processedJobsCapacity,
 			int outTrayCapacity) throws Throwable
+	{
+		setUp(
+				inTrayCapacity,
+				processedJobsCapacity,
+				outTrayCapacity,
+				PipelineType.BLOCKING_QUEUES,
+				null);
+	}
+	
+	/**
+	 * @param waitStrategy
+	 *            How threads wait on the queues of a
+	 *            {@link PipelineType#RING_BUFFERS} pipeline. Ignored for
+	 *            other pipeline types.
+	 */
+	public void setUp(
+			int inTrayCapacity,
+			int processedJobsCapacity,
+			int outTrayCapacity,
+			PipelineType pipelineType,
+			WaitStrategy waitStrategy) throws Throwable
 	{
 		synchronized (synchronizer.getMonitor())
 		{
@@ -96,33 +169,97 @@ public class Nexus
 			{
 				logger.info("Nexus starting");
 				
-				inTray = new LinkedBlockingDeque<Job>(inTrayCapacity);
+				switch (pipelineType)
+				{
+					case BLOCKING_QUEUES:
+						inTray = new LinkedBlockingDeque<Job>(inTrayCapacity);
+						processedJobs = new LinkedBlockingDeque<Job>(processedJobsCapacity);
+						outTray = new LinkedBlockingDeque<Job>(outTrayCapacity);
+						break;
+					
+					case RING_BUFFERS:
+						if (waitStrategy == null)
+							waitStrategy = WaitStrategy.PARK;
+						
+						inTray = new RingBlockingQueue<Job>(inTrayCapacity, waitStrategy);
+						processedJobs = new RingBlockingQueue<Job>(processedJobsCapacity, waitStrategy);
+						outTray = new RingBlockingQueue<Job>(outTrayCapacity, waitStrategy);
+						jobTraces = new StripedJobTraceSet();
+						break;
+					
+					default:
+						throw new IllegalArgumentException("Invalid pipeline type");
+				}
 				
-				processedJobs = new LinkedBlockingDeque<Job>(processedJobsCapacity);
+				initialize();
+			}
+			catch (Throwable t)
+			{
+				logger.error("Nexus hit by exception", t);
+				setEmergencyCause(t);
+				nexusStopped();
+			}
+		}
+	}
+	
+	/**
+	 * Sets up a pipeline whose queues are limited by the total size of the
+	 * jobs they hold (see {@link Job#getSizeHint()}) instead of their number.
+	 * A queue always admits a job if it is empty.
+	 * 
+	 * @param adaptive
+	 *            If true, an {@link AdaptiveCapacityController} grows and
+	 *            shrinks the capacities of the in tray and the processed jobs
+	 *            queue while the Nexus is running. Further limits, like the
+	 *            number of jobs a processing node keeps in flight, can be put
+	 *            under its control via {@link #getCapacityController()}.
+	 */
+	public void setUpByteWeighted(
+			long inTrayBytes,
+			long processedJobsBytes,
+			long outTrayBytes,
+			boolean adaptive) throws Throwable
+	{
+		synchronized (synchronizer.getMonitor())
+		{
+			if (state != null)
+				throw new IllegalStateException("Can only set-up Nexus once");
+			
+			try
+			{
+				logger.info("Nexus starting");
 				
-				outTray = new LinkedBlockingDeque<Job>(outTrayCapacity);
+				WeightedBlockingQueue<Job> in =
+						new WeightedBlockingQueue<Job>(inTrayBytes, JOB_WEIGHER);
 				
-				executor = new MyExecutorService(ExecutorType.CACHED_THREAD_POOL, logger);
+				WeightedBlockingQueue<Job> processed =
+						new WeightedBlockingQueue<Job>(processedJobsBytes, JOB_WEIGHER);
 				
-				abortHandler = new AbortHandler()
-				{
-					@Override
-					public void notify(Throwable t)
-					{
-						emergencyShutdown(t);
-					}
-				};
+				WeightedBlockingQueue<Job> out =
+						new WeightedBlockingQueue<Job>(outTrayBytes, JOB_WEIGHER);
 				
-				gatherer = new WorkerLauncher(new WorkerInstantiator()
+				inTray = in;
+				processedJobs = processed;
+				outTray = out;
+				
+				if (adaptive)
 				{
-					@Override
-					public WorkerBase instantiate()
-					{
-						return new Gatherer(abortHandler, inTray, processedJobs, outTray);
-					}
-				}, abortHandler);
+					capacityController = new AdaptiveCapacityController(out);
+					
+					capacityController.addLimit(
+							"inTray",
+							in,
+							Math.max(1, inTrayBytes / ADAPTIVE_RANGE),
+							inTrayBytes * ADAPTIVE_RANGE);
+					
+					capacityController.addLimit(
+							"processedJobs",
+							processed,
+							Math.max(1, processedJobsBytes / ADAPTIVE_RANGE),
+							processedJobsBytes * ADAPTIVE_RANGE);
+				}
 				
-				state = NexusState.INITIALIZED;
+				initialize();
 			}
 			catch (Throwable t)
 			{
@@ -150,6 +287,9 @@ public class Nexus
 					
 					gatherer.start(executor);
 					
+					if (capacityController != null)
+						capacityController.start(ADJUST_INTERVAL_IN_MILLIS);
+					
 					logger.info("Nexus waiting for end of input stream");
 					synchronizer.waitForAll(1);
 				}
@@ -182,6 +322,8 @@ public class Nexus
 			
 			if (exec != null)
 				exec.shutdownAndAwaitTermination();
+			
+			logStats();
 			nexusStopped();
 		}
 	}
@@ -300,6 +442,37 @@ public class Nexus
 		return outTray;
 	}
 	
+	/**
+	 * Returns the throughput and latency figures of this Nexus. Job
+	 * generators can add the time it took to read a job.
+	 */
+	public CruncherTelemetry getTelemetry()
+	{
+		return telemetry;
+	}
+	
+	/**
+	 * Returns the controller of an adaptive pipeline or null.
+	 */
+	public AdaptiveCapacityController getCapacityController()
+	{
+		return capacityController;
+	}
+	
+	/**
+	 * Returns depth, wait times and throughput of the queues of a
+	 * byte-weighted pipeline by queue name. For other pipelines the map is
+	 * empty.
+	 */
+	public Map<String, QueueStats> getQueueStats()
+	{
+		Map<String, QueueStats> stats = new LinkedHashMap<String, QueueStats>();
+		addQueueStats(stats, "inTray", inTray);
+		addQueueStats(stats, "processedJobs", processedJobs);
+		addQueueStats(stats, "outTray", outTray);
+		return Collections.unmodifiableMap(stats);
+	}
+	
 	public/*static*/void shutdown()
 	{
 		internalShutdown(null);
@@ -347,6 +520,50 @@ public class Nexus
 			emergencyCause = t;
 	}
 	
+	private void initialize()
+	{
+		executor = new MyExecutorService(ExecutorType.CACHED_THREAD_POOL, logger);
+		
+		jobTraces.setTelemetry(telemetry);
+		
+		abortHandler = new AbortHandler()
+		{
+			@Override
+			public void notify(Throwable t)
+			{
+				emergencyShutdown(t);
+			}
+		};
+		
+		gatherer = new WorkerLauncher(new WorkerInstantiator()
+		{
+			@Override
+			public WorkerBase instantiate()
+			{
+				return new Gatherer(abortHandler, inTray, processedJobs, outTray, telemetry);
+			}
+		}, abortHandler);
+		
+		state = NexusState.INITIALIZED;
+	}
+	
+	private static void addQueueStats(
+			Map<String, QueueStats> stats,
+			String name,
+			BlockingQueue<Job> queue)
+	{
+		if (queue instanceof WeightedBlockingQueue)
+			stats.put(name, ((WeightedBlockingQueue<Job>) queue).getStats());
+	}
+	
+	private void logStats()
+	{
+		for (Map.Entry<String, QueueStats> e : getQueueStats().entrySet())
+			logger.info("Queue " + e.getKey() + ": " + e.getValue());
+		
+		logger.info("Telemetry: " + telemetry.getSummary());
+	}
+	
 	private MyExecutorService stopAll()
 	{
 		synchronized (synchronizer.getMonitor())
@@ -358,6 +575,9 @@ public class Nexus
 			
 			logger.info("Stopping workers");
 			
+			if (capacityController != null)
+				capacityController.stop();
+			
 			for (WorkerLauncher jg : jobGenerators)
 				jg.stop();
 			
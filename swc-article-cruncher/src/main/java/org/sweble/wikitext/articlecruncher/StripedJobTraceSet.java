@@ -0,0 +1,94 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A job trace set which does not serialize all job generators and storers
+ * on one monitor. The traces are kept in a concurrent hash map, which is
+ * handed to the base class as its storage and locks only one of several
+ * stripes per update. The monitor of the set is only taken when the last
+ * trace was removed, to wake up threads waiting for completion.
+ */
+public class StripedJobTraceSet
+		extends
+			JobTraceSet
+{
+	private final AtomicInteger size = new AtomicInteger();
+	
+	// =========================================================================
+	
+	public StripedJobTraceSet()
+	{
+		this(Runtime.getRuntime().availableProcessors() * 4);
+	}
+	
+	public StripedJobTraceSet(int stripes)
+	{
+		super(Collections.newSetFromMap(
+				new ConcurrentHashMap<JobTrace, Boolean>(1024, 0.75f, stripes)));
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public void add(JobTrace trace)
+	{
+		if (traces.add(trace))
+			size.incrementAndGet();
+	}
+	
+	@Override
+	public boolean remove(JobTrace trace)
+	{
+		boolean removed = traces.remove(trace);
+		if (removed)
+			stored(trace);
+		if (removed && size.decrementAndGet() == 0)
+		{
+			synchronized (this)
+			{
+				notifyAll();
+			}
+		}
+		return removed;
+	}
+	
+	@Override
+	public boolean contains(JobTrace trace)
+	{
+		return traces.contains(trace);
+	}
+	
+	@Override
+	public Set<JobTrace> getTraces()
+	{
+		return Collections.unmodifiableSet(traces);
+	}
+	
+	@Override
+	public synchronized void waitForCompletion(int timeoutInSeconds) throws InterruptedException
+	{
+		while (size.get() > 0)
+			wait(timeoutInSeconds * 1000);
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.pnodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.ProcessingNode;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.WorkerInstantiator;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.ExecutorType;
+import org.sweble.wikitext.articlecruncher.utils.MyExecutorService;
+import org.sweble.wikitext.articlecruncher.utils.RingBlockingQueue;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+import org.sweble.wikitext.articlecruncher.utils.WorkerLauncher;
+import org.sweble.wikitext.articlecruncher.utils.WorkerSynchronizer;
+
+/**
+ * A processing node whose workers take jobs directly from the in tray and
+ * put them directly into the processed jobs queue. Unlike the
+ * {@link LocalProcessingNode} there is no distributor, no completion service
+ * and no gatherer in between. Back-pressure comes from the bounded queues
+ * alone.
+ * 
+ * Each worker takes up to <code>batchSize</code> jobs at once. Together with
+ * {@link RingBlockingQueue}s this keeps the number of contended operations
+ * per job low.
+ */
+public class DirectProcessingNode
+		extends
+			ProcessingNode
+{
+	private final BlockingQueue<Job> inTray;
+	
+	private final BlockingQueue<Job> processedJobs;
+	
+	private final LpnJobProcessorFactory jobProcessorFactory;
+	
+	private final int numWorkers;
+	
+	private final int batchSize;
+	
+	private MyExecutorService executor;
+	
+	private final List<WorkerLauncher> workers = new ArrayList<WorkerLauncher>();
+	
+	// =========================================================================
+	
+	public DirectProcessingNode(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			BlockingQueue<Job> processedJobs,
+			LpnJobProcessorFactory jobProcessorFactory,
+			int numWorkers,
+			int batchSize)
+	{
+		super(getClassName(), abortHandler);
+		
+		if (numWorkers <= 0)
+			throw new IllegalArgumentException("numWorkers must be positive");
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize must be positive");
+		
+		Thread.currentThread().setName(getClassName());
+		
+		this.inTray = inTray;
+		this.processedJobs = processedJobs;
+		this.jobProcessorFactory = jobProcessorFactory;
+		this.numWorkers = numWorkers;
+		this.batchSize = batchSize;
+	}
+	
+	private static String getClassName()
+	{
+		return DirectProcessingNode.class.getSimpleName();
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected void work() throws Throwable
+	{
+		try
+		{
+			executor = new MyExecutorService(
+					ExecutorType.CACHED_THREAD_POOL,
+					getLogger());
+			
+			executor.setThreadNameTemplate(jobProcessorFactory.getProcessorNameTemplate());
+			
+			final AbortHandler abortHandler = new AbortHandler()
+			{
+				@Override
+				public void notify(Throwable t)
+				{
+					// Jobs held by the failed worker are lost, the whole
+					// cruncher has to stop.
+					abort(t);
+				}
+			};
+			
+			WorkerSynchronizer synchronizer = new WorkerSynchronizer();
+			
+			info(getClassName() + " starts " + numWorkers + " workers");
+			
+			for (int i = 0; i < numWorkers; ++i)
+			{
+				WorkerLauncher wl = new WorkerLauncher(new WorkerInstantiator()
+				{
+					@Override
+					public WorkerBase instantiate()
+					{
+						return new DpnWorker(abortHandler);
+					}
+				}, abortHandler);
+				
+				workers.add(wl);
+				
+				wl.start(executor, synchronizer);
+			}
+			
+			synchronizer.waitForAny();
+		}
+		finally
+		{
+			info("Sending kill signal to workers");
+			
+			for (WorkerLauncher wl : workers)
+				wl.stop();
+			
+			if (executor != null)
+				executor.shutdownAndAwaitTermination();
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Blocks until at least one job is available and then takes up to
+	 * <code>batchSize</code> jobs.
+	 */
+	private void takeBatch(List<Job> batch) throws InterruptedException
+	{
+		if (inTray instanceof RingBlockingQueue)
+		{
+			((RingBlockingQueue<Job>) inTray).takeBatch(batch, batchSize);
+		}
+		else
+		{
+			batch.add(inTray.take());
+			if (batchSize > 1)
+				inTray.drainTo(batch, batchSize - 1);
+		}
+	}
+	
+	// =========================================================================
+	
+	private final class DpnWorker
+			extends
+				WorkerBase
+	{
+		private int count = 0;
+		
+		private int failureCount = 0;
+		
+		public DpnWorker(AbortHandler abortHandler)
+		{
+			super(DpnWorker.class.getSimpleName(), abortHandler);
+		}
+		
+		@Override
+		protected void work() throws Throwable
+		{
+			List<Job> batch = new ArrayList<Job>(batchSize);
+			while (true)
+			{
+				takeBatch(batch);
+				
+				for (Job job : batch)
+				{
+					++count;
+					
+					try
+					{
+						job.signOff(getClass(), null);
+						
+						Processor processor = jobProcessorFactory.createProcessor();
+						
+						JobBatch.process(processor, job);
+					}
+					catch (Exception e)
+					{
+						++failureCount;
+						
+						warn("Processing failed with exception", e);
+						
+						job.failed(e);
+					}
+					
+					processedJobs.put(job);
+				}
+				
+				batch.clear();
+			}
+		}
+		
+		@Override
+		protected void after()
+		{
+			info(getClass().getSimpleName() + " counts " + count + " items");
+			info(getClass().getSimpleName() + " counts " + failureCount + " items for which processing failed");
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.pnodes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.ProcessingNode;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+
+/**
+ * A processing node backed by a work-stealing {@link ForkJoinPool}.
+ * 
+ * Page sizes vary by orders of magnitude. If a huge page is handed to a
+ * worker last, all other workers idle while it finishes. This node therefore
+ * looks ahead up to <code>lookAhead</code> jobs in the in tray and always
+ * submits the biggest one first, according to {@link Job#getSizeHint()}.
+ * Submitted jobs are executed in submission order by whichever worker is
+ * free.
+ * 
+ * A small job could be passed over forever while bigger jobs keep arriving.
+ * A job that was passed over more than <code>lookAhead</code> times is
+ * therefore submitted next, regardless of its size.
+ * 
+ * At most <code>parallelism + lookAhead</code> jobs are held by the node at
+ * any time. When the node stops it logs the utilisation of each worker, that
+ * is, the fraction of time the worker spent processing jobs.
+ */
+public class ForkJoinProcessingNode
+		extends
+			ProcessingNode
+{
+	private static final Comparator<Waiting> BIGGEST_FIRST = new Comparator<Waiting>()
+	{
+		@Override
+		public int compare(Waiting a, Waiting b)
+		{
+			long x = a.job.getSizeHint();
+			long y = b.job.getSizeHint();
+			return (x > y) ? -1 : ((x == y) ? 0 : 1);
+		}
+	};
+	
+	// =========================================================================
+	
+	private final BlockingQueue<Job> inTray;
+	
+	private final BlockingQueue<Job> processedJobs;
+	
+	private final LpnJobProcessorFactory jobProcessorFactory;
+	
+	private final int parallelism;
+	
+	private final int lookAhead;
+	
+	private final List<FjpnWorkerThread> workerThreads =
+			new CopyOnWriteArrayList<FjpnWorkerThread>();
+	
+	private Semaphore backPressure;
+	
+	private ForkJoinPool pool;
+	
+	private long startTime;
+	
+	private int count = 0;
+	
+	private int agedCount = 0;
+	
+	// =========================================================================
+	
+	public ForkJoinProcessingNode(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			BlockingQueue<Job> processedJobs,
+			LpnJobProcessorFactory jobProcessorFactory,
+			int parallelism,
+			int lookAhead)
+	{
+		super(getClassName(), abortHandler);
+		
+		if (parallelism <= 0)
+			throw new IllegalArgumentException("parallelism must be positive");
+		if (lookAhead <= 0)
+			throw new IllegalArgumentException("lookAhead must be positive");
+		
+		Thread.currentThread().setName(getClassName());
+		
+		this.inTray = inTray;
+		this.processedJobs = processedJobs;
+		this.jobProcessorFactory = jobProcessorFactory;
+		this.parallelism = parallelism;
+		this.lookAhead = lookAhead;
+	}
+	
+	private static String getClassName()
+	{
+		return ForkJoinProcessingNode.class.getSimpleName();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Returns the utilisation of each worker started so far. The utilisation
+	 * is the fraction of time since the node was started that a worker spent
+	 * processing jobs.
+	 */
+	public double[] getWorkerUtilisation()
+	{
+		long elapsed = System.nanoTime() - startTime;
+		
+		List<FjpnWorkerThread> workers = new ArrayList<FjpnWorkerThread>(workerThreads);
+		
+		double[] utilisation = new double[workers.size()];
+		for (int i = 0; i < utilisation.length; ++i)
+		{
+			utilisation[i] = (elapsed > 0) ?
+					(double) workers.get(i).busyNanos / elapsed :
+					0.;
+		}
+		
+		return utilisation;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected void work() throws Throwable
+	{
+		startTime = System.nanoTime();
+		
+		try
+		{
+			backPressure = new Semaphore(parallelism);
+			
+			pool = new ForkJoinPool(
+					parallelism,
+					new FjpnWorkerThreadFactory(),
+					null,
+					true /* FIFO: execute jobs in submission order */);
+			
+			info(getClassName() + " starts a pool of " + parallelism + " workers");
+			
+			PriorityQueue<Waiting> window = new PriorityQueue<Waiting>(lookAhead, BIGGEST_FIRST);
+			
+			// The jobs of the window in the order they arrived
+			ArrayDeque<Waiting> arrivals = new ArrayDeque<Waiting>(lookAhead);
+			
+			List<Job> drained = new ArrayList<Job>(lookAhead);
+			
+			while (true)
+			{
+				backPressure.acquire();
+				
+				if (window.isEmpty())
+					drained.add(inTray.take());
+				
+				// Jobs that arrived while we waited compete for the free worker
+				int free = lookAhead - window.size() - drained.size();
+				if (free > 0)
+					inTray.drainTo(drained, free);
+				
+				for (Job job : drained)
+				{
+					Waiting w = new Waiting(job, count);
+					window.add(w);
+					arrivals.add(w);
+				}
+				drained.clear();
+				
+				// Every job submitted since a job arrived passed it over
+				Waiting next = arrivals.peek();
+				if (count - next.arrival > lookAhead)
+				{
+					window.remove(next);
+					++agedCount;
+				}
+				else
+				{
+					next = window.poll();
+				}
+				
+				next.submitted = true;
+				while (!arrivals.isEmpty() && arrivals.peek().submitted)
+					arrivals.poll();
+				
+				++count;
+				pool.execute(new JobTask(next.job));
+			}
+		}
+		finally
+		{
+			info("Sending kill signal to workers");
+			
+			if (pool != null)
+			{
+				pool.shutdownNow();
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	@Override
+	protected void after()
+	{
+		info(getClassName() + " counts " + count + " items");
+		info(getClassName() + " counts " + agedCount + " items submitted out of order after waiting too long");
+		
+		double[] utilisation = getWorkerUtilisation();
+		for (int i = 0; i < utilisation.length; ++i)
+		{
+			FjpnWorkerThread w = workerThreads.get(i);
+			info(String.format(
+					"%s processed %d items, utilisation %.1f%%",
+					w.getName(),
+					w.count,
+					utilisation[i] * 100.));
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * A job in the look-ahead window.
+	 */
+	private static final class Waiting
+	{
+		private final Job job;
+		
+		/** The number of jobs submitted before this job arrived. */
+		private final int arrival;
+		
+		private boolean submitted;
+		
+		public Waiting(Job job, int arrival)
+		{
+			this.job = job;
+			this.arrival = arrival;
+		}
+	}
+	
+	// =========================================================================
+	
+	private final class JobTask
+			extends
+				RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final Job job;
+		
+		public JobTask(Job job)
+		{
+			this.job = job;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			FjpnWorkerThread worker = (FjpnWorkerThread) Thread.currentThread();
+			
+			long start = System.nanoTime();
+			try
+			{
+				job.signOff(ForkJoinProcessingNode.class, null);
+				
+				Processor processor = jobProcessorFactory.createProcessor();
+				
+				JobBatch.process(processor, job);
+			}
+			catch (Exception e)
+			{
+				warn("Processing failed with exception", e);
+				
+				job.failed(e);
+			}
+			catch (Error e)
+			{
+				// The pool would swallow the error
+				abort(e);
+				return;
+			}
+			finally
+			{
+				worker.busyNanos += System.nanoTime() - start;
+				++worker.count;
+			}
+			
+			try
+			{
+				processedJobs.put(job);
+				
+				backPressure.release();
+			}
+			catch (InterruptedException e)
+			{
+				// The pool is shutting down
+			}
+			catch (Throwable t)
+			{
+				abort(t);
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	private final class FjpnWorkerThreadFactory
+			implements
+				ForkJoinWorkerThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+		{
+			FjpnWorkerThread thread = new FjpnWorkerThread(pool);
+			
+			thread.setName(String.format(
+					jobProcessorFactory.getProcessorNameTemplate(),
+					threadNumber.getAndIncrement()));
+			
+			workerThreads.add(thread);
+			
+			return thread;
+		}
+	}
+	
+	private static final class FjpnWorkerThread
+			extends
+				ForkJoinWorkerThread
+	{
+		/** Only written by the worker itself. */
+		private volatile long busyNanos;
+		
+		/** Only written by the worker itself. */
+		private volatile int count;
+		
+		public FjpnWorkerThread(ForkJoinPool pool)
+		{
+			super(pool);
+		}
+	}
+}
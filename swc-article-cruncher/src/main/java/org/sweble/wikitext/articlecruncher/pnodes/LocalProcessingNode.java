@@ -20,14 +20,16 @@ package org.sweble.wikitext.articlecruncher.pnodes;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 
 import org.sweble.wikitext.articlecruncher.Job;
 import org.sweble.wikitext.articlecruncher.ProcessingNode;
 import org.sweble.wikitext.articlecruncher.WorkerInstantiator;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.AdjustableLimit;
+import org.sweble.wikitext.articlecruncher.utils.ConcurrencyLimiter;
 import org.sweble.wikitext.articlecruncher.utils.ExecutorType;
 import org.sweble.wikitext.articlecruncher.utils.MyExecutorService;
+import org.sweble.wikitext.articlecruncher.utils.ResizableSemaphore;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 import org.sweble.wikitext.articlecruncher.utils.WorkerLauncher;
 import org.sweble.wikitext.articlecruncher.utils.WorkerSynchronizer;
@@ -44,9 +46,13 @@ public class LocalProcessingNode
 	
 	private final LpnJobProcessorFactory jobProcessorFactory;
 	
-	private MyExecutorService executor;
+	private final ExecutorType workerExecutorType;
+	
+	private final ConcurrencyLimiter limiter;
 	
-	private Semaphore backPressure;
+	private final ResizableSemaphore backPressure;
+	
+	private MyExecutorService executor;
 	
 	private WorkerLauncher distributor;
 	
@@ -60,6 +66,42 @@ public class LocalProcessingNode
 			BlockingQueue<Job> processedJobs,
 			LpnJobProcessorFactory jobProcessorFactory,
 			int numWorkers)
+	{
+		this(
+				abortHandler,
+				inTray,
+				processedJobs,
+				jobProcessorFactory,
+				ExecutorType.CACHED_THREAD_POOL,
+				numWorkers,
+				null);
+	}
+	
+	/**
+	 * @param workerExecutorType
+	 *            The kind of threads the jobs are processed on. With
+	 *            {@link ExecutorType#VIRTUAL_THREADS} every job in flight
+	 *            gets its own virtual thread.
+	 * @param maxInFlight
+	 *            The maximum number of jobs which are processed at the same
+	 *            time. For a cached thread pool this is also the number of
+	 *            threads.
+	 * @param limiter
+	 *            If not null, a job is processed only while holding a permit
+	 *            of the limiter. Blocking sections of a processor can give
+	 *            up the permit using
+	 *            {@link ConcurrencyLimiter#blocking(java.util.concurrent.Callable)}.
+	 *            This way thousands of jobs can wait for I/O while the
+	 *            CPU-bound work stays capped at the number of permits.
+	 */
+	public LocalProcessingNode(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			BlockingQueue<Job> processedJobs,
+			LpnJobProcessorFactory jobProcessorFactory,
+			ExecutorType workerExecutorType,
+			int maxInFlight,
+			ConcurrencyLimiter limiter)
 	{
 		super(getClassName(), abortHandler);
 		
@@ -68,7 +110,10 @@ public class LocalProcessingNode
 		this.inTray = inTray;
 		this.processedJobs = processedJobs;
 		this.jobProcessorFactory = jobProcessorFactory;
-		this.numWorkers = numWorkers;
+		this.workerExecutorType = workerExecutorType;
+		this.numWorkers = maxInFlight;
+		this.limiter = limiter;
+		this.backPressure = new ResizableSemaphore(maxInFlight);
 	}
 	
 	private static String getClassName()
@@ -76,6 +121,18 @@ public class LocalProcessingNode
 		return LocalProcessingNode.class.getSimpleName();
 	}
 	
+	/**
+	 * The maximum number of jobs in flight. It can be lowered while the node
+	 * is running, for example by an
+	 * {@link org.sweble.wikitext.articlecruncher.AdaptiveCapacityController}.
+	 * With a cached thread pool raising it above <code>maxInFlight</code> has
+	 * no effect since the pool does not grow.
+	 */
+	public AdjustableLimit getInFlightLimit()
+	{
+		return backPressure;
+	}
+	
 	// =========================================================================
 	
 	@Override
@@ -98,8 +155,6 @@ public class LocalProcessingNode
 			
 			WorkerSynchronizer synchronizer = new WorkerSynchronizer();
 			
-			backPressure = new Semaphore(numWorkers);
-			
 			final BlockingQueue<CompletionService<Job>> ecsQueue =
 					new LinkedBlockingQueue<CompletionService<Job>>();
 			
@@ -112,8 +167,10 @@ public class LocalProcessingNode
 							abortHandler,
 							inTray,
 							executor.getThreadGroup(),
+							workerExecutorType,
 							numWorkers,
 							jobProcessorFactory,
+							limiter,
 							backPressure);
 					ecsQueue.add(d.getEcs());
 					return d;
@@ -28,6 +28,8 @@ import java.util.concurrent.TimeUnit;
 
 import org.sweble.wikitext.articlecruncher.Job;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.ConcurrencyLimiter;
+import org.sweble.wikitext.articlecruncher.utils.ExecutorType;
 import org.sweble.wikitext.articlecruncher.utils.MyExecutorCompletionService;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 
@@ -45,6 +47,8 @@ public class LpnDistributor
 	
 	private final LpnJobProcessorFactory jobProcessorFactory;
 	
+	private final ConcurrencyLimiter limiter;
+	
 	private int count = 0;
 	
 	// =========================================================================
@@ -56,6 +60,27 @@ public class LpnDistributor
 			int numWorkers,
 			LpnJobProcessorFactory jobProcessorFactory,
 			Semaphore backPressure)
+	{
+		this(
+				abortHandler,
+				inTray,
+				fatherThreadGroup,
+				ExecutorType.CACHED_THREAD_POOL,
+				numWorkers,
+				jobProcessorFactory,
+				null,
+				backPressure);
+	}
+	
+	public LpnDistributor(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			ThreadGroup fatherThreadGroup,
+			ExecutorType executorType,
+			int numWorkers,
+			LpnJobProcessorFactory jobProcessorFactory,
+			ConcurrencyLimiter limiter,
+			Semaphore backPressure)
 	{
 		super(getClassName(), abortHandler);
 		
@@ -64,20 +89,43 @@ public class LpnDistributor
 		this.inTray = inTray;
 		this.backPressure = backPressure;
 		this.jobProcessorFactory = jobProcessorFactory;
+		this.limiter = limiter;
 		
-		int corePoolSize = numWorkers;
-		int maximumPoolSize = numWorkers;
-		
-		info(getClass().getSimpleName() + " starts with a pool of " + numWorkers + " workers");
-		
-		execComplServ = new MyExecutorCompletionService<Job>(
-				getLogger(),
-				corePoolSize,
-				maximumPoolSize,
-				60,
-				TimeUnit.SECONDS,
-				new SynchronousQueue<Runnable>(),
-				new RejectedExecutionHandlerImpl());
+		switch (executorType)
+		{
+			case CACHED_THREAD_POOL:
+			{
+				int corePoolSize = numWorkers;
+				int maximumPoolSize = numWorkers;
+				
+				info(getClass().getSimpleName() + " starts with a pool of " + numWorkers + " workers");
+				
+				execComplServ = new MyExecutorCompletionService<Job>(
+						getLogger(),
+						corePoolSize,
+						maximumPoolSize,
+						60,
+						TimeUnit.SECONDS,
+						new SynchronousQueue<Runnable>(),
+						new RejectedExecutionHandlerImpl());
+				break;
+			}
+			
+			case VIRTUAL_THREADS:
+			{
+				// The back-pressure semaphore limits the number of threads
+				info(getClass().getSimpleName() + " starts with up to " + numWorkers + " virtual workers");
+				
+				execComplServ = new MyExecutorCompletionService<Job>(
+						executorType,
+						getLogger(),
+						fatherThreadGroup);
+				break;
+			}
+			
+			default:
+				throw new IllegalArgumentException("Invalid executor type");
+		}
 		
 		execComplServ.setThreadNameTemplate(jobProcessorFactory.getProcessorNameTemplate());
 	}
@@ -102,7 +150,7 @@ public class LpnDistributor
 			
 			job.signOff(getClass(), null);
 			
-			Callable<Job> worker = new LpnWorker(jobProcessorFactory, job);
+			Callable<Job> worker = new LpnWorker(jobProcessorFactory, limiter, job);
 			
 			execComplServ.submit(worker);
 		}
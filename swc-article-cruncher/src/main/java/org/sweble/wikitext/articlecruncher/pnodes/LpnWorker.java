@@ -21,7 +21,9 @@ import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
 import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
 import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.utils.ConcurrencyLimiter;
 
 final class LpnWorker
 		implements
@@ -31,13 +33,19 @@ final class LpnWorker
 	
 	private final LpnJobProcessorFactory jobProcessorFactory;
 	
+	private final ConcurrencyLimiter limiter;
+	
 	private final Job job;
 	
 	// =========================================================================
 	
-	LpnWorker(LpnJobProcessorFactory jobProcessorFactory, Job jobHistory)
+	LpnWorker(
+			LpnJobProcessorFactory jobProcessorFactory,
+			ConcurrencyLimiter limiter,
+			Job jobHistory)
 	{
 		this.jobProcessorFactory = jobProcessorFactory;
+		this.limiter = limiter;
 		this.job = jobHistory;
 	}
 	
@@ -50,9 +58,24 @@ final class LpnWorker
 		{
 			job.signOff(getClass(), null);
 			
-			Processor processor = jobProcessorFactory.createProcessor();
+			final Processor processor = jobProcessorFactory.createProcessor();
 			
-			job.processed(processor.process(job));
+			if (limiter != null)
+			{
+				limiter.call(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						JobBatch.process(processor, job);
+						return null;
+					}
+				});
+			}
+			else
+			{
+				JobBatch.process(processor, job);
+			}
 		}
 		catch (Exception t)
 		{
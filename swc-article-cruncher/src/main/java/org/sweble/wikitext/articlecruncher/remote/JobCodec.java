@@ -0,0 +1,48 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.sweble.wikitext.articlecruncher.Job;
+
+/**
+ * Encodes jobs and their results for the transport between a
+ * {@link RemoteProcessingNode} and its {@link RemoteWorker}s.
+ * 
+ * Only the payload of a job has to be encoded. The trace and history of a
+ * job never leave the JVM of the node: the node keeps the original job and
+ * stores the decoded result in it. Batches are taken apart by the transport,
+ * so a codec only ever sees single jobs.
+ */
+public interface JobCodec
+{
+	public void writeJob(Job job, DataOutput out) throws IOException;
+	
+	public Job readJob(DataInput in) throws IOException;
+	
+	/**
+	 * @param result
+	 *            The result of a processed job. May be <code>null</code>.
+	 */
+	public void writeResult(Object result, DataOutput out) throws IOException;
+	
+	public Object readResult(DataInput in) throws IOException;
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.JobProcessingState;
+
+/**
+ * The wire protocol between a {@link RemoteProcessingNode} and its
+ * {@link RemoteWorker}s.
+ * 
+ * Every message is a frame: the length of the rest of the frame (int), the
+ * frame type (byte) and the payload. Flow control is credit based: a worker
+ * grants the node a number of credits in its HELLO frame. Each JOB frame
+ * uses up one credit, each RESULT frame returns one.
+ * 
+ * <pre>
+ * HELLO  : magic (int), version (int), worker name (UTF), credits (int)
+ * JOB    : sequence number (long), job
+ * RESULT : sequence number (long), outcome
+ * 
+ * job     : -1 (int), encoded job
+ *         | number of jobs n (int), n encoded jobs   (a batch)
+ * outcome : OK (byte), encoded result
+ *         | FAILED (byte), exception class (UTF), message (UTF)
+ *         | for batches: n outcomes
+ * </pre>
+ */
+final class Protocol
+{
+	static final int MAGIC = 0x53574352;
+	
+	static final int VERSION = 1;
+	
+	static final byte HELLO = 1;
+	
+	static final byte JOB = 2;
+	
+	static final byte RESULT = 3;
+	
+	static final byte OK = 0;
+	
+	static final byte FAILED = 1;
+	
+	private static final int SINGLE_JOB = -1;
+	
+	private static final int MAX_FRAME_LENGTH = 1 << 28;
+	
+	private static final int MAX_MESSAGE_LENGTH = 16 * 1024;
+	
+	// =========================================================================
+	
+	private Protocol()
+	{
+	}
+	
+	// =========================================================================
+	
+	static void writeJob(JobCodec codec, Job job, DataOutputStream out) throws IOException
+	{
+		if (job instanceof JobBatch)
+		{
+			List<Job> jobs = ((JobBatch) job).getJobs();
+			out.writeInt(jobs.size());
+			for (Job j : jobs)
+				codec.writeJob(j, out);
+		}
+		else
+		{
+			out.writeInt(SINGLE_JOB);
+			codec.writeJob(job, out);
+		}
+	}
+	
+	static Job readJob(JobCodec codec, DataInputStream in) throws IOException
+	{
+		int n = in.readInt();
+		if (n == SINGLE_JOB)
+			return codec.readJob(in);
+		
+		if (n < 0)
+			throw new IOException("Invalid batch size " + n);
+		
+		Job[] jobs = new Job[n];
+		for (int i = 0; i < n; ++i)
+			jobs[i] = codec.readJob(in);
+		return new JobBatch(Arrays.asList(jobs));
+	}
+	
+	/**
+	 * Writes the outcome of a processed job or of all jobs in a batch.
+	 */
+	static void writeOutcome(JobCodec codec, Job job, DataOutputStream out) throws IOException
+	{
+		if (job instanceof JobBatch)
+		{
+			for (Job j : ((JobBatch) job).getJobs())
+				writeSingleOutcome(codec, j, out);
+		}
+		else
+		{
+			writeSingleOutcome(codec, job, out);
+		}
+	}
+	
+	/**
+	 * Reads an outcome into the original job or the jobs of the original
+	 * batch.
+	 */
+	static void readOutcome(JobCodec codec, Job job, DataInputStream in) throws IOException
+	{
+		if (job instanceof JobBatch)
+		{
+			for (Job j : ((JobBatch) job).getJobs())
+				readSingleOutcome(codec, j, in);
+			job.processed(null);
+		}
+		else
+		{
+			readSingleOutcome(codec, job, in);
+		}
+	}
+	
+	private static void writeSingleOutcome(JobCodec codec, Job job, DataOutputStream out) throws IOException
+	{
+		if (job.getState() == JobProcessingState.HAS_RESULT)
+		{
+			out.writeByte(OK);
+			codec.writeResult(job.getResult(), out);
+		}
+		else
+		{
+			Exception e = job.getException();
+			
+			String exceptionClass;
+			String message;
+			if (e instanceof RemoteProcessingException)
+			{
+				RemoteProcessingException rpe = (RemoteProcessingException) e;
+				exceptionClass = rpe.getRemoteExceptionClass();
+				message = rpe.getRemoteMessage();
+			}
+			else if (e != null)
+			{
+				exceptionClass = e.getClass().getName();
+				message = String.valueOf(e.getMessage());
+			}
+			else
+			{
+				exceptionClass = IllegalStateException.class.getName();
+				message = "Job was not processed";
+			}
+			
+			if (message.length() > MAX_MESSAGE_LENGTH)
+				message = message.substring(0, MAX_MESSAGE_LENGTH);
+			
+			out.writeByte(FAILED);
+			out.writeUTF(exceptionClass);
+			out.writeUTF(message);
+		}
+	}
+	
+	private static void readSingleOutcome(JobCodec codec, Job job, DataInputStream in) throws IOException
+	{
+		byte status = in.readByte();
+		switch (status)
+		{
+			case OK:
+				job.processed(codec.readResult(in));
+				break;
+			
+			case FAILED:
+				String exceptionClass = in.readUTF();
+				String message = in.readUTF();
+				job.failed(new RemoteProcessingException(exceptionClass, message));
+				break;
+			
+			default:
+				throw new IOException("Invalid outcome " + status);
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Writes frames to a stream. The payload of a frame is buffered until
+	 * {@link #send(boolean)} is called. Not thread-safe.
+	 */
+	static final class FrameWriter
+	{
+		private final DataOutputStream out;
+		
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+		
+		private final DataOutputStream payload = new DataOutputStream(buffer);
+		
+		private byte type;
+		
+		public FrameWriter(OutputStream out)
+		{
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		}
+		
+		public DataOutputStream begin(byte type)
+		{
+			this.type = type;
+			buffer.reset();
+			return payload;
+		}
+		
+		/**
+		 * @param flush
+		 *            Whether to flush the stream. Frames can be collected in
+		 *            the buffer of the stream if more frames follow
+		 *            immediately.
+		 */
+		public void send(boolean flush) throws IOException
+		{
+			payload.flush();
+			
+			out.writeInt(buffer.size() + 1);
+			out.writeByte(type);
+			buffer.writeTo(out);
+			
+			if (flush)
+				out.flush();
+		}
+		
+		public void flush() throws IOException
+		{
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Reads frames from a stream. Not thread-safe.
+	 */
+	static final class FrameReader
+	{
+		private final DataInputStream in;
+		
+		private byte[] buffer = new byte[4096];
+		
+		private DataInputStream payload;
+		
+		public FrameReader(InputStream in)
+		{
+			this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+		}
+		
+		/**
+		 * Reads the next frame.
+		 * 
+		 * @return The type of the frame.
+		 * @throws EOFException
+		 *             If the connection was closed.
+		 */
+		public byte next() throws IOException
+		{
+			int length = in.readInt();
+			if (length < 1 || length > MAX_FRAME_LENGTH)
+				throw new IOException("Invalid frame length " + length);
+			
+			byte type = in.readByte();
+			
+			int payloadLength = length - 1;
+			if (buffer.length < payloadLength)
+				buffer = new byte[Math.max(payloadLength, buffer.length * 2)];
+			
+			in.readFully(buffer, 0, payloadLength);
+			
+			payload = new DataInputStream(new ByteArrayInputStream(buffer, 0, payloadLength));
+			return type;
+		}
+		
+		public DataInputStream payload()
+		{
+			return payload;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.remote;
+
+/**
+ * Stands in for an exception that was thrown while a job was processed by a
+ * {@link RemoteWorker}.
+ */
+public class RemoteProcessingException
+		extends
+			Exception
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final String remoteExceptionClass;
+	
+	private final String remoteMessage;
+	
+	// =========================================================================
+	
+	public RemoteProcessingException(String remoteExceptionClass, String message)
+	{
+		super(remoteExceptionClass + ": " + message);
+		this.remoteExceptionClass = remoteExceptionClass;
+		this.remoteMessage = message;
+	}
+	
+	/**
+	 * Stands in for an error thrown on the worker, which cannot be stored
+	 * in a job as it is.
+	 */
+	public RemoteProcessingException(Throwable cause)
+	{
+		this(cause.getClass().getName(), String.valueOf(cause.getMessage()));
+		initCause(cause);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The name of the class of the exception thrown on the worker.
+	 */
+	public String getRemoteExceptionClass()
+	{
+		return remoteExceptionClass;
+	}
+	
+	/**
+	 * The message of the exception thrown on the worker.
+	 */
+	public String getRemoteMessage()
+	{
+		return remoteMessage;
+	}
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.ProcessingNode;
+import org.sweble.wikitext.articlecruncher.WorkerInstantiator;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.ExecutorType;
+import org.sweble.wikitext.articlecruncher.utils.MyExecutorService;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+import org.sweble.wikitext.articlecruncher.utils.WorkerLauncher;
+
+/**
+ * A processing node that ships jobs to {@link RemoteWorker}s running in
+ * other JVMs, possibly on other machines.
+ * 
+ * Workers connect to the server socket of the node. Each worker grants the
+ * node a number of credits, that is, the number of jobs it is willing to
+ * hold at once. The node only sends a job to a worker that has a credit
+ * left, and the worker returns the credit with the result of the job. Jobs
+ * wait in the in tray while no worker has a credit left.
+ * 
+ * If the connection to a worker breaks, all jobs sent to that worker and not
+ * yet answered are handed to the remaining workers or to the next worker
+ * that connects. A job that was re-queued more than {@link #MAX_REQUEUES}
+ * times, for example because it crashes every worker it is sent to, is
+ * marked as failed and passed on like a processed job.
+ */
+public class RemoteProcessingNode
+		extends
+			ProcessingNode
+{
+	private static final long POLL_INTERVAL_MILLIS = 100;
+	
+	/** How often a job is handed to another worker before it is failed. */
+	public static final int MAX_REQUEUES = 3;
+	
+	// =========================================================================
+	
+	private final BlockingQueue<Job> inTray;
+	
+	private final BlockingQueue<Job> processedJobs;
+	
+	private final ServerSocket serverSocket;
+	
+	private final JobCodec codec;
+	
+	/** One element per credit granted by a worker. */
+	private final BlockingQueue<Connection> credits = new LinkedBlockingQueue<Connection>();
+	
+	/** Jobs of workers whose connection broke. */
+	private final BlockingQueue<Job> requeued = new LinkedBlockingQueue<Job>();
+	
+	/** How often each job in flight or in {@link #requeued} was re-queued. */
+	private final Map<Job, Integer> requeues = new ConcurrentHashMap<Job, Integer>();
+	
+	private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+	
+	private final List<WorkerLauncher> launchers = new CopyOnWriteArrayList<WorkerLauncher>();
+	
+	private MyExecutorService executor;
+	
+	private long nextSequenceNumber = 0;
+	
+	private int count = 0;
+	
+	private int requeuedCount = 0;
+	
+	private int failedCount = 0;
+	
+	// =========================================================================
+	
+	/**
+	 * @param serverSocket
+	 *            A bound server socket the workers connect to. The node
+	 *            closes the socket when it stops.
+	 */
+	public RemoteProcessingNode(
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			BlockingQueue<Job> processedJobs,
+			ServerSocket serverSocket,
+			JobCodec codec)
+	{
+		super(getClassName(), abortHandler);
+		
+		Thread.currentThread().setName(getClassName());
+		
+		this.inTray = inTray;
+		this.processedJobs = processedJobs;
+		this.serverSocket = serverSocket;
+		this.codec = codec;
+	}
+	
+	private static String getClassName()
+	{
+		return RemoteProcessingNode.class.getSimpleName();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The number of workers currently connected.
+	 */
+	public int getWorkerCount()
+	{
+		return connections.size();
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected void work() throws Throwable
+	{
+		try
+		{
+			executor = new MyExecutorService(
+					ExecutorType.CACHED_THREAD_POOL,
+					getLogger());
+			
+			launch(new WorkerInstantiator()
+			{
+				@Override
+				public WorkerBase instantiate()
+				{
+					return new Acceptor();
+				}
+			});
+			
+			info(getClassName() + " accepts workers on " + serverSocket.getLocalSocketAddress());
+			
+			// Frames are collected in the stream buffer of a connection while
+			// more work is ready and flushed before the node has to wait.
+			Connection unflushed = null;
+			while (true)
+			{
+				Connection c = credits.poll();
+				if (c == null)
+				{
+					flush(unflushed);
+					unflushed = null;
+					c = credits.take();
+				}
+				
+				if (!c.isOpen())
+					continue;
+				
+				Job job = pollJob();
+				if (job == null)
+				{
+					flush(unflushed);
+					unflushed = null;
+					job = takeJob();
+				}
+				
+				if (unflushed != c)
+					flush(unflushed);
+				
+				++count;
+				c.send(job);
+				unflushed = c;
+			}
+		}
+		finally
+		{
+			info("Sending kill signal to workers");
+			
+			try
+			{
+				serverSocket.close();
+			}
+			catch (IOException e)
+			{
+				// Doesn't matter
+			}
+			
+			for (Connection c : connections)
+				c.close(false);
+			
+			for (WorkerLauncher wl : launchers)
+				wl.stop();
+			
+			if (executor != null)
+				executor.shutdownAndAwaitTermination();
+		}
+	}
+	
+	@Override
+	protected void after()
+	{
+		info(getClassName() + " counts " + count + " items");
+		info(getClassName() + " counts " + requeuedCount + " items re-queued from failed workers");
+		info(getClassName() + " counts " + failedCount + " items failed after " + MAX_REQUEUES + " re-queues");
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Re-queued jobs take precedence over new jobs. Re-queued jobs that
+	 * reached the limit are failed and passed on instead.
+	 */
+	private Job pollJob() throws InterruptedException
+	{
+		Job job;
+		while ((job = requeued.poll()) != null)
+		{
+			Integer n = requeues.get(job);
+			if (n == null || n <= MAX_REQUEUES)
+			{
+				++requeuedCount;
+				return job;
+			}
+			
+			giveUp(job, n);
+		}
+		
+		return inTray.poll();
+	}
+	
+	private void giveUp(Job job, int n) throws InterruptedException
+	{
+		requeues.remove(job);
+		
+		warn("Job failed on " + n + " workers, giving up");
+		
+		JobBatch.fail(job, new RemoteProcessingException(
+				IllegalStateException.class.getName(),
+				"Job was sent to " + n + " workers that failed"));
+		
+		job.getTrace().processingFinished();
+		job.signOff(RemoteProcessingNode.class, "failed after " + n + " workers");
+		
+		++failedCount;
+		
+		processedJobs.put(job);
+	}
+	
+	/**
+	 * Hands a job that was taken from a worker to the next worker.
+	 */
+	private void requeue(Job job, String reason)
+	{
+		Integer n = requeues.get(job);
+		requeues.put(job, (n == null) ? 1 : n + 1);
+		
+		job.signOff(RemoteProcessingNode.class, "re-queued, " + reason);
+		requeued.add(job);
+	}
+	
+	private Job takeJob() throws InterruptedException
+	{
+		while (true)
+		{
+			Job job = pollJob();
+			if (job != null)
+				return job;
+			
+			// Don't block forever, a worker might die in the meantime
+			job = inTray.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			if (job != null)
+				return job;
+		}
+	}
+	
+	private void flush(Connection c)
+	{
+		if (c != null)
+			c.flush();
+	}
+	
+	private void launch(WorkerInstantiator instantiator)
+	{
+		WorkerLauncher wl = new WorkerLauncher(instantiator, new AbortHandler()
+		{
+			@Override
+			public void notify(Throwable t)
+			{
+				abort(t);
+			}
+		});
+		
+		launchers.add(wl);
+		
+		wl.start(executor);
+	}
+	
+	// =========================================================================
+	
+	private final class Acceptor
+			extends
+				WorkerBase
+	{
+		public Acceptor()
+		{
+			super(Acceptor.class.getSimpleName());
+		}
+		
+		@Override
+		protected void work() throws Throwable
+		{
+			while (true)
+			{
+				final Socket socket;
+				try
+				{
+					socket = serverSocket.accept();
+				}
+				catch (SocketException e)
+				{
+					if (serverSocket.isClosed())
+						return;
+					throw e;
+				}
+				
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				
+				launch(new WorkerInstantiator()
+				{
+					@Override
+					public WorkerBase instantiate()
+					{
+						return new Connection(socket);
+					}
+				});
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The connection to one worker. The node thread sends jobs, the
+	 * connection's own thread receives results.
+	 */
+	private final class Connection
+			extends
+				WorkerBase
+	{
+		private final Socket socket;
+		
+		private final Map<Long, Job> inFlight = new ConcurrentHashMap<Long, Job>();
+		
+		private final AtomicBoolean open = new AtomicBoolean(true);
+		
+		private Protocol.FrameWriter writer;
+		
+		private volatile String name;
+		
+		private int received = 0;
+		
+		public Connection(Socket socket)
+		{
+			super(Connection.class.getSimpleName());
+			this.socket = socket;
+			this.name = String.valueOf(socket.getRemoteSocketAddress());
+		}
+		
+		public boolean isOpen()
+		{
+			return open.get();
+		}
+		
+		/**
+		 * Called by the node thread only. The frame is not flushed.
+		 */
+		public void send(Job job)
+		{
+			long seq = nextSequenceNumber++;
+			inFlight.put(seq, job);
+			
+			if (!isOpen())
+			{
+				// The connection broke after the credit was taken
+				if (inFlight.remove(seq) != null)
+					requeue(job, "worker " + name + " closed");
+				return;
+			}
+			
+			// Remote processing time includes the round trip
+			job.getTrace().processingStarted();
+			
+			try
+			{
+				DataOutputStream out = writer.begin(Protocol.JOB);
+				out.writeLong(seq);
+				Protocol.writeJob(codec, job, out);
+				writer.send(false);
+			}
+			catch (IOException e)
+			{
+				warn("Sending job to worker " + name + " failed", e);
+				close(true);
+			}
+		}
+		
+		/**
+		 * Called by the node thread only.
+		 */
+		public void flush()
+		{
+			if (!isOpen())
+				return;
+			
+			try
+			{
+				writer.flush();
+			}
+			catch (IOException e)
+			{
+				warn("Sending job to worker " + name + " failed", e);
+				close(true);
+			}
+		}
+		
+		@Override
+		protected void work() throws Throwable
+		{
+			try
+			{
+				writer = new Protocol.FrameWriter(socket.getOutputStream());
+				
+				Protocol.FrameReader reader = new Protocol.FrameReader(socket.getInputStream());
+				
+				if (reader.next() != Protocol.HELLO)
+					throw new IOException("Expected HELLO");
+				
+				DataInputStream hello = reader.payload();
+				if (hello.readInt() != Protocol.MAGIC || hello.readInt() != Protocol.VERSION)
+					throw new IOException("Incompatible worker");
+				
+				name = hello.readUTF() + "@" + name;
+				int granted = hello.readInt();
+				
+				info("Worker " + name + " connected with " + granted + " credits");
+				
+				connections.add(this);
+				for (int i = 0; i < granted; ++i)
+					credits.add(this);
+				
+				while (true)
+				{
+					if (reader.next() != Protocol.RESULT)
+						throw new IOException("Expected RESULT");
+					
+					DataInputStream in = reader.payload();
+					
+					Job job = inFlight.remove(in.readLong());
+					if (job == null)
+						throw new IOException("Result for unknown job");
+					
+					requeues.remove(job);
+					
+					Protocol.readOutcome(codec, job, in);
+					job.getTrace().processingFinished();
+					job.signOff(RemoteProcessingNode.class, name);
+					
+					++received;
+					
+					processedJobs.put(job);
+					
+					// The credit of the job can be used again
+					credits.add(this);
+				}
+			}
+			catch (EOFException e)
+			{
+				info("Worker " + name + " disconnected");
+			}
+			catch (IOException e)
+			{
+				if (isOpen())
+					warn("Connection to worker " + name + " failed", e);
+			}
+			finally
+			{
+				close(true);
+			}
+		}
+		
+		@Override
+		protected void after()
+		{
+			info("Worker " + name + " returned " + received + " items");
+		}
+		
+		/**
+		 * @param requeue
+		 *            Whether jobs sent to the worker are handed to other
+		 *            workers.
+		 */
+		public void close(boolean requeue)
+		{
+			if (!open.compareAndSet(true, false))
+				return;
+			
+			connections.remove(this);
+			
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				// Doesn't matter
+			}
+			
+			if (!requeue)
+				return;
+			
+			int n = 0;
+			for (Long seq : inFlight.keySet())
+			{
+				Job job = inFlight.remove(seq);
+				if (job != null)
+				{
+					requeue(job, "worker " + name + " failed");
+					++n;
+				}
+			}
+			
+			if (n > 0)
+				warn("Re-queued " + n + " jobs of worker " + name);
+		}
+	}
+}
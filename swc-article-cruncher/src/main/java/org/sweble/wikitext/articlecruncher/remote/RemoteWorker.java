@@ -0,0 +1,373 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.remote;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.utils.DaemonThreadFactory;
+
+/**
+ * Processes jobs on behalf of a {@link RemoteProcessingNode}.
+ * 
+ * A worker connects to a node, grants it <code>2 * numThreads</code>
+ * credits and processes the jobs it receives on <code>numThreads</code>
+ * threads. It stops when the node closes the connection. A worker can run
+ * in its own JVM using {@link #main(String[])}.
+ * 
+ * Results are collected in the send buffer while more jobs are queued.
+ * They are sent at the latest once 64 results were collected or 10
+ * milliseconds passed.
+ */
+public class RemoteWorker
+		implements
+			Closeable
+{
+	private static final Logger logger = Logger.getLogger(RemoteWorker.class);
+	
+	private static final int CREDITS_PER_THREAD = 2;
+	
+	private static final int MAX_UNFLUSHED_RESULTS = 64;
+	
+	private static final long FLUSH_INTERVAL_MILLIS = 10;
+	
+	// =========================================================================
+	
+	private final String name;
+	
+	private final Socket socket;
+	
+	private final JobCodec codec;
+	
+	private final LpnJobProcessorFactory jobProcessorFactory;
+	
+	private final int numThreads;
+	
+	private final Protocol.FrameWriter writer;
+	
+	private ThreadPoolExecutor executor;
+	
+	private ScheduledExecutorService flusher;
+	
+	private int count = 0;
+	
+	private int unflushed = 0;
+	
+	// =========================================================================
+	
+	public RemoteWorker(
+			String host,
+			int port,
+			JobCodec codec,
+			LpnJobProcessorFactory jobProcessorFactory,
+			int numThreads) throws IOException
+	{
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("numThreads must be positive");
+		
+		this.name = getHostName();
+		this.codec = codec;
+		this.jobProcessorFactory = jobProcessorFactory;
+		this.numThreads = numThreads;
+		
+		this.socket = new Socket(host, port);
+		this.socket.setTcpNoDelay(true);
+		this.socket.setKeepAlive(true);
+		
+		this.writer = new Protocol.FrameWriter(socket.getOutputStream());
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Processes jobs until the node closes the connection.
+	 */
+	public void run() throws IOException, InterruptedException
+	{
+		DaemonThreadFactory threadFactory = new DaemonThreadFactory(RemoteWorker.class.getSimpleName());
+		threadFactory.setThreadNameTemplate(jobProcessorFactory.getProcessorNameTemplate());
+		
+		// The queue never holds more jobs than the granted credits
+		executor = new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				threadFactory);
+		
+		// Results of long running jobs must not wait for the next result
+		flusher = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(RemoteWorker.class.getSimpleName() + "-Flusher"));
+		
+		flusher.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flushResults();
+			}
+		}, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		
+		try
+		{
+			int credits = numThreads * CREDITS_PER_THREAD;
+			synchronized (writer)
+			{
+				DataOutputStream out = writer.begin(Protocol.HELLO);
+				out.writeInt(Protocol.MAGIC);
+				out.writeInt(Protocol.VERSION);
+				out.writeUTF(name);
+				out.writeInt(credits);
+				writer.send(true);
+			}
+			
+			logger.info("Connected to " + socket.getRemoteSocketAddress() + " with " + credits + " credits");
+			
+			Protocol.FrameReader reader = new Protocol.FrameReader(socket.getInputStream());
+			while (true)
+			{
+				byte type;
+				try
+				{
+					type = reader.next();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				
+				if (type != Protocol.JOB)
+					throw new IOException("Expected JOB");
+				
+				DataInputStream in = reader.payload();
+				long seq = in.readLong();
+				Job job = Protocol.readJob(codec, in);
+				
+				executor.execute(new Task(seq, job));
+			}
+		}
+		catch (IOException e)
+		{
+			if (!socket.isClosed())
+				throw e;
+		}
+		finally
+		{
+			executor.shutdownNow();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			
+			flusher.shutdownNow();
+			flushResults();
+			
+			close();
+			
+			logger.info("Disconnected after " + count + " items");
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		socket.close();
+	}
+	
+	// =========================================================================
+	
+	private static String getHostName()
+	{
+		try
+		{
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch (IOException e)
+		{
+			return "unknown";
+		}
+	}
+	
+	private void sendResult(long seq, Job job) throws IOException
+	{
+		synchronized (writer)
+		{
+			DataOutputStream out = writer.begin(Protocol.RESULT);
+			out.writeLong(seq);
+			Protocol.writeOutcome(codec, job, out);
+			
+			// Results of queued jobs will follow soon, they flush the stream
+			boolean flush = executor.getQueue().isEmpty()
+					|| ++unflushed >= MAX_UNFLUSHED_RESULTS;
+			
+			writer.send(flush);
+			if (flush)
+				unflushed = 0;
+			
+			++count;
+		}
+	}
+	
+	private void flushResults()
+	{
+		synchronized (writer)
+		{
+			if (unflushed == 0)
+				return;
+			
+			try
+			{
+				writer.flush();
+				unflushed = 0;
+			}
+			catch (IOException e)
+			{
+				// The node re-queues the jobs
+				logger.warn("Sending results failed", e);
+				
+				try
+				{
+					close();
+				}
+				catch (IOException e1)
+				{
+					// Doesn't matter
+				}
+			}
+		}
+	}
+	
+	private final class Task
+			implements
+				Runnable
+	{
+		private final long seq;
+		
+		private final Job job;
+		
+		public Task(long seq, Job job)
+		{
+			this.seq = seq;
+			this.job = job;
+		}
+		
+		@Override
+		public void run()
+		{
+			boolean fatal = false;
+			try
+			{
+				Processor processor = jobProcessorFactory.createProcessor();
+				
+				JobBatch.process(processor, job);
+			}
+			catch (Exception e)
+			{
+				logger.warn("Processing failed with exception", e);
+				
+				job.failed(e);
+			}
+			catch (Throwable t)
+			{
+				// Without a result the node would wait for this job forever
+				logger.error("Processing failed with error", t);
+				
+				JobBatch.fail(job, new RemoteProcessingException(t));
+				
+				// A stack overflow only affects this job, anything else
+				// leaves the VM in an unknown state
+				fatal = (t instanceof VirtualMachineError)
+						&& !(t instanceof StackOverflowError);
+			}
+			
+			try
+			{
+				sendResult(seq, job);
+				
+				if (fatal)
+				{
+					flushResults();
+					close();
+				}
+			}
+			catch (Throwable t)
+			{
+				// The node re-queues the job
+				logger.warn("Sending result failed", t);
+				
+				try
+				{
+					close();
+				}
+				catch (IOException e1)
+				{
+					// Doesn't matter
+				}
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Usage: <code>RemoteWorker HOST PORT CODEC_CLASS FACTORY_CLASS THREADS</code>
+	 * 
+	 * The codec and the processor factory are instantiated using their
+	 * public no-argument constructors.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length != 5)
+		{
+			System.err.println("Usage: RemoteWorker HOST PORT CODEC_CLASS FACTORY_CLASS THREADS");
+			System.exit(1);
+		}
+		
+		JobCodec codec = Class.forName(args[2])
+				.asSubclass(JobCodec.class)
+				.getDeclaredConstructor()
+				.newInstance();
+		
+		LpnJobProcessorFactory factory = Class.forName(args[3])
+				.asSubclass(LpnJobProcessorFactory.class)
+				.getDeclaredConstructor()
+				.newInstance();
+		
+		RemoteWorker worker = new RemoteWorker(
+				args[0],
+				Integer.parseInt(args[1]),
+				codec,
+				factory,
+				Integer.parseInt(args[4]));
+		
+		worker.run();
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.IOException;
+
+/**
+ * Compresses the blocks of a segment file.
+ * 
+ * The id of the codec is stored in the header of every segment file, so
+ * that a {@link SegmentReader} can pick the matching codec. Instances are
+ * used by one thread at a time.
+ * 
+ * @see BlockCodecs
+ */
+public interface BlockCodec
+{
+	public byte getId();
+	
+	/**
+	 * Returns the number of bytes the compressed form of a block of the given
+	 * length can take at most.
+	 */
+	public int maxCompressedLength(int length);
+	
+	/**
+	 * @return The length of the compressed data written to
+	 *         <code>dst</code> starting at <code>dstOffset</code>.
+	 */
+	public int compress(byte[] src, int length, byte[] dst, int dstOffset);
+	
+	/**
+	 * Decompresses exactly <code>dstLength</code> bytes into
+	 * <code>dst</code>.
+	 */
+	public void decompress(
+			byte[] src,
+			int srcOffset,
+			int srcLength,
+			byte[] dst,
+			int dstLength) throws IOException;
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz77support.Parameters;
+import org.apache.commons.compress.utils.IOUtils;
+
+/**
+ * The block codecs that ship with the article cruncher.
+ */
+public final class BlockCodecs
+{
+	public static final byte NONE_ID = 0;
+	
+	public static final byte DEFLATE_ID = 1;
+	
+	public static final byte LZ4_ID = 2;
+	
+	// =========================================================================
+	
+	private BlockCodecs()
+	{
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Stores blocks uncompressed.
+	 */
+	public static BlockCodec none()
+	{
+		return new NoneCodec();
+	}
+	
+	/**
+	 * Compresses blocks with deflate.
+	 * 
+	 * @param level
+	 *            The compression level from {@link Deflater#BEST_SPEED} to
+	 *            {@link Deflater#BEST_COMPRESSION}.
+	 */
+	public static BlockCodec deflate(int level)
+	{
+		return new DeflateCodec(level);
+	}
+	
+	/**
+	 * Compresses blocks with LZ4 in the block format (without frames). LZ4
+	 * compresses worse than deflate but decompresses several times faster.
+	 * The implementation of Apache Commons Compress is pure Java.
+	 */
+	public static BlockCodec lz4()
+	{
+		return new Lz4Codec();
+	}
+	
+	/**
+	 * Returns a codec that can decompress blocks written with the codec of
+	 * the given id or null if the id is unknown.
+	 */
+	public static BlockCodec forId(byte id)
+	{
+		switch (id)
+		{
+			case NONE_ID:
+				return none();
+			case DEFLATE_ID:
+				return deflate(Deflater.DEFAULT_COMPRESSION);
+			case LZ4_ID:
+				return lz4();
+			default:
+				return null;
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class NoneCodec
+			implements
+				BlockCodec
+	{
+		@Override
+		public byte getId()
+		{
+			return NONE_ID;
+		}
+		
+		@Override
+		public int maxCompressedLength(int length)
+		{
+			return length;
+		}
+		
+		@Override
+		public int compress(byte[] src, int length, byte[] dst, int dstOffset)
+		{
+			System.arraycopy(src, 0, dst, dstOffset, length);
+			return length;
+		}
+		
+		@Override
+		public void decompress(
+				byte[] src,
+				int srcOffset,
+				int srcLength,
+				byte[] dst,
+				int dstLength) throws IOException
+		{
+			if (srcLength != dstLength)
+				throw new IOException("Corrupt block");
+			System.arraycopy(src, srcOffset, dst, 0, dstLength);
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class DeflateCodec
+			implements
+				BlockCodec
+	{
+		private final Deflater deflater;
+		
+		private final Inflater inflater = new Inflater();
+		
+		public DeflateCodec(int level)
+		{
+			this.deflater = new Deflater(level);
+		}
+		
+		@Override
+		public byte getId()
+		{
+			return DEFLATE_ID;
+		}
+		
+		@Override
+		public int maxCompressedLength(int length)
+		{
+			// Stored blocks add 5 bytes per 16K, plus the zlib wrapper
+			return length + (length >> 12) + 64;
+		}
+		
+		@Override
+		public int compress(byte[] src, int length, byte[] dst, int dstOffset)
+		{
+			deflater.reset();
+			deflater.setInput(src, 0, length);
+			deflater.finish();
+			
+			int n = 0;
+			while (!deflater.finished())
+			{
+				int room = dst.length - dstOffset - n;
+				if (room == 0)
+					throw new IllegalStateException("Output buffer too small");
+				n += deflater.deflate(dst, dstOffset + n, room);
+			}
+			return n;
+		}
+		
+		@Override
+		public void decompress(
+				byte[] src,
+				int srcOffset,
+				int srcLength,
+				byte[] dst,
+				int dstLength) throws IOException
+		{
+			inflater.reset();
+			inflater.setInput(src, srcOffset, srcLength);
+			
+			try
+			{
+				int n = 0;
+				while (n < dstLength)
+				{
+					int r = inflater.inflate(dst, n, dstLength - n);
+					if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					n += r;
+				}
+				
+				if (n != dstLength)
+					throw new IOException("Corrupt block");
+			}
+			catch (DataFormatException e)
+			{
+				throw new IOException("Corrupt block", e);
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class Lz4Codec
+			implements
+				BlockCodec
+	{
+		private static final Parameters PARAMETERS =
+				BlockLZ4CompressorOutputStream.createParameterBuilder()
+						.tunedForSpeed()
+						.build();
+		
+		@Override
+		public byte getId()
+		{
+			return LZ4_ID;
+		}
+		
+		@Override
+		public int maxCompressedLength(int length)
+		{
+			// Incompressible input ends up as literals with one length byte
+			// per 255 bytes and a few bytes per sequence
+			return length + (length >> 7) + 64;
+		}
+		
+		@Override
+		public int compress(byte[] src, int length, byte[] dst, int dstOffset)
+		{
+			// Commons Compress cannot write an empty block
+			if (length == 0)
+				return 0;
+			
+			ArrayOutputStream out = new ArrayOutputStream(dst, dstOffset);
+			try
+			{
+				BlockLZ4CompressorOutputStream lz4 =
+						new BlockLZ4CompressorOutputStream(out, PARAMETERS);
+				lz4.write(src, 0, length);
+				lz4.close();
+			}
+			catch (IOException e)
+			{
+				// Only thrown by ArrayOutputStream if dst is too small
+				throw new IllegalStateException("Output buffer too small", e);
+			}
+			return out.getCount();
+		}
+		
+		@Override
+		public void decompress(
+				byte[] src,
+				int srcOffset,
+				int srcLength,
+				byte[] dst,
+				int dstLength) throws IOException
+		{
+			if (srcLength == 0)
+			{
+				if (dstLength != 0)
+					throw new IOException("Corrupt block");
+				return;
+			}
+			
+			InputStream in = new BlockLZ4CompressorInputStream(
+					new ByteArrayInputStream(src, srcOffset, srcLength));
+			try
+			{
+				if (IOUtils.readFully(in, dst, 0, dstLength) != dstLength || in.read() != -1)
+					throw new IOException("Corrupt block");
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+	
+	private static final class ArrayOutputStream
+			extends
+				OutputStream
+	{
+		private final byte[] buf;
+		
+		private final int offset;
+		
+		private int pos;
+		
+		public ArrayOutputStream(byte[] buf, int offset)
+		{
+			this.buf = buf;
+			this.offset = offset;
+			this.pos = offset;
+		}
+		
+		public int getCount()
+		{
+			return pos - offset;
+		}
+		
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (pos == buf.length)
+				throw new IOException("Output buffer too small");
+			buf[pos++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (len > buf.length - pos)
+				throw new IOException("Output buffer too small");
+			System.arraycopy(b, off, buf, pos, len);
+			pos += len;
+		}
+	}
+}
@@ -20,6 +20,7 @@ package org.sweble.wikitext.articlecruncher.storers;
 import java.util.concurrent.BlockingQueue;
 
 import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
 import org.sweble.wikitext.articlecruncher.JobTrace;
 import org.sweble.wikitext.articlecruncher.JobTraceSet;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
@@ -56,7 +57,10 @@ public class DummyStorer
 		while (true)
 		{
 			Job job = outTray.take();
-			++count;
+			if (job instanceof JobBatch)
+				count += ((JobBatch) job).size();
+			else
+				++count;
 			
 			// Do nothing
 			
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+/**
+ * The layout of a segment directory.
+ * 
+ * A directory holds numbered segments. Every segment consists of a data
+ * file (<code>000000.seg</code>) and an index file (<code>000000.idx</code>).
+ * 
+ * The data file starts with a header of magic, version and the id of the
+ * block codec. It is followed by blocks: compressed length, uncompressed
+ * length, CRC-32 of the compressed bytes and the compressed bytes. An
+ * uncompressed block is a sequence of records, each prefixed with its
+ * length.
+ * 
+ * The index file starts with magic and version, followed by fixed-size
+ * entries of key, file offset of the block and offset of the record within
+ * the uncompressed block. Index entries are written after the block they
+ * point to, so a crash can at worst leave records without an index entry.
+ */
+final class SegmentFormat
+{
+	static final int DATA_MAGIC = 0x53575347; // "SWSG"
+	
+	static final int INDEX_MAGIC = 0x53574958; // "SWIX"
+	
+	static final int VERSION = 1;
+	
+	static final int DATA_HEADER_LENGTH = 4 + 4 + 1;
+	
+	static final int INDEX_HEADER_LENGTH = 4 + 4;
+	
+	static final int BLOCK_HEADER_LENGTH = 4 + 4 + 4;
+	
+	static final int INDEX_ENTRY_LENGTH = 8 + 8 + 4;
+	
+	static final String DATA_SUFFIX = ".seg";
+	
+	static final String INDEX_SUFFIX = ".idx";
+	
+	// =========================================================================
+	
+	private SegmentFormat()
+	{
+	}
+	
+	// =========================================================================
+	
+	static File dataFile(File directory, int segment)
+	{
+		return new File(directory, name(segment) + DATA_SUFFIX);
+	}
+	
+	static File indexFile(File directory, int segment)
+	{
+		return new File(directory, name(segment) + INDEX_SUFFIX);
+	}
+	
+	/**
+	 * Returns the numbers of the segments in a directory in ascending order.
+	 */
+	static int[] listSegments(File directory)
+	{
+		String[] names = directory.list(new FilenameFilter()
+		{
+			@Override
+			public boolean accept(File dir, String name)
+			{
+				return name.matches("\\d{6}\\" + DATA_SUFFIX);
+			}
+		});
+		
+		if (names == null)
+			return new int[0];
+		
+		int[] segments = new int[names.length];
+		for (int i = 0; i < names.length; ++i)
+			segments[i] = Integer.parseInt(names[i].substring(0, 6));
+		
+		Arrays.sort(segments);
+		return segments;
+	}
+	
+	private static String name(int segment)
+	{
+		return String.format("%06d", segment);
+	}
+}
@@ -0,0 +1,402 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads records from the segment files in a directory by key.
+ * 
+ * The index files of all segments are loaded into sorted arrays when the
+ * reader is opened. Looking up a record takes a binary search, one seek and
+ * the decompression of one block. The last decompressed block is cached, so
+ * reading records in the order they were written is cheap.
+ * 
+ * Index entries that point to blocks which are not completely on disk (left
+ * behind by a crash) are ignored. The reader does not see segments written
+ * after it was opened. All methods are synchronized.
+ */
+public class SegmentReader
+		implements
+			Closeable
+{
+	private final BlockCodec customCodec;
+	
+	private final RandomAccessFile[] files;
+	
+	private final BlockCodec[] codecs;
+	
+	private long[] keys = new long[1024];
+	
+	private int[] segments = new int[1024];
+	
+	private long[] blockOffsets = new long[1024];
+	
+	private int[] recordOffsets = new int[1024];
+	
+	private int size;
+	
+	private final CRC32 crc = new CRC32();
+	
+	private byte[] compressed = new byte[0];
+	
+	private byte[] block = new byte[0];
+	
+	private int cachedSegment = -1;
+	
+	private long cachedBlockOffset = -1;
+	
+	// =========================================================================
+	
+	/**
+	 * Opens a directory written with one of the {@link BlockCodecs}.
+	 */
+	public SegmentReader(File directory) throws IOException
+	{
+		this(directory, null);
+	}
+	
+	/**
+	 * @param customCodec
+	 *            The codec to use for segments whose codec id is not one of
+	 *            the {@link BlockCodecs}. Can be null.
+	 */
+	public SegmentReader(File directory, BlockCodec customCodec) throws IOException
+	{
+		this.customCodec = customCodec;
+		
+		int[] numbers = SegmentFormat.listSegments(directory);
+		this.files = new RandomAccessFile[numbers.length];
+		this.codecs = new BlockCodec[numbers.length];
+		
+		try
+		{
+			for (int i = 0; i < numbers.length; ++i)
+			{
+				files[i] = new RandomAccessFile(SegmentFormat.dataFile(directory, numbers[i]), "r");
+				codecs[i] = readDataHeader(files[i]);
+				loadIndex(SegmentFormat.indexFile(directory, numbers[i]), i);
+			}
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+		
+		sortIndex();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Returns the number of records.
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Returns the distinct keys in ascending order.
+	 */
+	public synchronized long[] getKeys()
+	{
+		long[] distinct = new long[size];
+		int n = 0;
+		for (int i = 0; i < size; ++i)
+		{
+			if (n == 0 || distinct[n - 1] != keys[i])
+				distinct[n++] = keys[i];
+		}
+		return Arrays.copyOf(distinct, n);
+	}
+	
+	/**
+	 * Returns the record written last under the given key or null if there
+	 * is no such record.
+	 */
+	public synchronized byte[] read(long key) throws IOException
+	{
+		int i = findLast(key);
+		return (i < 0) ? null : readRecord(i);
+	}
+	
+	/**
+	 * Returns all records written under the given key in the order in which
+	 * they were written.
+	 */
+	public synchronized List<byte[]> readAll(long key) throws IOException
+	{
+		List<byte[]> records = new ArrayList<byte[]>();
+		
+		int last = findLast(key);
+		if (last < 0)
+			return records;
+		
+		int first = last;
+		while (first > 0 && keys[first - 1] == key)
+			--first;
+		
+		for (int i = first; i <= last; ++i)
+			records.add(readRecord(i));
+		return records;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException
+	{
+		IOException error = null;
+		for (RandomAccessFile file : files)
+		{
+			if (file == null)
+				continue;
+			
+			try
+			{
+				file.close();
+			}
+			catch (IOException e)
+			{
+				error = e;
+			}
+		}
+		
+		if (error != null)
+			throw error;
+	}
+	
+	// =========================================================================
+	
+	private BlockCodec readDataHeader(RandomAccessFile file) throws IOException
+	{
+		if (file.readInt() != SegmentFormat.DATA_MAGIC)
+			throw new IOException("Not a segment file");
+		if (file.readInt() != SegmentFormat.VERSION)
+			throw new IOException("Unsupported segment version");
+		
+		byte id = file.readByte();
+		
+		BlockCodec codec = BlockCodecs.forId(id);
+		if (codec == null && customCodec != null && customCodec.getId() == id)
+			codec = customCodec;
+		if (codec == null)
+			throw new IOException("Unknown block codec " + id);
+		
+		return codec;
+	}
+	
+	private void loadIndex(File indexFile, int segment) throws IOException
+	{
+		RandomAccessFile data = files[segment];
+		long dataLength = data.length();
+		
+		long lastBlockOffset = -1;
+		boolean lastBlockComplete = false;
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile), 64 * 1024));
+		try
+		{
+			if (in.readInt() != SegmentFormat.INDEX_MAGIC)
+				throw new IOException("Not a segment index");
+			if (in.readInt() != SegmentFormat.VERSION)
+				throw new IOException("Unsupported segment index version");
+			
+			long entries = (indexFile.length() - SegmentFormat.INDEX_HEADER_LENGTH)
+					/ SegmentFormat.INDEX_ENTRY_LENGTH;
+			
+			for (long e = 0; e < entries; ++e)
+			{
+				long key = in.readLong();
+				long blockOffset = in.readLong();
+				int recordOffset = in.readInt();
+				
+				if (blockOffset != lastBlockOffset)
+				{
+					lastBlockOffset = blockOffset;
+					lastBlockComplete = isComplete(data, blockOffset, dataLength);
+				}
+				
+				// The block did not make it to disk
+				if (!lastBlockComplete)
+					continue;
+				
+				add(key, segment, blockOffset, recordOffset);
+			}
+		}
+		catch (EOFException e)
+		{
+			// A truncated index is fine, it just misses its last entries
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	private static boolean isComplete(
+			RandomAccessFile data,
+			long blockOffset,
+			long dataLength) throws IOException
+	{
+		long end = blockOffset + SegmentFormat.BLOCK_HEADER_LENGTH;
+		if (end > dataLength)
+			return false;
+		
+		data.seek(blockOffset);
+		return end + data.readInt() <= dataLength;
+	}
+	
+	private void add(long key, int segment, long blockOffset, int recordOffset)
+	{
+		if (size == keys.length)
+		{
+			int capacity = size * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			segments = Arrays.copyOf(segments, capacity);
+			blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+			recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+		}
+		
+		keys[size] = key;
+		segments[size] = segment;
+		blockOffsets[size] = blockOffset;
+		recordOffsets[size] = recordOffset;
+		++size;
+	}
+	
+	/**
+	 * Sorts the index by key. Entries with equal keys keep the order in
+	 * which they were written.
+	 */
+	private void sortIndex()
+	{
+		// Entries were added in write order, which is the tie breaker
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; ++i)
+			order[i] = i;
+		
+		final long[] k = keys;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				long ka = k[a];
+				long kb = k[b];
+				return ka < kb ? -1 : (ka > kb ? 1 : 0);
+			}
+		});
+		
+		long[] sortedKeys = new long[size];
+		int[] sortedSegments = new int[size];
+		long[] sortedBlockOffsets = new long[size];
+		int[] sortedRecordOffsets = new int[size];
+		for (int i = 0; i < size; ++i)
+		{
+			int j = order[i];
+			sortedKeys[i] = keys[j];
+			sortedSegments[i] = segments[j];
+			sortedBlockOffsets[i] = blockOffsets[j];
+			sortedRecordOffsets[i] = recordOffsets[j];
+		}
+		
+		keys = sortedKeys;
+		segments = sortedSegments;
+		blockOffsets = sortedBlockOffsets;
+		recordOffsets = sortedRecordOffsets;
+	}
+	
+	private int findLast(long key)
+	{
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (keys[mid] <= key)
+			{
+				if (keys[mid] == key)
+					found = mid;
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+	
+	private byte[] readRecord(int i) throws IOException
+	{
+		loadBlock(segments[i], blockOffsets[i]);
+		
+		int offset = recordOffsets[i];
+		int length = ((block[offset] & 0xFF) << 24)
+				| ((block[offset + 1] & 0xFF) << 16)
+				| ((block[offset + 2] & 0xFF) << 8)
+				| (block[offset + 3] & 0xFF);
+		
+		return Arrays.copyOfRange(block, offset + 4, offset + 4 + length);
+	}
+	
+	private void loadBlock(int segment, long blockOffset) throws IOException
+	{
+		if (segment == cachedSegment && blockOffset == cachedBlockOffset)
+			return;
+		
+		cachedSegment = -1;
+		
+		RandomAccessFile file = files[segment];
+		file.seek(blockOffset);
+		
+		int compressedLength = file.readInt();
+		int length = file.readInt();
+		int checksum = file.readInt();
+		
+		if (compressed.length < compressedLength)
+			compressed = new byte[compressedLength];
+		file.readFully(compressed, 0, compressedLength);
+		
+		crc.reset();
+		crc.update(compressed, 0, compressedLength);
+		if ((int) crc.getValue() != checksum)
+			throw new IOException("Checksum mismatch in block at " + blockOffset);
+		
+		if (block.length < length)
+			block = new byte[length];
+		codecs[segment].decompress(compressed, 0, compressedLength, block, length);
+		
+		cachedSegment = segment;
+		cachedBlockOffset = blockOffset;
+	}
+}
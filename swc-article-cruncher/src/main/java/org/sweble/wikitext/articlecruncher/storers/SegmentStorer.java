@@ -0,0 +1,238 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.JobProcessingState;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.JobTraceSet;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+/**
+ * Stores the results of processed jobs in block-compressed segment files.
+ * 
+ * Compression and disk I/O happen on the background thread of a
+ * {@link SegmentWriter}, so this storer only encodes results into the
+ * current block. A job trace is removed from the job trace set only after
+ * the record of its job has been synced to disk. Code that treats removed
+ * traces as done, like the checkpointing of a dump cruncher, therefore never
+ * sees a job as stored that would be lost in a crash.
+ * 
+ * Records are keyed by {@link RecordEncoder#getKey(Job)}, usually the page
+ * id, and can be read back with a {@link SegmentReader}. Failed jobs are
+ * not stored.
+ */
+public class SegmentStorer
+		extends
+			WorkerBase
+{
+	/**
+	 * Turns the result of a job into a record.
+	 */
+	public static interface RecordEncoder
+	{
+		public long getKey(Job job);
+		
+		public void encode(Job job, DataOutput out) throws IOException;
+	}
+	
+	// =========================================================================
+	
+	private final JobTraceSet jobTraces;
+	
+	private final BlockingQueue<Job> outTray;
+	
+	private final File directory;
+	
+	private final RecordEncoder encoder;
+	
+	private final BlockCodec codec;
+	
+	private final int blockSize;
+	
+	private final long segmentSize;
+	
+	private final long syncIntervalMillis;
+	
+	private SegmentWriter writer;
+	
+	private long stored = 0;
+	
+	private long failed = 0;
+	
+	// =========================================================================
+	
+	public SegmentStorer(
+			AbortHandler abortHandler,
+			JobTraceSet jobTraces,
+			BlockingQueue<Job> outTray,
+			File directory,
+			RecordEncoder encoder,
+			BlockCodec codec)
+	{
+		this(
+				abortHandler,
+				jobTraces,
+				outTray,
+				directory,
+				encoder,
+				codec,
+				SegmentWriter.DEFAULT_BLOCK_SIZE,
+				SegmentWriter.DEFAULT_SEGMENT_SIZE,
+				SegmentWriter.DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+	
+	/**
+	 * @param blockSize
+	 *            The uncompressed size at which a block is compressed and
+	 *            written.
+	 * @param segmentSize
+	 *            The size of a data file at which the storer starts a new
+	 *            segment.
+	 * @param syncIntervalMillis
+	 *            The longest time a record waits to be synced. A partially
+	 *            filled block is written out after the same time.
+	 */
+	public SegmentStorer(
+			AbortHandler abortHandler,
+			JobTraceSet jobTraces,
+			BlockingQueue<Job> outTray,
+			File directory,
+			RecordEncoder encoder,
+			BlockCodec codec,
+			int blockSize,
+			long segmentSize,
+			long syncIntervalMillis)
+	{
+		super(SegmentStorer.class.getSimpleName(), abortHandler);
+		
+		this.jobTraces = jobTraces;
+		this.outTray = outTray;
+		this.directory = directory;
+		this.encoder = encoder;
+		this.codec = codec;
+		this.blockSize = blockSize;
+		this.segmentSize = segmentSize;
+		this.syncIntervalMillis = syncIntervalMillis;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected void work() throws Throwable
+	{
+		writer = new SegmentWriter(
+				directory,
+				codec,
+				blockSize,
+				segmentSize,
+				syncIntervalMillis,
+				new SegmentWriter.DurabilityListener()
+				{
+					@Override
+					public void durable(List<Object> tokens)
+					{
+						for (Object token : tokens)
+						{
+							if (!jobTraces.remove((JobTrace) token))
+								warn("Missing job trace");
+						}
+					}
+				});
+		
+		long deadline = 0;
+		while (true)
+		{
+			Job job;
+			if (deadline == 0)
+			{
+				job = outTray.take();
+			}
+			else
+			{
+				long wait = deadline - System.nanoTime();
+				job = outTray.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+				if (job == null)
+				{
+					// Don't let a partial block wait for more jobs forever
+					writer.flush();
+					deadline = 0;
+					continue;
+				}
+			}
+			
+			store(job);
+			
+			JobTrace trace = job.getTrace();
+			trace.signOff(getClass(), null);
+			writer.attach(trace);
+			
+			if (deadline == 0)
+				deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+		}
+	}
+	
+	@Override
+	protected void after()
+	{
+		if (writer != null)
+		{
+			try
+			{
+				writer.close();
+			}
+			catch (IOException e)
+			{
+				warn("Closing segment writer failed", e);
+			}
+		}
+		
+		info(getClass().getSimpleName() + " stored " + stored
+				+ " items, skipped " + failed + " failed items");
+	}
+	
+	// =========================================================================
+	
+	private void store(Job job) throws IOException
+	{
+		if (job instanceof JobBatch)
+		{
+			for (Job member : ((JobBatch) job).getJobs())
+				store(member);
+		}
+		else if (job.getState() == JobProcessingState.HAS_RESULT)
+		{
+			encoder.encode(job, writer.beginRecord(encoder.getKey(job)));
+			writer.endRecord();
+			++stored;
+		}
+		else
+		{
+			++failed;
+		}
+	}
+}
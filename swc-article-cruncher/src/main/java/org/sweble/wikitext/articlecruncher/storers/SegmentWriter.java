@@ -0,0 +1,578 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.storers;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.utils.DaemonThreadFactory;
+
+/**
+ * Appends records to the segment files in a directory (see
+ * {@link SegmentFormat}).
+ * 
+ * Records are written into an in-memory block. Once the block is full, it is
+ * handed to a background thread which compresses it, appends it to the
+ * current segment and writes the index entries of its records. Meanwhile the
+ * next block is filled. The writer only blocks if the background thread
+ * falls more than one block behind.
+ * 
+ * The background thread does not sync every block to disk. It syncs at most
+ * once every <code>syncIntervalMillis</code>, when it starts a new segment
+ * and when the writer is closed.
+ * Tokens attached with {@link #attach(Object)} are passed to the
+ * {@link DurabilityListener} once everything written before them is on
+ * disk.
+ * 
+ * Existing segments are never modified; a writer always starts a new
+ * segment. Records are written by one thread at a time.
+ */
+public class SegmentWriter
+		implements
+			Closeable
+{
+	public static interface DurabilityListener
+	{
+		/**
+		 * Called by the background thread after a sync.
+		 */
+		public void durable(List<Object> tokens);
+	}
+	
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	
+	public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+	
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+	
+	private static final Logger logger = Logger.getLogger(SegmentWriter.class);
+	
+	private static final Block POISON = new Block(0);
+	
+	// =========================================================================
+	
+	private final File directory;
+	
+	private final BlockCodec codec;
+	
+	private final int blockSize;
+	
+	private final long segmentSize;
+	
+	private final long syncIntervalNanos;
+	
+	private final DurabilityListener listener;
+	
+	private final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(2);
+	
+	private final BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(2);
+	
+	private final Thread ioThread;
+	
+	private volatile Throwable failure;
+	
+	private Block current;
+	
+	private boolean closed;
+	
+	// -- only accessed by the background thread after construction --
+	
+	private int segment;
+	
+	private FileOutputStream dataOut;
+	
+	private long dataLength;
+	
+	private FileOutputStream indexFileOut;
+	
+	private DataOutputStream indexOut;
+	
+	private byte[] compressed = new byte[0];
+	
+	private final CRC32 crc = new CRC32();
+	
+	private final List<Object> unsyncedTokens = new ArrayList<Object>();
+	
+	private boolean unsynced;
+	
+	private long lastSyncNanos = System.nanoTime();
+	
+	// =========================================================================
+	
+	public SegmentWriter(
+			File directory,
+			BlockCodec codec,
+			DurabilityListener listener) throws IOException
+	{
+		this(
+				directory,
+				codec,
+				DEFAULT_BLOCK_SIZE,
+				DEFAULT_SEGMENT_SIZE,
+				DEFAULT_SYNC_INTERVAL_MILLIS,
+				listener);
+	}
+	
+	/**
+	 * @param blockSize
+	 *            The number of uncompressed bytes after which a block is
+	 *            handed to the background thread.
+	 * @param segmentSize
+	 *            The size of a data file after which a new segment is
+	 *            started.
+	 * @param syncIntervalMillis
+	 *            The maximum time between two syncs while there is data to
+	 *            sync.
+	 * @param listener
+	 *            Notified about durable tokens. Can be null.
+	 */
+	public SegmentWriter(
+			File directory,
+			BlockCodec codec,
+			int blockSize,
+			long segmentSize,
+			long syncIntervalMillis,
+			DurabilityListener listener) throws IOException
+	{
+		if (blockSize <= 0 || segmentSize <= 0 || syncIntervalMillis <= 0)
+			throw new IllegalArgumentException("Sizes and interval must be positive");
+		
+		this.directory = directory;
+		this.codec = codec;
+		this.blockSize = blockSize;
+		this.segmentSize = segmentSize;
+		this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+		this.listener = listener;
+		
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		
+		int[] existing = SegmentFormat.listSegments(directory);
+		openSegment(existing.length == 0 ? 0 : existing[existing.length - 1] + 1);
+		
+		current = new Block(blockSize);
+		free.add(new Block(blockSize));
+		
+		ioThread = new DaemonThreadFactory(SegmentWriter.class.getSimpleName()).newThread(
+				new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						writeBlocks();
+					}
+				});
+		ioThread.start();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Starts a new record. The record ends with the next call to
+	 * {@link #endRecord()}.
+	 * 
+	 * @return The stream to write the record to. It is only valid until
+	 *         {@link #endRecord()} is called.
+	 */
+	public DataOutput beginRecord(long key) throws IOException
+	{
+		checkOpen();
+		return current.begin(key);
+	}
+	
+	public void endRecord() throws IOException
+	{
+		current.end();
+		
+		if (current.length >= blockSize)
+			handOff();
+	}
+	
+	/**
+	 * Attaches a token to the records written so far. The token is passed to
+	 * the durability listener once these records have been synced.
+	 */
+	public void attach(Object token) throws IOException
+	{
+		checkOpen();
+		current.tokens.add(token);
+	}
+	
+	/**
+	 * Hands the current block to the background thread, even if it is not
+	 * full yet.
+	 */
+	public void flush() throws IOException
+	{
+		checkOpen();
+		if (!current.isEmpty())
+			handOff();
+	}
+	
+	/**
+	 * Writes all remaining records, syncs them and closes the files. Can be
+	 * called from an interrupted thread.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		
+		boolean interrupted = Thread.interrupted();
+		try
+		{
+			if (failure == null)
+			{
+				if (!current.isEmpty())
+					interrupted |= putUninterruptibly(full, current);
+				interrupted |= putUninterruptibly(full, POISON);
+			}
+			else
+			{
+				ioThread.interrupt();
+			}
+			
+			while (true)
+			{
+				try
+				{
+					ioThread.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			
+			closed = true;
+			closeSegment();
+			
+			checkFailure();
+		}
+		finally
+		{
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	// =========================================================================
+	
+	private void checkOpen() throws IOException
+	{
+		if (closed)
+			throw new IOException("Writer is closed");
+		checkFailure();
+	}
+	
+	private void checkFailure() throws IOException
+	{
+		Throwable t = failure;
+		if (t == null)
+			return;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new IOException("Writing segment failed", t);
+	}
+	
+	private void handOff() throws IOException
+	{
+		try
+		{
+			full.put(current);
+			
+			// Don't wait forever if the background thread died
+			Block next;
+			while ((next = free.poll(100, TimeUnit.MILLISECONDS)) == null)
+				checkFailure();
+			current = next;
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException();
+		}
+	}
+	
+	/**
+	 * @return Whether the thread was interrupted while waiting.
+	 */
+	private static boolean putUninterruptibly(BlockingQueue<Block> queue, Block block)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try
+			{
+				queue.put(block);
+				return interrupted;
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	private void writeBlocks()
+	{
+		try
+		{
+			while (true)
+			{
+				long wait = syncIntervalNanos - (System.nanoTime() - lastSyncNanos);
+				
+				Block block = unsynced ?
+						full.poll(Math.max(0, wait), TimeUnit.NANOSECONDS) :
+						full.take();
+				
+				if (block == POISON)
+					break;
+				
+				if (block != null)
+				{
+					write(block);
+					block.reset();
+					free.put(block);
+				}
+				
+				if (unsynced && System.nanoTime() - lastSyncNanos >= syncIntervalNanos)
+					sync();
+			}
+			
+			sync();
+		}
+		catch (Throwable t)
+		{
+			logger.error("Writing segment failed", t);
+			failure = t;
+		}
+	}
+	
+	private void write(Block block) throws IOException
+	{
+		if (block.length > 0)
+		{
+			int max = SegmentFormat.BLOCK_HEADER_LENGTH + codec.maxCompressedLength(block.length);
+			if (compressed.length < max)
+				compressed = new byte[max];
+			
+			int n = codec.compress(block.data, block.length, compressed, SegmentFormat.BLOCK_HEADER_LENGTH);
+			
+			crc.reset();
+			crc.update(compressed, SegmentFormat.BLOCK_HEADER_LENGTH, n);
+			
+			putInt(compressed, 0, n);
+			putInt(compressed, 4, block.length);
+			putInt(compressed, 8, (int) crc.getValue());
+			
+			long blockOffset = dataLength;
+			dataOut.write(compressed, 0, SegmentFormat.BLOCK_HEADER_LENGTH + n);
+			dataLength += SegmentFormat.BLOCK_HEADER_LENGTH + n;
+			
+			for (int i = 0; i < block.records; ++i)
+			{
+				indexOut.writeLong(block.keys[i]);
+				indexOut.writeLong(blockOffset);
+				indexOut.writeInt(block.offsets[i]);
+			}
+		}
+		
+		unsyncedTokens.addAll(block.tokens);
+		unsynced = true;
+		
+		if (dataLength >= segmentSize)
+		{
+			sync();
+			closeSegment();
+			openSegment(segment + 1);
+		}
+	}
+	
+	private void sync() throws IOException
+	{
+		if (!unsynced)
+			return;
+		
+		// Data first, so that no index entry points beyond the data
+		dataOut.getFD().sync();
+		indexOut.flush();
+		indexFileOut.getFD().sync();
+		
+		unsynced = false;
+		lastSyncNanos = System.nanoTime();
+		
+		if (listener != null && !unsyncedTokens.isEmpty())
+			listener.durable(new ArrayList<Object>(unsyncedTokens));
+		unsyncedTokens.clear();
+	}
+	
+	private void openSegment(int segment) throws IOException
+	{
+		this.segment = segment;
+		
+		dataOut = new FileOutputStream(SegmentFormat.dataFile(directory, segment));
+		DataOutputStream header = new DataOutputStream(dataOut);
+		header.writeInt(SegmentFormat.DATA_MAGIC);
+		header.writeInt(SegmentFormat.VERSION);
+		header.writeByte(codec.getId());
+		dataLength = SegmentFormat.DATA_HEADER_LENGTH;
+		
+		indexFileOut = new FileOutputStream(SegmentFormat.indexFile(directory, segment));
+		indexOut = new DataOutputStream(new BufferedOutputStream(indexFileOut, 64 * 1024));
+		indexOut.writeInt(SegmentFormat.INDEX_MAGIC);
+		indexOut.writeInt(SegmentFormat.VERSION);
+	}
+	
+	private void closeSegment() throws IOException
+	{
+		try
+		{
+			if (indexOut != null)
+				indexOut.close();
+		}
+		finally
+		{
+			indexOut = null;
+			if (dataOut != null)
+				dataOut.close();
+			dataOut = null;
+		}
+	}
+	
+	private static void putInt(byte[] b, int offset, int value)
+	{
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * An uncompressed block together with the keys and offsets of its
+	 * records.
+	 */
+	private static final class Block
+			extends
+				OutputStream
+	{
+		byte[] data;
+		
+		int length;
+		
+		long[] keys = new long[256];
+		
+		int[] offsets = new int[256];
+		
+		int records;
+		
+		final List<Object> tokens = new ArrayList<Object>();
+		
+		private final DataOutputStream out = new DataOutputStream(this);
+		
+		private int recordStart = -1;
+		
+		public Block(int capacity)
+		{
+			this.data = new byte[capacity];
+		}
+		
+		public DataOutput begin(long key)
+		{
+			if (recordStart != -1)
+				throw new IllegalStateException("Previous record was not ended");
+			
+			if (records == keys.length)
+			{
+				keys = Arrays.copyOf(keys, records * 2);
+				offsets = Arrays.copyOf(offsets, records * 2);
+			}
+			
+			keys[records] = key;
+			offsets[records] = length;
+			
+			recordStart = length;
+			ensureCapacity(4);
+			length += 4;
+			
+			return out;
+		}
+		
+		public void end()
+		{
+			if (recordStart == -1)
+				throw new IllegalStateException("No record was begun");
+			
+			putInt(data, recordStart, length - recordStart - 4);
+			recordStart = -1;
+			++records;
+		}
+		
+		public boolean isEmpty()
+		{
+			return length == 0 && tokens.isEmpty();
+		}
+		
+		public void reset()
+		{
+			length = 0;
+			records = 0;
+			tokens.clear();
+		}
+		
+		@Override
+		public void write(int b)
+		{
+			ensureCapacity(1);
+			data[length++] = (byte) b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			ensureCapacity(len);
+			System.arraycopy(b, off, data, length, len);
+			length += len;
+		}
+		
+		private void ensureCapacity(int n)
+		{
+			if (length + n > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+		}
+	}
+}
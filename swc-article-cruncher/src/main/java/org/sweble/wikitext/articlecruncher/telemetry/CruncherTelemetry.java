@@ -0,0 +1,307 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.JobProcessingState;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+
+/**
+ * Collects throughput and latency figures of a running cruncher.
+ * 
+ * The {@link org.sweble.wikitext.articlecruncher.Nexus} records every job
+ * when it was processed and when its trace was removed by a storer, using
+ * the timestamps in the {@link JobTrace}. Job generators can record the
+ * time it took to read a page with {@link #record(Stage, long)}.
+ * 
+ * The record methods neither take locks nor allocate memory once every
+ * kind of failure has been seen. Reading the figures, for example by a
+ * {@link TelemetryReporter}, is more expensive.
+ */
+public final class CruncherTelemetry
+{
+	public static final int DEFAULT_SLOWEST_JOBS = 10;
+	
+	// =========================================================================
+	
+	private final long startMillis = System.currentTimeMillis();
+	
+	private final Meter pages = new Meter();
+	
+	private final Meter bytes = new Meter();
+	
+	private final LatencyHistogram[] latencies;
+	
+	private final AtomicLong failureCount = new AtomicLong();
+	
+	private final ConcurrentMap<Class<?>, AtomicLong> failures =
+			new ConcurrentHashMap<Class<?>, AtomicLong>();
+	
+	private final SlowestJobs slowestJobs;
+	
+	// =========================================================================
+	
+	public CruncherTelemetry()
+	{
+		this(DEFAULT_SLOWEST_JOBS);
+	}
+	
+	/**
+	 * @param slowestJobs
+	 *            The number of slowest jobs to keep.
+	 */
+	public CruncherTelemetry(int slowestJobs)
+	{
+		this.slowestJobs = new SlowestJobs(slowestJobs);
+		
+		this.latencies = new LatencyHistogram[Stage.values().length];
+		for (int i = 0; i < latencies.length; ++i)
+			latencies[i] = new LatencyHistogram();
+	}
+	
+	// =========================================================================
+	
+	public void record(Stage stage, long nanos)
+	{
+		latencies[stage.ordinal()].record(nanos);
+	}
+	
+	/**
+	 * Records a job after it was processed. The jobs of a batch are counted
+	 * individually.
+	 */
+	public void recordProcessed(Job job)
+	{
+		JobTrace trace = job.getTrace();
+		if (trace.getProcessingStartedNanos() != 0)
+			record(Stage.QUEUE_WAIT, trace.getProcessingStartedNanos() - trace.getCreatedNanos());
+		
+		if (job instanceof JobBatch)
+		{
+			// Iterating by index does not allocate an iterator
+			List<Job> jobs = ((JobBatch) job).getJobs();
+			for (int i = 0; i < jobs.size(); ++i)
+				recordSingle(jobs.get(i), trace);
+		}
+		else
+		{
+			recordSingle(job, trace);
+		}
+	}
+	
+	/**
+	 * Records that a storer is done with a job.
+	 */
+	public void recordStored(JobTrace trace)
+	{
+		if (trace.getGatheredNanos() != 0)
+			record(Stage.STORE, System.nanoTime() - trace.getGatheredNanos());
+	}
+	
+	public void recordFailure(Throwable t)
+	{
+		failureCount.incrementAndGet();
+		
+		Class<?> type = (t != null) ? t.getClass() : Throwable.class;
+		AtomicLong count = failures.get(type);
+		if (count == null)
+		{
+			AtomicLong newCount = new AtomicLong();
+			count = failures.putIfAbsent(type, newCount);
+			if (count == null)
+				count = newCount;
+		}
+		count.incrementAndGet();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The number of pages (single jobs) that were processed.
+	 */
+	public Meter getPages()
+	{
+		return pages;
+	}
+	
+	/**
+	 * The size of the pages that were processed (see
+	 * {@link Job#getSizeHint()}).
+	 */
+	public Meter getBytes()
+	{
+		return bytes;
+	}
+	
+	public LatencyHistogram getLatency(Stage stage)
+	{
+		return latencies[stage.ordinal()];
+	}
+	
+	public long getFailureCount()
+	{
+		return failureCount.get();
+	}
+	
+	/**
+	 * Returns the number of failures by the name of the exception type.
+	 */
+	public Map<String, Long> getFailures()
+	{
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<Class<?>, AtomicLong> e : failures.entrySet())
+			result.put(e.getKey().getName(), e.getValue().get());
+		return result;
+	}
+	
+	public SlowestJobs getSlowestJobs()
+	{
+		return slowestJobs;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Returns a one-line summary for the log.
+	 */
+	public String getSummary()
+	{
+		StringBuilder b = new StringBuilder();
+		b.append(String.format(
+				"pages=%d (%.1f/s), bytes=%d (%.1f KiB/s), failures=%d",
+				pages.getCount(),
+				rate(pages),
+				bytes.getCount(),
+				rate(bytes) / 1024,
+				failureCount.get()));
+		
+		for (Stage stage : Stage.values())
+		{
+			LatencyHistogram.Snapshot s = getLatency(stage).snapshot();
+			if (s.getCount() == 0)
+				continue;
+			
+			b.append(String.format(
+					", %s p50=%.2fms p99=%.2fms max=%.2fms",
+					stage.name().toLowerCase(),
+					s.getPercentile(0.5) / 1e6,
+					s.getPercentile(0.99) / 1e6,
+					s.getMax() / 1e6));
+		}
+		
+		return b.toString();
+	}
+	
+	public String toJson()
+	{
+		JsonBuilder b = new JsonBuilder();
+		b.beginObject();
+		
+		b.name("timestamp").value(System.currentTimeMillis());
+		b.name("uptimeSeconds").value((System.currentTimeMillis() - startMillis) / 1000.);
+		
+		b.name("pages");
+		meterToJson(b, pages);
+		
+		b.name("bytes");
+		meterToJson(b, bytes);
+		
+		b.name("latency").beginObject();
+		for (Stage stage : Stage.values())
+		{
+			LatencyHistogram.Snapshot s = getLatency(stage).snapshot();
+			b.name(stage.name().toLowerCase()).beginObject();
+			b.name("count").value(s.getCount());
+			b.name("meanMs").value(s.getMean() / 1e6);
+			b.name("p50Ms").value(s.getPercentile(0.5) / 1e6);
+			b.name("p90Ms").value(s.getPercentile(0.9) / 1e6);
+			b.name("p99Ms").value(s.getPercentile(0.99) / 1e6);
+			b.name("p999Ms").value(s.getPercentile(0.999) / 1e6);
+			b.name("maxMs").value(s.getMax() / 1e6);
+			b.endObject();
+		}
+		b.endObject();
+		
+		b.name("failures").beginObject();
+		b.name("total").value(failureCount.get());
+		b.name("byType").beginObject();
+		for (Map.Entry<String, Long> e : getFailures().entrySet())
+			b.name(e.getKey()).value(e.getValue());
+		b.endObject();
+		b.endObject();
+		
+		b.name("slowest").beginArray();
+		for (SlowestJobs.Entry e : slowestJobs.getEntries())
+		{
+			b.beginObject();
+			b.name("jobId").value(e.getJobId());
+			b.name("label").value(e.getLabel());
+			b.name("ms").value(e.getNanos() / 1e6);
+			b.endObject();
+		}
+		b.endArray();
+		
+		b.endObject();
+		return b.toString();
+	}
+	
+	// =========================================================================
+	
+	private void recordSingle(Job job, JobTrace batchTrace)
+	{
+		pages.mark(1);
+		bytes.mark(job.getSizeHint());
+		
+		// Jobs of batches processed remotely only have the batch's times
+		JobTrace trace = job.getTrace();
+		if (trace.getProcessingStartedNanos() == 0)
+			trace = batchTrace;
+		
+		if (trace.getProcessingStartedNanos() != 0)
+		{
+			long nanos = trace.getProcessingFinishedNanos() - trace.getProcessingStartedNanos();
+			record(Stage.PROCESS, nanos);
+			slowestJobs.record(nanos, job.getJobId(), job.getLabel());
+		}
+		
+		if (job.getState() == JobProcessingState.FAILED)
+			recordFailure(job.getException());
+	}
+	
+	private static double rate(Meter meter)
+	{
+		double rate = meter.getRate();
+		return Double.isNaN(rate) ? meter.getMeanRate() : rate;
+	}
+	
+	private static void meterToJson(JsonBuilder b, Meter meter)
+	{
+		b.beginObject();
+		b.name("count").value(meter.getCount());
+		b.name("rate").value(rate(meter));
+		b.name("meanRate").value(meter.getMeanRate());
+		b.endObject();
+	}
+}
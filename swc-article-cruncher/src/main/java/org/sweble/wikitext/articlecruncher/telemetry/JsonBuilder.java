@@ -0,0 +1,146 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+/**
+ * Writes a JSON document. Commas between members are inserted
+ * automatically; the caller is responsible for proper nesting.
+ */
+final class JsonBuilder
+{
+	private final StringBuilder b = new StringBuilder();
+	
+	private boolean needComma;
+	
+	// =========================================================================
+	
+	public JsonBuilder beginObject()
+	{
+		separate();
+		b.append('{');
+		needComma = false;
+		return this;
+	}
+	
+	public JsonBuilder endObject()
+	{
+		b.append('}');
+		needComma = true;
+		return this;
+	}
+	
+	public JsonBuilder beginArray()
+	{
+		separate();
+		b.append('[');
+		needComma = false;
+		return this;
+	}
+	
+	public JsonBuilder endArray()
+	{
+		b.append(']');
+		needComma = true;
+		return this;
+	}
+	
+	public JsonBuilder name(String name)
+	{
+		separate();
+		string(name);
+		b.append(':');
+		needComma = false;
+		return this;
+	}
+	
+	public JsonBuilder value(long value)
+	{
+		separate();
+		b.append(value);
+		needComma = true;
+		return this;
+	}
+	
+	public JsonBuilder value(double value)
+	{
+		separate();
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			b.append("null");
+		else
+			b.append(value);
+		needComma = true;
+		return this;
+	}
+	
+	public JsonBuilder value(String value)
+	{
+		separate();
+		if (value == null)
+			b.append("null");
+		else
+			string(value);
+		needComma = true;
+		return this;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return b.toString();
+	}
+	
+	// =========================================================================
+	
+	private void separate()
+	{
+		if (needComma)
+			b.append(',');
+	}
+	
+	private void string(String s)
+	{
+		b.append('"');
+		for (int i = 0; i < s.length(); ++i)
+		{
+			char ch = s.charAt(i);
+			switch (ch)
+			{
+				case '"':
+					b.append("\\\"");
+					break;
+				case '\\':
+					b.append("\\\\");
+					break;
+				case '\n':
+					b.append("\\n");
+					break;
+				case '\r':
+					b.append("\\r");
+					break;
+				case '\t':
+					b.append("\\t");
+					break;
+				default:
+					if (ch < 0x20)
+						b.append(String.format("\\u%04x", (int) ch));
+					else
+						b.append(ch);
+			}
+		}
+		b.append('"');
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds.
+ * 
+ * Values are counted in log-linear buckets: every power of two is split
+ * into 16 buckets, so the relative error of a percentile is at most 1/16.
+ * The buckets cover the whole range of <code>long</code> in a fixed array.
+ * Recording a value never allocates; it increments one bucket and the sum
+ * and only touches the maximum if the value exceeds it.
+ * 
+ * The engine's <code>EngineMetrics</code> use a histogram with the same
+ * bucket layout. It is not shared because the cruncher does not depend on
+ * the engine. The engine's histogram is also coarser (8 buckets per power of
+ * two): it keeps one for every template and parser function, while the
+ * cruncher keeps only one per stage and can afford 8 KB for each.
+ */
+public final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	// =========================================================================
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	
+	private final AtomicLong sum = new AtomicLong();
+	
+	private final AtomicLong max = new AtomicLong();
+	
+	// =========================================================================
+	
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		
+		buckets.incrementAndGet(bucketOf(nanos));
+		sum.addAndGet(nanos);
+		
+		long m = max.get();
+		while (nanos > m && !max.compareAndSet(m, nanos))
+			m = max.get();
+	}
+	
+	/**
+	 * Takes a snapshot of the histogram. Values recorded concurrently might
+	 * or might not be included.
+	 */
+	public Snapshot snapshot()
+	{
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+		{
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		
+		return new Snapshot(counts, count, sum.get(), max.get());
+	}
+	
+	// =========================================================================
+	
+	static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Returns the highest value that falls into the given bucket.
+	 */
+	static long upperBoundOf(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		
+		int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		int shift = exp - SUB_BUCKET_BITS;
+		long lower = (long) (SUB_BUCKETS + sub) << shift;
+		return lower + ((1L << shift) - 1);
+	}
+	
+	// =========================================================================
+	
+	public static final class Snapshot
+	{
+		private final long[] counts;
+		
+		private final long count;
+		
+		private final long sum;
+		
+		private final long max;
+		
+		private Snapshot(long[] counts, long count, long sum, long max)
+		{
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		
+		public long getCount()
+		{
+			return count;
+		}
+		
+		public long getMax()
+		{
+			return max;
+		}
+		
+		public double getMean()
+		{
+			return count == 0 ? 0 : (double) sum / count;
+		}
+		
+		/**
+		 * @param quantile
+		 *            The quantile in [0, 1], e.g. 0.99 for the 99th
+		 *            percentile.
+		 * @return An upper bound of the value below which the given
+		 *         fraction of the recorded values lie, or 0 if nothing was
+		 *         recorded.
+		 */
+		public long getPercentile(double quantile)
+		{
+			if (count == 0)
+				return 0;
+			
+			long rank = (long) Math.ceil(quantile * count);
+			if (rank < 1)
+				rank = 1;
+			
+			long seen = 0;
+			for (int i = 0; i < counts.length; ++i)
+			{
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(upperBoundOf(i), max);
+			}
+			
+			return max;
+		}
+	}
+}
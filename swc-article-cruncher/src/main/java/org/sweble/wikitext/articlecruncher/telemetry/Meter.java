@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events (pages, bytes) and estimates their current rate.
+ * 
+ * Marking an event only adds to a counter. The rate is an exponentially
+ * weighted moving average of the rates of intervals of at least
+ * <code>tickMillis</code>; it is updated lazily when it is queried.
+ */
+public final class Meter
+{
+	private final AtomicLong count = new AtomicLong();
+	
+	private final long startNanos = System.nanoTime();
+	
+	private final long tickNanos;
+	
+	private final double windowNanos;
+	
+	private long lastTickNanos = startNanos;
+	
+	private long lastTickCount;
+	
+	private double rate = Double.NaN;
+	
+	// =========================================================================
+	
+	/**
+	 * Creates a meter that averages over about 30 seconds.
+	 */
+	public Meter()
+	{
+		this(1000, 30);
+	}
+	
+	/**
+	 * @param tickMillis
+	 *            The minimum length of the interval over which a rate is
+	 *            measured.
+	 * @param windowSeconds
+	 *            The time after which a measured rate has lost about two
+	 *            thirds of its weight in the average.
+	 */
+	public Meter(long tickMillis, double windowSeconds)
+	{
+		if (tickMillis <= 0 || windowSeconds <= 0)
+			throw new IllegalArgumentException("Tick and window must be positive");
+		
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.windowNanos = windowSeconds * 1e9;
+	}
+	
+	// =========================================================================
+	
+	public void mark(long n)
+	{
+		count.addAndGet(n);
+	}
+	
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	/**
+	 * Returns the average rate per second since the meter was created.
+	 */
+	public double getMeanRate()
+	{
+		long elapsed = System.nanoTime() - startNanos;
+		return elapsed <= 0 ? 0 : count.get() * 1e9 / elapsed;
+	}
+	
+	/**
+	 * Returns the moving average of the rate per second or NaN if less than
+	 * one tick has passed since the meter was created.
+	 */
+	public synchronized double getRate()
+	{
+		long now = System.nanoTime();
+		long elapsed = now - lastTickNanos;
+		if (elapsed >= tickNanos)
+		{
+			long c = count.get();
+			double current = (c - lastTickCount) * 1e9 / elapsed;
+			
+			if (Double.isNaN(rate))
+			{
+				rate = current;
+			}
+			else
+			{
+				double alpha = 1 - Math.exp(-elapsed / windowNanos);
+				rate += alpha * (current - rate);
+			}
+			
+			lastTickNanos = now;
+			lastTickCount = c;
+		}
+		return rate;
+	}
+}
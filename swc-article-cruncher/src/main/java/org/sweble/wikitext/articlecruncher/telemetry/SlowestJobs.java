@@ -0,0 +1,154 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the N jobs that took longest to process.
+ * 
+ * Most jobs are faster than the fastest job on the list. They are rejected
+ * by comparing against a volatile threshold without taking a lock or
+ * allocating anything.
+ */
+public final class SlowestJobs
+{
+	private final long[] nanos;
+	
+	private final long[] jobIds;
+	
+	private final String[] labels;
+	
+	private int size;
+	
+	private volatile long threshold = -1;
+	
+	// =========================================================================
+	
+	public SlowestJobs(int capacity)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		
+		this.nanos = new long[capacity];
+		this.jobIds = new long[capacity];
+		this.labels = new String[capacity];
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @param label
+	 *            A description of the job, for example the title of its
+	 *            page. Can be null.
+	 */
+	public void record(long nanos, long jobId, String label)
+	{
+		if (nanos <= threshold)
+			return;
+		
+		synchronized (this)
+		{
+			if (nanos <= threshold)
+				return;
+			
+			int slot;
+			if (size < this.nanos.length)
+			{
+				slot = size++;
+			}
+			else
+			{
+				slot = 0;
+				for (int i = 1; i < size; ++i)
+				{
+					if (this.nanos[i] < this.nanos[slot])
+						slot = i;
+				}
+			}
+			
+			this.nanos[slot] = nanos;
+			this.jobIds[slot] = jobId;
+			this.labels[slot] = label;
+			
+			if (size == this.nanos.length)
+			{
+				long min = Long.MAX_VALUE;
+				for (int i = 0; i < size; ++i)
+					min = Math.min(min, this.nanos[i]);
+				threshold = min;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the recorded jobs, slowest first.
+	 */
+	public synchronized List<Entry> getEntries()
+	{
+		List<Entry> entries = new ArrayList<Entry>(size);
+		for (int i = 0; i < size; ++i)
+			entries.add(new Entry(nanos[i], jobIds[i], labels[i]));
+		
+		Collections.sort(entries, new Comparator<Entry>()
+		{
+			@Override
+			public int compare(Entry a, Entry b)
+			{
+				return a.nanos < b.nanos ? 1 : (a.nanos > b.nanos ? -1 : 0);
+			}
+		});
+		
+		return entries;
+	}
+	
+	// =========================================================================
+	
+	public static final class Entry
+	{
+		private final long nanos;
+		
+		private final long jobId;
+		
+		private final String label;
+		
+		private Entry(long nanos, long jobId, String label)
+		{
+			this.nanos = nanos;
+			this.jobId = jobId;
+			this.label = label;
+		}
+		
+		public long getNanos()
+		{
+			return nanos;
+		}
+		
+		public long getJobId()
+		{
+			return jobId;
+		}
+		
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+/**
+ * The stages a job passes through, each with its own latency histogram.
+ */
+public enum Stage
+{
+	/**
+	 * Reading and unmarshalling a page from the dump. Recorded by the job
+	 * generator.
+	 */
+	READ,
+	
+	/**
+	 * From the creation of a job until a processor picks it up.
+	 */
+	QUEUE_WAIT,
+	
+	/**
+	 * Processing a single job.
+	 */
+	PROCESS,
+	
+	/**
+	 * From the hand-over of a processed job to the storers until the storer
+	 * removed its trace.
+	 */
+	STORE
+}
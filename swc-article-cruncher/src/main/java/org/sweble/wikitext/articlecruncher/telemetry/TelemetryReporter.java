@@ -0,0 +1,216 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.telemetry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.utils.DaemonThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Periodically writes the figures of a {@link CruncherTelemetry} to the log
+ * and, optionally, as JSON to a file. The JSON document can also be served
+ * over HTTP on the loopback interface, see {@link #serveHttp(int)}.
+ */
+public final class TelemetryReporter
+{
+	private static final Logger logger = Logger.getLogger(TelemetryReporter.class);
+	
+	private static final String CHARSET = "UTF-8";
+	
+	// =========================================================================
+	
+	private final CruncherTelemetry telemetry;
+	
+	private ScheduledExecutorService scheduler;
+	
+	private File jsonFile;
+	
+	private HttpServer httpServer;
+	
+	private ExecutorService httpExecutor;
+	
+	// =========================================================================
+	
+	public TelemetryReporter(CruncherTelemetry telemetry)
+	{
+		this.telemetry = telemetry;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Starts reporting every <code>intervalMillis</code> milliseconds.
+	 * 
+	 * @param jsonFile
+	 *            If not null, the JSON document is written to this file on
+	 *            every report.
+	 */
+	public synchronized void start(long intervalMillis, File jsonFile)
+	{
+		if (scheduler != null)
+			throw new IllegalStateException("Reporter already started");
+		
+		this.jsonFile = jsonFile;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(TelemetryReporter.class.getSimpleName()));
+		
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				report();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Serves the JSON document on all paths of the given port of the
+	 * loopback interface.
+	 * 
+	 * @param port
+	 *            The port to listen on or 0 for any free port.
+	 * @return The port the server listens on.
+	 */
+	public synchronized int serveHttp(int port) throws IOException
+	{
+		if (httpServer != null)
+			throw new IllegalStateException("Already serving");
+		
+		httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		httpServer.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					byte[] body = telemetry.toJson().getBytes(CHARSET);
+					exchange.getResponseHeaders().set("Content-Type", "application/json; charset=" + CHARSET);
+					exchange.sendResponseHeaders(200, body.length);
+					
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				}
+				finally
+				{
+					exchange.close();
+				}
+			}
+		});
+		
+		httpExecutor = Executors.newSingleThreadExecutor(
+				new DaemonThreadFactory(TelemetryReporter.class.getSimpleName() + "-http"));
+		httpServer.setExecutor(httpExecutor);
+		httpServer.start();
+		
+		int boundPort = httpServer.getAddress().getPort();
+		logger.info("Serving telemetry on http://127.0.0.1:" + boundPort + "/");
+		return boundPort;
+	}
+	
+	/**
+	 * Stops reporting and serving and writes a final report.
+	 */
+	public void stop()
+	{
+		synchronized (this)
+		{
+			if (scheduler != null)
+			{
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+			
+			if (httpServer != null)
+			{
+				httpServer.stop(0);
+				httpExecutor.shutdownNow();
+				httpServer = null;
+				httpExecutor = null;
+			}
+		}
+		
+		report();
+	}
+	
+	public void report()
+	{
+		logger.info("Telemetry: " + telemetry.getSummary());
+		
+		File file;
+		synchronized (this)
+		{
+			file = jsonFile;
+		}
+		
+		if (file != null)
+		{
+			try
+			{
+				writeJson(file);
+			}
+			catch (IOException e)
+			{
+				logger.error("Writing telemetry to " + file + " failed", e);
+			}
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Writes to a temporary file first, so that readers never see a partial
+	 * document.
+	 */
+	private synchronized void writeJson(File file) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		
+		FileOutputStream out = new FileOutputStream(tmp);
+		try
+		{
+			out.write(telemetry.toJson().getBytes(CHARSET));
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		if (!tmp.renameTo(file))
+		{
+			// Windows does not replace existing files
+			if (!file.delete() || !tmp.renameTo(file))
+				throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.utils;
+
+/**
+ * A limit that can be changed while it is in use, for example the capacity
+ * of a queue or the number of jobs a processing node keeps in flight.
+ */
+public interface AdjustableLimit
+{
+	public long getLimit();
+	
+	/**
+	 * Changes the limit. Lowering the limit does not take away what has
+	 * already been admitted; it only delays further admissions.
+	 */
+	public void setLimit(long limit);
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many threads execute a section of code at the same time,
+ * independent of how many threads exist.
+ * 
+ * The typical use is a processing node with thousands of jobs in flight on
+ * virtual threads. The node runs each job while holding a permit of a
+ * limiter sized to the number of cores, so CPU-bound work like parsing
+ * never runs on more threads than there are cores. Code that blocks on I/O,
+ * for example an expansion callback querying a database, wraps the blocking
+ * call in {@link #blocking(Callable)}. The permit is handed to another job
+ * for the duration of the call.
+ */
+public final class ConcurrencyLimiter
+{
+	private static final ThreadLocal<ConcurrencyLimiter> held =
+			new ThreadLocal<ConcurrencyLimiter>();
+	
+	// =========================================================================
+	
+	private final int permits;
+	
+	private final Semaphore semaphore;
+	
+	// =========================================================================
+	
+	public ConcurrencyLimiter(int permits)
+	{
+		if (permits <= 0)
+			throw new IllegalArgumentException("permits must be positive");
+		
+		this.permits = permits;
+		this.semaphore = new Semaphore(permits);
+	}
+	
+	/**
+	 * @return A limiter with one permit per available processor.
+	 */
+	public static ConcurrencyLimiter forAvailableProcessors()
+	{
+		return new ConcurrencyLimiter(Runtime.getRuntime().availableProcessors());
+	}
+	
+	// =========================================================================
+	
+	public int getPermits()
+	{
+		return permits;
+	}
+	
+	public int getAvailablePermits()
+	{
+		return semaphore.availablePermits();
+	}
+	
+	/**
+	 * @return An estimate of the number of threads waiting for a permit.
+	 */
+	public int getQueueLength()
+	{
+		return semaphore.getQueueLength();
+	}
+	
+	/**
+	 * Executes the task while holding a permit.
+	 */
+	public <T> T call(Callable<T> task) throws Exception
+	{
+		semaphore.acquire();
+		ConcurrencyLimiter outer = held.get();
+		held.set(this);
+		try
+		{
+			return task.call();
+		}
+		finally
+		{
+			held.set(outer);
+			semaphore.release();
+		}
+	}
+	
+	/**
+	 * Executes a blocking task. If the current thread holds a permit of a
+	 * limiter (see {@link #call(Callable)}), the permit is released while the
+	 * task runs and re-acquired afterwards. Otherwise the task is simply
+	 * executed.
+	 */
+	public static <T> T blocking(Callable<T> task) throws Exception
+	{
+		ConcurrencyLimiter limiter = held.get();
+		if (limiter == null)
+			return task.call();
+		
+		held.set(null);
+		limiter.semaphore.release();
+		try
+		{
+			return task.call();
+		}
+		finally
+		{
+			limiter.semaphore.acquireUninterruptibly();
+			held.set(limiter);
+		}
+	}
+}
@@ -28,6 +28,8 @@ public class DaemonThreadFactory
 	
 	private final ThreadGroup group;
 	
+	private final ThreadFactory delegate;
+	
 	private String threadNameTemplate;
 	
 	// =========================================================================
@@ -38,11 +40,26 @@ public class DaemonThreadFactory
 	}
 	
 	public DaemonThreadFactory(String poolName, ThreadGroup group)
+	{
+		this(poolName, group, null);
+	}
+	
+	/**
+	 * @param delegate
+	 *            If not null, threads are created by the delegate and only
+	 *            named by this factory. Used for virtual threads, which are
+	 *            always daemon threads and ignore the thread group.
+	 */
+	public DaemonThreadFactory(
+			String poolName,
+			ThreadGroup group,
+			ThreadFactory delegate)
 	{
 		if (group == null)
 			group = new ThreadGroup(poolName);
 		
 		this.group = group;
+		this.delegate = delegate;
 		
 		this.threadNameTemplate = String.format("%s-%%02d", poolName);
 	}
@@ -61,6 +78,13 @@ public class DaemonThreadFactory
 	{
 		String name = String.format(threadNameTemplate, threadNumber.getAndIncrement());
 		
+		if (delegate != null)
+		{
+			Thread thread = delegate.newThread(runnable);
+			thread.setName(name);
+			return thread;
+		}
+		
 		Thread thread = new Thread(group, runnable, name);
 		
 		if (!thread.isDaemon())
@@ -19,5 +19,21 @@ package org.sweble.wikitext.articlecruncher.utils;
 
 public enum ExecutorType
 {
-	CACHED_THREAD_POOL
+	CACHED_THREAD_POOL,
+	
+	/**
+	 * Starts a new virtual thread for each task. Virtual threads are cheap
+	 * enough to have thousands of tasks blocked on I/O at the same time.
+	 * Requires Java 21 or later, see {@link #isSupported()}. On older JVMs a
+	 * cached thread pool is used instead.
+	 */
+	VIRTUAL_THREADS;
+	
+	/**
+	 * @return Whether the running JVM supports this executor type.
+	 */
+	public boolean isSupported()
+	{
+		return (this != VIRTUAL_THREADS) || VirtualThreads.isSupported();
+	}
 }
@@ -60,15 +60,26 @@ public class MyExecutorService
 	{
 		this.logger = logger;
 		
-		this.threadFactory = new DaemonThreadFactory(
-				logger.getName(), threadGroup);
+		if (type == ExecutorType.VIRTUAL_THREADS && !type.isSupported())
+		{
+			logger.warn("Virtual threads are not supported by this JVM, using a cached thread pool instead");
+			type = ExecutorType.CACHED_THREAD_POOL;
+		}
 		
 		switch (type)
 		{
 			case CACHED_THREAD_POOL:
+				this.threadFactory = new DaemonThreadFactory(
+						logger.getName(), threadGroup);
 				this.executor = Executors.newCachedThreadPool(threadFactory);
 				break;
 			
+			case VIRTUAL_THREADS:
+				this.threadFactory = new DaemonThreadFactory(
+						logger.getName(), threadGroup, VirtualThreads.newThreadFactory());
+				this.executor = VirtualThreads.newThreadPerTaskExecutor(threadFactory);
+				break;
+			
 			default:
 				throw new IllegalArgumentException("Invalid executor type");
 		}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the metrics of a {@link WeightedBlockingQueue}.
+ * 
+ * All counters are cumulative since the queue was created. Rates and
+ * averages over an interval can be computed from the difference of two
+ * snapshots.
+ */
+public final class QueueStats
+{
+	private final long timestamp;
+	
+	private final int depth;
+	
+	private final int maxDepth;
+	
+	private final long weight;
+	
+	private final long capacity;
+	
+	private final long puts;
+	
+	private final long takes;
+	
+	private final long weightTaken;
+	
+	private final long putWaitNanos;
+	
+	private final long takeWaitNanos;
+	
+	private final long residenceNanos;
+	
+	// =========================================================================
+	
+	public QueueStats(
+			long timestamp,
+			int depth,
+			int maxDepth,
+			long weight,
+			long capacity,
+			long puts,
+			long takes,
+			long weightTaken,
+			long putWaitNanos,
+			long takeWaitNanos,
+			long residenceNanos)
+	{
+		this.timestamp = timestamp;
+		this.depth = depth;
+		this.maxDepth = maxDepth;
+		this.weight = weight;
+		this.capacity = capacity;
+		this.puts = puts;
+		this.takes = takes;
+		this.weightTaken = weightTaken;
+		this.putWaitNanos = putWaitNanos;
+		this.takeWaitNanos = takeWaitNanos;
+		this.residenceNanos = residenceNanos;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The value of {@link System#nanoTime()} when the snapshot was taken.
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	/**
+	 * The number of elements in the queue.
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+	
+	/**
+	 * The highest number of elements that were in the queue at once.
+	 */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+	
+	/**
+	 * The total weight of the elements in the queue.
+	 */
+	public long getWeight()
+	{
+		return weight;
+	}
+	
+	public long getCapacity()
+	{
+		return capacity;
+	}
+	
+	public long getPuts()
+	{
+		return puts;
+	}
+	
+	public long getTakes()
+	{
+		return takes;
+	}
+	
+	/**
+	 * The total weight of all elements taken from the queue.
+	 */
+	public long getWeightTaken()
+	{
+		return weightTaken;
+	}
+	
+	/**
+	 * The time producers spent waiting for capacity.
+	 */
+	public long getPutWaitNanos()
+	{
+		return putWaitNanos;
+	}
+	
+	/**
+	 * The time consumers spent waiting for elements.
+	 */
+	public long getTakeWaitNanos()
+	{
+		return takeWaitNanos;
+	}
+	
+	/**
+	 * The time all taken elements spent in the queue.
+	 */
+	public long getResidenceNanos()
+	{
+		return residenceNanos;
+	}
+	
+	/**
+	 * The average time an element spent in the queue.
+	 */
+	public long getAvgResidenceNanos()
+	{
+		return takes == 0 ? 0 : residenceNanos / takes;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String toString()
+	{
+		return String.format(
+				"depth=%d (max %d), weight=%d/%d, puts=%d, takes=%d, " +
+						"put wait=%dms, take wait=%dms, avg residence=%.3fms",
+				depth,
+				maxDepth,
+				weight,
+				capacity,
+				puts,
+				takes,
+				TimeUnit.NANOSECONDS.toMillis(putWaitNanos),
+				TimeUnit.NANOSECONDS.toMillis(takeWaitNanos),
+				getAvgResidenceNanos() / 1e6);
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A semaphore whose total number of permits can be changed at runtime.
+ * 
+ * Growing releases the additional permits. Shrinking takes permits away; if
+ * they are currently held, the number of available permits goes negative
+ * and acquirers wait until enough permits have been released.
+ */
+public class ResizableSemaphore
+		extends
+			Semaphore
+		implements
+			AdjustableLimit
+{
+	private static final long serialVersionUID = 1L;
+	
+	private int permits;
+	
+	// =========================================================================
+	
+	public ResizableSemaphore(int permits)
+	{
+		super(permits);
+		if (permits <= 0)
+			throw new IllegalArgumentException("Need at least one permit");
+		this.permits = permits;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public synchronized long getLimit()
+	{
+		return permits;
+	}
+	
+	@Override
+	public synchronized void setLimit(long limit)
+	{
+		int newPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, limit));
+		if (newPermits > permits)
+			release(newPermits - permits);
+		else if (newPermits < permits)
+			reducePermits(permits - newPermits);
+		permits = newPermits;
+	}
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer multi-consumer queue on top of a ring buffer.
+ * 
+ * Producers and consumers claim slots with a single compare-and-set on the
+ * tail and head counter respectively. Each slot carries a sequence number
+ * which tells whether the slot is ready to be written or read (see Dmitry
+ * Vyukov's bounded MPMC queue). No locks are taken. Blocking operations wait
+ * according to a {@link WaitStrategy}.
+ * 
+ * {@link #drainTo(Collection, int)} claims all ready elements up to the
+ * given maximum with one compare-and-set. Consumers that take elements in
+ * batches therefore contend far less than consumers calling {@link #take()}
+ * for every element.
+ * 
+ * The iterator only returns a snapshot of the elements and does not support
+ * removal.
+ */
+public class RingBlockingQueue<E>
+		extends
+			AbstractQueue<E>
+		implements
+			BlockingQueue<E>
+{
+	private final int capacity;
+	
+	private final int mask;
+	
+	private final Object[] items;
+	
+	private final AtomicLongArray sequences;
+	
+	private final AtomicLong head = new AtomicLong();
+	
+	private final AtomicLong tail = new AtomicLong();
+	
+	private final WaitStrategy waitStrategy;
+	
+	// =========================================================================
+	
+	/**
+	 * @param capacity
+	 *            The minimum capacity of the queue. It is rounded up to the
+	 *            next power of two.
+	 */
+	public RingBlockingQueue(int capacity, WaitStrategy waitStrategy)
+	{
+		if (capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("Capacity must be in [1, 2^30]");
+		
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		
+		this.capacity = size;
+		this.mask = size - 1;
+		this.items = new Object[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i)
+			sequences.set(i, i);
+		
+		this.waitStrategy = waitStrategy;
+	}
+	
+	// =========================================================================
+	
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	public WaitStrategy getWaitStrategy()
+	{
+		return waitStrategy;
+	}
+	
+	@Override
+	public boolean offer(E e)
+	{
+		if (e == null)
+			throw new NullPointerException();
+		
+		long pos = tail.get();
+		while (true)
+		{
+			int i = (int) pos & mask;
+			long diff = sequences.get(i) - pos;
+			if (diff == 0)
+			{
+				if (tail.compareAndSet(pos, pos + 1))
+				{
+					items[i] = e;
+					// Publishes the element
+					sequences.lazySet(i, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if (diff < 0)
+			{
+				// The slot still holds an element from the previous round
+				return false;
+			}
+			else
+			{
+				pos = tail.get();
+			}
+		}
+	}
+	
+	@Override
+	public E poll()
+	{
+		long pos = head.get();
+		while (true)
+		{
+			int i = (int) pos & mask;
+			long diff = sequences.get(i) - (pos + 1);
+			if (diff == 0)
+			{
+				if (head.compareAndSet(pos, pos + 1))
+					return consume(i, pos);
+				pos = head.get();
+			}
+			else if (diff < 0)
+			{
+				// The slot was not yet written
+				return null;
+			}
+			else
+			{
+				pos = head.get();
+			}
+		}
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public E peek()
+	{
+		while (true)
+		{
+			long pos = head.get();
+			int i = (int) pos & mask;
+			if (sequences.get(i) != pos + 1)
+				return null;
+			
+			Object e = items[i];
+			
+			// The element might have been taken in the meantime
+			if (head.get() == pos && e != null)
+				return (E) e;
+		}
+	}
+	
+	@Override
+	public void put(E e) throws InterruptedException
+	{
+		int counter = 0;
+		while (!offer(e))
+		{
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			counter = waitStrategy.idle(counter);
+		}
+	}
+	
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int counter = 0;
+		while (!offer(e))
+		{
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			if (System.nanoTime() - deadline >= 0)
+				return false;
+			counter = waitStrategy.idle(counter);
+		}
+		return true;
+	}
+	
+	@Override
+	public E take() throws InterruptedException
+	{
+		int counter = 0;
+		while (true)
+		{
+			E e = poll();
+			if (e != null)
+				return e;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			counter = waitStrategy.idle(counter);
+		}
+	}
+	
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int counter = 0;
+		while (true)
+		{
+			E e = poll();
+			if (e != null)
+				return e;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			if (System.nanoTime() - deadline >= 0)
+				return null;
+			counter = waitStrategy.idle(counter);
+		}
+	}
+	
+	/**
+	 * Waits until at least one element is available and then drains all
+	 * available elements up to the given maximum.
+	 * 
+	 * @return The number of elements added to the collection.
+	 */
+	public int takeBatch(Collection<? super E> c, int maxElements) throws InterruptedException
+	{
+		int counter = 0;
+		while (true)
+		{
+			int n = drainTo(c, maxElements);
+			if (n > 0)
+				return n;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			counter = waitStrategy.idle(counter);
+		}
+	}
+	
+	@Override
+	public int remainingCapacity()
+	{
+		return capacity - size();
+	}
+	
+	@Override
+	public int drainTo(Collection<? super E> c)
+	{
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements)
+	{
+		if (c == this)
+			throw new IllegalArgumentException();
+		if (maxElements <= 0)
+			return 0;
+		
+		while (true)
+		{
+			long pos = head.get();
+			
+			// Count the consecutive slots that are ready to be read
+			int n = 0;
+			while (n < maxElements && n < capacity)
+			{
+				long p = pos + n;
+				if (sequences.get((int) p & mask) != p + 1)
+					break;
+				++n;
+			}
+			
+			if (n == 0)
+				return 0;
+			
+			if (head.compareAndSet(pos, pos + n))
+			{
+				for (int k = 0; k < n; ++k)
+				{
+					long p = pos + k;
+					c.add(consume((int) p & mask, p));
+				}
+				return n;
+			}
+		}
+	}
+	
+	@Override
+	public int size()
+	{
+		while (true)
+		{
+			long h = head.get();
+			long t = tail.get();
+			if (head.get() == h)
+				return (int) Math.max(0, Math.min(capacity, t - h));
+		}
+	}
+	
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+	
+	/**
+	 * Returns an iterator over a snapshot of the elements. The snapshot might
+	 * miss elements which are concurrently added or taken.
+	 */
+	@Override
+	public Iterator<E> iterator()
+	{
+		List<E> snapshot = new ArrayList<E>();
+		
+		long h = head.get();
+		long t = tail.get();
+		for (long p = h; p < t && p < h + capacity; ++p)
+		{
+			int i = (int) p & mask;
+			if (sequences.get(i) != p + 1)
+				break;
+			
+			@SuppressWarnings("unchecked")
+			E e = (E) items[i];
+			if (e == null || sequences.get(i) != p + 1)
+				break;
+			snapshot.add(e);
+		}
+		
+		final Iterator<E> i = snapshot.iterator();
+		return new Iterator<E>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return i.hasNext();
+			}
+			
+			@Override
+			public E next()
+			{
+				return i.next();
+			}
+			
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Takes the element out of a slot claimed by a consumer and hands the
+	 * slot to the producers of the next round.
+	 */
+	@SuppressWarnings("unchecked")
+	private E consume(int i, long pos)
+	{
+		E e = (E) items[i];
+		items[i] = null;
+		sequences.lazySet(i, pos + capacity);
+		return e;
+	}
+}
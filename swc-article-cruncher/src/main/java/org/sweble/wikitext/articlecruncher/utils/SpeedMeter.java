@@ -19,6 +19,11 @@ package org.sweble.wikitext.articlecruncher.utils;
 
 import de.fau.cs.osr.utils.RingBuffer;
 
+/**
+ * @deprecated Use a {@link org.sweble.wikitext.articlecruncher.telemetry.Meter}
+ *             instead, which does not box every measurement.
+ */
+@Deprecated
 public class SpeedMeter
 {
 	private final RingBuffer<Float> speedBuffer;
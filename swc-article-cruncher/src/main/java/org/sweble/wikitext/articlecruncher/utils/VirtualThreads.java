@@ -0,0 +1,106 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.fau.cs.osr.utils.WrappedException;
+
+/**
+ * Access to virtual threads (Java 21 and later) through reflection, since
+ * this library is compiled for older JDKs.
+ */
+final class VirtualThreads
+{
+	private static final Method OF_VIRTUAL;
+	
+	private static final Method BUILDER_FACTORY;
+	
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+	
+	static
+	{
+		Method ofVirtual = null;
+		Method builderFactory = null;
+		Method newThreadPerTaskExecutor = null;
+		try
+		{
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderFactory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod(
+					"newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			
+			// Virtual threads might be a disabled preview feature
+			builderFactory.invoke(ofVirtual.invoke(null));
+		}
+		catch (Throwable t)
+		{
+			ofVirtual = null;
+		}
+		
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_FACTORY = builderFactory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+	
+	private VirtualThreads()
+	{
+	}
+	
+	// =========================================================================
+	
+	public static boolean isSupported()
+	{
+		return OF_VIRTUAL != null;
+	}
+	
+	/**
+	 * @return A factory for unstarted virtual threads.
+	 */
+	public static ThreadFactory newThreadFactory()
+	{
+		try
+		{
+			Object builder = OF_VIRTUAL.invoke(null);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		}
+		catch (Exception e)
+		{
+			throw new WrappedException(e);
+		}
+	}
+	
+	/**
+	 * @return An executor which starts a new thread for each task.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory)
+	{
+		try
+		{
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+		}
+		catch (Exception e)
+		{
+			throw new WrappedException(e);
+		}
+	}
+}
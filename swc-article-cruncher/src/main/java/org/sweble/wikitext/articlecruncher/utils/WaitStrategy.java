@@ -0,0 +1,95 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a {@link RingBlockingQueue} to become non-empty or
+ * non-full. The ring buffer does not keep track of waiting threads. Waiting
+ * threads therefore poll the queue and the strategy decides how much CPU
+ * time they burn in between.
+ */
+public enum WaitStrategy
+{
+	/**
+	 * Spins without ever giving up the CPU. Lowest latency, but every waiting
+	 * thread occupies a core. Only use this if there are more cores than
+	 * threads in the pipeline.
+	 */
+	BUSY_SPIN
+	{
+		@Override
+		public int idle(int counter)
+		{
+			return counter + 1;
+		}
+	},
+	
+	/**
+	 * Spins for a short while and then yields the CPU to other threads.
+	 */
+	YIELD
+	{
+		@Override
+		public int idle(int counter)
+		{
+			if (counter >= SPIN_TRIES)
+				Thread.yield();
+			return counter + 1;
+		}
+	},
+	
+	/**
+	 * Spins, then yields and finally parks for short periods of time. Waiting
+	 * threads consume next to no CPU time, at the cost of up to
+	 * {@link #PARK_NANOS} of additional latency.
+	 */
+	PARK
+	{
+		@Override
+		public int idle(int counter)
+		{
+			if (counter >= SPIN_TRIES + YIELD_TRIES)
+				LockSupport.parkNanos(PARK_NANOS);
+			else if (counter >= SPIN_TRIES)
+				Thread.yield();
+			return counter + 1;
+		}
+	};
+	
+	// =========================================================================
+	
+	private static final int SPIN_TRIES = 100;
+	
+	private static final int YIELD_TRIES = 100;
+	
+	public static final long PARK_NANOS = 50 * 1000;
+	
+	// =========================================================================
+	
+	/**
+	 * Called each time a waiting thread found the queue unchanged.
+	 * 
+	 * @param counter
+	 *            The number of times the thread already waited, 0 on the
+	 *            first call.
+	 * @return The counter for the next call.
+	 */
+	public abstract int idle(int counter);
+}
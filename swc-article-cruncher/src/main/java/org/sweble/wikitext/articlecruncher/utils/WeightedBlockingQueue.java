@@ -0,0 +1,526 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.articlecruncher.utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking queue whose capacity is given as the total weight of its
+ * elements rather than their number. For jobs the weight is the size of the
+ * wikitext, so that a queue holds many small pages or a few huge ones.
+ * 
+ * An element is admitted if it fits into the remaining capacity or if the
+ * queue is empty. Therefore an element heavier than the capacity does not
+ * block forever. The capacity can be changed at runtime (see
+ * {@link AdjustableLimit}); a lower capacity does not evict anything but
+ * holds back producers until enough weight was taken.
+ * 
+ * The queue records its depth, the time producers and consumers spent
+ * waiting and the time elements spent in the queue (see {@link #getStats()}).
+ * 
+ * The iterator only returns a snapshot of the elements and does not support
+ * removal.
+ */
+public class WeightedBlockingQueue<E>
+		extends
+			AbstractQueue<E>
+		implements
+			BlockingQueue<E>,
+			AdjustableLimit
+{
+	public static interface Weigher<E>
+	{
+		/**
+		 * @return The weight of the given element, must not be negative.
+		 */
+		public long weigh(E e);
+	}
+	
+	// =========================================================================
+	
+	private final Weigher<? super E> weigher;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	private final Condition notEmpty = lock.newCondition();
+	
+	private final Condition notFull = lock.newCondition();
+	
+	private final ArrayDeque<Entry<E>> entries = new ArrayDeque<Entry<E>>();
+	
+	private long capacity;
+	
+	private long weight;
+	
+	private int maxDepth;
+	
+	private long puts;
+	
+	private long takes;
+	
+	private long weightTaken;
+	
+	private long putWaitNanos;
+	
+	private long takeWaitNanos;
+	
+	private long residenceNanos;
+	
+	// =========================================================================
+	
+	/**
+	 * @param capacity
+	 *            The maximum total weight of the elements in the queue.
+	 */
+	public WeightedBlockingQueue(long capacity, Weigher<? super E> weigher)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		if (weigher == null)
+			throw new NullPointerException();
+		
+		this.capacity = capacity;
+		this.weigher = weigher;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public long getLimit()
+	{
+		lock.lock();
+		try
+		{
+			return capacity;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void setLimit(long limit)
+	{
+		if (limit <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		
+		lock.lock();
+		try
+		{
+			boolean grown = limit > capacity;
+			capacity = limit;
+			if (grown)
+				notFull.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * The total weight of the elements in the queue.
+	 */
+	public long getWeight()
+	{
+		lock.lock();
+		try
+		{
+			return weight;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	public QueueStats getStats()
+	{
+		lock.lock();
+		try
+		{
+			return new QueueStats(
+					System.nanoTime(),
+					entries.size(),
+					maxDepth,
+					weight,
+					capacity,
+					puts,
+					takes,
+					weightTaken,
+					putWaitNanos,
+					takeWaitNanos,
+					residenceNanos);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public boolean offer(E e)
+	{
+		long w = weighOf(e);
+		
+		lock.lock();
+		try
+		{
+			if (!admits(w))
+				return false;
+			enqueue(e, w);
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void put(E e) throws InterruptedException
+	{
+		long w = weighOf(e);
+		
+		lock.lockInterruptibly();
+		try
+		{
+			if (!admits(w))
+			{
+				long start = System.nanoTime();
+				try
+				{
+					while (!admits(w))
+						notFull.await();
+				}
+				finally
+				{
+					putWaitNanos += System.nanoTime() - start;
+				}
+			}
+			enqueue(e, w);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long w = weighOf(e);
+		long nanos = unit.toNanos(timeout);
+		
+		lock.lockInterruptibly();
+		try
+		{
+			if (!admits(w))
+			{
+				long start = System.nanoTime();
+				try
+				{
+					while (!admits(w))
+					{
+						if (nanos <= 0)
+							return false;
+						nanos = notFull.awaitNanos(nanos);
+					}
+				}
+				finally
+				{
+					putWaitNanos += System.nanoTime() - start;
+				}
+			}
+			enqueue(e, w);
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public E poll()
+	{
+		lock.lock();
+		try
+		{
+			return entries.isEmpty() ? null : dequeue();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public E take() throws InterruptedException
+	{
+		lock.lockInterruptibly();
+		try
+		{
+			if (entries.isEmpty())
+			{
+				long start = System.nanoTime();
+				try
+				{
+					while (entries.isEmpty())
+						notEmpty.await();
+				}
+				finally
+				{
+					takeWaitNanos += System.nanoTime() - start;
+				}
+			}
+			return dequeue();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		
+		lock.lockInterruptibly();
+		try
+		{
+			if (entries.isEmpty())
+			{
+				long start = System.nanoTime();
+				try
+				{
+					while (entries.isEmpty())
+					{
+						if (nanos <= 0)
+							return null;
+						nanos = notEmpty.awaitNanos(nanos);
+					}
+				}
+				finally
+				{
+					takeWaitNanos += System.nanoTime() - start;
+				}
+			}
+			return dequeue();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public E peek()
+	{
+		lock.lock();
+		try
+		{
+			return entries.isEmpty() ? null : entries.peek().item;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the remaining capacity in units of weight, clamped to
+	 * {@link Integer#MAX_VALUE}. An element might still be admitted if this
+	 * method returns 0, namely if the queue is empty.
+	 */
+	@Override
+	public int remainingCapacity()
+	{
+		lock.lock();
+		try
+		{
+			return (int) Math.min(Integer.MAX_VALUE, Math.max(0, capacity - weight));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int drainTo(Collection<? super E> c)
+	{
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements)
+	{
+		if (c == this)
+			throw new IllegalArgumentException();
+		if (maxElements <= 0)
+			return 0;
+		
+		lock.lock();
+		try
+		{
+			int n = 0;
+			while (n < maxElements && !entries.isEmpty())
+			{
+				c.add(dequeue());
+				++n;
+			}
+			return n;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int size()
+	{
+		lock.lock();
+		try
+		{
+			return entries.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns an iterator over a snapshot of the elements.
+	 */
+	@Override
+	public Iterator<E> iterator()
+	{
+		List<E> snapshot;
+		
+		lock.lock();
+		try
+		{
+			snapshot = new ArrayList<E>(entries.size());
+			for (Entry<E> entry : entries)
+				snapshot.add(entry.item);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		final Iterator<E> i = snapshot.iterator();
+		return new Iterator<E>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return i.hasNext();
+			}
+			
+			@Override
+			public E next()
+			{
+				return i.next();
+			}
+			
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	// =========================================================================
+	
+	private long weighOf(E e)
+	{
+		if (e == null)
+			throw new NullPointerException();
+		
+		long w = weigher.weigh(e);
+		if (w < 0)
+			throw new IllegalArgumentException("Negative weight");
+		return w;
+	}
+	
+	private boolean admits(long w)
+	{
+		return entries.isEmpty() || weight + w <= capacity;
+	}
+	
+	private void enqueue(E e, long w)
+	{
+		entries.add(new Entry<E>(e, w, System.nanoTime()));
+		weight += w;
+		++puts;
+		
+		if (entries.size() > maxDepth)
+			maxDepth = entries.size();
+		
+		notEmpty.signal();
+	}
+	
+	private E dequeue()
+	{
+		Entry<E> entry = entries.poll();
+		weight -= entry.weight;
+		weightTaken += entry.weight;
+		residenceNanos += System.nanoTime() - entry.enqueued;
+		++takes;
+		
+		// Elements differ in weight, the next waiting producer might not fit
+		notFull.signalAll();
+		
+		return entry.item;
+	}
+	
+	// =========================================================================
+	
+	private static final class Entry<E>
+	{
+		final E item;
+		
+		final long weight;
+		
+		final long enqueued;
+		
+		public Entry(E item, long weight, long enqueued)
+		{
+			this.item = item;
+			this.weight = weight;
+			this.enqueued = enqueued;
+		}
+	}
+}
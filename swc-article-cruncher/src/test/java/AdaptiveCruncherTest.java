@@ -0,0 +1,285 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.AdaptiveCapacityController;
+import org.sweble.wikitext.articlecruncher.AdaptiveCapacityController.Decision;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.QueueStats;
+import org.sweble.wikitext.articlecruncher.utils.WeightedBlockingQueue;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+public class AdaptiveCruncherTest
+		extends
+			CruncherTestBase
+{
+	private static final int NUM_WORKERS = 8;
+	
+	private static final long QUEUE_BYTES = 64 * 1024;
+	
+	private static final WeightedBlockingQueue.Weigher<Long> IDENTITY =
+			new WeightedBlockingQueue.Weigher<Long>()
+			{
+				@Override
+				public long weigh(Long e)
+				{
+					return e;
+				}
+			};
+	
+	private AtomicLong processed = new AtomicLong(0);
+	
+	// =========================================================================
+	
+	@Test
+	public void testAdaptivePipelineProcessesAllJobs() throws Throwable
+	{
+		final Nexus nexus = new Nexus();
+		
+		nexus.setUpByteWeighted(QUEUE_BYTES, QUEUE_BYTES, QUEUE_BYTES, true);
+		
+		nexus.addJobGenerator(createJobFactory());
+		
+		nexus.addProcessingNode(new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				LocalProcessingNode node = new LocalProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						createLpnFactory(),
+						NUM_WORKERS);
+				
+				nexus.getCapacityController().addLimit(
+						"inFlight",
+						node.getInFlightLimit(),
+						1,
+						NUM_WORKERS);
+				
+				return node;
+			}
+		});
+		
+		nexus.addStorer(createStorerFactory());
+		
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, generated.get());
+		assertEquals(NUM_JOBS_TO_GENERATE, processed.get());
+		assertEquals(NUM_JOBS_TO_GENERATE, stored.get());
+		assertTrue(nexus.getJobTraces().isEmpty());
+		
+		Map<String, QueueStats> stats = nexus.getQueueStats();
+		assertEquals(3, stats.size());
+		for (QueueStats s : stats.values())
+		{
+			assertEquals(NUM_JOBS_TO_GENERATE, s.getTakes());
+			assertEquals(0, s.getDepth());
+			assertEquals(0, s.getWeight());
+		}
+	}
+	
+	@Test
+	public void testQueueIsLimitedByWeight() throws Exception
+	{
+		WeightedBlockingQueue<Long> q = new WeightedBlockingQueue<Long>(100, IDENTITY);
+		
+		assertTrue(q.offer(60L));
+		assertTrue(q.offer(40L));
+		assertFalse(q.offer(1L));
+		assertEquals(100, q.getWeight());
+		
+		assertEquals(Long.valueOf(60), q.poll());
+		assertFalse(q.offer(61L));
+		assertTrue(q.offer(60L));
+		
+		// An empty queue admits anything
+		q.clear();
+		assertTrue(q.offer(1000L));
+		assertFalse(q.offer(0L, 10, TimeUnit.MILLISECONDS));
+		
+		// Shrinking holds back producers until enough weight was taken
+		q.clear();
+		q.setLimit(10);
+		assertTrue(q.offer(10L));
+		assertFalse(q.offer(1L));
+		
+		QueueStats stats = q.getStats();
+		assertEquals(10, stats.getCapacity());
+		assertEquals(1, stats.getDepth());
+		assertEquals(2, stats.getMaxDepth());
+		assertTrue(stats.getPutWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+	}
+	
+	@Test
+	public void testControllerGrowsUnderPressureAndBacksOff() throws Exception
+	{
+		WeightedBlockingQueue<Long> limited = new WeightedBlockingQueue<Long>(10, IDENTITY);
+		WeightedBlockingQueue<Long> storerQueue = new WeightedBlockingQueue<Long>(10, IDENTITY);
+		
+		AdaptiveCapacityController controller = createController(storerQueue, 0.1);
+		controller.addLimit("limited", limited, 1, 1000);
+		controller.setGrowFactor(2);
+		
+		// A producer waits for the limited queue while jobs are stored
+		limited.put(10L);
+		assertFalse(limited.offer(1L, 5, TimeUnit.MILLISECONDS));
+		storerQueue.put(5L);
+		storerQueue.take();
+		
+		assertEquals(Decision.GROW, controller.adjust());
+		assertEquals(20, limited.getLimit());
+		
+		// Throughput did not improve, so the step is undone
+		assertEquals(Decision.SHRINK, controller.adjust());
+		assertEquals(10, limited.getLimit());
+		
+		assertEquals(Decision.HOLD, controller.adjust());
+	}
+	
+	@Test
+	public void testControllerShrinksUnderHeapPressure() throws Exception
+	{
+		WeightedBlockingQueue<Long> limited = new WeightedBlockingQueue<Long>(100, IDENTITY);
+		WeightedBlockingQueue<Long> storerQueue = new WeightedBlockingQueue<Long>(10, IDENTITY);
+		
+		AtomicLong collections = new AtomicLong(1);
+		
+		AdaptiveCapacityController controller = createController(storerQueue, 0.95, collections);
+		controller.addLimit("limited", limited, 30, 1000);
+		
+		assertEquals(Decision.SHRINK, controller.adjust());
+		assertEquals(50, limited.getLimit());
+		
+		// The shrink has to settle first
+		for (int i = 0; i < 5; ++i)
+		{
+			collections.incrementAndGet();
+			assertEquals(Decision.HOLD, controller.adjust());
+			assertEquals(50, limited.getLimit());
+		}
+		
+		// No collection happened, the occupancy is the one already acted upon
+		assertEquals(Decision.HOLD, controller.adjust());
+		assertEquals(50, limited.getLimit());
+		
+		collections.incrementAndGet();
+		assertEquals(Decision.SHRINK, controller.adjust());
+		assertEquals(30, limited.getLimit());
+	}
+	
+	@Test
+	public void testControllerShrinksWhenStorersLag() throws Exception
+	{
+		WeightedBlockingQueue<Long> limited = new WeightedBlockingQueue<Long>(100, IDENTITY);
+		WeightedBlockingQueue<Long> storerQueue = new WeightedBlockingQueue<Long>(10, IDENTITY);
+		
+		AdaptiveCapacityController controller = createController(storerQueue, 0.1);
+		controller.addLimit("limited", limited, 1, 1000);
+		controller.setMaxStorerLatency(5, TimeUnit.MILLISECONDS);
+		
+		storerQueue.put(1L);
+		Thread.sleep(20);
+		storerQueue.take();
+		
+		assertEquals(Decision.SHRINK, controller.adjust());
+		assertEquals(80, limited.getLimit());
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected Job createJob(long i)
+	{
+		// Mostly small pages and now and then a big one
+		return new TestJob((i % 1024 == 0) ? QUEUE_BYTES * 2 : (i * 31) % 2048);
+	}
+	
+	private static AdaptiveCapacityController createController(
+			WeightedBlockingQueue<Long> storerQueue,
+			double heapOccupancy)
+	{
+		return createController(storerQueue, heapOccupancy, new AtomicLong(0));
+	}
+	
+	private static AdaptiveCapacityController createController(
+			WeightedBlockingQueue<Long> storerQueue,
+			final double heapOccupancy,
+			final AtomicLong collections)
+	{
+		return new AdaptiveCapacityController(storerQueue)
+		{
+			@Override
+			protected long countCollections()
+			{
+				return collections.get();
+			}
+			
+			@Override
+			protected double measureHeapOccupancy()
+			{
+				return heapOccupancy;
+			}
+		};
+	}
+	
+	private LpnJobProcessorFactory createLpnFactory()
+	{
+		return new LpnJobProcessorFactory()
+		{
+			@Override
+			public Processor createProcessor()
+			{
+				return new Processor()
+				{
+					@Override
+					public Object process(Job job)
+					{
+						job.signOff(getClass(), null);
+						
+						processed.incrementAndGet();
+						
+						return null;
+					}
+				};
+			}
+			
+			@Override
+			public String getProcessorNameTemplate()
+			{
+				return "Processor-%02d";
+			}
+		};
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.BatchProcessor;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobBatch;
+import org.sweble.wikitext.articlecruncher.JobBatcher;
+import org.sweble.wikitext.articlecruncher.JobGeneratorFactory;
+import org.sweble.wikitext.articlecruncher.JobProcessingState;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.JobTrace.Signer;
+import org.sweble.wikitext.articlecruncher.JobTraceSet;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.StorerFactory;
+import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+public class BatchCruncherTest
+		extends
+			CruncherTestBase
+{
+	private Nexus nexus;
+	
+	private static final int NUM_WORKERS = 4;
+	
+	private static final int BATCH_SIZE = 64;
+	
+	private static final long BATCH_BYTES = 4096;
+	
+	/** Every n-th job fails. */
+	private static final int FAIL_EVERY = 1000;
+	
+	private static final long BAD_JOB_SIZE = 7;
+	
+	private AtomicLong batches = new AtomicLong(0);
+	
+	private AtomicLong succeeded = new AtomicLong(0);
+	
+	private AtomicLong failed = new AtomicLong(0);
+	
+	private AtomicLong tracesChecked = new AtomicLong(0);
+	
+	// =========================================================================
+	
+	@Before
+	public void before() throws Throwable
+	{
+		nexus = new Nexus();
+		
+		nexus.setUp(
+				16, /* in tray capacity */
+				16, /* processed jobs capacity */
+				16 /* out tray capacity */);
+		
+		nexus.addJobGenerator(createBatchJobFactory());
+		
+		nexus.addProcessingNode(createPnFactory());
+		
+		nexus.addStorer(createBatchStorerFactory());
+	}
+	
+	// =========================================================================
+	
+	@Test
+	public void test() throws Throwable
+	{
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, generated.get());
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, stored.get());
+		
+		long expectedFailures = (NUM_JOBS_TO_GENERATE + FAIL_EVERY - 1) / FAIL_EVERY;
+		assertEquals(expectedFailures, failed.get());
+		assertEquals(NUM_JOBS_TO_GENERATE - expectedFailures, succeeded.get());
+		
+		assertTrue(batches.get() < NUM_JOBS_TO_GENERATE / BATCH_SIZE * 2);
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, tracesChecked.get());
+		
+		Set<JobTrace> jobTraces = nexus.getJobTraces();
+		assertTrue(jobTraces.isEmpty());
+	}
+	
+	// =========================================================================
+	
+	private JobGeneratorFactory createBatchJobFactory()
+	{
+		return new JobGeneratorFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					final BlockingQueue<Job> inTray,
+					final JobTraceSet jobTraces)
+			{
+				return new WorkerBase("JobGenerator", abortHandler)
+				{
+					@Override
+					protected void work() throws InterruptedException
+					{
+						JobBatcher batcher = new JobBatcher(
+								inTray,
+								jobTraces,
+								getClass(),
+								BATCH_SIZE,
+								BATCH_BYTES);
+						
+						for (long i = 0; i < NUM_JOBS_TO_GENERATE; ++i)
+						{
+							long size = 8;
+							if (i % FAIL_EVERY == 0)
+								size = BAD_JOB_SIZE;
+							else if (i % 100 == 0)
+								size = BATCH_BYTES; // ends a batch early
+							
+							batcher.add(new TestJob(size));
+							generated.incrementAndGet();
+						}
+						
+						batcher.flush();
+					}
+				};
+			}
+		};
+	}
+	
+	private ProcessingNodeFactory createPnFactory()
+	{
+		return new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				return new LocalProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						createLpnFactory(),
+						NUM_WORKERS);
+			}
+		};
+	}
+	
+	private LpnJobProcessorFactory createLpnFactory()
+	{
+		return new LpnJobProcessorFactory()
+		{
+			@Override
+			public Processor createProcessor()
+			{
+				return new BatchProcessor()
+				{
+					@Override
+					public void processBatch(List<Job> jobs) throws Exception
+					{
+						for (Job job : jobs)
+						{
+							// Abandon the batch, the rest is processed one by one
+							if (isBad(job))
+								throw new Exception("Bad job in batch");
+							
+							job.processed(Boolean.TRUE);
+						}
+					}
+					
+					@Override
+					public Object process(Job job) throws Exception
+					{
+						if (isBad(job))
+							throw new Exception("Bad job");
+						
+						return Boolean.TRUE;
+					}
+				};
+			}
+			
+			@Override
+			public String getProcessorNameTemplate()
+			{
+				return "Processor-%02d";
+			}
+		};
+	}
+	
+	private StorerFactory createBatchStorerFactory()
+	{
+		return new StorerFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					final JobTraceSet jobTraces,
+					final BlockingQueue<Job> outTray)
+			{
+				return new WorkerBase("Storer", abortHandler)
+				{
+					@Override
+					protected void work() throws Throwable
+					{
+						while (true)
+						{
+							JobBatch batch = (JobBatch) outTray.take();
+							batches.incrementAndGet();
+							
+							assertEquals(JobProcessingState.HAS_RESULT, batch.getState());
+							
+							// Only batches with a bad job were abandoned
+							assertEquals(
+									batch.getFailedCount() > 0,
+									batch.getBatchFailure() != null);
+							
+							JobTrace trace = batch.getTrace();
+							trace.signOff(getClass(), null);
+							
+							// Generator, processing node, gatherer and storer
+							List<Signer> signers = trace.getSigners();
+							assertTrue(signers.size() >= 4);
+							
+							for (Job job : batch.getJobs())
+							{
+								switch (job.getState())
+								{
+									case HAS_RESULT:
+										succeeded.incrementAndGet();
+										break;
+									case FAILED:
+										failed.incrementAndGet();
+										break;
+									default:
+										fail();
+								}
+								
+								List<Signer> jobSigners = job.getTrace().getSigners();
+								assertEquals(signers.size(), jobSigners.size());
+								for (int i = 0; i < signers.size(); ++i)
+									assertEquals(signers.get(i).getSigner(), jobSigners.get(i).getSigner());
+								assertEquals(getClass(), jobSigners.get(jobSigners.size() - 1).getSigner());
+								tracesChecked.incrementAndGet();
+								
+								stored.incrementAndGet();
+							}
+							
+							if (!jobTraces.remove(trace))
+								throw new InternalError("Missing job trace");
+						}
+					}
+				};
+			}
+		};
+	}
+	
+	private static boolean isBad(Job job)
+	{
+		return job.getSizeHint() == BAD_JOB_SIZE;
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.Checkpoint;
+import org.sweble.wikitext.articlecruncher.CheckpointTracker;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobTraceSet;
+
+public class CheckpointTest
+{
+	private final JobTraceSet jobTraces = new JobTraceSet();
+	
+	private final CheckpointTracker tracker = new CheckpointTracker(jobTraces);
+	
+	// =========================================================================
+	
+	@Test
+	public void testLastStoredPageIsEndOfStoredPrefix() throws Exception
+	{
+		Job a = emit(1, 2);
+		Job b = emit(3);
+		Job c = emit(4, 5);
+		Job d = emit(6);
+		
+		store(a);
+		store(c);
+		
+		Checkpoint cp = tracker.checkpoint();
+		assertEquals(2, cp.getLastStoredPageId());
+		assertEquals(6, cp.getLastGeneratedPageId());
+		assertArrayEquals(new long[] { b.getJobId(), d.getJobId() }, cp.getInFlightJobIds());
+		assertArrayEquals(new long[] { 3, 6 }, cp.getInFlightPageIds());
+		
+		assertTrue(cp.isStored(1));
+		assertFalse(cp.isStored(3));
+		assertTrue(cp.isStored(5));
+		assertFalse(cp.isStored(6));
+		assertFalse(cp.isStored(7));
+		
+		store(b);
+		store(d);
+		
+		cp = tracker.checkpoint();
+		assertEquals(6, cp.getLastStoredPageId());
+		assertEquals(0, cp.getInFlightJobIds().length);
+	}
+	
+	@Test
+	public void testPartiallyStoredPageIsNotStored() throws Exception
+	{
+		// Two jobs holding revisions of page 5
+		Job a = emit(4, 5);
+		emit(5, 6);
+		
+		store(a);
+		
+		Checkpoint cp = tracker.checkpoint();
+		assertEquals(4, cp.getLastStoredPageId());
+		assertFalse(cp.isStored(5));
+	}
+	
+	@Test
+	public void testSlowJobOnlyHoldsBackItsOwnPages() throws Exception
+	{
+		Job slow = emit(1);
+		
+		// Enough jobs to make the tracker forget stored jobs while registering
+		for (long id = 2; id <= 5000; ++id)
+			store(emit(id));
+		
+		Checkpoint cp = tracker.checkpoint();
+		assertEquals(-1, cp.getLastStoredPageId());
+		assertEquals(5000, cp.getLastGeneratedPageId());
+		assertArrayEquals(new long[] { slow.getJobId() }, cp.getInFlightJobIds());
+		assertArrayEquals(new long[] { 1 }, cp.getInFlightPageIds());
+		
+		assertFalse(cp.isStored(1));
+		assertTrue(cp.isStored(2));
+		assertTrue(cp.isStored(5000));
+		
+		store(slow);
+		
+		cp = tracker.checkpoint();
+		assertEquals(5000, cp.getLastStoredPageId());
+		assertEquals(5000 * 100, cp.getCompressedOffset());
+		assertEquals(0, cp.getInFlightJobIds().length);
+	}
+	
+	@Test
+	public void testCheckpointSurvivesRoundTrip() throws Exception
+	{
+		Job a = emit(10);
+		emit(11, 12);
+		store(a);
+		
+		File file = File.createTempFile("checkpoint", ".properties");
+		try
+		{
+			tracker.write(file);
+			
+			Checkpoint expected = tracker.checkpoint();
+			Checkpoint actual = Checkpoint.read(file);
+			
+			assertEquals(expected.getLastStoredPageId(), actual.getLastStoredPageId());
+			assertEquals(expected.getLastGeneratedPageId(), actual.getLastGeneratedPageId());
+			assertEquals(expected.getCompressedOffset(), actual.getCompressedOffset());
+			assertEquals(expected.getDecompressedOffset(), actual.getDecompressedOffset());
+			assertArrayEquals(expected.getInFlightJobIds(), actual.getInFlightJobIds());
+			assertArrayEquals(expected.getInFlightPageIds(), actual.getInFlightPageIds());
+			
+			assertFalse(new File(file.getPath() + ".tmp").exists());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+	
+	// =========================================================================
+	
+	private Job emit(long... pageIds)
+	{
+		Job job = new CruncherTestBase.TestJob();
+		jobTraces.add(job.getTrace());
+		
+		// Pretend the first page starts 100 bytes per page into the dump
+		tracker.register(job, pageIds, pageIds[0] * 100, pageIds[0] * 1000);
+		return job;
+	}
+	
+	private void store(Job job)
+	{
+		assertTrue(jobTraces.remove(job.getTrace()));
+	}
+}
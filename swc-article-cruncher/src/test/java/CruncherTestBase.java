@@ -42,6 +42,37 @@ public class CruncherTestBase
 			extends
 				Job
 	{
+		private final long sizeHint;
+		
+		private final String label;
+		
+		public TestJob()
+		{
+			this(0);
+		}
+		
+		public TestJob(long sizeHint)
+		{
+			this(sizeHint, null);
+		}
+		
+		public TestJob(long sizeHint, String label)
+		{
+			this.sizeHint = sizeHint;
+			this.label = label;
+		}
+		
+		@Override
+		public long getSizeHint()
+		{
+			return sizeHint;
+		}
+		
+		@Override
+		public String getLabel()
+		{
+			return label;
+		}
 	}
 	
 	// =========================================================================
@@ -66,7 +97,7 @@ public class CruncherTestBase
 							for (long i = 0; i < NUM_JOBS_TO_GENERATE; ++i)
 							{
 								// generate jobs out of thin air.
-								Job job = new TestJob();
+								Job job = createJob(i);
 								generated.incrementAndGet();
 								
 								JobTrace trace = job.getTrace();
@@ -87,6 +118,11 @@ public class CruncherTestBase
 		};
 	}
 	
+	protected Job createJob(long i)
+	{
+		return new TestJob();
+	}
+	
 	protected StorerFactory createStorerFactory()
 	{
 		return new StorerFactory()
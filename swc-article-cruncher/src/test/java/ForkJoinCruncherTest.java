@@ -0,0 +1,245 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobGeneratorFactory;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.StorerFactory;
+import org.sweble.wikitext.articlecruncher.WorkerInstantiator;
+import org.sweble.wikitext.articlecruncher.pnodes.ForkJoinProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+import org.sweble.wikitext.articlecruncher.utils.WorkerLauncher;
+
+public class ForkJoinCruncherTest
+		extends
+			CruncherTestBase
+{
+	private Nexus nexus;
+	
+	private static final int NUM_WORKERS = 4;
+	
+	private static final int LOOK_AHEAD = 32;
+	
+	private AtomicLong processed = new AtomicLong(0);
+	
+	private ForkJoinProcessingNode node;
+	
+	// =========================================================================
+	
+	@Before
+	public void before() throws Throwable
+	{
+		nexus = new Nexus();
+		
+		nexus.setUp(
+				16, /* in tray capacity */
+				16, /* processed jobs capacity */
+				16 /* out tray capacity */);
+		
+		JobGeneratorFactory jobFactory = createJobFactory();
+		nexus.addJobGenerator(jobFactory);
+		
+		ProcessingNodeFactory pnFactory = createPnFactory();
+		nexus.addProcessingNode(pnFactory);
+		
+		StorerFactory storerFactory = createStorerFactory();
+		nexus.addStorer(storerFactory);
+	}
+	
+	// =========================================================================
+	
+	@Test
+	public void test() throws Throwable
+	{
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, generated.get());
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, processed.get());
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, stored.get());
+		
+		Set<JobTrace> jobTraces = nexus.getJobTraces();
+		assertTrue(jobTraces.isEmpty());
+		
+		double[] utilisation = node.getWorkerUtilisation();
+		assertTrue(utilisation.length > 0);
+		for (double u : utilisation)
+			assertTrue(u >= 0. && u <= 1.);
+	}
+	
+	@Test
+	public void testBiggestJobsFirst() throws Throwable
+	{
+		List<Long> order = processOneByOne(new long[] { 1, 3, 2, 4 }, 4);
+		
+		assertEquals(Arrays.asList(4L, 3L, 2L, 1L), order);
+	}
+	
+	@Test
+	public void testSmallJobsAreNotStarved() throws Throwable
+	{
+		// A small job followed by a stream of ever bigger jobs
+		long[] sizes = new long[100];
+		for (int i = 0; i < sizes.length; ++i)
+			sizes[i] = i + 1;
+		
+		int lookAhead = 4;
+		List<Long> order = processOneByOne(sizes, lookAhead);
+		
+		assertEquals(sizes.length, order.size());
+		assertEquals(Long.valueOf(lookAhead), order.get(0));
+		
+		// Passed over at most lookAhead times
+		assertTrue(order.indexOf(1L) <= lookAhead + 1);
+	}
+	
+	@Override
+	protected Job createJob(long i)
+	{
+		// Page sizes spanning several orders of magnitude
+		return new TestJob(1L << (i % 21));
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Runs a node with a single worker on the given jobs and returns the
+	 * sizes of the jobs in the order they were processed.
+	 */
+	private List<Long> processOneByOne(long[] sizes, final int lookAhead) throws Throwable
+	{
+		final BlockingQueue<Job> inTray = new LinkedBlockingQueue<Job>();
+		final BlockingQueue<Job> processedJobs = new LinkedBlockingQueue<Job>();
+		for (long size : sizes)
+			inTray.add(new TestJob(size));
+		
+		final AbortHandler abortHandler = new AbortHandler()
+		{
+			@Override
+			public void notify(Throwable t)
+			{
+				// The node is interrupted when the test stops it
+			}
+		};
+		
+		WorkerLauncher launcher = new WorkerLauncher(new WorkerInstantiator()
+		{
+			@Override
+			public WorkerBase instantiate()
+			{
+				return new ForkJoinProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						createLpnFactory(),
+						1,
+						lookAhead);
+			}
+		}, abortHandler);
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		launcher.start(executor);
+		try
+		{
+			List<Long> order = new ArrayList<Long>();
+			for (int i = 0; i < sizes.length; ++i)
+			{
+				Job job = processedJobs.poll(10, TimeUnit.SECONDS);
+				assertNotNull(job);
+				order.add(job.getSizeHint());
+			}
+			return order;
+		}
+		finally
+		{
+			launcher.stop();
+			executor.shutdownNow();
+		}
+	}
+	
+	private ProcessingNodeFactory createPnFactory()
+	{
+		return new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				node = new ForkJoinProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						createLpnFactory(),
+						NUM_WORKERS,
+						LOOK_AHEAD);
+				return node;
+			}
+		};
+	}
+	
+	private LpnJobProcessorFactory createLpnFactory()
+	{
+		return new LpnJobProcessorFactory()
+		{
+			@Override
+			public Processor createProcessor()
+			{
+				return new Processor()
+				{
+					@Override
+					public Object process(Job job)
+					{
+						job.signOff(getClass(), null);
+						
+						processed.incrementAndGet();
+						
+						return null;
+					}
+				};
+			}
+			
+			@Override
+			public String getProcessorNameTemplate()
+			{
+				return "Processor-%02d";
+			}
+		};
+	}
+}
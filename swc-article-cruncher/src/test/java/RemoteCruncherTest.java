@@ -0,0 +1,261 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobGeneratorFactory;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.StorerFactory;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.remote.JobCodec;
+import org.sweble.wikitext.articlecruncher.remote.RemoteProcessingNode;
+import org.sweble.wikitext.articlecruncher.remote.RemoteWorker;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+public class RemoteCruncherTest
+		extends
+			CruncherTestBase
+{
+	private static final int NUM_THREADS = 2;
+	
+	/** The number of jobs after which the first worker dies. */
+	private static final long DIE_AFTER = 10000;
+	
+	/** The job that throws an error instead of an exception. */
+	private static final long ERROR_JOB = 20000;
+	
+	private Nexus nexus;
+	
+	private ServerSocket serverSocket;
+	
+	private RemoteWorker dyingWorker;
+	
+	private Thread[] workerThreads = new Thread[2];
+	
+	private AtomicReference<Throwable> workerFailure = new AtomicReference<Throwable>();
+	
+	private AtomicLong processedByDyingWorker = new AtomicLong(0);
+	
+	private AtomicLong processed = new AtomicLong(0);
+	
+	private AtomicLong errors = new AtomicLong(0);
+	
+	// =========================================================================
+	
+	@Before
+	public void before() throws Throwable
+	{
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		
+		nexus = new Nexus();
+		
+		nexus.setUp(
+				16, /* in tray capacity */
+				16, /* processed jobs capacity */
+				16 /* out tray capacity */);
+		
+		JobGeneratorFactory jobFactory = createJobFactory();
+		nexus.addJobGenerator(jobFactory);
+		
+		ProcessingNodeFactory pnFactory = createPnFactory();
+		nexus.addProcessingNode(pnFactory);
+		
+		StorerFactory storerFactory = createStorerFactory();
+		nexus.addStorer(storerFactory);
+		
+		dyingWorker = startWorker(0, true);
+		startWorker(1, false);
+	}
+	
+	@After
+	public void after() throws Throwable
+	{
+		for (Thread t : workerThreads)
+			t.join(10000);
+		
+		// Closing the connection is not a failure, the worker just stops
+		Throwable failure = workerFailure.get();
+		if (failure != null)
+			throw failure;
+	}
+	
+	// =========================================================================
+	
+	@Test
+	public void test() throws Throwable
+	{
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, generated.get());
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, stored.get());
+		
+		// Jobs of the dead worker were processed again by the other worker
+		assertTrue(processedByDyingWorker.get() >= DIE_AFTER);
+		assertTrue(processed.get() >= NUM_JOBS_TO_GENERATE);
+		
+		// The job that threw an error came back as a failed result
+		assertTrue(errors.get() >= 1);
+		
+		Set<JobTrace> jobTraces = nexus.getJobTraces();
+		assertTrue(jobTraces.isEmpty());
+	}
+	
+	@Override
+	protected Job createJob(long i)
+	{
+		return new TestJob(i);
+	}
+	
+	// =========================================================================
+	
+	private RemoteWorker startWorker(int i, final boolean dies) throws IOException
+	{
+		final RemoteWorker worker = new RemoteWorker(
+				"127.0.0.1",
+				serverSocket.getLocalPort(),
+				new TestJobCodec(),
+				createLpnFactory(dies),
+				NUM_THREADS);
+		
+		workerThreads[i] = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					worker.run();
+				}
+				catch (Throwable e)
+				{
+					workerFailure.compareAndSet(null, e);
+				}
+			}
+		});
+		workerThreads[i].setDaemon(true);
+		workerThreads[i].start();
+		
+		return worker;
+	}
+	
+	private ProcessingNodeFactory createPnFactory()
+	{
+		return new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				return new RemoteProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						serverSocket,
+						new TestJobCodec());
+			}
+		};
+	}
+	
+	private LpnJobProcessorFactory createLpnFactory(final boolean dies)
+	{
+		return new LpnJobProcessorFactory()
+		{
+			@Override
+			public Processor createProcessor()
+			{
+				return new Processor()
+				{
+					@Override
+					public Object process(Job job) throws IOException
+					{
+						processed.incrementAndGet();
+						
+						if (dies && processedByDyingWorker.incrementAndGet() == DIE_AFTER)
+							dyingWorker.close();
+						
+						if (job.getSizeHint() == ERROR_JOB)
+						{
+							errors.incrementAndGet();
+							throw new StackOverflowError();
+						}
+						
+						// Echo the payload
+						return job.getSizeHint();
+					}
+				};
+			}
+			
+			@Override
+			public String getProcessorNameTemplate()
+			{
+				return "Processor-%02d";
+			}
+		};
+	}
+	
+	// =========================================================================
+	
+	private static final class TestJobCodec
+			implements
+				JobCodec
+	{
+		@Override
+		public void writeJob(Job job, DataOutput out) throws IOException
+		{
+			out.writeLong(job.getSizeHint());
+		}
+		
+		@Override
+		public Job readJob(DataInput in) throws IOException
+		{
+			return new TestJob(in.readLong());
+		}
+		
+		@Override
+		public void writeResult(Object result, DataOutput out) throws IOException
+		{
+			out.writeLong((Long) result);
+		}
+		
+		@Override
+		public Object readResult(DataInput in) throws IOException
+		{
+			return in.readLong();
+		}
+	}
+}
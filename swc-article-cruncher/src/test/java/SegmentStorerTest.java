@@ -0,0 +1,329 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import static org.junit.Assert.*;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobTraceSet;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.StorerFactory;
+import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.storers.BlockCodec;
+import org.sweble.wikitext.articlecruncher.storers.BlockCodecs;
+import org.sweble.wikitext.articlecruncher.storers.SegmentReader;
+import org.sweble.wikitext.articlecruncher.storers.SegmentStorer;
+import org.sweble.wikitext.articlecruncher.storers.SegmentWriter;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+public class SegmentStorerTest
+		extends
+			CruncherTestBase
+{
+	private static final int NUM_WORKERS = 4;
+	
+	private static final int BLOCK_SIZE = 16 * 1024;
+	
+	/** Small enough to force a few segments. */
+	private static final long SEGMENT_SIZE = 1024 * 1024;
+	
+	private File directory;
+	
+	// =========================================================================
+	
+	@Before
+	public void before() throws Throwable
+	{
+		directory = File.createTempFile("segments", "");
+		directory.delete();
+	}
+	
+	@After
+	public void after() throws Throwable
+	{
+		File[] files = directory.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+	
+	// =========================================================================
+	
+	@Test
+	public void testStoredResultsCanBeReadByKey() throws Throwable
+	{
+		Nexus nexus = new Nexus();
+		
+		nexus.setUp(
+				16, /* in tray capacity */
+				16, /* processed jobs capacity */
+				16 /* out tray capacity */);
+		
+		nexus.addJobGenerator(createJobFactory());
+		nexus.addProcessingNode(createPnFactory());
+		nexus.addStorer(createSegmentStorerFactory(BlockCodecs.deflate(6)));
+		
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, generated.get());
+		assertTrue(nexus.getJobTraces().isEmpty());
+		
+		assertTrue(new File(directory, "000001.seg").exists());
+		
+		SegmentReader reader = new SegmentReader(directory);
+		try
+		{
+			assertEquals(NUM_JOBS_TO_GENERATE, reader.size());
+			
+			for (long key = 0; key < NUM_JOBS_TO_GENERATE; key += 997)
+				assertEquals(result(key), new String(reader.read(key), "UTF-8"));
+			
+			assertEquals(result(NUM_JOBS_TO_GENERATE - 1),
+					new String(reader.read(NUM_JOBS_TO_GENERATE - 1), "UTF-8"));
+			
+			assertNull(reader.read(NUM_JOBS_TO_GENERATE));
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testReopenedDirectoryAppendsNewSegment() throws Throwable
+	{
+		write(BlockCodecs.none(), 1, "first");
+		write(BlockCodecs.deflate(1), 1, "second");
+		
+		SegmentReader reader = new SegmentReader(directory);
+		try
+		{
+			assertEquals(2, reader.size());
+			assertEquals("second", new String(reader.read(1), "UTF-8"));
+			
+			List<byte[]> all = reader.readAll(1);
+			assertEquals(2, all.size());
+			assertEquals("first", new String(all.get(0), "UTF-8"));
+			assertEquals("second", new String(all.get(1), "UTF-8"));
+			
+			assertArrayEquals(new long[] { 1 }, reader.getKeys());
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void testLz4Segments() throws Throwable
+	{
+		SegmentWriter writer = new SegmentWriter(directory, BlockCodecs.lz4(), null);
+		for (long key = 0; key < 1000; ++key)
+		{
+			writer.beginRecord(key).write(result(key).getBytes("UTF-8"));
+			writer.endRecord();
+		}
+		writer.close();
+		
+		SegmentReader reader = new SegmentReader(directory);
+		try
+		{
+			assertEquals(1000, reader.size());
+			for (long key = 0; key < 1000; key += 7)
+				assertEquals(result(key), new String(reader.read(key), "UTF-8"));
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		// Incompressible input must fit, too
+		BlockCodec lz4 = BlockCodecs.lz4();
+		byte[] random = new byte[BLOCK_SIZE];
+		new Random(42).nextBytes(random);
+		
+		byte[] compressed = new byte[lz4.maxCompressedLength(random.length)];
+		int length = lz4.compress(random, random.length, compressed, 0);
+		
+		byte[] decompressed = new byte[random.length];
+		lz4.decompress(compressed, 0, length, decompressed, decompressed.length);
+		assertArrayEquals(random, decompressed);
+	}
+	
+	@Test
+	public void testRecordsOfTornBlockAreIgnored() throws Throwable
+	{
+		SegmentWriter writer = new SegmentWriter(directory, BlockCodecs.deflate(6), null);
+		for (long key = 0; key < 10; ++key)
+		{
+			writer.beginRecord(key).writeUTF("kept " + key);
+			writer.endRecord();
+		}
+		writer.flush();
+		for (long key = 10; key < 20; ++key)
+		{
+			writer.beginRecord(key).writeUTF("lost " + key);
+			writer.endRecord();
+		}
+		writer.close();
+		
+		// Pretend we crashed while the second block was being written
+		File data = new File(directory, "000000.seg");
+		RandomAccessFile file = new RandomAccessFile(data, "rw");
+		try
+		{
+			file.setLength(file.length() - 20);
+		}
+		finally
+		{
+			file.close();
+		}
+		
+		SegmentReader reader = new SegmentReader(directory);
+		try
+		{
+			assertEquals(10, reader.size());
+			assertNotNull(reader.read(9));
+			assertNull(reader.read(10));
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected Job createJob(long i)
+	{
+		// The size hint doubles as page id
+		return new TestJob(i);
+	}
+	
+	private static String result(long key)
+	{
+		return "Result of page " + key;
+	}
+	
+	private void write(BlockCodec codec, long key, String value) throws IOException
+	{
+		SegmentWriter writer = new SegmentWriter(directory, codec, null);
+		try
+		{
+			writer.beginRecord(key).write(value.getBytes("UTF-8"));
+			writer.endRecord();
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
+	private ProcessingNodeFactory createPnFactory()
+	{
+		return new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				return new LocalProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						new LpnJobProcessorFactory()
+						{
+							@Override
+							public Processor createProcessor()
+							{
+								return new Processor()
+								{
+									@Override
+									public Object process(Job job)
+									{
+										return result(job.getSizeHint());
+									}
+								};
+							}
+							
+							@Override
+							public String getProcessorNameTemplate()
+							{
+								return "Processor-%02d";
+							}
+						},
+						NUM_WORKERS);
+			}
+		};
+	}
+	
+	private StorerFactory createSegmentStorerFactory(final BlockCodec codec)
+	{
+		return new StorerFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					JobTraceSet jobTraces,
+					BlockingQueue<Job> outTray)
+			{
+				return new SegmentStorer(
+						abortHandler,
+						jobTraces,
+						outTray,
+						directory,
+						new SegmentStorer.RecordEncoder()
+						{
+							@Override
+							public long getKey(Job job)
+							{
+								return job.getSizeHint();
+							}
+							
+							@Override
+							public void encode(Job job, DataOutput out) throws IOException
+							{
+								out.write(((String) job.getResult()).getBytes("UTF-8"));
+							}
+						},
+						codec,
+						BLOCK_SIZE,
+						SEGMENT_SIZE,
+						100);
+			}
+		};
+	}
+}
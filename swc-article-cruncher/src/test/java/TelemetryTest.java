@@ -0,0 +1,231 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.telemetry.CruncherTelemetry;
+import org.sweble.wikitext.articlecruncher.telemetry.LatencyHistogram;
+import org.sweble.wikitext.articlecruncher.telemetry.SlowestJobs;
+import org.sweble.wikitext.articlecruncher.telemetry.Stage;
+import org.sweble.wikitext.articlecruncher.telemetry.TelemetryReporter;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+public class TelemetryTest
+		extends
+			CruncherTestBase
+{
+	private static final int NUM_WORKERS = 8;
+	
+	private static final long FAILING_SIZE = 7;
+	
+	private static final long SLOW_EVERY = 100000;
+	
+	// =========================================================================
+	
+	@Test
+	public void testNexusRecordsEveryStage() throws Throwable
+	{
+		Nexus nexus = new Nexus();
+		
+		nexus.setUp(
+				16, /* in tray capacity */
+				16, /* processed jobs capacity */
+				16 /* out tray capacity */);
+		
+		nexus.addJobGenerator(createJobFactory());
+		nexus.addProcessingNode(createPnFactory());
+		nexus.addStorer(createStorerFactory());
+		
+		nexus.start();
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, stored.get());
+		
+		CruncherTelemetry telemetry = nexus.getTelemetry();
+		
+		long expectedBytes = 0;
+		for (long i = 0; i < NUM_JOBS_TO_GENERATE; ++i)
+			expectedBytes += i % 4096;
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, telemetry.getPages().getCount());
+		assertEquals(expectedBytes, telemetry.getBytes().getCount());
+		
+		assertEquals(NUM_JOBS_TO_GENERATE, telemetry.getLatency(Stage.QUEUE_WAIT).snapshot().getCount());
+		assertEquals(NUM_JOBS_TO_GENERATE, telemetry.getLatency(Stage.PROCESS).snapshot().getCount());
+		assertEquals(NUM_JOBS_TO_GENERATE, telemetry.getLatency(Stage.STORE).snapshot().getCount());
+		assertEquals(0, telemetry.getLatency(Stage.READ).snapshot().getCount());
+		
+		long expectedFailures = NUM_JOBS_TO_GENERATE / 4096;
+		assertEquals(expectedFailures, telemetry.getFailureCount());
+		assertEquals(
+				Long.valueOf(expectedFailures),
+				telemetry.getFailures().get(IllegalStateException.class.getName()));
+		
+		// The slow jobs are the slowest
+		List<SlowestJobs.Entry> slowest = telemetry.getSlowestJobs().getEntries();
+		assertEquals(CruncherTelemetry.DEFAULT_SLOWEST_JOBS, slowest.size());
+		for (int i = 0; i < NUM_JOBS_TO_GENERATE / SLOW_EVERY; ++i)
+			assertTrue(slowest.get(i).getLabel().startsWith("Slow page "));
+		
+		String json = telemetry.toJson();
+		assertTrue(json.contains("\"pages\":{\"count\":" + NUM_JOBS_TO_GENERATE + ","));
+		assertTrue(json.contains("\"java.lang.IllegalStateException\":" + expectedFailures));
+		assertTrue(json.contains("\"label\":\"Slow page "));
+	}
+	
+	@Test
+	public void testHistogramPercentiles() throws Exception
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 1; v <= 100000; ++v)
+			h.record(v * 1000);
+		
+		LatencyHistogram.Snapshot s = h.snapshot();
+		assertEquals(100000, s.getCount());
+		assertEquals(100000000, s.getMax());
+		assertEquals(50000500, s.getMean(), 1);
+		
+		assertEquals(50000000, s.getPercentile(0.5), 50000000 / 16);
+		assertEquals(99000000, s.getPercentile(0.99), 99000000 / 16);
+		assertEquals(100000000, s.getPercentile(1.0));
+		
+		assertEquals(0, new LatencyHistogram().snapshot().getPercentile(0.5));
+	}
+	
+	@Test
+	public void testReporterWritesFileAndServesHttp() throws Exception
+	{
+		CruncherTelemetry telemetry = new CruncherTelemetry();
+		telemetry.recordFailure(new IllegalArgumentException());
+		telemetry.record(Stage.READ, 1000000);
+		
+		File file = File.createTempFile("telemetry", ".json");
+		file.deleteOnExit();
+		
+		TelemetryReporter reporter = new TelemetryReporter(telemetry);
+		reporter.start(60000, file);
+		int port = reporter.serveHttp(0);
+		
+		HttpURLConnection c = (HttpURLConnection)
+				new URL("http://127.0.0.1:" + port + "/").openConnection();
+		assertEquals(200, c.getResponseCode());
+		String served = read(c.getInputStream());
+		c.disconnect();
+		
+		assertTrue(served.startsWith("{"));
+		assertTrue(served.contains("\"java.lang.IllegalArgumentException\":1"));
+		assertTrue(served.contains("\"read\":{\"count\":1,"));
+		
+		reporter.stop();
+		
+		String written = read(new FileInputStream(file));
+		assertTrue(written.contains("\"failures\":{\"total\":1,"));
+	}
+	
+	// =========================================================================
+	
+	@Override
+	protected Job createJob(long i)
+	{
+		String label = (i % SLOW_EVERY == 0) ? "Slow page " + i : "Page " + i;
+		return new TestJob(i % 4096, label);
+	}
+	
+	private ProcessingNodeFactory createPnFactory()
+	{
+		return new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				return new LocalProcessingNode(
+						abortHandler,
+						inTray,
+						processedJobs,
+						createLpnFactory(),
+						NUM_WORKERS);
+			}
+		};
+	}
+	
+	private LpnJobProcessorFactory createLpnFactory()
+	{
+		return new LpnJobProcessorFactory()
+		{
+			@Override
+			public Processor createProcessor()
+			{
+				return new Processor()
+				{
+					@Override
+					public Object process(Job job) throws Exception
+					{
+						if (job.getSizeHint() == FAILING_SIZE)
+							throw new IllegalStateException("Bad page");
+						
+						if (job.getLabel().startsWith("Slow page "))
+							Thread.sleep(50);
+						
+						return null;
+					}
+				};
+			}
+			
+			@Override
+			public String getProcessorNameTemplate()
+			{
+				return "Processor-%02d";
+			}
+		};
+	}
+	
+	private static String read(InputStream in) throws IOException
+	{
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toString("UTF-8");
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
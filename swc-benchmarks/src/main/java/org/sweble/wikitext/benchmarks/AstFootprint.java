@@ -0,0 +1,134 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.sweble.wikitext.engine.PageId;
+import org.sweble.wikitext.parser.compact.CompactAst;
+import org.sweble.wikitext.parser.nodes.WtNode;
+
+/**
+ * Measures how many bytes a processed page of the corpus retains per byte
+ * of wikitext, once as ordinary nodes and once as {@link CompactAst}.
+ * The wikitext itself is not counted for either representation.
+ * 
+ * The retained size is the growth of the used heap after a garbage
+ * collection when {@link #COPIES} copies of a representation are kept
+ * alive. Run with
+ * 
+ * <pre>
+ * java -cp swc-benchmarks/target/benchmarks.jar \
+ *     org.sweble.wikitext.benchmarks.AstFootprint
+ * </pre>
+ */
+public final class AstFootprint
+{
+	private static final int COPIES = 20;
+	
+	private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+	
+	// =========================================================================
+	
+	public static void main(String[] args) throws Exception
+	{
+		System.out.format("%-16s %12s %12s %12s %8s%n",
+				"page", "source", "nodes/byte", "compact/byte", "ratio");
+		
+		for (String page : BenchmarkCorpus.PAGES)
+		{
+			final CorpusPageState s = new CorpusPageState();
+			s.page = page;
+			s.setup();
+			
+			double sourceBytes = s.wikitext.getBytes("UTF-8").length;
+			
+			long nodes = retained(new Factory()
+			{
+				@Override
+				public Object create() throws Exception
+				{
+					return process(s);
+				}
+			});
+			
+			long compact = retained(new Factory()
+			{
+				@Override
+				public Object create() throws Exception
+				{
+					return CompactAst.compact(process(s), s.wikitext);
+				}
+			});
+			
+			System.out.format("%-16s %12d %12.1f %12.1f %8.1f%n",
+					page,
+					(long) sourceBytes,
+					nodes / sourceBytes,
+					compact / sourceBytes,
+					nodes / (double) compact);
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Processes the page from scratch. A copy of an existing AST would
+	 * share its strings with the original and appear smaller than it is.
+	 */
+	private static WtNode process(CorpusPageState s) throws Exception
+	{
+		return s.engine.postprocess(new PageId(s.title, -1), s.wikitext, s.corpus).getPage();
+	}
+	
+	private static interface Factory
+	{
+		public Object create() throws Exception;
+	}
+	
+	/**
+	 * Returns the average number of bytes retained by one object created by
+	 * the given factory.
+	 */
+	private static long retained(Factory factory) throws Exception
+	{
+		// Warm up, so that lazily initialized statics are not counted
+		factory.create();
+		
+		long before = usedHeap();
+		
+		Object[] copies = new Object[COPIES];
+		for (int i = 0; i < COPIES; ++i)
+			copies[i] = factory.create();
+		
+		long after = usedHeap();
+		
+		// Keep the copies reachable until the measurement is done
+		if (copies[COPIES - 1] == null)
+			throw new AssertionError();
+		
+		return (after - before) / COPIES;
+	}
+	
+	private static long usedHeap()
+	{
+		for (int i = 0; i < 4; ++i)
+			System.gc();
+		return MEMORY.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.sweble.wikitext.engine.ExpansionCallback;
+import org.sweble.wikitext.engine.ExpansionFrame;
+import org.sweble.wikitext.engine.FullPage;
+import org.sweble.wikitext.engine.PageId;
+import org.sweble.wikitext.engine.PageTitle;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.output.HtmlRendererCallback;
+import org.sweble.wikitext.engine.output.MediaInfo;
+import org.sweble.wikitext.parser.parser.LinkTargetException;
+
+/**
+ * The pages and templates the benchmarks operate on. The corpus is loaded
+ * from the class path (see <code>/corpus/README</code>).
+ * 
+ * The corpus also serves as expansion callback and renderer callback so that
+ * transclusions are resolved from memory and the benchmarks never touch the
+ * disk or the network.
+ */
+public final class BenchmarkCorpus
+		implements
+			ExpansionCallback,
+			HtmlRendererCallback
+{
+	public static final String[] PAGES = {
+			"stub",
+			"long-article",
+			"template-heavy",
+			"table-heavy" };
+	
+	private static final String CORPUS_DIR = "/corpus";
+	
+	private static final String ENCODING = "UTF-8";
+	
+	// =========================================================================
+	
+	private final WikiConfig config;
+	
+	private final Map<String, String> pages = new HashMap<String, String>();
+	
+	private final Map<PageTitle, FullPage> templates = new HashMap<PageTitle, FullPage>();
+	
+	// =========================================================================
+	
+	public BenchmarkCorpus(WikiConfig config) throws IOException, LinkTargetException
+	{
+		this.config = config;
+		
+		for (String name : PAGES)
+			pages.put(name, load(CORPUS_DIR + "/pages/" + name + ".wikitext"));
+		
+		loadTemplates();
+	}
+	
+	// =========================================================================
+	
+	public WikiConfig getConfig()
+	{
+		return config;
+	}
+	
+	public String getWikitext(String name)
+	{
+		String wikitext = pages.get(name);
+		if (wikitext == null)
+			throw new IllegalArgumentException("No such page in corpus: " + name);
+		return wikitext;
+	}
+	
+	public PageTitle getTitle(String name) throws LinkTargetException
+	{
+		return PageTitle.make(config, name);
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public FullPage retrieveWikitext(
+			ExpansionFrame expansionFrame,
+			PageTitle pageTitle)
+	{
+		return templates.get(pageTitle);
+	}
+	
+	@Override
+	public String fileUrl(PageTitle pageTitle, int width, int height)
+	{
+		return null;
+	}
+	
+	@Override
+	public MediaInfo getMediaInfo(String title, int width, int height)
+	{
+		return null;
+	}
+	
+	@Override
+	public boolean resourceExists(PageTitle target)
+	{
+		return false;
+	}
+	
+	// =========================================================================
+	
+	private void loadTemplates() throws IOException, LinkTargetException
+	{
+		String dir = CORPUS_DIR + "/templates/";
+		
+		BufferedReader index = new BufferedReader(new InputStreamReader(
+				open(dir + "index.txt"), ENCODING));
+		try
+		{
+			long revision = 1;
+			
+			String line;
+			while ((line = index.readLine()) != null)
+			{
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				
+				int i = line.indexOf('\t');
+				if (i == -1)
+					throw new IOException("Malformed line in template index: " + line);
+				
+				PageTitle title = PageTitle.make(config, line.substring(0, i));
+				String wikitext = load(dir + line.substring(i + 1));
+				
+				templates.put(title, new FullPage(new PageId(title, revision++), wikitext));
+			}
+		}
+		finally
+		{
+			index.close();
+		}
+	}
+	
+	private static String load(String resource) throws IOException
+	{
+		InputStream in = open(resource);
+		try
+		{
+			return IOUtils.toString(in, ENCODING);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	private static InputStream open(String resource) throws IOException
+	{
+		InputStream in = BenchmarkCorpus.class.getResourceAsStream(resource);
+		if (in == null)
+			throw new IOException("Corpus resource not found: " + resource);
+		return in;
+	}
+}
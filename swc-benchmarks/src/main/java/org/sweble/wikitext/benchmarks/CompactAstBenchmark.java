@@ -0,0 +1,89 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.parser.compact.CompactAst;
+import org.sweble.wikitext.parser.nodes.WtNode;
+
+/**
+ * Measures the conversion of a postprocessed page into a {@link CompactAst}
+ * and back, and a walk over all nodes of the compact AST. See
+ * {@link AstFootprint} for the memory the two representations retain.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class CompactAstBenchmark
+{
+	@Benchmark
+	public CompactAst compact(CorpusPageState s)
+	{
+		return CompactAst.compact(s.postprocessed, s.wikitext);
+	}
+	
+	@Benchmark
+	public WtNode toWtNode(CompactInput in)
+	{
+		return in.compact.toWtNode();
+	}
+	
+	@Benchmark
+	public int walk(CompactInput in)
+	{
+		return walk(in.compact, 0);
+	}
+	
+	// =========================================================================
+	
+	private static int walk(CompactAst ast, int node)
+	{
+		int sum = ast.getNodeType(node);
+		int count = ast.getChildCount(node);
+		for (int i = 0; i < count; ++i)
+			sum += walk(ast, ast.getChild(node, i));
+		return sum;
+	}
+	
+	// =========================================================================
+	
+	@State(Scope.Thread)
+	public static class CompactInput
+	{
+		public CompactAst compact;
+		
+		@Setup(Level.Trial)
+		public void setup(CorpusPageState s)
+		{
+			compact = CompactAst.compact(s.postprocessed, s.wikitext);
+		}
+	}
+}
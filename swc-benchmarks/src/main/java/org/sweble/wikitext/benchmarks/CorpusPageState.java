@@ -0,0 +1,122 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sweble.wikitext.engine.PageId;
+import org.sweble.wikitext.engine.PageTitle;
+import org.sweble.wikitext.engine.StagedEngine;
+import org.sweble.wikitext.engine.nodes.EngProcessedPage;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+import org.sweble.wikitext.parser.WtEntityMap;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+
+/**
+ * Holds one page of the corpus together with the result of every processing
+ * stage. A benchmark of a given stage takes the result of the previous stage
+ * as input. The results are computed once per trial and must not be altered
+ * by a benchmark.
+ */
+@State(Scope.Thread)
+public class CorpusPageState
+{
+	@Param({ "stub", "long-article", "template-heavy", "table-heavy" })
+	public String page;
+	
+	// =========================================================================
+	
+	public BenchmarkCorpus corpus;
+	
+	public StagedEngine engine;
+	
+	public PageTitle title;
+	
+	public String wikitext;
+	
+	public ValidatedWikitext validated;
+	
+	public WtPreproWikitextPage preprocessed;
+	
+	public WtPreproWikitextPage expanded;
+	
+	public WtParsedWikitextPage parsed;
+	
+	public WtParsedWikitextPage postprocessed;
+	
+	public EngProcessedPage processedPage;
+	
+	// =========================================================================
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		corpus = new BenchmarkCorpus(DefaultConfigEnWp.generate());
+		
+		engine = new StagedEngine(corpus.getConfig());
+		
+		title = corpus.getTitle(page);
+		
+		wikitext = corpus.getWikitext(page);
+		
+		validated = engine.validateStage(title, wikitext);
+		
+		preprocessed = engine.preprocessStage(title, validated);
+		
+		expanded = engine.expandStage(corpus, title, copy(preprocessed));
+		
+		parsed = engine.parseStage(title, expanded);
+		
+		postprocessed = engine.postprocessStage(title, copy(parsed));
+		
+		processedPage = engine.postprocess(new PageId(title, -1), wikitext, corpus);
+	}
+	
+	// =========================================================================
+	
+	@SuppressWarnings("unchecked")
+	public static <T extends WtNode> T copy(T node)
+	{
+		return (T) node.deepCloneWrapException();
+	}
+	
+	/**
+	 * A deep copy of a page shares the entity map with the original page.
+	 * This copy gets an entity map of its own with the same entities.
+	 */
+	public static WtPreproWikitextPage copyWithEntityMap(WtPreproWikitextPage page)
+	{
+		WtEntityMap entityMap = page.getEntityMap();
+		
+		WtEntityMapImpl copy = new WtEntityMapImpl();
+		int size = entityMap.getMap().size();
+		for (int id = 0; id < size; ++id)
+			copy.registerEntity(entityMap.getEntity(id));
+		
+		WtPreproWikitextPage pageCopy = copy(page);
+		pageCopy.setEntityMap(copy);
+		return pageCopy;
+	}
+}
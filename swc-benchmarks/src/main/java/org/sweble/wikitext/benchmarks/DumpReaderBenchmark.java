@@ -0,0 +1,222 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sweble.wikitext.dumpreader.DumpReader;
+import org.sweble.wikitext.dumpreader.StreamingDumpReader;
+import org.sweble.wikitext.dumpreader.model.DumpConverter;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+
+/**
+ * Compares the JAXB based {@link DumpReader} (without schema validation) with
+ * the {@link StreamingDumpReader} on a synthetic dump in export format 0.8.
+ * 
+ * One operation reads the whole dump. Multiply the throughput by
+ * {@link DumpState#getDumpSize()} (printed during setup) to obtain the
+ * bytes read per second and core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class DumpReaderBenchmark
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final Logger logger =
+			Logger.getLogger(DumpReaderBenchmark.class);
+	
+	// =========================================================================
+	
+	@Benchmark
+	public long jaxbWithoutSchema(DumpState s, final Blackhole bh) throws Exception
+	{
+		final DumpConverter converter = new DumpConverter();
+		
+		DumpReader dr = new DumpReader(
+				new ByteArrayInputStream(s.dump),
+				UTF8,
+				"benchmark.xml",
+				logger,
+				false)
+		{
+			@Override
+			protected void processPage(Object mediaWiki, Object page) throws Exception
+			{
+				bh.consume(converter.convertPage(page));
+			}
+		};
+		
+		dr.unmarshal();
+		return dr.getParsedCount();
+	}
+	
+	@Benchmark
+	public long streaming(DumpState s, final Blackhole bh) throws Exception
+	{
+		StreamingDumpReader dr = new StreamingDumpReader(
+				new ByteArrayInputStream(s.dump),
+				UTF8,
+				"benchmark.xml",
+				logger)
+		{
+			@Override
+			protected void processPage(DumpPage page) throws Exception
+			{
+				bh.consume(page);
+			}
+		};
+		
+		dr.read();
+		return dr.getParsedCount();
+	}
+	
+	@Benchmark
+	public long streamingMainNamespaceOnly(DumpState s, final Blackhole bh) throws Exception
+	{
+		StreamingDumpReader dr = new StreamingDumpReader(
+				new ByteArrayInputStream(s.dump),
+				UTF8,
+				"benchmark.xml",
+				logger)
+		{
+			@Override
+			protected boolean acceptPage(long id, int namespace, String title)
+			{
+				return namespace == 0;
+			}
+			
+			@Override
+			protected void processPage(DumpPage page) throws Exception
+			{
+				bh.consume(page);
+			}
+		};
+		
+		dr.read();
+		return dr.getParsedCount();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * A dump in export format 0.8 built from the pages of the benchmark
+	 * corpus. Every fourth page is put into the talk namespace.
+	 */
+	@State(Scope.Benchmark)
+	public static class DumpState
+	{
+		private static final int PAGE_COUNT = 2000;
+		
+		public byte[] dump;
+		
+		@Setup(Level.Trial)
+		public void setUp() throws Exception
+		{
+			BenchmarkCorpus corpus = new BenchmarkCorpus(DefaultConfigEnWp.generate());
+			
+			StringBuilder sb = new StringBuilder();
+			sb.append("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\" xml:lang=\"en\">\n");
+			sb.append("  <siteinfo>\n");
+			sb.append("    <sitename>Benchmark</sitename>\n");
+			sb.append("    <case>first-letter</case>\n");
+			sb.append("  </siteinfo>\n");
+			
+			for (int i = 0; i < PAGE_COUNT; ++i)
+			{
+				String name = BenchmarkCorpus.PAGES[i % BenchmarkCorpus.PAGES.length];
+				
+				sb.append("  <page>\n");
+				sb.append("    <title>").append(name).append(' ').append(i).append("</title>\n");
+				sb.append("    <ns>").append((i % 4 == 3) ? 1 : 0).append("</ns>\n");
+				sb.append("    <id>").append(i + 1).append("</id>\n");
+				sb.append("    <revision>\n");
+				sb.append("      <id>").append(1000000 + i).append("</id>\n");
+				sb.append("      <parentid>").append(999999 + i).append("</parentid>\n");
+				sb.append("      <timestamp>2013-01-01T00:00:00Z</timestamp>\n");
+				sb.append("      <contributor>\n");
+				sb.append("        <username>Benchmark</username>\n");
+				sb.append("        <id>42</id>\n");
+				sb.append("      </contributor>\n");
+				sb.append("      <comment>Benchmark revision</comment>\n");
+				sb.append("      <text xml:space=\"preserve\">");
+				escape(sb, corpus.getWikitext(name));
+				sb.append("</text>\n");
+				sb.append("      <sha1>phoiac9h4m842xq45sp7s6u21eteeq1</sha1>\n");
+				sb.append("      <model>wikitext</model>\n");
+				sb.append("      <format>text/x-wiki</format>\n");
+				sb.append("    </revision>\n");
+				sb.append("  </page>\n");
+			}
+			
+			sb.append("</mediawiki>\n");
+			
+			dump = sb.toString().getBytes(UTF8);
+			
+			System.out.println();
+			System.out.println("Dump size: " + getDumpSize() + " bytes");
+		}
+		
+		public int getDumpSize()
+		{
+			return dump.length;
+		}
+		
+		private static void escape(StringBuilder sb, String text)
+		{
+			for (int i = 0; i < text.length(); ++i)
+			{
+				char ch = text.charAt(i);
+				switch (ch)
+				{
+					case '<':
+						sb.append("&lt;");
+						break;
+					case '>':
+						sb.append("&gt;");
+						break;
+					case '&':
+						sb.append("&amp;");
+						break;
+					default:
+						sb.append(ch);
+						break;
+				}
+			}
+		}
+	}
+}
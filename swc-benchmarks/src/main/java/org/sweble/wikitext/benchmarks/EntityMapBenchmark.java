@@ -0,0 +1,167 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.parser.ParserConfig;
+import org.sweble.wikitext.parser.WikitextEncodingValidator;
+import org.sweble.wikitext.parser.WikitextParser;
+import org.sweble.wikitext.parser.WikitextPreprocessor;
+import org.sweble.wikitext.parser.WtEntityMap;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+import org.sweble.wikitext.parser.parser.PreprocessorToParserTransformer;
+
+/**
+ * Measures the entity map on its own and on the path from the encoding
+ * validator to the parser. The map benchmarks compare the array-backed
+ * {@link WtEntityMapImpl} with a map of boxed ids. The path benchmarks
+ * compare a fresh map per page with one map that is cleared and reused. Run
+ * with {@code -prof gc} to see the bytes allocated per operation.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class EntityMapBenchmark
+{
+	@Benchmark
+	public int arrayMap(EntityInput in)
+	{
+		WtEntityMapImpl map = new WtEntityMapImpl();
+		for (WtNode n : in.entities)
+			map.registerEntity(n);
+		return lookUp(map, in.entities.length);
+	}
+	
+	@Benchmark
+	public int boxedMap(EntityInput in)
+	{
+		Map<Integer, WtNode> map = new HashMap<Integer, WtNode>();
+		for (WtNode n : in.entities)
+			map.put(map.size(), n);
+		
+		int sum = 0;
+		for (int i = 0; i < in.entities.length; ++i)
+			sum += map.get(i).getNodeType();
+		return sum;
+	}
+	
+	@Benchmark
+	public WtNode freshMapPerPage(CorpusPageState s, PathInput in) throws Exception
+	{
+		return in.parse(s, new WtEntityMapImpl());
+	}
+	
+	@Benchmark
+	public WtNode reusedMap(CorpusPageState s, PathInput in) throws Exception
+	{
+		in.map.clear();
+		return in.parse(s, in.map);
+	}
+	
+	// =========================================================================
+	
+	private static int lookUp(WtEntityMap map, int count)
+	{
+		int sum = 0;
+		for (int i = 0; i < count; ++i)
+			sum += map.getEntity(i).getNodeType();
+		return sum;
+	}
+	
+	// =========================================================================
+	
+	@State(Scope.Thread)
+	public static class EntityInput
+	{
+		@Param({ "100", "10000" })
+		public int count;
+		
+		public WtNode[] entities;
+		
+		@Setup(Level.Trial)
+		public void setup(CorpusPageState s)
+		{
+			entities = new WtNode[count];
+			for (int i = 0; i < count; ++i)
+				entities[i] = s.corpus.getConfig().getNodeFactory().text("entity");
+		}
+	}
+	
+	/**
+	 * Validates, preprocesses and parses a page without expanding it. The
+	 * pages of the corpus register their comments, templates and tag
+	 * extensions as entities on the way.
+	 */
+	@State(Scope.Thread)
+	public static class PathInput
+	{
+		public ParserConfig config;
+		
+		public WikitextEncodingValidator validator;
+		
+		public WikitextPreprocessor preprocessor;
+		
+		public WikitextParser parser;
+		
+		public WtEntityMapImpl map;
+		
+		@Setup(Level.Trial)
+		public void setup(CorpusPageState s)
+		{
+			config = s.corpus.getConfig().getParserConfig();
+			validator = new WikitextEncodingValidator();
+			preprocessor = new WikitextPreprocessor(config);
+			parser = new WikitextParser(config);
+			map = new WtEntityMapImpl();
+		}
+		
+		public WtNode parse(CorpusPageState s, WtEntityMap entityMap) throws Exception
+		{
+			String title = s.title.getDenormalizedFullTitle();
+			
+			ValidatedWikitext validated =
+					validator.validate(config, entityMap, title, s.wikitext);
+			
+			WtPreproWikitextPage ppAst = (WtPreproWikitextPage)
+					preprocessor.parseArticle(validated, title, false);
+			
+			return parser.parseArticle(
+					PreprocessorToParserTransformer.transformToSegments(ppAst, false),
+					title);
+		}
+	}
+}
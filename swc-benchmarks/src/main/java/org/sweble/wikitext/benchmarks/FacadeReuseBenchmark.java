@@ -0,0 +1,132 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.parser.ParserConfig;
+import org.sweble.wikitext.parser.WikitextEncodingValidator;
+import org.sweble.wikitext.parser.WikitextParser;
+import org.sweble.wikitext.parser.WikitextPreprocessor;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.parser.PreprocessorToParserTransformer;
+import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
+
+/**
+ * Compares creating the validator, preprocessor and parser facades for
+ * every page with reusing one instance of each. Run with
+ * 
+ * <pre>
+ * java -jar swc-benchmarks/target/benchmarks.jar FacadeReuseBenchmark -prof gc
+ * </pre>
+ * 
+ * and compare {@code gc.alloc.rate.norm}, the bytes allocated per
+ * operation, of the fresh and the reused variant of each stage.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class FacadeReuseBenchmark
+{
+	@Benchmark
+	public ValidatedWikitext validateFresh(CorpusPageState s, Facades f) throws Exception
+	{
+		return new WikitextEncodingValidator().validate(
+				f.config, new WtEntityMapImpl(), f.title, s.wikitext);
+	}
+	
+	@Benchmark
+	public ValidatedWikitext validateReused(CorpusPageState s, Facades f) throws Exception
+	{
+		return f.validator.validate(
+				f.config, new WtEntityMapImpl(), f.title, s.wikitext);
+	}
+	
+	@Benchmark
+	public WtNode preprocessFresh(CorpusPageState s, Facades f) throws Exception
+	{
+		return new WikitextPreprocessor(f.config).parseArticle(s.validated, f.title, false);
+	}
+	
+	@Benchmark
+	public WtNode preprocessReused(CorpusPageState s, Facades f) throws Exception
+	{
+		return f.preprocessor.parseArticle(s.validated, f.title, false);
+	}
+	
+	@Benchmark
+	public WtNode parseFresh(Facades f) throws Exception
+	{
+		return new WikitextParser(f.config).parseArticle(f.ppw, f.title);
+	}
+	
+	@Benchmark
+	public WtNode parseReused(Facades f) throws Exception
+	{
+		return f.parser.parseArticle(f.ppw, f.title);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The parser only reads the transformed page. It is therefore prepared
+	 * once per trial.
+	 */
+	@State(Scope.Thread)
+	public static class Facades
+	{
+		public ParserConfig config;
+		
+		public String title;
+		
+		public WikitextEncodingValidator validator;
+		
+		public WikitextPreprocessor preprocessor;
+		
+		public WikitextParser parser;
+		
+		public PreprocessedWikitext ppw;
+		
+		@Setup(Level.Trial)
+		public void setup(CorpusPageState s)
+		{
+			config = s.corpus.getConfig().getParserConfig();
+			title = s.title.getDenormalizedFullTitle();
+			validator = new WikitextEncodingValidator();
+			preprocessor = new WikitextPreprocessor(config);
+			parser = new WikitextParser(config);
+			ppw = PreprocessorToParserTransformer.transform(
+					CorpusPageState.copy(s.expanded),
+					false);
+		}
+	}
+}
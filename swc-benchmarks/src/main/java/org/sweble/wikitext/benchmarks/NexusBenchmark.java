@@ -0,0 +1,230 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.articlecruncher.Job;
+import org.sweble.wikitext.articlecruncher.JobGeneratorFactory;
+import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.JobTraceSet;
+import org.sweble.wikitext.articlecruncher.Nexus;
+import org.sweble.wikitext.articlecruncher.Nexus.PipelineType;
+import org.sweble.wikitext.articlecruncher.ProcessingNodeFactory;
+import org.sweble.wikitext.articlecruncher.Processor;
+import org.sweble.wikitext.articlecruncher.StorerFactory;
+import org.sweble.wikitext.articlecruncher.pnodes.DirectProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
+import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
+import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
+import org.sweble.wikitext.articlecruncher.utils.WaitStrategy;
+import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
+
+/**
+ * Measures the overhead of the article cruncher's pipeline. One operation
+ * pushes {@link #JOB_COUNT} empty jobs through a fresh {@link Nexus} with a
+ * trivial processor, so the measured time is spent almost entirely in
+ * queues, hand-offs and job tracing.
+ * 
+ * The configurations are:
+ * <ul>
+ * <li>LPN_BLOCKING: the classic set-up, {@link LocalProcessingNode} on
+ * lock-based queues.</li>
+ * <li>DIRECT_BLOCKING: {@link DirectProcessingNode} on lock-based queues.</li>
+ * <li>DIRECT_RING: {@link DirectProcessingNode} on lock-free ring buffers.</li>
+ * </ul>
+ * 
+ * Multiply the throughput by {@link #JOB_COUNT} to obtain jobs per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class NexusBenchmark
+{
+	public static final int JOB_COUNT = 100000;
+	
+	private static final int QUEUE_CAPACITY = 1024;
+	
+	private static final int BATCH_SIZE = 32;
+	
+	@Param({ "LPN_BLOCKING", "DIRECT_BLOCKING", "DIRECT_RING" })
+	public String configuration;
+	
+	@Param({ "4" })
+	public int workers;
+	
+	// =========================================================================
+	
+	@Benchmark
+	public long pipeline() throws Throwable
+	{
+		final AtomicLong stored = new AtomicLong();
+		
+		boolean ring = configuration.equals("DIRECT_RING");
+		final boolean direct = !configuration.equals("LPN_BLOCKING");
+		
+		Nexus nexus = new Nexus();
+		nexus.setUp(
+				QUEUE_CAPACITY,
+				QUEUE_CAPACITY,
+				QUEUE_CAPACITY,
+				ring ? PipelineType.RING_BUFFERS : PipelineType.BLOCKING_QUEUES,
+				WaitStrategy.PARK);
+		
+		nexus.addJobGenerator(new JobGeneratorFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					final BlockingQueue<Job> inTray,
+					final JobTraceSet jobTraces)
+			{
+				return new WorkerBase("JobGenerator", abortHandler)
+				{
+					@Override
+					protected void work() throws InterruptedException
+					{
+						for (int i = 0; i < JOB_COUNT; ++i)
+						{
+							Job job = new BenchmarkJob();
+							
+							JobTrace trace = job.getTrace();
+							trace.signOff(getClass(), null);
+							
+							jobTraces.add(trace);
+							
+							inTray.put(job);
+						}
+					}
+				};
+			}
+		});
+		
+		nexus.addProcessingNode(new ProcessingNodeFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					BlockingQueue<Job> inTray,
+					BlockingQueue<Job> processedJobs)
+			{
+				if (direct)
+				{
+					return new DirectProcessingNode(
+							abortHandler,
+							inTray,
+							processedJobs,
+							PROCESSOR_FACTORY,
+							workers,
+							BATCH_SIZE);
+				}
+				else
+				{
+					return new LocalProcessingNode(
+							abortHandler,
+							inTray,
+							processedJobs,
+							PROCESSOR_FACTORY,
+							workers);
+				}
+			}
+		});
+		
+		nexus.addStorer(new StorerFactory()
+		{
+			@Override
+			public WorkerBase create(
+					AbortHandler abortHandler,
+					final JobTraceSet jobTraces,
+					final BlockingQueue<Job> outTray)
+			{
+				return new WorkerBase("Storer", abortHandler)
+				{
+					@Override
+					protected void work() throws InterruptedException
+					{
+						while (true)
+						{
+							Job job = outTray.take();
+							
+							JobTrace trace = job.getTrace();
+							trace.signOff(getClass(), null);
+							
+							stored.incrementAndGet();
+							
+							if (!jobTraces.remove(trace))
+								throw new InternalError("Missing job trace");
+						}
+					}
+				};
+			}
+		});
+		
+		nexus.start();
+		
+		if (stored.get() != JOB_COUNT)
+			throw new AssertionError("Lost jobs: " + (JOB_COUNT - stored.get()));
+		
+		return stored.get();
+	}
+	
+	// =========================================================================
+	
+	private static final LpnJobProcessorFactory PROCESSOR_FACTORY = new LpnJobProcessorFactory()
+	{
+		@Override
+		public Processor createProcessor()
+		{
+			return new Processor()
+			{
+				@Override
+				public Object process(Job job)
+				{
+					return job;
+				}
+			};
+		}
+		
+		@Override
+		public String getProcessorNameTemplate()
+		{
+			return "Processor-%02d";
+		}
+	};
+	
+	private static final class BenchmarkJob
+			extends
+				Job
+	{
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.parser.WikitextParser;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+import org.sweble.wikitext.parser.parser.PreprocessorToParserTransformer;
+import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
+
+/**
+ * Compares the two ways of handing an expanded page to the parser: rendering
+ * it into a string with encoded entities, or handing over a list of text
+ * windows and entity segments. Run with {@code -prof gc} to see the bytes
+ * allocated for the intermediate representation.
+ * 
+ * The transformer registers every entity in the entity map of the page. The
+ * expanded page is therefore copied once per iteration into a batch of
+ * {@link #BATCH_SIZE} pages with entity maps of their own, and each
+ * invocation consumes one page of the batch. The benchmarks run in single
+ * shot mode and report the time of a whole batch.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20, batchSize = ParsePipelineBenchmark.BATCH_SIZE)
+@Measurement(iterations = 20, batchSize = ParsePipelineBenchmark.BATCH_SIZE)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class ParsePipelineBenchmark
+{
+	public static final int BATCH_SIZE = 256;
+	
+	// =========================================================================
+	
+	@Benchmark
+	public PreprocessedWikitext transformToString(PipelineInput in)
+	{
+		return PreprocessorToParserTransformer.transform(in.next(), false);
+	}
+	
+	@Benchmark
+	public PreprocessedWikitext transformToSegments(PipelineInput in)
+	{
+		return PreprocessorToParserTransformer.transformToSegments(in.next(), false);
+	}
+	
+	@Benchmark
+	public WtNode parseFromString(CorpusPageState s, PipelineInput in) throws Exception
+	{
+		return in.parser.parseArticle(
+				PreprocessorToParserTransformer.transform(in.next(), false),
+				s.title.getTitle());
+	}
+	
+	@Benchmark
+	public WtNode parseFromSegments(CorpusPageState s, PipelineInput in) throws Exception
+	{
+		return in.parser.parseArticle(
+				PreprocessorToParserTransformer.transformToSegments(in.next(), false),
+				s.title.getTitle());
+	}
+	
+	// =========================================================================
+	
+	@State(Scope.Thread)
+	public static class PipelineInput
+	{
+		public WikitextParser parser;
+		
+		private final WtPreproWikitextPage[] batch = new WtPreproWikitextPage[BATCH_SIZE];
+		
+		private int next;
+		
+		@Setup(Level.Trial)
+		public void setupParser(CorpusPageState s)
+		{
+			parser = new WikitextParser(s.corpus.getConfig().getParserConfig());
+		}
+		
+		@Setup(Level.Iteration)
+		public void setup(CorpusPageState s)
+		{
+			for (int i = 0; i < batch.length; ++i)
+				batch[i] = CorpusPageState.copyWithEntityMap(s.expanded);
+			next = 0;
+		}
+		
+		public WtPreproWikitextPage next()
+		{
+			WtPreproWikitextPage ppAst = batch[next];
+			batch[next++] = null;
+			return ppAst;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.engine.AstToWomVisitor;
+import org.sweble.wikitext.engine.output.HtmlRenderer;
+
+/**
+ * Measures the conversion of a fully processed page into its output formats.
+ * See {@link org.sweble.wikitext.engine.EngineStageBenchmark} for how to run the benchmarks.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class RenderBenchmark
+{
+	private static final DateTime TIMESTAMP =
+			DateTime.parse("2013-01-01T00:00:00.000+01:00");
+	
+	// =========================================================================
+	
+	@Benchmark
+	public String renderHtml(CorpusPageState s)
+	{
+		return HtmlRenderer.print(
+				s.corpus,
+				s.corpus.getConfig(),
+				s.title,
+				s.processedPage.getPage());
+	}
+	
+	@Benchmark
+	public Object astToWom(CorpusPageState s)
+	{
+		AstToWomVisitor v = new AstToWomVisitor(
+				s.corpus.getConfig(),
+				s.title,
+				"Benchmark",
+				TIMESTAMP);
+		
+		return v.go(s.processedPage.getPage());
+	}
+}
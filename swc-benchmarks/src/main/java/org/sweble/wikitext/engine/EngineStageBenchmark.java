@@ -0,0 +1,190 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sweble.wikitext.benchmarks.CorpusPageState;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+
+/**
+ * Measures each processing stage of the {@link StagedEngine} separately.
+ * 
+ * Build the module and run the benchmarks with
+ * 
+ * <pre>
+ * mvn -pl swc-benchmarks -am package
+ * java -jar swc-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ * 
+ * Throughput is reported in operations per millisecond. The sample time mode
+ * reports the latency distribution including the 99th percentile. The GC
+ * profiler adds the allocation rate and the bytes allocated per operation.
+ * 
+ * The expansion, the parser and the postprocessor alter their input (the
+ * parser registers entities in the entity map of its input). Their inputs are
+ * copied once per iteration into a batch of {@link #BATCH_SIZE} pages and
+ * each invocation consumes one page of the batch. These benchmarks run in
+ * single shot mode and report the time of a whole batch.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+public class EngineStageBenchmark
+{
+	public static final int BATCH_SIZE = 256;
+	
+	// =========================================================================
+	
+	@Benchmark
+	public ValidatedWikitext validate(CorpusPageState s) throws EngineException
+	{
+		return s.engine.validateStage(s.title, s.wikitext);
+	}
+	
+	@Benchmark
+	public WtPreproWikitextPage preprocess(CorpusPageState s) throws EngineException
+	{
+		return s.engine.preprocessStage(s.title, s.validated);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = BATCH_SIZE)
+	@Measurement(iterations = 20, batchSize = BATCH_SIZE)
+	public WtPreproWikitextPage expand(CorpusPageState s, ExpansionInput in) throws EngineException
+	{
+		return s.engine.expandStage(s.corpus, s.title, in.next());
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = BATCH_SIZE)
+	@Measurement(iterations = 20, batchSize = BATCH_SIZE)
+	public WtParsedWikitextPage parse(CorpusPageState s, ParserInput in) throws EngineException
+	{
+		return s.engine.parseStage(s.title, in.next());
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 20, batchSize = BATCH_SIZE)
+	@Measurement(iterations = 20, batchSize = BATCH_SIZE)
+	public WtParsedWikitextPage postprocess(CorpusPageState s, PostprocessorInput in) throws EngineException
+	{
+		return s.engine.postprocessStage(s.title, in.next());
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * A batch of copies of the preprocessed page. Copying is not part of the
+	 * measurement.
+	 */
+	@State(Scope.Thread)
+	public static class ExpansionInput
+	{
+		private final WtPreproWikitextPage[] batch = new WtPreproWikitextPage[BATCH_SIZE];
+		
+		private int next;
+		
+		@Setup(Level.Iteration)
+		public void setup(CorpusPageState s)
+		{
+			for (int i = 0; i < batch.length; ++i)
+				batch[i] = CorpusPageState.copy(s.preprocessed);
+			next = 0;
+		}
+		
+		public WtPreproWikitextPage next()
+		{
+			WtPreproWikitextPage ppAst = batch[next];
+			batch[next++] = null;
+			return ppAst;
+		}
+	}
+	
+	/**
+	 * A batch of copies of the expanded page, each with an entity map of its
+	 * own. Copying is not part of the measurement.
+	 */
+	@State(Scope.Thread)
+	public static class ParserInput
+	{
+		private final WtPreproWikitextPage[] batch = new WtPreproWikitextPage[BATCH_SIZE];
+		
+		private int next;
+		
+		@Setup(Level.Iteration)
+		public void setup(CorpusPageState s)
+		{
+			for (int i = 0; i < batch.length; ++i)
+				batch[i] = CorpusPageState.copyWithEntityMap(s.expanded);
+			next = 0;
+		}
+		
+		public WtPreproWikitextPage next()
+		{
+			WtPreproWikitextPage pprAst = batch[next];
+			batch[next++] = null;
+			return pprAst;
+		}
+	}
+	
+	/**
+	 * A batch of copies of the parsed page. Copying is not part of the
+	 * measurement.
+	 */
+	@State(Scope.Thread)
+	public static class PostprocessorInput
+	{
+		private final WtParsedWikitextPage[] batch = new WtParsedWikitextPage[BATCH_SIZE];
+		
+		private int next;
+		
+		@Setup(Level.Iteration)
+		public void setup(CorpusPageState s)
+		{
+			for (int i = 0; i < batch.length; ++i)
+				batch[i] = CorpusPageState.copy(s.parsed);
+			next = 0;
+		}
+		
+		public WtParsedWikitextPage next()
+		{
+			WtParsedWikitextPage pAst = batch[next];
+			batch[next++] = null;
+			return pAst;
+		}
+	}
+}
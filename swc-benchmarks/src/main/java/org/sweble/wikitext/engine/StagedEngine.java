@@ -0,0 +1,83 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+
+/**
+ * Exposes the individual processing stages of the {@link WtEngineImpl} so
+ * that each stage can be measured in isolation. Every call uses a fresh log,
+ * exactly like a call to one of the public methods of the engine would.
+ * 
+ * The stage methods of the engine are package-private. This class therefore
+ * lives in the package of the engine.
+ */
+public final class StagedEngine
+		extends
+			WtEngineImpl
+{
+	public StagedEngine(WikiConfig wikiConfig)
+	{
+		super(wikiConfig);
+	}
+	
+	// =========================================================================
+	
+	public ValidatedWikitext validateStage(PageTitle title, String wikitext) throws EngineException
+	{
+		return validate(title, wikitext, nf().logProcessingPass(), null);
+	}
+	
+	public WtPreproWikitextPage preprocessStage(
+			PageTitle title,
+			ValidatedWikitext validatedWikitext) throws EngineException
+	{
+		return preprocess(title, validatedWikitext, false, nf().logProcessingPass());
+	}
+	
+	/**
+	 * The expansion alters the given AST in place.
+	 */
+	public WtPreproWikitextPage expandStage(
+			ExpansionCallback callback,
+			PageTitle title,
+			WtPreproWikitextPage ppAst) throws EngineException
+	{
+		return expand(callback, title, ppAst, null, false, nf().logProcessingPass());
+	}
+	
+	public WtParsedWikitextPage parseStage(
+			PageTitle title,
+			WtPreproWikitextPage pprAst) throws EngineException
+	{
+		return parse(title, pprAst, nf().logProcessingPass());
+	}
+	
+	/**
+	 * The postprocessor alters the given AST in place.
+	 */
+	public WtParsedWikitextPage postprocessStage(
+			PageTitle title,
+			WtParsedWikitextPage pAst) throws EngineException
+	{
+		return postprocess(title, pAst, nf().logProcessingPass());
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.benchmarks;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+
+/**
+ * Makes sure that every page of the corpus passes all stages so that the
+ * benchmarks don't end up measuring error paths.
+ */
+public class BenchmarkCorpusTest
+{
+	@Test
+	public void testEveryPagePassesAllStages() throws Exception
+	{
+		for (String page : BenchmarkCorpus.PAGES)
+		{
+			CorpusPageState s = new CorpusPageState();
+			s.page = page;
+			s.setup();
+			
+			assertNotNull(page, s.postprocessed);
+			assertNotNull(page, s.processedPage);
+			
+			assertFalse(page, new RenderBenchmark().renderHtml(s).isEmpty());
+			assertNotNull(page, new RenderBenchmark().astToWom(s));
+		}
+	}
+	
+	@Test
+	public void testTemplateIndexIsComplete() throws Exception
+	{
+		BenchmarkCorpus corpus = new BenchmarkCorpus(DefaultConfigEnWp.generate());
+		
+		String[] templates = {
+				"Template:!",
+				"Template:Cite web",
+				"Template:Citation needed",
+				"Template:Convert",
+				"Template:Flag",
+				"Template:Infobox river",
+				"Template:Infobox row",
+				"Template:Main",
+				"Template:Reflist" };
+		
+		for (String template : templates)
+			assertNotNull(template, corpus.retrieveWikitext(null, corpus.getTitle(template)));
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the offsets at which the independent bzip2 streams of a multistream
+ * dump start, without decompressing the dump.
+ * 
+ * Every bzip2 stream starts byte aligned with the signature "BZh" followed by
+ * the block size digit and either a block header or an end of stream marker.
+ * Since the signature can also occur by chance inside compressed data, a
+ * candidate is only accepted if it is preceded by the end of stream marker
+ * and the stream CRC of the previous stream, padded to a byte boundary.
+ */
+final class BZip2StreamScanner
+		implements
+			Closeable
+{
+	/**
+	 * Number of bytes preceding a stream start which hold the end of stream
+	 * marker (48 bits) and the CRC (32 bits) of the previous stream plus up
+	 * to 7 padding bits.
+	 */
+	static final int FOOTER_LENGTH = 11;
+	
+	/**
+	 * "BZh", the block size digit and a 48 bit block or end of stream magic.
+	 */
+	static final int HEADER_LENGTH = 10;
+	
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	
+	private static final long EOS_MAGIC = 0x177245385090L;
+	
+	private static final int CHUNK_SIZE = 1 << 20;
+	
+	// =========================================================================
+	
+	private final InputStream in;
+	
+	private final long length;
+	
+	private final byte[] buf = new byte[FOOTER_LENGTH + CHUNK_SIZE + HEADER_LENGTH];
+	
+	private long bufOffset = 0;
+	
+	private int limit = 0;
+	
+	private int pos = FOOTER_LENGTH;
+	
+	private boolean eof = false;
+	
+	private boolean done = false;
+	
+	// =========================================================================
+	
+	public BZip2StreamScanner(File file) throws IOException
+	{
+		this.in = new FileInputStream(file);
+		this.length = file.length();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The offset of the next stream (not including the stream at
+	 *         offset 0), the length of the file after the last stream was
+	 *         found or -1 if the length of the file has already been
+	 *         reported.
+	 */
+	public long next() throws IOException
+	{
+		if (done)
+			return -1;
+		
+		while (true)
+		{
+			while (pos + HEADER_LENGTH <= limit)
+			{
+				int i = pos++;
+				if (buf[i] == 'B' && isStreamStart(buf, i))
+					return bufOffset + i;
+			}
+			
+			if (eof)
+			{
+				done = true;
+				return length;
+			}
+			
+			refill();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @param i
+	 *            Index of the candidate. There must be FOOTER_LENGTH bytes
+	 *            before and HEADER_LENGTH bytes starting at the candidate.
+	 */
+	static boolean isStreamStart(byte[] b, int i)
+	{
+		if (b[i] != 'B' || b[i + 1] != 'Z' || b[i + 2] != 'h')
+			return false;
+		if (b[i + 3] < '1' || b[i + 3] > '9')
+			return false;
+		
+		long magic = readLong(b, i + 4, 6);
+		if (magic != BLOCK_MAGIC && magic != EOS_MAGIC)
+			return false;
+		
+		// The end of stream marker of the previous stream starts at bit
+		// (8 - padding) of the footer, where padding is in [0, 7].
+		long footer = readLong(b, i - FOOTER_LENGTH, 8);
+		for (int padding = 0; padding < 8; ++padding)
+		{
+			int shift = 64 - (8 - padding) - 48;
+			if (((footer >>> shift) & 0xFFFFFFFFFFFFL) == EOS_MAGIC)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private static long readLong(byte[] b, int offset, int length)
+	{
+		long value = 0;
+		for (int i = offset; i < offset + length; ++i)
+			value = (value << 8) | (b[i] & 0xFF);
+		return value;
+	}
+	
+	private void refill() throws IOException
+	{
+		// Keep the footer of the next candidate and the bytes not yet
+		// examined.
+		int keep = pos - FOOTER_LENGTH;
+		System.arraycopy(buf, keep, buf, 0, limit - keep);
+		bufOffset += keep;
+		limit -= keep;
+		pos = FOOTER_LENGTH;
+		
+		while (limit < buf.length)
+		{
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read == -1)
+			{
+				eof = true;
+				break;
+			}
+			limit += read;
+		}
+	}
+}
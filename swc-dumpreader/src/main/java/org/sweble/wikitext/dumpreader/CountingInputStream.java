@@ -76,8 +76,8 @@ public final class CountingInputStream
 	public long skip(long n) throws IOException
 	{
 		long skipped = in.skip(n);
-		if (skipped != -1)
-			++count;
+		if (skipped > 0)
+			count += skipped;
 		return skipped;
 	}
 	
@@ -0,0 +1,333 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.sweble.wikitext.dumpreader.DumpPageParser.PageFilter;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+
+/**
+ * Random access to the pages of a multistream dump. Given a title or a page
+ * id the {@link MultistreamIndex} tells which bzip2 stream contains the page.
+ * Only that stream is read from the dump and decompressed. A small number of
+ * decompressed streams is cached since consecutive lookups often hit pages
+ * which are close to each other in the dump.
+ * 
+ * Instances are thread-safe.
+ */
+public class DumpPageLookup
+		implements
+			Closeable
+{
+	private static final int DEFAULT_CACHE_SIZE = 16;
+	
+	private static final byte[] PREFIX = "<pages>".getBytes();
+	
+	private static final byte[] SUFFIX = "</pages>".getBytes();
+	
+	// =========================================================================
+	
+	private final MultistreamIndex index;
+	
+	private final RandomAccessFile file;
+	
+	private final FileChannel channel;
+	
+	private final long fileLength;
+	
+	private final XMLInputFactory inputFactory;
+	
+	private final DumpPageParser parser;
+	
+	private final Map<Long, byte[]> cache;
+	
+	// =========================================================================
+	
+	/**
+	 * Opens a multistream dump using the index file found next to it (see
+	 * {@link MultistreamIndex#findIndexFile(File)}).
+	 */
+	public static DumpPageLookup open(File dumpFile) throws IOException
+	{
+		File indexFile = MultistreamIndex.findIndexFile(dumpFile);
+		if (indexFile == null)
+			throw new FileNotFoundException("No multistream index found for " + dumpFile);
+		
+		return new DumpPageLookup(dumpFile, MultistreamIndex.read(indexFile, true));
+	}
+	
+	public DumpPageLookup(File dumpFile, MultistreamIndex index) throws IOException
+	{
+		this(dumpFile, index, DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * @param index
+	 *            The index of the dump. The index must have been read with
+	 *            lookup tables.
+	 * @param cacheSize
+	 *            The number of decompressed streams to keep in memory.
+	 */
+	public DumpPageLookup(File dumpFile, MultistreamIndex index, final int cacheSize) throws IOException
+	{
+		if (!index.hasLookupTables())
+			throw new IllegalArgumentException("The index was read without lookup tables");
+		if (index.getStreamCount() == 0)
+			throw new IllegalArgumentException("The index is empty");
+		
+		this.index = index;
+		this.file = new RandomAccessFile(dumpFile, "r");
+		this.channel = file.getChannel();
+		this.fileLength = channel.size();
+		this.inputFactory = DumpPageParser.createInputFactory();
+		
+		this.cache = new LinkedHashMap<Long, byte[]>(cacheSize * 2, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		
+		try
+		{
+			this.parser = new DumpPageParser(determineExportVersion());
+		}
+		catch (IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+	
+	// =========================================================================
+	
+	public MultistreamIndex getIndex()
+	{
+		return index;
+	}
+	
+	/**
+	 * Retrieves a page by its title.
+	 * 
+	 * @param title
+	 *            The title as it appears in the dump, that is, including the
+	 *            namespace prefix and with spaces instead of underscores.
+	 * @return The page or null if the dump does not contain such a page.
+	 */
+	public DumpPage findByTitle(final String title) throws Exception
+	{
+		PageFilter filter = new PageFilter()
+		{
+			@Override
+			public boolean acceptPage(long id, int namespace, String t)
+			{
+				return title.equals(t);
+			}
+		};
+		
+		for (long offset : index.findStreamOffsetsByTitle(title))
+		{
+			DumpPage page = findInStream(offset, filter);
+			if (page != null)
+				return page;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Retrieves a page by its id.
+	 * 
+	 * @return The page or null if the dump does not contain such a page.
+	 */
+	public DumpPage findById(final long pageId) throws Exception
+	{
+		long offset = index.findStreamOffsetById(pageId);
+		if (offset < 0)
+			return null;
+		
+		return findInStream(offset, new PageFilter()
+		{
+			@Override
+			public boolean acceptPage(long id, int namespace, String title)
+			{
+				return id == pageId;
+			}
+		});
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+		}
+		file.close();
+	}
+	
+	// =========================================================================
+	
+	private DumpPage findInStream(long offset, PageFilter filter) throws Exception
+	{
+		byte[] xml = getStream(offset);
+		
+		XMLStreamReader r;
+		synchronized (inputFactory)
+		{
+			r = inputFactory.createXMLStreamReader(new ByteArrayInputStream(xml), "UTF-8");
+		}
+		
+		try
+		{
+			// The artificial <pages> element
+			DumpPageParser.nextTag(r);
+			
+			while (DumpPageParser.nextTag(r) == XMLStreamConstants.START_ELEMENT)
+			{
+				if (!r.getLocalName().equals("page"))
+				{
+					DumpPageParser.skipElement(r);
+					continue;
+				}
+				
+				DumpPage page = parser.readPage(r, filter);
+				if (page != null)
+					return page;
+			}
+			
+			return null;
+		}
+		finally
+		{
+			r.close();
+		}
+	}
+	
+	/**
+	 * @return The decompressed stream starting at the given offset wrapped
+	 *         in a &lt;pages&gt; element.
+	 */
+	private byte[] getStream(long offset) throws IOException
+	{
+		synchronized (cache)
+		{
+			byte[] xml = cache.get(offset);
+			if (xml != null)
+				return xml;
+		}
+		
+		byte[] xml = decompress(offset, getStreamEnd(offset), PREFIX, SUFFIX);
+		
+		synchronized (cache)
+		{
+			cache.put(offset, xml);
+		}
+		
+		return xml;
+	}
+	
+	private long getStreamEnd(long offset)
+	{
+		long next = index.getNextStreamOffset(offset);
+		return (next != -1) ? next : fileLength;
+	}
+	
+	/**
+	 * The first stream of a multistream dump only contains the
+	 * &lt;mediawiki&gt; start tag and the site info. It is not listed in the
+	 * index.
+	 */
+	private ExportSchemaVersion determineExportVersion() throws IOException
+	{
+		byte[] b = decompress(0, index.getStreamOffset(0), new byte[0], new byte[0]);
+		String header = new String(b, "UTF-8");
+		
+		for (ExportSchemaVersion v : ExportSchemaVersion.values())
+		{
+			if (header.contains("xmlns=\"" + v.getMediaWikiNamespace() + "\""))
+				return v;
+		}
+		
+		throw new IOException("Unknown xmlns");
+	}
+	
+	/**
+	 * Decompresses the single bzip2 stream in the given range of the dump.
+	 */
+	private byte[] decompress(long start, long end, byte[] prefix, byte[] suffix) throws IOException
+	{
+		long length = end - start;
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("bzip2 stream too large: " + length + " bytes at offset " + start);
+		
+		byte[] compressed = new byte[(int) length];
+		ByteBuffer bb = ByteBuffer.wrap(compressed);
+		while (bb.hasRemaining())
+		{
+			if (channel.read(bb, start + bb.position()) == -1)
+				throw new EOFException();
+		}
+		
+		// Not concatenated: The range of the last stream listed in the index
+		// also covers the stream with the closing </mediawiki> tag.
+		InputStream in = new BZip2CompressorInputStream(
+				new ByteArrayInputStream(compressed),
+				false);
+		
+		byte[] data = new byte[Math.max(compressed.length * 4, 4096)];
+		System.arraycopy(prefix, 0, data, 0, prefix.length);
+		int size = prefix.length;
+		while (true)
+		{
+			if (size == data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+			
+			int read = in.read(data, size, data.length - size);
+			if (read == -1)
+				break;
+			size += read;
+		}
+		
+		data = Arrays.copyOf(data, size + suffix.length);
+		System.arraycopy(suffix, 0, data, size, suffix.length);
+		return data;
+	}
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.dumpreader.model.DumpRevision;
+
+/**
+ * Reads &lt;page&gt; elements from a StAX stream reader into {@link DumpPage}
+ * objects. Shared by the {@link StreamingDumpReader} and the
+ * {@link DumpPageLookup}.
+ */
+final class DumpPageParser
+{
+	public static interface PageFilter
+	{
+		boolean acceptPage(long id, int namespace, String title) throws Exception;
+	}
+	
+	// =========================================================================
+	
+	private final ExportSchemaVersion schemaVersion;
+	
+	// =========================================================================
+	
+	public DumpPageParser(ExportSchemaVersion schemaVersion)
+	{
+		this.schemaVersion = schemaVersion;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Reads a page. The reader must be positioned on the start element of the
+	 * page and is left on the matching end element.
+	 * 
+	 * @return The page or null if the filter rejected the page.
+	 */
+	public DumpPage readPage(XMLStreamReader r, PageFilter filter) throws Exception
+	{
+		long id = DumpRevision.NO_ID;
+		int namespace = (schemaVersion == ExportSchemaVersion.V0_5) ?
+				DumpPage.UNKNOWN_NAMESPACE :
+				0;
+		String title = null;
+		String redirectTitle = null;
+		List<DumpRevision> revisions = null;
+		
+		boolean decided = false;
+		boolean accepted = true;
+		while (nextTag(r) == XMLStreamConstants.START_ELEMENT)
+		{
+			String name = r.getLocalName();
+			if (!accepted)
+			{
+				skipElement(r);
+			}
+			else if (name.equals("title"))
+			{
+				title = r.getElementText();
+			}
+			else if (name.equals("ns"))
+			{
+				namespace = Integer.parseInt(r.getElementText().trim());
+			}
+			else if (name.equals("id"))
+			{
+				id = Long.parseLong(r.getElementText().trim());
+			}
+			else if (name.equals("redirect"))
+			{
+				// Before 0.6 the redirect element carries no title
+				String target = r.getAttributeValue(null, "title");
+				redirectTitle = (target != null) ? target : "";
+				skipElement(r);
+			}
+			else if (name.equals("revision"))
+			{
+				if (!decided)
+				{
+					decided = true;
+					accepted = filter.acceptPage(id, namespace, title);
+					revisions = new ArrayList<DumpRevision>();
+				}
+				
+				if (accepted)
+					revisions.add(readRevision(r));
+				else
+					skipElement(r);
+			}
+			else
+			{
+				skipElement(r);
+			}
+		}
+		
+		if (!decided)
+		{
+			accepted = filter.acceptPage(id, namespace, title);
+			revisions = new ArrayList<DumpRevision>(0);
+		}
+		
+		if (!accepted)
+			return null;
+		
+		return new DumpPage(id, namespace, title, redirectTitle, revisions);
+	}
+	
+	private DumpRevision readRevision(XMLStreamReader r) throws XMLStreamException
+	{
+		long id = DumpRevision.NO_ID;
+		long parentId = DumpRevision.NO_ID;
+		long timestamp = DumpRevision.NO_TIMESTAMP;
+		boolean minor = false;
+		long contributorId = DumpRevision.NO_ID;
+		String contributorUsername = null;
+		String contributorIp = null;
+		boolean contributorDeleted = false;
+		String commentText = null;
+		boolean commentDeleted = false;
+		String text = null;
+		String textSha1 = null;
+		boolean textDeleted = false;
+		String format = null;
+		String model = null;
+		
+		while (nextTag(r) == XMLStreamConstants.START_ELEMENT)
+		{
+			String name = r.getLocalName();
+			if (name.equals("text"))
+			{
+				textDeleted = isDeleted(r);
+				text = r.getElementText();
+			}
+			else if (name.equals("id"))
+			{
+				id = Long.parseLong(r.getElementText().trim());
+			}
+			else if (name.equals("parentid"))
+			{
+				parentId = Long.parseLong(r.getElementText().trim());
+			}
+			else if (name.equals("timestamp"))
+			{
+				timestamp = parseTimestamp(r.getElementText().trim());
+			}
+			else if (name.equals("contributor"))
+			{
+				contributorDeleted = isDeleted(r);
+				while (nextTag(r) == XMLStreamConstants.START_ELEMENT)
+				{
+					String cname = r.getLocalName();
+					if (cname.equals("username"))
+					{
+						contributorUsername = r.getElementText();
+					}
+					else if (cname.equals("id"))
+					{
+						contributorId = Long.parseLong(r.getElementText().trim());
+					}
+					else if (cname.equals("ip"))
+					{
+						contributorIp = r.getElementText();
+					}
+					else
+					{
+						skipElement(r);
+					}
+				}
+			}
+			else if (name.equals("minor"))
+			{
+				minor = true;
+				skipElement(r);
+			}
+			else if (name.equals("comment"))
+			{
+				commentDeleted = isDeleted(r);
+				commentText = r.getElementText();
+			}
+			else if (name.equals("sha1"))
+			{
+				textSha1 = r.getElementText();
+			}
+			else if (name.equals("model"))
+			{
+				model = r.getElementText();
+			}
+			else if (name.equals("format"))
+			{
+				format = r.getElementText();
+			}
+			else
+			{
+				skipElement(r);
+			}
+		}
+		
+		return new DumpRevision(
+				id,
+				parentId,
+				timestamp,
+				minor,
+				contributorId,
+				contributorUsername,
+				contributorIp,
+				contributorDeleted,
+				commentText,
+				commentDeleted,
+				text,
+				textSha1,
+				textDeleted,
+				format,
+				model);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Advances to the next start element or to the end element of the
+	 * current element, whichever comes first.
+	 */
+	static int nextTag(XMLStreamReader r) throws XMLStreamException
+	{
+		while (true)
+		{
+			int event = r.next();
+			switch (event)
+			{
+				case XMLStreamConstants.START_ELEMENT:
+				case XMLStreamConstants.END_ELEMENT:
+					return event;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of dump", r.getLocation());
+			}
+		}
+	}
+	
+	/**
+	 * Skips the current element including all its content. The reader must be
+	 * positioned on the start element and is left on the matching end
+	 * element.
+	 */
+	static void skipElement(XMLStreamReader r) throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = r.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				++depth;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				--depth;
+			else if (event == XMLStreamConstants.END_DOCUMENT)
+				throw new XMLStreamException("Unexpected end of dump", r.getLocation());
+		}
+	}
+	
+	private static boolean isDeleted(XMLStreamReader r)
+	{
+		return "deleted".equals(r.getAttributeValue(null, "deleted"));
+	}
+	
+	/**
+	 * Parses timestamps of the form <code>YYYY-MM-DDThh:mm:ssZ</code>, the
+	 * only form MediaWiki emits, without going through a calendar. Other
+	 * xsd:dateTime values are handed to the {@link DatatypeConverter}.
+	 * 
+	 * @return Milliseconds since the epoch.
+	 */
+	static long parseTimestamp(String s)
+	{
+		if (s.length() != 20
+				|| s.charAt(4) != '-'
+				|| s.charAt(7) != '-'
+				|| s.charAt(10) != 'T'
+				|| s.charAt(13) != ':'
+				|| s.charAt(16) != ':'
+				|| s.charAt(19) != 'Z')
+			return DatatypeConverter.parseDateTime(s).getTimeInMillis();
+		
+		long y = digits(s, 0, 4);
+		int m = digits(s, 5, 2);
+		int d = digits(s, 8, 2);
+		int hh = digits(s, 11, 2);
+		int mm = digits(s, 14, 2);
+		int ss = digits(s, 17, 2);
+		
+		if ((y | m | d | hh | mm | ss) < 0
+				|| m < 1 || m > 12
+				|| d < 1 || d > 31
+				|| hh > 23 || mm > 59 || ss > 60)
+			return DatatypeConverter.parseDateTime(s).getTimeInMillis();
+		
+		// Days since 1970-01-01 in the proleptic Gregorian calendar
+		if (m <= 2)
+			--y;
+		long era = y / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		long days = era * 146097 + doe - 719468;
+		
+		return ((days * 24 + hh) * 60 + mm) * 60000L + ss * 1000L;
+	}
+	
+	/**
+	 * @return The decimal value or -1 if a character is not a digit.
+	 */
+	private static int digits(String s, int offset, int length)
+	{
+		int value = 0;
+		for (int i = offset; i < offset + length; ++i)
+		{
+			char ch = s.charAt(i);
+			if (ch < '0' || ch > '9')
+				return -1;
+			value = value * 10 + (ch - '0');
+		}
+		return value;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Creates a factory for non-validating, namespace unaware stream readers
+	 * which coalesce adjacent character data.
+	 */
+	static XMLInputFactory createInputFactory()
+	{
+		XMLInputFactory f = XMLInputFactory.newInstance();
+		
+		setIfSupported(f, XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		setIfSupported(f, XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		setIfSupported(f, XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		setIfSupported(f, XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		
+		return f;
+	}
+	
+	private static void setIfSupported(
+			XMLInputFactory f,
+			String property,
+			Object value)
+	{
+		if (f.isPropertySupported(property))
+			f.setProperty(property, value);
+	}
+}
@@ -17,10 +17,8 @@
 
 package org.sweble.wikitext.dumpreader;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -41,9 +39,6 @@ import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.apache.xerces.util.XMLCatalogResolver;
 
@@ -53,8 +48,6 @@ public abstract class DumpReader
 		implements
 			Closeable
 {
-	private final InputStream dumpInputStream;
-	
 	private final String dumpUri;
 	
 	private final Logger logger;
@@ -65,18 +58,12 @@ public abstract class DumpReader
 	
 	private final ExportSchemaVersion schemaVersion;
 	
-	private CountingInputStream decompressedInputStream;
-	
-	private CountingInputStream compressedInputStream;
+	private final DumpStreams streams;
 	
 	private long fileLength;
 	
 	private long parsedCount;
 	
-	private boolean decompress;
-	
-	private static final int LOOKAHEAD = 4096;
-	
 	// =========================================================================
 	
 	/**
@@ -87,7 +74,7 @@ public abstract class DumpReader
 	 */
 	public DumpReader(File dumpFile, Logger logger) throws Exception
 	{
-		this(new FileInputStream(dumpFile), dumpFile.getAbsolutePath(), logger);
+		this(DumpStreams.openDumpFile(dumpFile), dumpFile.getAbsolutePath(), logger);
 		
 		fileLength = dumpFile.length();
 	}
@@ -118,6 +105,30 @@ public abstract class DumpReader
 		this(is, null, url, logger, useSchema);
 	}
 	
+	/**
+	 * Reads a dump file, skipping all pages before the bzip2 stream at
+	 * <code>resumeOffset</code>. The offset of the stream holding a certain
+	 * page can be looked up in the index of a multistream dump (see
+	 * {@link MultistreamIndex#findStreamOffsetById(long)}). An offset of 0
+	 * reads the whole dump.
+	 */
+	public DumpReader(
+			File dumpFile,
+			long resumeOffset,
+			Charset encoding,
+			Logger logger,
+			boolean useSchema) throws Exception
+	{
+		this(
+				DumpStreams.openDumpFile(dumpFile, resumeOffset),
+				encoding,
+				dumpFile.getAbsolutePath(),
+				logger,
+				useSchema);
+		
+		fileLength = dumpFile.length();
+	}
+	
 	public DumpReader(
 			InputStream is,
 			Charset encoding,
@@ -125,15 +136,14 @@ public abstract class DumpReader
 			Logger logger,
 			boolean useSchema) throws Exception
 	{
-		this.dumpInputStream = is;
 		this.dumpUri = url;
 		this.logger = logger;
 		
 		logger.info("Setting up parser for file " + dumpUri);
 		
-		getDumpInputStream();
+		streams = new DumpStreams(is, url);
 		
-		schemaVersion = determineExportVersion();
+		schemaVersion = streams.determineExportVersion();
 		
 		unmarshaller = createUnmarshaller(schemaVersion.getContextPath());
 		
@@ -172,9 +182,7 @@ public abstract class DumpReader
 	
 	private void closeStreams()
 	{
-		IOUtils.closeQuietly(decompressedInputStream);
-		IOUtils.closeQuietly(compressedInputStream);
-		IOUtils.closeQuietly(dumpInputStream);
+		streams.close();
 	}
 	
 	public long getFileSize()
@@ -184,19 +192,12 @@ public abstract class DumpReader
 	
 	public long getDecompressedBytesRead() throws IOException
 	{
-		return decompressedInputStream.getCount();
+		return streams.getDecompressedBytesRead();
 	}
 	
 	public long getCompressedBytesRead() throws IOException
 	{
-		if (decompress)
-		{
-			return compressedInputStream.getCount();
-		}
-		else
-		{
-			return getDecompressedBytesRead();
-		}
+		return streams.getCompressedBytesRead();
 	}
 	
 	public long getParsedCount()
@@ -249,68 +250,6 @@ public abstract class DumpReader
 	
 	// =========================================================================
 	
-	private void getDumpInputStream() throws Exception
-	{
-		InputStream decomp;
-		if (dumpUri.endsWith(".bz2"))
-		{
-			decompress = true;
-			
-			compressedInputStream = new CountingInputStream(dumpInputStream);
-			
-			decomp = new BZip2CompressorInputStream(compressedInputStream);
-		}
-		else if (dumpUri.endsWith(".gz"))
-		{
-			decompress = true;
-			
-			compressedInputStream = new CountingInputStream(dumpInputStream);
-			
-			decomp = new GzipCompressorInputStream(compressedInputStream);
-		}
-		else
-		{
-			decompress = false;
-			
-			decomp = dumpInputStream;
-		}
-		
-		decompressedInputStream = new CountingInputStream(
-				new BufferedInputStream(decomp, LOOKAHEAD));
-	}
-	
-	private ExportSchemaVersion determineExportVersion() throws Exception
-	{
-		byte[] b = new byte[LOOKAHEAD];
-		
-		decompressedInputStream.mark(LOOKAHEAD);
-		int read = decompressedInputStream.read(b, 0, LOOKAHEAD);
-		decompressedInputStream.reset();
-		
-		String header = new String(b, 0, read);
-		
-		if (header.contains("xmlns=\"http://www.mediawiki.org/xml/export-0.5/\""))
-		{
-			return ExportSchemaVersion.V0_5;
-		}
-		else if (header.contains("xmlns=\"http://www.mediawiki.org/xml/export-0.6/\""))
-		{
-			return ExportSchemaVersion.V0_6;
-		}
-		else if (header.contains("xmlns=\"http://www.mediawiki.org/xml/export-0.7/\""))
-		{
-			return ExportSchemaVersion.V0_7;
-		}
-		else if (header.contains("xmlns=\"http://www.mediawiki.org/xml/export-0.8/\""))
-		{
-			return ExportSchemaVersion.V0_8;
-		}
-		else
-		{
-			throw new IllegalArgumentException("Unknown xmlns");
-		}
-	}
-	
 	/**
 	 * The xerces UTF8Reader is broken. If the xerces XML parser is given an
 	 * input stream, it will instantiate a reader for the encoding found in the
@@ -330,12 +269,12 @@ public abstract class DumpReader
 		
 		if (encoding != null)
 		{
-			InputStreamReader isr = new InputStreamReader(decompressedInputStream, encoding);
+			InputStreamReader isr = new InputStreamReader(streams.getDecompressedInputStream(), encoding);
 			return xmlInputFactory.createXMLStreamReader(isr);
 		}
 		else
 		{
-			return xmlInputFactory.createXMLStreamReader(decompressedInputStream);
+			return xmlInputFactory.createXMLStreamReader(streams.getDecompressedInputStream());
 		}
 	}
 	
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Decompresses a dump depending on the file name extension of the dump and
+ * counts the compressed and decompressed bytes read. A
+ * {@link MultistreamBZip2InputStream} is taken as is since it already does
+ * the decompression and the counting of compressed bytes.
+ */
+final class DumpStreams
+		implements
+			Closeable
+{
+	private static final int LOOKAHEAD = 4096;
+	
+	private static final int DECOMPRESSOR_THREADS =
+			Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+	
+	// =========================================================================
+	
+	private final InputStream dumpInputStream;
+	
+	private final boolean decompress;
+	
+	private final CountingInputStream compressedInputStream;
+	
+	private final MultistreamBZip2InputStream multistreamInputStream;
+	
+	private final CountingInputStream decompressedInputStream;
+	
+	// =========================================================================
+	
+	public DumpStreams(InputStream dumpInputStream, String dumpUri) throws IOException
+	{
+		this.dumpInputStream = dumpInputStream;
+		
+		InputStream decomp;
+		if (dumpInputStream instanceof MultistreamBZip2InputStream)
+		{
+			decompress = true;
+			
+			compressedInputStream = null;
+			
+			multistreamInputStream = (MultistreamBZip2InputStream) dumpInputStream;
+			
+			decomp = dumpInputStream;
+		}
+		else if (dumpUri.endsWith(".bz2"))
+		{
+			decompress = true;
+			
+			compressedInputStream = new CountingInputStream(dumpInputStream);
+			
+			multistreamInputStream = null;
+			
+			decomp = new BZip2CompressorInputStream(compressedInputStream);
+		}
+		else if (dumpUri.endsWith(".gz"))
+		{
+			decompress = true;
+			
+			compressedInputStream = new CountingInputStream(dumpInputStream);
+			
+			multistreamInputStream = null;
+			
+			decomp = new GzipCompressorInputStream(compressedInputStream);
+		}
+		else
+		{
+			decompress = false;
+			
+			compressedInputStream = null;
+			
+			multistreamInputStream = null;
+			
+			decomp = dumpInputStream;
+		}
+		
+		decompressedInputStream = new CountingInputStream(
+				new BufferedInputStream(decomp, LOOKAHEAD));
+	}
+	
+	/**
+	 * Opens a dump file. Multistream bzip2 dumps are decompressed in parallel
+	 * using the index of the dump if it can be found next to the dump (see
+	 * {@link MultistreamIndex#findIndexFile(File)}).
+	 */
+	public static InputStream openDumpFile(File dumpFile) throws IOException
+	{
+		return openDumpFile(dumpFile, 0);
+	}
+	
+	/**
+	 * Opens a dump file and continues reading after the header of the dump
+	 * with the bzip2 stream starting at <code>resumeOffset</code>. Only
+	 * multistream bzip2 dumps can be resumed.
+	 */
+	public static InputStream openDumpFile(File dumpFile, long resumeOffset) throws IOException
+	{
+		if (dumpFile.getName().endsWith(".bz2")
+				&& MultistreamBZip2InputStream.isMultistream(dumpFile))
+		{
+			return new MultistreamBZip2InputStream(
+					dumpFile,
+					MultistreamIndex.findIndexFile(dumpFile),
+					DECOMPRESSOR_THREADS,
+					true,
+					resumeOffset);
+		}
+		
+		if (resumeOffset != 0)
+			throw new IllegalArgumentException("Only multistream bzip2 dumps can be resumed: " + dumpFile);
+		
+		return new FileInputStream(dumpFile);
+	}
+	
+	// =========================================================================
+	
+	public InputStream getDecompressedInputStream()
+	{
+		return decompressedInputStream;
+	}
+	
+	public long getDecompressedBytesRead()
+	{
+		return decompressedInputStream.getCount();
+	}
+	
+	public long getCompressedBytesRead()
+	{
+		if (multistreamInputStream != null)
+		{
+			return multistreamInputStream.getCompressedBytesRead();
+		}
+		else if (decompress)
+		{
+			return compressedInputStream.getCount();
+		}
+		else
+		{
+			return getDecompressedBytesRead();
+		}
+	}
+	
+	/**
+	 * Looks at the beginning of the decompressed dump without consuming it.
+	 */
+	public ExportSchemaVersion determineExportVersion() throws IOException
+	{
+		byte[] b = new byte[LOOKAHEAD];
+		
+		decompressedInputStream.mark(LOOKAHEAD);
+		int read = decompressedInputStream.read(b, 0, LOOKAHEAD);
+		decompressedInputStream.reset();
+		
+		String header = new String(b, 0, Math.max(read, 0));
+		
+		for (ExportSchemaVersion v : ExportSchemaVersion.values())
+		{
+			if (header.contains("xmlns=\"" + v.getMediaWikiNamespace() + "\""))
+				return v;
+		}
+		
+		throw new IllegalArgumentException("Unknown xmlns");
+	}
+	
+	@Override
+	public void close()
+	{
+		IOUtils.closeQuietly(decompressedInputStream);
+		IOUtils.closeQuietly(compressedInputStream);
+		IOUtils.closeQuietly(dumpInputStream);
+	}
+}
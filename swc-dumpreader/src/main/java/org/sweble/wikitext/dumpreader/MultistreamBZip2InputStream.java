@@ -0,0 +1,610 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompresses a multistream bzip2 dump on a pool of worker threads.
+ * 
+ * A multistream dump is a concatenation of independent bzip2 streams, each of
+ * which holds a number of complete pages. The first stream only holds the
+ * header of the dump including the site info and the last stream only holds
+ * the closing tag. The stream offsets are either taken from the
+ * {@link MultistreamIndex} or found by scanning the compressed file (see
+ * {@link BZip2StreamScanner}).
+ * 
+ * Streams are decompressed ahead of the consumer, with at most a fixed number
+ * of streams in flight. If the consumer does not rely on the order of the
+ * pages the streams can be handed out in the order in which their
+ * decompression completes. The first and the last stream are always handed
+ * out first and last, respectively, to keep the XML document well-formed.
+ * 
+ * {@link #getCompressedBytesRead()} counts the compressed bytes of all
+ * streams that have been completely consumed.
+ * 
+ * A dump can be read starting from a given stream, for example to resume an
+ * interrupted run. The first stream is still handed out to keep the XML
+ * document well-formed, all other streams before the resume offset are
+ * skipped without decompressing them.
+ */
+public class MultistreamBZip2InputStream
+		extends
+			InputStream
+{
+	private static final int PROBE_LENGTH = 1 << 20;
+	
+	private static final int STREAMS_IN_FLIGHT_PER_THREAD = 2;
+	
+	private static final AtomicInteger poolCount = new AtomicInteger();
+	
+	// =========================================================================
+	
+	private final RandomAccessFile file;
+	
+	private final FileChannel channel;
+	
+	private final OffsetSource offsets;
+	
+	private final boolean ordered;
+	
+	private final int maxInFlight;
+	
+	private final long resumeOffset;
+	
+	private final ExecutorService executor;
+	
+	private final CompletionService<Segment> completion;
+	
+	private final ArrayDeque<Future<Segment>> window =
+			new ArrayDeque<Future<Segment>>();
+	
+	private Future<Segment> firstSegment;
+	
+	private Segment heldBackLastSegment;
+	
+	private int inFlight;
+	
+	private long nextStart;
+	
+	private long nextEnd;
+	
+	private Segment current;
+	
+	private int currentPos;
+	
+	private volatile long compressedBytesRead;
+	
+	private boolean closed;
+	
+	// =========================================================================
+	
+	/**
+	 * @param indexFile
+	 *            The index of the dump. If null, the stream offsets are found
+	 *            by scanning the dump.
+	 * @param threads
+	 *            The number of decompressing worker threads.
+	 * @param ordered
+	 *            Whether the streams must be handed out in the order in which
+	 *            they appear in the dump.
+	 */
+	public MultistreamBZip2InputStream(
+			File dumpFile,
+			File indexFile,
+			int threads,
+			boolean ordered) throws IOException
+	{
+		this(dumpFile, indexFile, threads, ordered, 0);
+	}
+	
+	/**
+	 * @param resumeOffset
+	 *            The offset of the stream to continue reading from after the
+	 *            first stream. Must be a stream offset as found in the index
+	 *            of the dump. Skipped streams are counted as read by
+	 *            {@link #getCompressedBytesRead()}.
+	 */
+	public MultistreamBZip2InputStream(
+			File dumpFile,
+			File indexFile,
+			int threads,
+			boolean ordered,
+			long resumeOffset) throws IOException
+	{
+		if (threads < 1)
+			throw new IllegalArgumentException("threads < 1");
+		if (resumeOffset < 0)
+			throw new IllegalArgumentException("resumeOffset < 0");
+		
+		this.file = new RandomAccessFile(dumpFile, "r");
+		this.channel = file.getChannel();
+		this.ordered = ordered;
+		this.maxInFlight = threads * STREAMS_IN_FLIGHT_PER_THREAD;
+		this.resumeOffset = resumeOffset;
+		
+		long length = file.length();
+		if (indexFile != null)
+		{
+			this.offsets = new IndexOffsetSource(
+					MultistreamIndex.read(indexFile).getStreamOffsets(),
+					length);
+		}
+		else
+		{
+			this.offsets = new ScannerOffsetSource(new BZip2StreamScanner(dumpFile));
+		}
+		
+		this.executor = Executors.newFixedThreadPool(
+				threads,
+				new DecompressorThreadFactory());
+		
+		this.completion = ordered ?
+				null :
+				new ExecutorCompletionService<Segment>(executor);
+		
+		this.nextStart = 0;
+		this.nextEnd = offsets.next();
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Checks whether the given file is a bzip2 file which consists of more
+	 * than one stream. Only the beginning of the file is examined.
+	 */
+	public static boolean isMultistream(File dumpFile) throws IOException
+	{
+		InputStream in = new FileInputStream(dumpFile);
+		try
+		{
+			byte[] b = new byte[PROBE_LENGTH];
+			int length = 0;
+			while (length < b.length)
+			{
+				int read = in.read(b, length, b.length - length);
+				if (read == -1)
+					break;
+				length += read;
+			}
+			
+			if (length < BZip2StreamScanner.HEADER_LENGTH
+					|| b[0] != 'B' || b[1] != 'Z' || b[2] != 'h')
+				return false;
+			
+			int end = length - BZip2StreamScanner.HEADER_LENGTH;
+			for (int i = BZip2StreamScanner.FOOTER_LENGTH; i <= end; ++i)
+			{
+				if (b[i] == 'B' && BZip2StreamScanner.isStreamStart(b, i))
+					return true;
+			}
+			
+			return false;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return The number of compressed bytes of all streams that have been
+	 *         consumed completely. May be called from any thread.
+	 */
+	public long getCompressedBytesRead()
+	{
+		return compressedBytesRead;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public int read() throws IOException
+	{
+		if (!ensureData())
+			return -1;
+		
+		int b = current.data[currentPos++] & 0xFF;
+		releaseIfConsumed();
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (!ensureData())
+			return -1;
+		
+		int n = Math.min(len, current.length - currentPos);
+		System.arraycopy(current.data, currentPos, b, off, n);
+		currentPos += n;
+		releaseIfConsumed();
+		return n;
+	}
+	
+	@Override
+	public int available() throws IOException
+	{
+		return (current != null) ? current.length - currentPos : 0;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+		
+		executor.shutdownNow();
+		try
+		{
+			offsets.close();
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+	
+	// =========================================================================
+	
+	private boolean ensureData() throws IOException
+	{
+		if (closed)
+			throw new IOException("Stream closed");
+		
+		while (current == null)
+		{
+			Segment next = nextSegment();
+			if (next == null)
+				return false;
+			
+			current = next;
+			currentPos = 0;
+			releaseIfConsumed();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Counts a stream as read as soon as its last byte was handed out.
+	 */
+	private void releaseIfConsumed()
+	{
+		if (currentPos == current.length)
+		{
+			compressedBytesRead += current.compressedLength;
+			current = null;
+		}
+	}
+	
+	private Segment nextSegment() throws IOException
+	{
+		fillWindow();
+		
+		if (ordered)
+		{
+			Future<Segment> f = window.poll();
+			if (f == null)
+				return null;
+			
+			--inFlight;
+			return get(f);
+		}
+		
+		if (firstSegment != null)
+		{
+			Future<Segment> f = firstSegment;
+			firstSegment = null;
+			
+			--inFlight;
+			return get(f);
+		}
+		
+		while (inFlight > ((heldBackLastSegment != null) ? 1 : 0))
+		{
+			Segment s;
+			try
+			{
+				s = get(completion.take());
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			
+			if (s.last && inFlight > 1)
+			{
+				// Other streams are still being decompressed
+				heldBackLastSegment = s;
+				continue;
+			}
+			
+			--inFlight;
+			fillWindow();
+			return s;
+		}
+		
+		if (heldBackLastSegment != null)
+		{
+			Segment s = heldBackLastSegment;
+			heldBackLastSegment = null;
+			
+			--inFlight;
+			return s;
+		}
+		
+		return null;
+	}
+	
+	private void fillWindow() throws IOException
+	{
+		while (inFlight < maxInFlight && nextEnd != -1)
+		{
+			long start = nextStart;
+			long end = nextEnd;
+			
+			nextStart = end;
+			nextEnd = offsets.next();
+			
+			if (end <= start)
+				continue;
+			
+			if (start > 0 && start < resumeOffset)
+			{
+				// Already processed in an earlier run
+				compressedBytesRead += end - start;
+				continue;
+			}
+			
+			DecompressTask task = new DecompressTask(start, end, nextEnd == -1);
+			if (ordered)
+			{
+				window.add(executor.submit(task));
+			}
+			else if (start == 0)
+			{
+				firstSegment = executor.submit(task);
+			}
+			else
+			{
+				completion.submit(task);
+			}
+			
+			++inFlight;
+		}
+	}
+	
+	private static Segment get(Future<Segment> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("Decompression of bzip2 stream failed", cause);
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class Segment
+	{
+		private final long compressedLength;
+		
+		private final byte[] data;
+		
+		private final int length;
+		
+		private final boolean last;
+		
+		public Segment(long compressedLength, byte[] data, int length, boolean last)
+		{
+			this.compressedLength = compressedLength;
+			this.data = data;
+			this.length = length;
+			this.last = last;
+		}
+	}
+	
+	private final class DecompressTask
+			implements
+				Callable<Segment>
+	{
+		private final long start;
+		
+		private final long end;
+		
+		private final boolean last;
+		
+		public DecompressTask(long start, long end, boolean last)
+		{
+			this.start = start;
+			this.end = end;
+			this.last = last;
+		}
+		
+		@Override
+		public Segment call() throws IOException
+		{
+			long length = end - start;
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("bzip2 stream too large: " + length + " bytes at offset " + start);
+			
+			byte[] compressed = new byte[(int) length];
+			ByteBuffer bb = ByteBuffer.wrap(compressed);
+			while (bb.hasRemaining())
+			{
+				if (channel.read(bb, start + bb.position()) == -1)
+					throw new EOFException();
+			}
+			
+			// Concatenated in case the index lists fewer streams than
+			// there are in the dump.
+			InputStream in = new BZip2CompressorInputStream(
+					new ByteArrayInputStream(compressed),
+					true);
+			
+			byte[] data = new byte[Math.max(compressed.length * 4, 4096)];
+			int size = 0;
+			while (true)
+			{
+				if (size == data.length)
+					data = Arrays.copyOf(data, data.length * 2);
+				
+				int read = in.read(data, size, data.length - size);
+				if (read == -1)
+					break;
+				size += read;
+			}
+			
+			return new Segment(length, data, size, last);
+		}
+	}
+	
+	// =========================================================================
+	
+	private static interface OffsetSource
+	{
+		/**
+		 * @return The next stream offset, the length of the file after the
+		 *         last offset or -1 after the length was returned.
+		 */
+		long next() throws IOException;
+		
+		void close() throws IOException;
+	}
+	
+	private static final class IndexOffsetSource
+			implements
+				OffsetSource
+	{
+		private final long[] offsets;
+		
+		private final long length;
+		
+		private int i = 0;
+		
+		private boolean done = false;
+		
+		public IndexOffsetSource(long[] offsets, long length)
+		{
+			this.offsets = offsets;
+			this.length = length;
+		}
+		
+		@Override
+		public long next()
+		{
+			while (i < offsets.length)
+			{
+				long offset = offsets[i++];
+				if (offset > 0 && offset < length)
+					return offset;
+			}
+			
+			if (done)
+				return -1;
+			
+			done = true;
+			return length;
+		}
+		
+		@Override
+		public void close()
+		{
+		}
+	}
+	
+	private static final class ScannerOffsetSource
+			implements
+				OffsetSource
+	{
+		private final BZip2StreamScanner scanner;
+		
+		public ScannerOffsetSource(BZip2StreamScanner scanner)
+		{
+			this.scanner = scanner;
+		}
+		
+		@Override
+		public long next() throws IOException
+		{
+			return scanner.next();
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			scanner.close();
+		}
+	}
+	
+	private static final class DecompressorThreadFactory
+			implements
+				ThreadFactory
+	{
+		private final int pool = poolCount.incrementAndGet();
+		
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, String.format(
+					"bzip2-decompressor-%d-%d",
+					pool,
+					threadCount.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
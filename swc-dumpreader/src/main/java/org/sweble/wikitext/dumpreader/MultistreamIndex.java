@@ -0,0 +1,485 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The index published alongside a multistream dump. Every line of the index
+ * has the form <code>offset:pageId:title</code> where offset is the position
+ * of the bzip2 stream in the dump that contains the page. Titles are XML
+ * escaped in the index, e.g. <code>AT&amp;amp;T</code>.
+ * 
+ * If requested, the index also keeps lookup tables which map page titles and
+ * page ids to the stream containing the page. Titles are not stored. Instead
+ * a 64 bit hash of each title is kept in a sorted primitive array together
+ * with the number of the stream. The tables cost about 24 bytes per page.
+ * Since different titles can share a hash, a title lookup yields candidate
+ * streams which must be checked by decoding them (see
+ * {@link DumpPageLookup}).
+ */
+public class MultistreamIndex
+{
+	private final long[] streamOffsets;
+	
+	private final long[] titleHashes;
+	
+	private final int[] titleStreams;
+	
+	private final long[] pageIds;
+	
+	private final int[] pageStreams;
+	
+	// =========================================================================
+	
+	private MultistreamIndex(
+			long[] streamOffsets,
+			long[] titleHashes,
+			int[] titleStreams,
+			long[] pageIds,
+			int[] pageStreams)
+	{
+		this.streamOffsets = streamOffsets;
+		this.titleHashes = titleHashes;
+		this.titleStreams = titleStreams;
+		this.pageIds = pageIds;
+		this.pageStreams = pageStreams;
+	}
+	
+	/**
+	 * Reads an index file without lookup tables. If the name of the file ends
+	 * in ".bz2" the file is decompressed while reading.
+	 */
+	public static MultistreamIndex read(File indexFile) throws IOException
+	{
+		return read(indexFile, false);
+	}
+	
+	/**
+	 * Reads an index file. If the name of the file ends in ".bz2" the file is
+	 * decompressed while reading.
+	 * 
+	 * @param lookupTables
+	 *            Whether to build the tables required by
+	 *            {@link #findStreamOffsetsByTitle(String)} and
+	 *            {@link #findStreamOffsetById(long)}.
+	 */
+	public static MultistreamIndex read(File indexFile, boolean lookupTables) throws IOException
+	{
+		InputStream in = open(indexFile);
+		try
+		{
+			BufferedReader r = new BufferedReader(
+					new InputStreamReader(in, "UTF-8"),
+					1 << 16);
+			
+			long[] offsets = new long[1024];
+			int count = 0;
+			
+			long[] hashes = null;
+			long[] ids = null;
+			long[] pageOffsets = null;
+			int pageCount = 0;
+			if (lookupTables)
+			{
+				hashes = new long[1024];
+				ids = new long[1024];
+				pageOffsets = new long[1024];
+			}
+			
+			long last = -1;
+			
+			String line;
+			while ((line = r.readLine()) != null)
+			{
+				int colon = line.indexOf(':');
+				if (colon <= 0)
+					continue;
+				
+				long offset = Long.parseLong(line.substring(0, colon));
+				
+				if (lookupTables)
+				{
+					int colon2 = line.indexOf(':', colon + 1);
+					if (colon2 < 0)
+						throw new IOException("Malformed index line: " + line);
+					
+					if (pageCount == hashes.length)
+					{
+						hashes = Arrays.copyOf(hashes, pageCount * 2);
+						ids = Arrays.copyOf(ids, pageCount * 2);
+						pageOffsets = Arrays.copyOf(pageOffsets, pageCount * 2);
+					}
+					
+					hashes[pageCount] = hashEscapedTitle(line, colon2 + 1, line.length());
+					ids[pageCount] = Long.parseLong(line.substring(colon + 1, colon2));
+					pageOffsets[pageCount] = offset;
+					++pageCount;
+				}
+				
+				if (offset == last)
+					continue;
+				last = offset;
+				
+				if (count == offsets.length)
+					offsets = Arrays.copyOf(offsets, count * 2);
+				offsets[count++] = offset;
+			}
+			
+			offsets = Arrays.copyOf(offsets, count);
+			Arrays.sort(offsets);
+			offsets = dedup(offsets);
+			
+			if (!lookupTables)
+				return new MultistreamIndex(offsets, null, null, null, null);
+			
+			// Replace offsets by stream numbers which take half the space
+			int[] streams = new int[pageCount];
+			for (int i = 0; i < pageCount; ++i)
+				streams[i] = Arrays.binarySearch(offsets, pageOffsets[i]);
+			pageOffsets = null;
+			
+			hashes = Arrays.copyOf(hashes, pageCount);
+			ids = Arrays.copyOf(ids, pageCount);
+			int[] idStreams = streams.clone();
+			
+			PrimitiveSort.sort(hashes, streams);
+			PrimitiveSort.sort(ids, idStreams);
+			
+			return new MultistreamIndex(offsets, hashes, streams, ids, idStreams);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Looks up the stream that contains the page with the given id by
+	 * scanning the index file. Unlike {@link #read(File, boolean)} this keeps
+	 * nothing in memory and is the cheaper choice for a single lookup.
+	 * 
+	 * @return The offset of the stream or -1 if the index does not list the
+	 *         page.
+	 */
+	public static long findStreamOffsetById(File indexFile, long pageId) throws IOException
+	{
+		InputStream in = open(indexFile);
+		try
+		{
+			BufferedReader r = new BufferedReader(
+					new InputStreamReader(in, "UTF-8"),
+					1 << 16);
+			
+			String id = ":" + pageId + ":";
+			
+			String line;
+			while ((line = r.readLine()) != null)
+			{
+				int colon = line.indexOf(':');
+				if (colon <= 0 || !line.startsWith(id, colon))
+					continue;
+				
+				return Long.parseLong(line.substring(0, colon));
+			}
+			
+			return -1;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Locates the index file of a multistream dump by the naming convention
+	 * used by the Wikimedia Foundation, e.g.
+	 * <code>enwiki-latest-pages-articles-multistream-index.txt.bz2</code>
+	 * for <code>enwiki-latest-pages-articles-multistream.xml.bz2</code>.
+	 * 
+	 * @return The index file or null if there is no such file.
+	 */
+	public static File findIndexFile(File dumpFile)
+	{
+		String name = dumpFile.getName();
+		if (!name.endsWith(".xml.bz2"))
+			return null;
+		
+		String base = name.substring(0, name.length() - ".xml.bz2".length());
+		
+		String[] candidates = {
+				base + "-index.txt.bz2",
+				base + "-index.txt" };
+		
+		for (String candidate : candidates)
+		{
+			File indexFile = new File(dumpFile.getParentFile(), candidate);
+			if (indexFile.isFile())
+				return indexFile;
+		}
+		
+		return null;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The distinct stream offsets listed in the index in ascending
+	 *         order. The stream at offset 0, which only contains the site
+	 *         info, is not listed in the index.
+	 */
+	public long[] getStreamOffsets()
+	{
+		return streamOffsets.clone();
+	}
+	
+	public int getStreamCount()
+	{
+		return streamOffsets.length;
+	}
+	
+	/**
+	 * @return The offset of the given stream.
+	 */
+	public long getStreamOffset(int stream)
+	{
+		return streamOffsets[stream];
+	}
+	
+	/**
+	 * @return The offset of the stream following the stream at the given
+	 *         offset or -1 if it is the last stream listed in the index.
+	 */
+	long getNextStreamOffset(long offset)
+	{
+		int i = Arrays.binarySearch(streamOffsets, offset);
+		if (i < 0)
+			throw new IllegalArgumentException("No stream at offset " + offset);
+		return (i + 1 < streamOffsets.length) ? streamOffsets[i + 1] : -1;
+	}
+	
+	public boolean hasLookupTables()
+	{
+		return titleHashes != null;
+	}
+	
+	/**
+	 * @return The number of pages listed in the index or -1 if the index was
+	 *         read without lookup tables.
+	 */
+	public int getPageCount()
+	{
+		return (pageIds != null) ? pageIds.length : -1;
+	}
+	
+	/**
+	 * Looks up the stream that contains the page with the given id.
+	 * 
+	 * @return The offset of the stream or -1 if the index does not list the
+	 *         page.
+	 * @throws IllegalStateException
+	 *             If the index was read without lookup tables.
+	 */
+	public long findStreamOffsetById(long pageId)
+	{
+		checkLookupTables();
+		
+		int i = Arrays.binarySearch(pageIds, pageId);
+		return (i >= 0) ? streamOffsets[pageStreams[i]] : -1;
+	}
+	
+	/**
+	 * Looks up the streams that might contain the page with the given title.
+	 * The title must be given exactly as it appears in the dump, that is,
+	 * including the namespace prefix and with spaces instead of underscores.
+	 * 
+	 * @return The distinct offsets of all streams which contain a page whose
+	 *         title has the same hash as the given title. Usually there is at
+	 *         most one such stream.
+	 * @throws IllegalStateException
+	 *             If the index was read without lookup tables.
+	 */
+	public long[] findStreamOffsetsByTitle(String title)
+	{
+		checkLookupTables();
+		
+		long hash = hashTitle(title, 0, title.length());
+		
+		int i = Arrays.binarySearch(titleHashes, hash);
+		if (i < 0)
+			return new long[0];
+		
+		int from = i;
+		while (from > 0 && titleHashes[from - 1] == hash)
+			--from;
+		
+		int to = i + 1;
+		while (to < titleHashes.length && titleHashes[to] == hash)
+			++to;
+		
+		long[] result = new long[to - from];
+		for (int j = from; j < to; ++j)
+			result[j - from] = streamOffsets[titleStreams[j]];
+		
+		Arrays.sort(result);
+		return dedup(result);
+	}
+	
+	// =========================================================================
+	
+	private static InputStream open(File indexFile) throws IOException
+	{
+		InputStream in = new FileInputStream(indexFile);
+		if (!indexFile.getName().endsWith(".bz2"))
+			return in;
+		
+		try
+		{
+			return new BZip2CompressorInputStream(in, true);
+		}
+		catch (IOException e)
+		{
+			IOUtils.closeQuietly(in);
+			throw e;
+		}
+	}
+	
+	private void checkLookupTables()
+	{
+		if (titleHashes == null)
+			throw new IllegalStateException("Index was read without lookup tables");
+	}
+	
+	/**
+	 * Hashes a title as it appears in the index, that is, with XML entity and
+	 * character references in place of some characters.
+	 */
+	static long hashEscapedTitle(String line, int from, int to)
+	{
+		int amp = line.indexOf('&', from);
+		if (amp < 0 || amp >= to)
+			return hashTitle(line, from, to);
+		
+		String title = unescapeXml(line, from, to);
+		return hashTitle(title, 0, title.length());
+	}
+	
+	/**
+	 * Replaces the predefined XML entities and numeric character references.
+	 * Anything else that starts with an ampersand is kept as it is.
+	 */
+	static String unescapeXml(String s, int from, int to)
+	{
+		StringBuilder sb = new StringBuilder(to - from);
+		
+		int i = from;
+		while (i < to)
+		{
+			char ch = s.charAt(i);
+			int semicolon;
+			if (ch != '&' || (semicolon = s.indexOf(';', i + 1)) < 0 || semicolon >= to)
+			{
+				sb.append(ch);
+				++i;
+				continue;
+			}
+			
+			String name = s.substring(i + 1, semicolon);
+			int cp = -1;
+			if (name.equals("amp"))
+				cp = '&';
+			else if (name.equals("lt"))
+				cp = '<';
+			else if (name.equals("gt"))
+				cp = '>';
+			else if (name.equals("quot"))
+				cp = '"';
+			else if (name.equals("apos"))
+				cp = '\'';
+			else if (name.length() > 1 && name.charAt(0) == '#')
+				cp = parseCharRef(name);
+			
+			if (cp < 0)
+			{
+				sb.append(ch);
+				++i;
+			}
+			else
+			{
+				sb.appendCodePoint(cp);
+				i = semicolon + 1;
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	private static int parseCharRef(String name)
+	{
+		try
+		{
+			int cp;
+			if (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+				cp = Integer.parseInt(name.substring(2), 16);
+			else
+				cp = Integer.parseInt(name.substring(1));
+			return Character.isValidCodePoint(cp) ? cp : -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash over the UTF-16 code units of a title.
+	 */
+	static long hashTitle(CharSequence s, int from, int to)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = from; i < to; ++i)
+		{
+			char ch = s.charAt(i);
+			hash ^= ch & 0xFF;
+			hash *= 0x100000001b3L;
+			hash ^= ch >>> 8;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	private static long[] dedup(long[] sorted)
+	{
+		int count = 0;
+		for (int i = 0; i < sorted.length; ++i)
+		{
+			if (count == 0 || sorted[count - 1] != sorted[i])
+				sorted[count++] = sorted[i];
+		}
+		return Arrays.copyOf(sorted, count);
+	}
+}
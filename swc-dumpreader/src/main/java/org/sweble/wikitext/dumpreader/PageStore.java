@@ -0,0 +1,428 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only store of page texts in a memory-mapped file written by the
+ * {@link PageStoreWriter}. Only the pages' titles, latest revision ids and
+ * texts are kept.
+ * 
+ * The texts are stored in compressed blocks. A sorted table of title hashes
+ * points to the block and the position of a page inside the uncompressed
+ * block. Neither the table nor the texts are copied onto the heap. A lookup
+ * binary searches the mapped table and inflates the block only up to the end
+ * of the requested page. The compressed block is fed to the inflater from the
+ * mapping through a small window. Inflaters and their buffers are pooled and
+ * reused across lookups.
+ * 
+ * Instances are thread-safe. Since the file is mapped read-only, the
+ * operating system shares its pages between all processes that open the same
+ * store.
+ * 
+ * A single mapping cannot exceed 2 GiB. The data is mapped in chunks of the
+ * size chosen by the writer, the index in chunks of a fixed number of
+ * entries. The block table is mapped as a whole, which limits a store to
+ * about 134 million blocks.
+ * 
+ * <h3>File format</h3>
+ * 
+ * All numbers are big endian.
+ * 
+ * <pre>
+ * header:      magic (8), version (4), chunk shift (4), page count (4),
+ *              block count (4), block table offset (8), index offset (8)
+ * data:        compressed blocks, a block never straddles a chunk boundary
+ * block table: per block: offset (8), compressed length (4),
+ *              uncompressed length (4)
+ * index:       per page, sorted by hash: title hash (8), block (4),
+ *              offset in uncompressed block (4), record length (4)
+ * record:      revision id (8), title length (4), title (UTF-8),
+ *              text length (4), text (UTF-8)
+ * </pre>
+ */
+public final class PageStore
+{
+	static final long MAGIC = 0x5357435053544f52L; // "SWCPSTOR"
+	
+	static final int VERSION = 1;
+	
+	static final int HEADER_SIZE = 40;
+	
+	static final int BLOCK_ENTRY_SIZE = 16;
+	
+	static final int INDEX_ENTRY_SIZE = 20;
+	
+	/**
+	 * Each mapping of the index holds 2^26 entries, that is 1.25 GiB.
+	 */
+	static final int INDEX_CHUNK_SHIFT = 26;
+	
+	private static final int INPUT_WINDOW_SIZE = 16 * 1024;
+	
+	/**
+	 * Decoders don't keep output buffers larger than this. Bigger records get
+	 * a buffer of their own.
+	 */
+	private static final int MAX_POOLED_OUTPUT_SIZE = 1024 * 1024;
+	
+	// =========================================================================
+	
+	private final File file;
+	
+	private final int pageCount;
+	
+	private final int blockCount;
+	
+	private final int chunkShift;
+	
+	private final MappedByteBuffer[] chunks;
+	
+	private final MappedByteBuffer blockTable;
+	
+	private final int indexChunkShift;
+	
+	private final MappedByteBuffer[] index;
+	
+	private final BlockingQueue<Decoder> decoders = new ArrayBlockingQueue<Decoder>(
+			Runtime.getRuntime().availableProcessors());
+	
+	// =========================================================================
+	
+	private PageStore(File file, int indexChunkShift) throws IOException
+	{
+		this.file = file;
+		this.indexChunkShift = indexChunkShift;
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getLong() != MAGIC)
+				throw new IOException("Not a page store: " + file);
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported page store version " + version + ": " + file);
+			
+			this.chunkShift = header.getInt();
+			this.pageCount = header.getInt();
+			this.blockCount = header.getInt();
+			long blockTableOffset = header.getLong();
+			long indexOffset = header.getLong();
+			
+			if (pageCount < 0 || blockCount < 0)
+				throw new IOException("Corrupt page store header: " + file);
+			
+			long blockTableSize = (long) blockCount * BLOCK_ENTRY_SIZE;
+			if (blockTableSize > Integer.MAX_VALUE)
+				throw new IOException("Too many blocks in page store: " + file);
+			
+			this.blockTable = channel.map(
+					MapMode.READ_ONLY,
+					blockTableOffset,
+					blockTableSize);
+			
+			int indexChunkSize = 1 << indexChunkShift;
+			int indexChunkCount = (int) (((long) pageCount + indexChunkSize - 1) >>> indexChunkShift);
+			this.index = new MappedByteBuffer[indexChunkCount];
+			for (int i = 0; i < indexChunkCount; ++i)
+			{
+				long first = (long) i << indexChunkShift;
+				long entries = Math.min(indexChunkSize, pageCount - first);
+				index[i] = channel.map(
+						MapMode.READ_ONLY,
+						indexOffset + first * INDEX_ENTRY_SIZE,
+						entries * INDEX_ENTRY_SIZE);
+			}
+			
+			long chunkSize = 1L << chunkShift;
+			int chunkCount = (int) ((blockTableOffset + chunkSize - 1) >>> chunkShift);
+			this.chunks = new MappedByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; ++i)
+			{
+				long start = (long) i << chunkShift;
+				chunks[i] = channel.map(
+						MapMode.READ_ONLY,
+						start,
+						Math.min(chunkSize, blockTableOffset - start));
+			}
+		}
+		finally
+		{
+			// The mappings stay valid after the channel was closed
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Opens and maps a page store. The mappings are released by the garbage
+	 * collector once the store is no longer referenced.
+	 */
+	public static PageStore open(File file) throws IOException
+	{
+		return new PageStore(file, INDEX_CHUNK_SHIFT);
+	}
+	
+	/**
+	 * Opens a page store whose index is mapped in chunks of
+	 * 2^indexChunkShift entries. Only for testing.
+	 */
+	static PageStore open(File file, int indexChunkShift) throws IOException
+	{
+		return new PageStore(file, indexChunkShift);
+	}
+	
+	// =========================================================================
+	
+	public File getFile()
+	{
+		return file;
+	}
+	
+	public int getPageCount()
+	{
+		return pageCount;
+	}
+	
+	public int getBlockCount()
+	{
+		return blockCount;
+	}
+	
+	/**
+	 * Retrieves a page.
+	 * 
+	 * @param title
+	 *            The title exactly as it was given to the writer.
+	 * @return The page or null if the store does not contain the page.
+	 */
+	public StoredPage get(String title) throws IOException
+	{
+		long hash = MultistreamIndex.hashTitle(title, 0, title.length());
+		
+		int i = findFirst(hash);
+		for (; i < pageCount && getIndexHash(i) == hash; ++i)
+		{
+			StoredPage page = readRecord(i);
+			if (page.getTitle().equals(title))
+				return page;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Retrieves the text of a page.
+	 * 
+	 * @return The text or null if the store does not contain the page.
+	 */
+	public String getText(String title) throws IOException
+	{
+		StoredPage page = get(title);
+		return (page != null) ? page.getText() : null;
+	}
+	
+	public boolean contains(String title) throws IOException
+	{
+		return get(title) != null;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The first index entry with the given hash or an entry with a
+	 *         different hash if there is none.
+	 */
+	private int findFirst(long hash)
+	{
+		int lo = 0;
+		int hi = pageCount;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (getIndexHash(mid) < hash)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	private long getIndexHash(int entry)
+	{
+		return getIndexChunk(entry).getLong(getIndexPosition(entry));
+	}
+	
+	private ByteBuffer getIndexChunk(int entry)
+	{
+		return index[entry >>> indexChunkShift];
+	}
+	
+	/**
+	 * @return The position of the given entry in its chunk of the index.
+	 */
+	private int getIndexPosition(int entry)
+	{
+		return (entry & ((1 << indexChunkShift) - 1)) * INDEX_ENTRY_SIZE;
+	}
+	
+	private StoredPage readRecord(int entry) throws IOException
+	{
+		ByteBuffer chunkOfIndex = getIndexChunk(entry);
+		int e = getIndexPosition(entry);
+		int block = chunkOfIndex.getInt(e + 8);
+		int offset = chunkOfIndex.getInt(e + 12);
+		int length = chunkOfIndex.getInt(e + 16);
+		
+		// The block table is smaller than 2 GiB, see the constructor
+		int b = block * BLOCK_ENTRY_SIZE;
+		long blockOffset = blockTable.getLong(b);
+		int compressedLength = blockTable.getInt(b + 8);
+		
+		// Absolute bulk gets are not available, hence the duplicate
+		ByteBuffer chunk = chunks[(int) (blockOffset >>> chunkShift)].duplicate();
+		chunk.position((int) (blockOffset & ((1L << chunkShift) - 1)));
+		chunk.limit(chunk.position() + compressedLength);
+		
+		Decoder decoder = decoders.poll();
+		if (decoder == null)
+			decoder = new Decoder();
+		
+		boolean reusable = false;
+		try
+		{
+			Inflater inflater = decoder.inflater;
+			byte[] input = decoder.input;
+			byte[] data = decoder.getOutput(offset + length);
+			
+			int size = 0;
+			while (size < offset + length)
+			{
+				if (inflater.needsInput())
+				{
+					int n = Math.min(chunk.remaining(), input.length);
+					if (n == 0)
+						throw new IOException("Corrupt block " + block + " in " + file);
+					chunk.get(input, 0, n);
+					inflater.setInput(input, 0, n);
+				}
+				
+				int read = inflater.inflate(data, size, offset + length - size);
+				if (read == 0 && (inflater.finished() || inflater.needsDictionary()))
+					throw new IOException("Corrupt block " + block + " in " + file);
+				size += read;
+			}
+			
+			ByteBuffer record = ByteBuffer.wrap(data, offset, length);
+			long revisionId = record.getLong();
+			String title = readString(record);
+			String text = readString(record);
+			
+			reusable = true;
+			return new StoredPage(title, revisionId, text);
+		}
+		catch (DataFormatException ex)
+		{
+			throw new IOException("Corrupt block " + block + " in " + file, ex);
+		}
+		finally
+		{
+			// A decoder that failed or does not fit into the pool is done
+			decoder.inflater.reset();
+			if (!reusable || !decoders.offer(decoder))
+				decoder.inflater.end();
+		}
+	}
+	
+	private static String readString(ByteBuffer b) throws IOException
+	{
+		int length = b.getInt();
+		String s = new String(b.array(), b.position(), length, "UTF-8");
+		b.position(b.position() + length);
+		return s;
+	}
+	
+	// =========================================================================
+	
+	private static final class Decoder
+	{
+		public final Inflater inflater = new Inflater();
+		
+		public final byte[] input = new byte[INPUT_WINDOW_SIZE];
+		
+		private byte[] output = new byte[64 * 1024];
+		
+		public byte[] getOutput(int size)
+		{
+			if (size <= output.length)
+				return output;
+			
+			if (size > MAX_POOLED_OUTPUT_SIZE)
+				return new byte[size];
+			
+			output = new byte[Math.max(size, Math.min(output.length * 2, MAX_POOLED_OUTPUT_SIZE))];
+			return output;
+		}
+	}
+	
+	// =========================================================================
+	
+	public static final class StoredPage
+	{
+		private final String title;
+		
+		private final long revisionId;
+		
+		private final String text;
+		
+		public StoredPage(String title, long revisionId, String text)
+		{
+			this.title = title;
+			this.revisionId = revisionId;
+			this.text = text;
+		}
+		
+		public String getTitle()
+		{
+			return title;
+		}
+		
+		public long getRevisionId()
+		{
+			return revisionId;
+		}
+		
+		public String getText()
+		{
+			return text;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.dumpreader.model.DumpRevision;
+
+/**
+ * Writes a {@link PageStore}. Pages are appended to the current block, which
+ * is compressed and written once it exceeds the block size. Only the index
+ * (20 bytes per page) is kept in memory until the writer is closed.
+ * 
+ * Titles must be unique. If a title is added twice, it is undefined which of
+ * the pages a lookup yields.
+ */
+public class PageStoreWriter
+		implements
+			Closeable
+{
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	
+	private static final int DEFAULT_CHUNK_SHIFT = 30;
+	
+	/**
+	 * The index is kept in arrays, which cannot grow beyond this size.
+	 */
+	private static final int MAX_PAGES = Integer.MAX_VALUE - 8;
+	
+	// =========================================================================
+	
+	private final RandomAccessFile file;
+	
+	private final FileChannel channel;
+	
+	private final int blockSize;
+	
+	private final int chunkShift;
+	
+	private final Deflater deflater;
+	
+	private final ByteArrayOutputStream block;
+	
+	private final DataOutputStream blockOut;
+	
+	private byte[] compressed;
+	
+	private long position;
+	
+	private int blockCount;
+	
+	private long[] blockOffsets;
+	
+	private int[] compressedLengths;
+	
+	private int[] uncompressedLengths;
+	
+	private int pageCount;
+	
+	private long[] hashes;
+	
+	private int[] recordBlocks;
+	
+	private int[] recordOffsets;
+	
+	private int[] recordLengths;
+	
+	private boolean closed;
+	
+	// =========================================================================
+	
+	/**
+	 * Builds a page store from a dump in one pass. Only the latest revision
+	 * of each page is stored.
+	 * 
+	 * @param namespaces
+	 *            The namespaces of the pages to store. Stores all pages if
+	 *            no namespace is given.
+	 * @return The number of pages written.
+	 */
+	public static int writeFromDump(
+			File dumpFile,
+			File storeFile,
+			final int... namespaces) throws Exception
+	{
+		final PageStoreWriter writer = new PageStoreWriter(storeFile);
+		try
+		{
+			StreamingDumpReader dr = new StreamingDumpReader(
+					dumpFile,
+					null,
+					Logger.getLogger(PageStoreWriter.class))
+			{
+				@Override
+				protected boolean acceptPage(long id, int namespace, String title)
+				{
+					if (namespaces.length == 0)
+						return true;
+					for (int ns : namespaces)
+					{
+						if (ns == namespace)
+							return true;
+					}
+					return false;
+				}
+				
+				@Override
+				protected void processPage(DumpPage page) throws Exception
+				{
+					writer.add(page);
+				}
+			};
+			
+			try
+			{
+				dr.read();
+			}
+			finally
+			{
+				dr.close();
+			}
+			
+			writer.close();
+			return writer.getPageCount();
+		}
+		finally
+		{
+			writer.abortIfOpen();
+		}
+	}
+	
+	// =========================================================================
+	
+	public PageStoreWriter(File storeFile) throws IOException
+	{
+		this(storeFile, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * @param blockSize
+	 *            The uncompressed size after which a block is completed.
+	 *            Larger blocks compress better but lookups have to inflate
+	 *            more data.
+	 * @param compressionLevel
+	 *            The level of the {@link Deflater}.
+	 */
+	public PageStoreWriter(File storeFile, int blockSize, int compressionLevel) throws IOException
+	{
+		this(storeFile, blockSize, compressionLevel, DEFAULT_CHUNK_SHIFT);
+	}
+	
+	PageStoreWriter(
+			File storeFile,
+			int blockSize,
+			int compressionLevel,
+			int chunkShift) throws IOException
+	{
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("blockSize must be positive");
+		if (chunkShift < 12 || chunkShift > 30)
+			throw new IllegalArgumentException("chunkShift must be in [12, 30]");
+		
+		this.blockSize = blockSize;
+		this.chunkShift = chunkShift;
+		this.deflater = new Deflater(compressionLevel);
+		this.block = new ByteArrayOutputStream(blockSize + 1024);
+		this.blockOut = new DataOutputStream(block);
+		this.compressed = new byte[blockSize + 1024];
+		
+		this.blockOffsets = new long[256];
+		this.compressedLengths = new int[256];
+		this.uncompressedLengths = new int[256];
+		
+		this.hashes = new long[1024];
+		this.recordBlocks = new int[1024];
+		this.recordOffsets = new int[1024];
+		this.recordLengths = new int[1024];
+		
+		this.file = new RandomAccessFile(storeFile, "rw");
+		this.file.setLength(0);
+		this.channel = file.getChannel();
+		
+		// The header is written last
+		this.position = PageStore.HEADER_SIZE;
+	}
+	
+	// =========================================================================
+	
+	public int getPageCount()
+	{
+		return pageCount;
+	}
+	
+	/**
+	 * Adds the latest revision of a page. Pages without revisions or without
+	 * text are ignored.
+	 */
+	public void add(DumpPage page) throws IOException
+	{
+		List<DumpRevision> revisions = page.getRevisions();
+		if (revisions.isEmpty())
+			return;
+		
+		DumpRevision rev = revisions.get(revisions.size() - 1);
+		if (rev.getText() == null)
+			return;
+		
+		add(page.getTitle(), rev.getId(), rev.getText());
+	}
+	
+	public void add(String title, long revisionId, String text) throws IOException
+	{
+		if (closed)
+			throw new IllegalStateException("Writer was closed");
+		if (pageCount == MAX_PAGES)
+			throw new IOException("Too many pages for one page store");
+		
+		int offset = block.size();
+		
+		byte[] t = title.getBytes("UTF-8");
+		byte[] x = text.getBytes("UTF-8");
+		blockOut.writeLong(revisionId);
+		blockOut.writeInt(t.length);
+		blockOut.write(t);
+		blockOut.writeInt(x.length);
+		blockOut.write(x);
+		
+		if (pageCount == hashes.length)
+		{
+			int capacity = (int) Math.min(2L * pageCount, MAX_PAGES);
+			hashes = Arrays.copyOf(hashes, capacity);
+			recordBlocks = Arrays.copyOf(recordBlocks, capacity);
+			recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+			recordLengths = Arrays.copyOf(recordLengths, capacity);
+		}
+		
+		hashes[pageCount] = MultistreamIndex.hashTitle(title, 0, title.length());
+		recordBlocks[pageCount] = blockCount;
+		recordOffsets[pageCount] = offset;
+		recordLengths[pageCount] = block.size() - offset;
+		++pageCount;
+		
+		if (block.size() >= blockSize)
+			flushBlock();
+	}
+	
+	/**
+	 * Writes the last block, the block table, the index and the header.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		
+		try
+		{
+			if (block.size() > 0)
+				flushBlock();
+			
+			long blockTableOffset = position;
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			for (int i = 0; i < blockCount; ++i)
+			{
+				if (buf.remaining() < PageStore.BLOCK_ENTRY_SIZE)
+					flush(buf);
+				buf.putLong(blockOffsets[i]);
+				buf.putInt(compressedLengths[i]);
+				buf.putInt(uncompressedLengths[i]);
+			}
+			flush(buf);
+			
+			long indexOffset = position;
+			int[] order = new int[pageCount];
+			for (int i = 0; i < pageCount; ++i)
+				order[i] = i;
+			long[] sorted = Arrays.copyOf(hashes, pageCount);
+			PrimitiveSort.sort(sorted, order);
+			
+			for (int i = 0; i < pageCount; ++i)
+			{
+				int j = order[i];
+				if (buf.remaining() < PageStore.INDEX_ENTRY_SIZE)
+					flush(buf);
+				buf.putLong(sorted[i]);
+				buf.putInt(recordBlocks[j]);
+				buf.putInt(recordOffsets[j]);
+				buf.putInt(recordLengths[j]);
+			}
+			flush(buf);
+			
+			buf.putLong(PageStore.MAGIC);
+			buf.putInt(PageStore.VERSION);
+			buf.putInt(chunkShift);
+			buf.putInt(pageCount);
+			buf.putInt(blockCount);
+			buf.putLong(blockTableOffset);
+			buf.putLong(indexOffset);
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf, buf.position());
+		}
+		finally
+		{
+			closed = true;
+			deflater.end();
+			file.close();
+		}
+	}
+	
+	// =========================================================================
+	
+	private void abortIfOpen()
+	{
+		if (closed)
+			return;
+		
+		closed = true;
+		deflater.end();
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing to do
+		}
+	}
+	
+	private void flushBlock() throws IOException
+	{
+		byte[] data = block.toByteArray();
+		
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		
+		int length = 0;
+		while (!deflater.finished())
+		{
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		
+		long chunkSize = 1L << chunkShift;
+		if (length > chunkSize)
+			throw new IOException("Compressed block exceeds the chunk size");
+		
+		// Blocks must not straddle a chunk boundary
+		if ((position >>> chunkShift) != ((position + length - 1) >>> chunkShift))
+			position = ((position >>> chunkShift) + 1) << chunkShift;
+		
+		ByteBuffer buf = ByteBuffer.wrap(compressed, 0, length);
+		long p = position;
+		while (buf.hasRemaining())
+			p += channel.write(buf, p);
+		
+		if (blockCount == blockOffsets.length)
+		{
+			int capacity = blockCount * 2;
+			blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+			compressedLengths = Arrays.copyOf(compressedLengths, capacity);
+			uncompressedLengths = Arrays.copyOf(uncompressedLengths, capacity);
+		}
+		
+		blockOffsets[blockCount] = position;
+		compressedLengths[blockCount] = length;
+		uncompressedLengths[blockCount] = data.length;
+		++blockCount;
+		
+		position += length;
+		block.reset();
+	}
+	
+	private void flush(ByteBuffer buf) throws IOException
+	{
+		buf.flip();
+		while (buf.hasRemaining())
+			position += channel.write(buf, position);
+		buf.clear();
+	}
+}
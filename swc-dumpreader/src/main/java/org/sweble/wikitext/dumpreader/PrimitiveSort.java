@@ -0,0 +1,114 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+/**
+ * Sorting of parallel primitive arrays, used to build compact lookup tables
+ * without boxing.
+ */
+final class PrimitiveSort
+{
+	private PrimitiveSort()
+	{
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Sorts the keys in ascending order and applies the same permutation to
+	 * the values. The sort is not stable.
+	 */
+	public static void sort(long[] keys, int[] values)
+	{
+		if (keys.length != values.length)
+			throw new IllegalArgumentException("Arrays differ in length");
+		
+		sort(keys, values, 0, keys.length - 1);
+	}
+	
+	// =========================================================================
+	
+	private static void sort(long[] keys, int[] values, int lo, int hi)
+	{
+		while (hi - lo > 16)
+		{
+			int mid = (lo + hi) >>> 1;
+			
+			// Median of three
+			if (keys[mid] < keys[lo])
+				swap(keys, values, mid, lo);
+			if (keys[hi] < keys[lo])
+				swap(keys, values, hi, lo);
+			if (keys[hi] < keys[mid])
+				swap(keys, values, hi, mid);
+			
+			long pivot = keys[mid];
+			
+			int i = lo;
+			int j = hi;
+			while (i <= j)
+			{
+				while (keys[i] < pivot)
+					++i;
+				while (keys[j] > pivot)
+					--j;
+				if (i <= j)
+					swap(keys, values, i++, j--);
+			}
+			
+			// Recurse into the smaller part to bound the stack depth
+			if (j - lo < hi - i)
+			{
+				sort(keys, values, lo, j);
+				lo = i;
+			}
+			else
+			{
+				sort(keys, values, i, hi);
+				hi = j;
+			}
+		}
+		
+		// Insertion sort for short ranges
+		for (int i = lo + 1; i <= hi; ++i)
+		{
+			long k = keys[i];
+			int v = values[i];
+			int j = i - 1;
+			while (j >= lo && keys[j] > k)
+			{
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				--j;
+			}
+			keys[j + 1] = k;
+			values[j + 1] = v;
+		}
+	}
+	
+	private static void swap(long[] keys, int[] values, int i, int j)
+	{
+		long k = keys[i];
+		keys[i] = keys[j];
+		keys[j] = k;
+		
+		int v = values[i];
+		values[i] = values[j];
+		values[j] = v;
+	}
+}
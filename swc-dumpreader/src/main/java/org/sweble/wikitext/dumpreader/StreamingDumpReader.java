@@ -0,0 +1,263 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.dumpreader.model.DumpRevision;
+
+/**
+ * Reads a dump using a StAX pull parser. In contrast to the
+ * {@link DumpReader} no JAXB object graph is built and no schema validation
+ * is performed. Pages are reported as lightweight {@link DumpPage} objects.
+ * 
+ * Elements which are not represented in the {@link DumpPage} and
+ * {@link DumpRevision} classes (site info, uploads, log items, restrictions,
+ * etc.) are skipped. If {@link #acceptPage(long, int, String)} rejects a page
+ * the rest of the page including the text of all its revisions is skipped
+ * without ever being converted into strings.
+ * 
+ * All export schema versions listed in {@link ExportSchemaVersion} are
+ * supported.
+ */
+public abstract class StreamingDumpReader
+		implements
+			Closeable
+{
+	private final String dumpUri;
+	
+	private final Logger logger;
+	
+	private final DumpStreams streams;
+	
+	private final ExportSchemaVersion schemaVersion;
+	
+	private final XMLStreamReader xmlStreamReader;
+	
+	private final DumpPageParser parser;
+	
+	private final DumpPageParser.PageFilter filter =
+			new DumpPageParser.PageFilter()
+			{
+				@Override
+				public boolean acceptPage(long id, int namespace, String title) throws Exception
+				{
+					return StreamingDumpReader.this.acceptPage(id, namespace, title);
+				}
+			};
+	
+	private long fileLength;
+	
+	private long parsedCount;
+	
+	private long skippedCount;
+	
+	// =========================================================================
+	
+	public StreamingDumpReader(File dumpFile, Charset encoding, Logger logger) throws Exception
+	{
+		this(DumpStreams.openDumpFile(dumpFile), encoding, dumpFile.getAbsolutePath(), logger);
+		
+		fileLength = dumpFile.length();
+	}
+	
+	/**
+	 * @param encoding
+	 *            The encoding of the dump. If null, the encoding is determined
+	 *            by the XML parser.
+	 */
+	public StreamingDumpReader(
+			InputStream is,
+			Charset encoding,
+			String url,
+			Logger logger) throws Exception
+	{
+		this.dumpUri = url;
+		this.logger = logger;
+		
+		logger.info("Setting up streaming parser for file " + dumpUri);
+		
+		streams = new DumpStreams(is, url);
+		
+		schemaVersion = streams.determineExportVersion();
+		
+		xmlStreamReader = getXmlStreamReader(encoding);
+		
+		parser = new DumpPageParser(schemaVersion);
+		
+		fileLength = -1;
+		parsedCount = 0;
+		skippedCount = 0;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Reads the whole dump and reports every accepted page to
+	 * {@link #processPage(DumpPage)}.
+	 */
+	public void read() throws Exception
+	{
+		try
+		{
+			XMLStreamReader r = xmlStreamReader;
+			while (r.hasNext())
+			{
+				if (r.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+				
+				String name = r.getLocalName();
+				if (name.equals("page"))
+				{
+					readPage(r);
+				}
+				else if (!name.equals("mediawiki"))
+				{
+					DumpPageParser.skipElement(r);
+				}
+			}
+		}
+		finally
+		{
+			close();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			xmlStreamReader.close();
+		}
+		catch (XMLStreamException e)
+		{
+			logger.warn("Failed to close XML stream reader", e);
+		}
+		finally
+		{
+			streams.close();
+		}
+	}
+	
+	public ExportSchemaVersion getSchemaVersion()
+	{
+		return schemaVersion;
+	}
+	
+	public long getFileSize()
+	{
+		return fileLength;
+	}
+	
+	public long getDecompressedBytesRead()
+	{
+		return streams.getDecompressedBytesRead();
+	}
+	
+	public long getCompressedBytesRead()
+	{
+		return streams.getCompressedBytesRead();
+	}
+	
+	/**
+	 * @return The number of pages reported to {@link #processPage(DumpPage)}.
+	 */
+	public long getParsedCount()
+	{
+		return parsedCount;
+	}
+	
+	/**
+	 * @return The number of pages rejected by
+	 *         {@link #acceptPage(long, int, String)}.
+	 */
+	public long getSkippedCount()
+	{
+		return skippedCount;
+	}
+	
+	// =========================================================================
+	
+	protected abstract void processPage(DumpPage page) throws Exception;
+	
+	/**
+	 * Decides whether a page is read in full and reported to
+	 * {@link #processPage(DumpPage)}. Called once per page as soon as the
+	 * page's meta data has been read, that is, before the first revision of
+	 * the page is read.
+	 * 
+	 * @param namespace
+	 *            The namespace of the page or
+	 *            {@link DumpPage#UNKNOWN_NAMESPACE} if the dump does not record
+	 *            namespaces.
+	 */
+	protected boolean acceptPage(long id, int namespace, String title) throws Exception
+	{
+		// Accept by default
+		return true;
+	}
+	
+	// =========================================================================
+	
+	private void readPage(XMLStreamReader r) throws Exception
+	{
+		DumpPage page = parser.readPage(r, filter);
+		if (page == null)
+		{
+			++skippedCount;
+			return;
+		}
+		
+		++parsedCount;
+		
+		processPage(page);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * See {@link DumpReader} for why an explicit encoding may be necessary.
+	 */
+	private XMLStreamReader getXmlStreamReader(Charset encoding) throws XMLStreamException
+	{
+		XMLInputFactory f = DumpPageParser.createInputFactory();
+		
+		InputStream in = streams.getDecompressedInputStream();
+		if (encoding != null)
+		{
+			return f.createXMLStreamReader(new InputStreamReader(in, encoding));
+		}
+		else
+		{
+			return f.createXMLStreamReader(in);
+		}
+	}
+}
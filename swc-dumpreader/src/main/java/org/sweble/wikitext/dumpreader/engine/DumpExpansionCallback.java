@@ -0,0 +1,109 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader.engine;
+
+import java.util.List;
+
+import org.sweble.wikitext.dumpreader.DumpPageLookup;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.dumpreader.model.DumpRevision;
+import org.sweble.wikitext.engine.ExpansionCallback;
+import org.sweble.wikitext.engine.ExpansionFrame;
+import org.sweble.wikitext.engine.FullPage;
+import org.sweble.wikitext.engine.PageId;
+import org.sweble.wikitext.engine.PageTitle;
+
+/**
+ * An expansion callback which retrieves templates and other transcluded pages
+ * from a local multistream dump.
+ * 
+ * This class requires the swc-engine module on the class path. Files are not
+ * part of a dump and {@link #fileUrl(PageTitle, int, int)} therefore always
+ * returns null. Override it to resolve files elsewhere.
+ */
+public class DumpExpansionCallback
+		implements
+			ExpansionCallback
+{
+	private final DumpPageLookup lookup;
+	
+	// =========================================================================
+	
+	public DumpExpansionCallback(DumpPageLookup lookup)
+	{
+		this.lookup = lookup;
+	}
+	
+	// =========================================================================
+	
+	public DumpPageLookup getLookup()
+	{
+		return lookup;
+	}
+	
+	/**
+	 * Retrieves the latest revision of the page found in the dump.
+	 */
+	@Override
+	public FullPage retrieveWikitext(
+			ExpansionFrame expansionFrame,
+			PageTitle pageTitle) throws Exception
+	{
+		if (!pageTitle.isLocal())
+			return null;
+		
+		DumpPage page = lookup.findByTitle(getDumpTitle(pageTitle));
+		if (page == null)
+			return null;
+		
+		List<DumpRevision> revisions = page.getRevisions();
+		if (revisions.isEmpty())
+			return null;
+		
+		DumpRevision rev = revisions.get(revisions.size() - 1);
+		if (rev.getText() == null)
+			return null;
+		
+		return new FullPage(new PageId(pageTitle, rev.getId()), rev.getText());
+	}
+	
+	@Override
+	public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+	{
+		return null;
+	}
+	
+	// =========================================================================
+	
+	protected String getDumpTitle(PageTitle pageTitle)
+	{
+		return toDumpTitle(pageTitle);
+	}
+	
+	/**
+	 * Dumps list titles with the name of the namespace, not with the alias
+	 * the user might have used, and with spaces instead of underscores.
+	 */
+	static String toDumpTitle(PageTitle pageTitle)
+	{
+		if (pageTitle.getNamespace().getId() == 0)
+			return pageTitle.getDenormalizedTitle();
+		
+		return pageTitle.getNamespace().getName() + ":" + pageTitle.getDenormalizedTitle();
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader.engine;
+
+import org.sweble.wikitext.dumpreader.PageStore;
+import org.sweble.wikitext.dumpreader.PageStore.StoredPage;
+import org.sweble.wikitext.engine.ExpansionCallback;
+import org.sweble.wikitext.engine.ExpansionFrame;
+import org.sweble.wikitext.engine.FullPage;
+import org.sweble.wikitext.engine.PageId;
+import org.sweble.wikitext.engine.PageTitle;
+
+/**
+ * An expansion callback which retrieves templates and other transcluded pages
+ * from a memory-mapped {@link PageStore}. A single instance can be shared by
+ * all threads.
+ * 
+ * Files are not part of a page store and
+ * {@link #fileUrl(PageTitle, int, int)} therefore always returns null.
+ * Override it to resolve files elsewhere.
+ */
+public class PageStoreExpansionCallback
+		implements
+			ExpansionCallback
+{
+	private final PageStore store;
+	
+	// =========================================================================
+	
+	public PageStoreExpansionCallback(PageStore store)
+	{
+		this.store = store;
+	}
+	
+	// =========================================================================
+	
+	public PageStore getStore()
+	{
+		return store;
+	}
+	
+	@Override
+	public FullPage retrieveWikitext(
+			ExpansionFrame expansionFrame,
+			PageTitle pageTitle) throws Exception
+	{
+		if (!pageTitle.isLocal())
+			return null;
+		
+		StoredPage page = store.get(getStoreTitle(pageTitle));
+		if (page == null)
+			return null;
+		
+		return new FullPage(
+				new PageId(pageTitle, page.getRevisionId()),
+				page.getText());
+	}
+	
+	@Override
+	public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+	{
+		return null;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * @return The title under which the page was stored. By default this is
+	 *         the title as it appears in the dump.
+	 */
+	protected String getStoreTitle(PageTitle pageTitle)
+	{
+		return DumpExpansionCallback.toDumpTitle(pageTitle);
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page as emitted by the
+ * {@link org.sweble.wikitext.dumpreader.StreamingDumpReader}. Unlike
+ * {@link Page} all ids are primitive values.
+ */
+public class DumpPage
+		implements
+			Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Namespace of pages read from dumps that don't record the namespace of
+	 * a page (export format 0.5).
+	 */
+	public static final int UNKNOWN_NAMESPACE = Integer.MIN_VALUE;
+	
+	// =========================================================================
+	
+	private final long id;
+	
+	private final int namespace;
+	
+	private final String title;
+	
+	private final String redirectTitle;
+	
+	private final List<DumpRevision> revisions;
+	
+	// =========================================================================
+	
+	public DumpPage(
+			long id,
+			int namespace,
+			String title,
+			String redirectTitle,
+			List<DumpRevision> revisions)
+	{
+		this.id = id;
+		this.namespace = namespace;
+		this.title = title;
+		this.redirectTitle = redirectTitle;
+		this.revisions = revisions;
+	}
+	
+	// =========================================================================
+	
+	public long getId()
+	{
+		return id;
+	}
+	
+	public int getNamespace()
+	{
+		return namespace;
+	}
+	
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	public boolean isRedirect()
+	{
+		return redirectTitle != null;
+	}
+	
+	/**
+	 * @return The target of the redirect, an empty string if the dump only
+	 *         records that the page is a redirect (export format 0.5) or null
+	 *         if the page is not a redirect.
+	 */
+	public String getRedirectTitle()
+	{
+		return redirectTitle;
+	}
+	
+	public List<DumpRevision> getRevisions()
+	{
+		return revisions;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String toString()
+	{
+		return "DumpPage [id=" + id + ", namespace=" + namespace + ", title=" + title + ", redirectTitle=" + redirectTitle + ", revisions=" + revisions + "]";
+	}
+}
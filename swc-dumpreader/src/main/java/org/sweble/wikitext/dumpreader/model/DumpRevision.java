@@ -0,0 +1,200 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader.model;
+
+import java.io.Serializable;
+
+/**
+ * A revision as emitted by the
+ * {@link org.sweble.wikitext.dumpreader.StreamingDumpReader}. Unlike
+ * {@link Revision} all ids are primitive values and the timestamp is given in
+ * milliseconds since the epoch.
+ */
+public class DumpRevision
+		implements
+			Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Value of ids which are not recorded in the dump.
+	 */
+	public static final long NO_ID = -1;
+	
+	/**
+	 * Value of the timestamp if it is not recorded in the dump.
+	 */
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	
+	// =========================================================================
+	
+	private final long id;
+	
+	private final long parentId;
+	
+	private final long timestamp;
+	
+	private final boolean minor;
+	
+	private final long contributorId;
+	
+	private final String contributorUsername;
+	
+	private final String contributorIp;
+	
+	private final boolean contributorDeleted;
+	
+	private final String commentText;
+	
+	private final boolean commentDeleted;
+	
+	private final String text;
+	
+	private final String textSha1;
+	
+	private final boolean textDeleted;
+	
+	private final String format;
+	
+	private final String model;
+	
+	// =========================================================================
+	
+	public DumpRevision(
+			long id,
+			long parentId,
+			long timestamp,
+			boolean minor,
+			long contributorId,
+			String contributorUsername,
+			String contributorIp,
+			boolean contributorDeleted,
+			String commentText,
+			boolean commentDeleted,
+			String text,
+			String textSha1,
+			boolean textDeleted,
+			String format,
+			String model)
+	{
+		this.id = id;
+		this.parentId = parentId;
+		this.timestamp = timestamp;
+		this.minor = minor;
+		this.contributorId = contributorId;
+		this.contributorUsername = contributorUsername;
+		this.contributorIp = contributorIp;
+		this.contributorDeleted = contributorDeleted;
+		this.commentText = commentText;
+		this.commentDeleted = commentDeleted;
+		this.text = text;
+		this.textSha1 = textSha1;
+		this.textDeleted = textDeleted;
+		this.format = format;
+		this.model = model;
+	}
+	
+	// =========================================================================
+	
+	public long getId()
+	{
+		return id;
+	}
+	
+	public long getParentId()
+	{
+		return parentId;
+	}
+	
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+	
+	public boolean isMinor()
+	{
+		return minor;
+	}
+	
+	public long getContributorId()
+	{
+		return contributorId;
+	}
+	
+	public String getContributorUsername()
+	{
+		return contributorUsername;
+	}
+	
+	public String getContributorIp()
+	{
+		return contributorIp;
+	}
+	
+	public boolean isContributorDeleted()
+	{
+		return contributorDeleted;
+	}
+	
+	public String getCommentText()
+	{
+		return commentText;
+	}
+	
+	public boolean isCommentDeleted()
+	{
+		return commentDeleted;
+	}
+	
+	/**
+	 * @return The text of the revision or null if the text was skipped or is
+	 *         not part of the dump.
+	 */
+	public String getText()
+	{
+		return text;
+	}
+	
+	public String getTextSha1()
+	{
+		return textSha1;
+	}
+	
+	public boolean isTextDeleted()
+	{
+		return textDeleted;
+	}
+	
+	public String getFormat()
+	{
+		return format;
+	}
+	
+	public String getModel()
+	{
+		return model;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String toString()
+	{
+		return "DumpRevision [id=" + id + ", parentId=" + parentId + ", timestamp=" + timestamp + ", minor=" + minor + ", contributorId=" + contributorId + ", contributorUsername=" + contributorUsername + ", contributorIp=" + contributorIp + ", commentText=" + commentText + ", commentDeleted=" + commentDeleted + ", text=" + text + ", textSha1=" + textSha1 + ", textDeleted=" + textDeleted + "]";
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+
+public class TestDumpPageLookup
+{
+	private static final int STREAM_COUNT = 20;
+	
+	private static final int PAGES_PER_STREAM = 5;
+	
+	private static final int PAGE_COUNT = STREAM_COUNT * PAGES_PER_STREAM;
+	
+	private File dir;
+	
+	private File dumpFile;
+	
+	private File indexFile;
+	
+	private DumpPageLookup lookup;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile("lookup", "");
+		assertTrue(dir.delete());
+		assertTrue(dir.mkdir());
+		
+		dumpFile = new File(dir, "test-multistream.xml.bz2");
+		indexFile = new File(dir, "test-multistream-index.txt");
+		
+		writeDump();
+		
+		lookup = DumpPageLookup.open(dumpFile);
+	}
+	
+	@After
+	public void tearDown() throws IOException
+	{
+		lookup.close();
+		dumpFile.delete();
+		indexFile.delete();
+		dir.delete();
+	}
+	
+	@Test
+	public void testIndexLookupTables() throws IOException
+	{
+		MultistreamIndex index = lookup.getIndex();
+		assertEquals(PAGE_COUNT, index.getPageCount());
+		assertEquals(-1, index.findStreamOffsetById(PAGE_COUNT + 1));
+		assertEquals(0, index.findStreamOffsetsByTitle("No such page").length);
+		
+		long[] offsets = index.getStreamOffsets();
+		assertEquals(offsets[0], index.findStreamOffsetById(1));
+		assertEquals(offsets[STREAM_COUNT - 1], index.findStreamOffsetById(PAGE_COUNT));
+		assertArrayEquals(
+				new long[] { offsets[1] },
+				index.findStreamOffsetsByTitle(title(PAGES_PER_STREAM + 1)));
+		
+		assertFalse(MultistreamIndex.read(indexFile).hasLookupTables());
+	}
+	
+	@Test
+	public void testFindStreamOffsetByIdWithoutLookupTables() throws IOException
+	{
+		long[] offsets = lookup.getIndex().getStreamOffsets();
+		assertEquals(offsets[0], MultistreamIndex.findStreamOffsetById(indexFile, 1));
+		assertEquals(offsets[1], MultistreamIndex.findStreamOffsetById(indexFile, PAGES_PER_STREAM + 1));
+		assertEquals(offsets[STREAM_COUNT - 1], MultistreamIndex.findStreamOffsetById(indexFile, PAGE_COUNT));
+		assertEquals(-1, MultistreamIndex.findStreamOffsetById(indexFile, PAGE_COUNT + 1));
+	}
+	
+	@Test
+	public void testFindByTitle() throws Exception
+	{
+		for (int id = 1; id <= PAGE_COUNT; id += 7)
+			assertPage(id, lookup.findByTitle(title(id)));
+		
+		// The last page lives in the stream before the closing </mediawiki>
+		assertPage(PAGE_COUNT, lookup.findByTitle(title(PAGE_COUNT)));
+		
+		assertNull(lookup.findByTitle("No such page"));
+	}
+	
+	@Test
+	public void testFindById() throws Exception
+	{
+		for (int id = PAGE_COUNT; id >= 1; id -= 3)
+			assertPage(id, lookup.findById(id));
+		
+		assertNull(lookup.findById(PAGE_COUNT + 1));
+	}
+	
+	@Test
+	public void testEscapedTitlesAreFound() throws Exception
+	{
+		assertEquals("AT&T \"Q\" 's \u00e9", MultistreamIndex.unescapeXml(
+				"AT&amp;T &quot;Q&quot; &#039;s &#xE9;", 0, 37));
+		assertEquals("&nbsp; & &#xZZ;", MultistreamIndex.unescapeXml(
+				"&nbsp; & &#xZZ;", 0, 15));
+		
+		MultistreamIndex index = lookup.getIndex();
+		assertArrayEquals(
+				new long[] { index.getStreamOffsets()[2] },
+				index.findStreamOffsetsByTitle(title(3 * PAGES_PER_STREAM)));
+		
+		assertPage(3 * PAGES_PER_STREAM, lookup.findByTitle(title(3 * PAGES_PER_STREAM)));
+	}
+	
+	// =========================================================================
+	
+	private static String title(int id)
+	{
+		String title = (id % 2 == 0) ? "Template:Page " + id : "Page " + id;
+		return (id % PAGES_PER_STREAM == 0) ? title + " & \"friends\" 's" : title;
+	}
+	
+	/**
+	 * Escapes a title like the dumps and their indexes do.
+	 */
+	private static String escape(String title)
+	{
+		return title.replace("&", "&amp;").replace("\"", "&quot;").replace("'", "&#039;");
+	}
+	
+	private static String text(int id)
+	{
+		return "Text of page " + id + " & more.";
+	}
+	
+	private static void assertPage(int id, DumpPage page)
+	{
+		assertNotNull(page);
+		assertEquals(id, page.getId());
+		assertEquals(title(id), page.getTitle());
+		assertEquals(1, page.getRevisions().size());
+		assertEquals(text(id), page.getRevisions().get(0).getText());
+	}
+	
+	private void writeDump() throws IOException
+	{
+		List<String> streams = new ArrayList<String>();
+		streams.add("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\">\n"
+				+ "  <siteinfo>\n    <sitename>SITENAME</sitename>\n  </siteinfo>\n");
+		
+		int id = 1;
+		for (int i = 0; i < STREAM_COUNT; ++i)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < PAGES_PER_STREAM; ++j, ++id)
+			{
+				sb.append("  <page>\n");
+				sb.append("    <title>" + escape(title(id)) + "</title>\n");
+				sb.append("    <ns>" + ((id % 2 == 0) ? 10 : 0) + "</ns>\n");
+				sb.append("    <id>" + id + "</id>\n");
+				sb.append("    <revision>\n");
+				sb.append("      <id>" + (1000 + id) + "</id>\n");
+				sb.append("      <timestamp>2012-05-21T11:11:11Z</timestamp>\n");
+				sb.append("      <text xml:space=\"preserve\">" + text(id).replace("&", "&amp;") + "</text>\n");
+				sb.append("    </revision>\n");
+				sb.append("  </page>\n");
+			}
+			streams.add(sb.toString());
+		}
+		
+		streams.add("</mediawiki>\n");
+		
+		Writer index = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+		OutputStream dump = new FileOutputStream(dumpFile);
+		try
+		{
+			long offset = 0;
+			for (int i = 0; i < streams.size(); ++i)
+			{
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				BZip2CompressorOutputStream bz2 = new BZip2CompressorOutputStream(compressed);
+				bz2.write(streams.get(i).getBytes("UTF-8"));
+				bz2.close();
+				
+				if (i > 0 && i < streams.size() - 1)
+				{
+					for (int j = 0; j < PAGES_PER_STREAM; ++j)
+					{
+						int pageId = (i - 1) * PAGES_PER_STREAM + j + 1;
+						index.write(offset + ":" + pageId + ":" + escape(title(pageId)) + "\n");
+					}
+				}
+				
+				compressed.writeTo(dump);
+				offset += compressed.size();
+			}
+		}
+		finally
+		{
+			index.close();
+			dump.close();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+
+public class TestMultistreamBZip2InputStream
+{
+	private static final int STREAM_COUNT = 50;
+	
+	private static final int PAGES_PER_STREAM = 7;
+	
+	private File dir;
+	
+	private File dumpFile;
+	
+	private File indexFile;
+	
+	private String expected;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile("multistream", "");
+		assertTrue(dir.delete());
+		assertTrue(dir.mkdir());
+		
+		dumpFile = new File(dir, "test-multistream.xml.bz2");
+		indexFile = new File(dir, "test-multistream-index.txt");
+		
+		writeDump();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		dumpFile.delete();
+		indexFile.delete();
+		dir.delete();
+	}
+	
+	@Test
+	public void testDetectsMultistreamFiles() throws IOException
+	{
+		assertTrue(MultistreamBZip2InputStream.isMultistream(dumpFile));
+		assertEquals(indexFile, MultistreamIndex.findIndexFile(dumpFile));
+		assertEquals(STREAM_COUNT, MultistreamIndex.read(indexFile).getStreamCount());
+	}
+	
+	@Test
+	public void testOrderedDecompressionWithIndex() throws IOException
+	{
+		assertOrderedDecompression(indexFile);
+	}
+	
+	@Test
+	public void testOrderedDecompressionWithoutIndex() throws IOException
+	{
+		assertOrderedDecompression(null);
+	}
+	
+	@Test
+	public void testUnorderedDecompressionYieldsAllPages() throws Exception
+	{
+		InputStream in = new MultistreamBZip2InputStream(dumpFile, null, 4, false);
+		
+		final List<Long> ids = new ArrayList<Long>();
+		StreamingDumpReader dr = new StreamingDumpReader(in, null, dumpFile.getPath(), Logger.getLogger(getClass()))
+		{
+			@Override
+			protected void processPage(DumpPage page)
+			{
+				ids.add(page.getId());
+			}
+		};
+		
+		dr.read();
+		
+		Collections.sort(ids);
+		assertEquals(STREAM_COUNT * PAGES_PER_STREAM, ids.size());
+		for (int i = 0; i < ids.size(); ++i)
+			assertEquals(i + 1, ids.get(i).longValue());
+		
+		assertEquals(dumpFile.length(), dr.getCompressedBytesRead());
+	}
+	
+	@Test
+	public void testResumeSkipsStreamsBeforeOffset() throws Exception
+	{
+		long resumePageId = 100;
+		long offset = MultistreamIndex.read(indexFile, true).findStreamOffsetById(resumePageId);
+		assertTrue(offset > 0);
+		
+		InputStream in = new MultistreamBZip2InputStream(dumpFile, indexFile, 2, true, offset);
+		
+		final List<Long> ids = new ArrayList<Long>();
+		StreamingDumpReader dr = new StreamingDumpReader(in, null, dumpFile.getPath(), Logger.getLogger(getClass()))
+		{
+			@Override
+			protected void processPage(DumpPage page)
+			{
+				ids.add(page.getId());
+			}
+		};
+		
+		dr.read();
+		
+		// The resumed stream starts with the first page of its stream
+		long first = (resumePageId - 1) / PAGES_PER_STREAM * PAGES_PER_STREAM + 1;
+		assertEquals(STREAM_COUNT * PAGES_PER_STREAM - first + 1, ids.size());
+		for (int i = 0; i < ids.size(); ++i)
+			assertEquals(first + i, ids.get(i).longValue());
+		
+		assertEquals(dumpFile.length(), dr.getCompressedBytesRead());
+	}
+	
+	// =========================================================================
+	
+	private void assertOrderedDecompression(File index) throws IOException
+	{
+		MultistreamBZip2InputStream in =
+				new MultistreamBZip2InputStream(dumpFile, index, 3, true);
+		
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] b = new byte[1000];
+			int read;
+			while ((read = in.read(b)) != -1)
+			{
+				out.write(b, 0, read);
+				assertTrue(in.getCompressedBytesRead() <= dumpFile.length());
+			}
+			
+			assertEquals(expected, out.toString("UTF-8"));
+			assertEquals(dumpFile.length(), in.getCompressedBytesRead());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	private void writeDump() throws IOException
+	{
+		List<String> streams = new ArrayList<String>();
+		streams.add("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\">\n"
+				+ "  <siteinfo>\n    <sitename>SITENAME</sitename>\n  </siteinfo>\n");
+		
+		int id = 1;
+		for (int i = 0; i < STREAM_COUNT; ++i)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < PAGES_PER_STREAM; ++j, ++id)
+			{
+				sb.append("  <page>\n");
+				sb.append("    <title>Page " + id + "</title>\n");
+				sb.append("    <ns>0</ns>\n");
+				sb.append("    <id>" + id + "</id>\n");
+				sb.append("    <revision>\n");
+				sb.append("      <id>" + (1000 + id) + "</id>\n");
+				sb.append("      <timestamp>2012-05-21T11:11:11Z</timestamp>\n");
+				sb.append("      <text xml:space=\"preserve\">");
+				for (int k = 0; k < (id * 37) % 500; ++k)
+					sb.append("Text of page ").append(id).append(". ");
+				sb.append("</text>\n");
+				sb.append("    </revision>\n");
+				sb.append("  </page>\n");
+			}
+			streams.add(sb.toString());
+		}
+		
+		streams.add("</mediawiki>\n");
+		
+		StringBuilder all = new StringBuilder();
+		Writer index = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+		OutputStream dump = new FileOutputStream(dumpFile);
+		try
+		{
+			long offset = 0;
+			for (int i = 0; i < streams.size(); ++i)
+			{
+				String s = streams.get(i);
+				all.append(s);
+				
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				BZip2CompressorOutputStream bz2 = new BZip2CompressorOutputStream(compressed);
+				bz2.write(s.getBytes("UTF-8"));
+				bz2.close();
+				
+				if (i > 0 && i < streams.size() - 1)
+				{
+					for (int j = 0; j < PAGES_PER_STREAM; ++j)
+					{
+						int pageId = (i - 1) * PAGES_PER_STREAM + j + 1;
+						index.write(offset + ":" + pageId + ":Page " + pageId + "\n");
+					}
+				}
+				
+				compressed.writeTo(dump);
+				offset += compressed.size();
+			}
+		}
+		finally
+		{
+			index.close();
+			dump.close();
+		}
+		
+		expected = all.toString();
+	}
+}
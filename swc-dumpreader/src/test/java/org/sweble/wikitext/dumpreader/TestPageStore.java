@@ -0,0 +1,155 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.dumpreader.PageStore.StoredPage;
+
+public class TestPageStore
+{
+	private static final int PAGE_COUNT = 500;
+	
+	private File storeFile;
+	
+	private File dumpFile;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		storeFile = File.createTempFile("pagestore", ".bin");
+		dumpFile = File.createTempFile("pagestore", ".xml");
+	}
+	
+	@After
+	public void tearDown()
+	{
+		storeFile.delete();
+		dumpFile.delete();
+	}
+	
+	@Test
+	public void testStoredPagesCanBeRetrieved() throws IOException
+	{
+		// Small chunks make blocks cross chunk boundaries
+		PageStoreWriter writer = new PageStoreWriter(storeFile, 1024, Deflater.BEST_SPEED, 12);
+		for (int i = 0; i < PAGE_COUNT; ++i)
+			writer.add(title(i), 1000 + i, text(i));
+		writer.close();
+		
+		PageStore store = PageStore.open(storeFile);
+		assertEquals(PAGE_COUNT, store.getPageCount());
+		assertTrue(store.getBlockCount() > 1);
+		assertTrue(storeFile.length() > (1 << 12));
+		
+		for (int i = PAGE_COUNT - 1; i >= 0; --i)
+		{
+			StoredPage page = store.get(title(i));
+			assertNotNull(page);
+			assertEquals(title(i), page.getTitle());
+			assertEquals(1000 + i, page.getRevisionId());
+			assertEquals(text(i), page.getText());
+		}
+		
+		assertNull(store.get("No such page"));
+		assertFalse(store.contains("Template:Page"));
+	}
+	
+	@Test
+	public void testIndexIsMappedInChunks() throws IOException
+	{
+		PageStoreWriter writer = new PageStoreWriter(storeFile);
+		for (int i = 0; i < PAGE_COUNT; ++i)
+			writer.add(title(i), 1000 + i, text(i));
+		writer.close();
+		
+		// 16 entries per mapping, the last mapping is only partly filled
+		PageStore store = PageStore.open(storeFile, 4);
+		assertEquals(PAGE_COUNT, store.getPageCount());
+		
+		for (int i = 0; i < PAGE_COUNT; ++i)
+			assertEquals(text(i), store.getText(title(i)));
+		
+		assertNull(store.get("No such page"));
+	}
+	
+	@Test
+	public void testEmptyStore() throws IOException
+	{
+		new PageStoreWriter(storeFile).close();
+		
+		PageStore store = PageStore.open(storeFile);
+		assertEquals(0, store.getPageCount());
+		assertNull(store.getText(title(0)));
+	}
+	
+	@Test
+	public void testWriteFromDump() throws Exception
+	{
+		Writer w = new OutputStreamWriter(new FileOutputStream(dumpFile), "UTF-8");
+		try
+		{
+			w.write("<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.8/\" version=\"0.8\">\n");
+			for (int i = 0; i < 20; ++i)
+			{
+				w.write("<page><title>" + title(i) + "</title><ns>" + ((i % 2 == 0) ? 10 : 0) + "</ns><id>" + i + "</id>");
+				w.write("<revision><id>" + (1000 + i) + "</id><text xml:space=\"preserve\">old</text></revision>");
+				w.write("<revision><id>" + (2000 + i) + "</id><text xml:space=\"preserve\">" + text(i) + "</text></revision>");
+				w.write("</page>\n");
+			}
+			w.write("</mediawiki>\n");
+		}
+		finally
+		{
+			w.close();
+		}
+		
+		assertEquals(10, PageStoreWriter.writeFromDump(dumpFile, storeFile, 10));
+		
+		PageStore store = PageStore.open(storeFile);
+		assertEquals(10, store.getPageCount());
+		assertEquals(2004, store.get(title(4)).getRevisionId());
+		assertEquals(text(4), store.getText(title(4)));
+		assertNull(store.get(title(5)));
+	}
+	
+	// =========================================================================
+	
+	private static String title(int i)
+	{
+		return (i % 2 == 0) ? "Template:Page " + i : "Page " + i;
+	}
+	
+	private static String text(int i)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int j = 0; j < (i * 37) % 60; ++j)
+			sb.append("{{Text}} of page ").append(i).append(" äöü. ");
+		return sb.toString();
+	}
+}
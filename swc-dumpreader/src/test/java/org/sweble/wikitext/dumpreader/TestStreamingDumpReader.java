@@ -0,0 +1,180 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.dumpreader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.sweble.wikitext.dumpreader.model.DumpPage;
+import org.sweble.wikitext.dumpreader.model.DumpRevision;
+
+import de.fau.cs.osr.utils.StringUtils;
+
+public class TestStreamingDumpReader
+{
+	private static final long TIMESTAMP = 1337598671000L; // 2012-05-21T11:11:11Z
+	
+	private Logger logger;
+	
+	@Before
+	public void setUp()
+	{
+		logger = Logger.getLogger(getClass());
+	}
+	
+	@Test
+	public void testExport_0_5() throws Throwable
+	{
+		DumpPage p = readSinglePage("/input-0.5.xml", ExportSchemaVersion.V0_5);
+		
+		assertEquals(10, p.getId());
+		assertEquals(DumpPage.UNKNOWN_NAMESPACE, p.getNamespace());
+		assertEquals("TITLE", p.getTitle());
+		assertEquals("", p.getRedirectTitle());
+		
+		DumpRevision r = p.getRevisions().get(0);
+		assertEquals(DumpRevision.NO_ID, r.getParentId());
+		assertNull(r.getTextSha1());
+		assertCommonRevisionFields(r);
+	}
+	
+	@Test
+	public void testExport_0_6() throws Throwable
+	{
+		DumpPage p = readSinglePage("/input-0.6.xml", ExportSchemaVersion.V0_6);
+		
+		assertEquals(10, p.getId());
+		assertEquals(0, p.getNamespace());
+		assertEquals("TITLE", p.getRedirectTitle());
+		
+		assertCommonRevisionFields(p.getRevisions().get(0));
+	}
+	
+	@Test
+	public void testExport_0_8() throws Throwable
+	{
+		DumpPage p = readSinglePage("/input-0.8.xml", ExportSchemaVersion.V0_8);
+		
+		assertEquals(10, p.getId());
+		assertEquals(0, p.getNamespace());
+		assertEquals("TITLE", p.getTitle());
+		assertTrue(p.isRedirect());
+		
+		DumpRevision r = p.getRevisions().get(0);
+		assertEquals(987654321, r.getParentId());
+		assertEquals("abcdfeghijklmnopqrstuvwxyz01234", r.getTextSha1());
+		assertEquals("wikitext", r.getModel());
+		assertEquals("text/x-wiki", r.getFormat());
+		assertCommonRevisionFields(r);
+	}
+	
+	@Test
+	public void testRejectedPagesAreSkipped() throws Throwable
+	{
+		final List<String> seen = new ArrayList<String>();
+		
+		StreamingDumpReader dr = new StreamingDumpReader(getFile("/input-0.8.xml"), null, logger)
+		{
+			@Override
+			protected boolean acceptPage(long id, int namespace, String title)
+			{
+				seen.add(id + ":" + namespace + ":" + title);
+				return false;
+			}
+			
+			@Override
+			protected void processPage(DumpPage page)
+			{
+				fail("Rejected page was reported");
+			}
+		};
+		
+		dr.read();
+		
+		assertEquals(1, seen.size());
+		assertEquals("10:0:TITLE", seen.get(0));
+		assertEquals(0, dr.getParsedCount());
+		assertEquals(1, dr.getSkippedCount());
+	}
+	
+	@Test
+	public void testTimestampParsing() throws Throwable
+	{
+		assertEquals(0, DumpPageParser.parseTimestamp("1970-01-01T00:00:00Z"));
+		assertEquals(TIMESTAMP, DumpPageParser.parseTimestamp("2012-05-21T11:11:11Z"));
+		assertEquals(951782400000L, DumpPageParser.parseTimestamp("2000-02-29T00:00:00Z"));
+		assertEquals(TIMESTAMP, DumpPageParser.parseTimestamp("2012-05-21T13:11:11+02:00"));
+	}
+	
+	// =========================================================================
+	
+	private File getFile(String name)
+	{
+		URL resource = getClass().getResource(name);
+		return new File(StringUtils.decodeUsingDefaultCharset(resource.getFile()));
+	}
+	
+	private DumpPage readSinglePage(
+			String name,
+			ExportSchemaVersion expectedVersion) throws Exception
+	{
+		final List<DumpPage> pages = new ArrayList<DumpPage>();
+		
+		StreamingDumpReader dr = new StreamingDumpReader(getFile(name), null, logger)
+		{
+			@Override
+			protected void processPage(DumpPage page)
+			{
+				pages.add(page);
+			}
+		};
+		
+		assertEquals(expectedVersion, dr.getSchemaVersion());
+		
+		dr.read();
+		
+		assertEquals(1, pages.size());
+		assertEquals(1, dr.getParsedCount());
+		
+		DumpPage p = pages.get(0);
+		assertEquals(1, p.getRevisions().size());
+		return p;
+	}
+	
+	private void assertCommonRevisionFields(DumpRevision r)
+	{
+		assertEquals(123456789, r.getId());
+		assertEquals(TIMESTAMP, r.getTimestamp());
+		assertTrue(r.isMinor());
+		assertEquals(987654321, r.getContributorId());
+		assertEquals("USERNAME", r.getContributorUsername());
+		assertNull(r.getContributorIp());
+		assertFalse(r.isContributorDeleted());
+		assertEquals("COMMENT", r.getCommentText());
+		assertFalse(r.isCommentDeleted());
+		assertEquals("TEXT", r.getText());
+		assertFalse(r.isTextDeleted());
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+/**
+ * Determines how much of the log tree the engine builds while processing a
+ * page.
+ */
+public enum EngineLogMode
+{
+	/**
+	 * No log nodes are built. The processed page still carries an empty
+	 * processing pass log.
+	 */
+	OFF,
+	
+	/**
+	 * Only the processing pass and the passes of the individual stages are
+	 * logged, including their timings, parser errors and unhandled errors.
+	 * The resolution of transclusions, parameters, parser functions, tag
+	 * extensions and magic words is not logged and unhandled errors are
+	 * logged without stack trace.
+	 */
+	SUMMARY,
+	
+	/**
+	 * Everything is logged. This is the default.
+	 */
+	FULL,
+}
@@ -0,0 +1,658 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+import org.sweble.wikitext.parser.nodes.WtText;
+
+/**
+ * Aggregates timings and sizes of the processing stages and of the
+ * invocations of parser functions, magic words, tag extensions and
+ * transclusions across all pages processed by an engine.
+ * 
+ * Unlike the timings stored in the log tree of a page, the metrics do not
+ * depend on logging and add only a few atomic operations per stage and per
+ * invocation. A registry is thread-safe and can be shared by several engines.
+ * 
+ * Stage metrics only cover the page handed to the engine. Pages pulled in
+ * for transclusion are accounted for as invocations of kind
+ * {@link InvocationKind#TRANSCLUSION}.
+ * 
+ * The total and the percentiles of an invocation are self times: the time
+ * needed to expand a template does not include the time needed to expand the
+ * templates and parser functions it uses in turn. The self times of all
+ * invocations therefore add up to at most the time of the expansion stage.
+ * The inclusive time is recorded separately. Nesting is tracked per thread,
+ * an invocation must be announced with {@link #enterInvocation()} on the
+ * thread that later records it.
+ * 
+ * The sizes of an invocation are the text length of its arguments and of its
+ * result. Measuring them traverses the ASTs involved and is off unless
+ * requested, as is node counting. Both traversals of a nested invocation add
+ * to the self time of the enclosing invocation.
+ */
+public class EngineMetrics
+{
+	public static enum Stage
+	{
+		VALIDATION,
+		PREPROCESSING,
+		EXPANSION,
+		PARSING,
+		POSTPROCESSING
+	}
+	
+	public static enum InvocationKind
+	{
+		PARSER_FUNCTION,
+		MAGIC_WORD,
+		TAG_EXTENSION,
+		TRANSCLUSION
+	}
+	
+	// =========================================================================
+	
+	private final boolean measureSizes;
+	
+	private final boolean countNodes;
+	
+	private final EnumMap<Stage, Metric> stages =
+			new EnumMap<Stage, Metric>(Stage.class);
+	
+	private final ConcurrentMap<InvocationKey, Metric> invocations =
+			new ConcurrentHashMap<InvocationKey, Metric>();
+	
+	private final ThreadLocal<ChildTimes> childTimes = new ThreadLocal<ChildTimes>()
+	{
+		@Override
+		protected ChildTimes initialValue()
+		{
+			return new ChildTimes();
+		}
+	};
+	
+	// =========================================================================
+	
+	public EngineMetrics()
+	{
+		this(false, false);
+	}
+	
+	/**
+	 * @param measureSizes
+	 *            Whether to measure the text length of the arguments and of
+	 *            the result of each invocation. Measuring requires a
+	 *            traversal of the ASTs. Stage sizes are always recorded.
+	 * @param countNodes
+	 *            Whether to count the nodes of the AST produced by each stage
+	 *            and invocation. Counting requires a traversal of the AST.
+	 *            The traversals for nested invocations add to the time of the
+	 *            enclosing invocation and of the expansion stage.
+	 */
+	public EngineMetrics(boolean measureSizes, boolean countNodes)
+	{
+		this.measureSizes = measureSizes;
+		this.countNodes = countNodes;
+		for (Stage stage : Stage.values())
+			stages.put(stage, new Metric());
+	}
+	
+	// =========================================================================
+	
+	public boolean isMeasureSizes()
+	{
+		return measureSizes;
+	}
+	
+	public boolean isCountNodes()
+	{
+		return countNodes;
+	}
+	
+	/**
+	 * @param sizeIn
+	 *            The length of the text the stage consumed or -1 if the stage
+	 *            did not consume text.
+	 * @param sizeOut
+	 *            The length of the text the stage produced or -1 if the stage
+	 *            did not produce text.
+	 * @param ast
+	 *            The AST produced by the stage or null.
+	 */
+	public void recordStage(
+			Stage stage,
+			long nanos,
+			long sizeIn,
+			long sizeOut,
+			WtNode ast)
+	{
+		stages.get(stage).record(nanos, nanos, sizeIn, sizeOut, nodes(ast));
+	}
+	
+	/**
+	 * Announces an invocation that will be recorded with
+	 * {@link #recordInvocation} on the current thread. Every call must be
+	 * matched by exactly one call to recordInvocation, even if the invocation
+	 * failed.
+	 */
+	public void enterInvocation()
+	{
+		childTimes.get().enter();
+	}
+	
+	/**
+	 * @param nanos
+	 *            The inclusive time needed by the invocation.
+	 * @param sizeIn
+	 *            The text length of the arguments of the invocation or -1 if
+	 *            sizes are not measured.
+	 * @param result
+	 *            The AST produced by the invocation or null. Its text length
+	 *            is recorded as size produced if sizes are measured.
+	 */
+	public void recordInvocation(
+			InvocationKind kind,
+			String name,
+			long nanos,
+			long sizeIn,
+			WtNode result)
+	{
+		InvocationKey key = new InvocationKey(kind, name);
+		
+		Metric metric = invocations.get(key);
+		if (metric == null)
+		{
+			Metric newMetric = new Metric();
+			metric = invocations.putIfAbsent(key, newMetric);
+			if (metric == null)
+				metric = newMetric;
+		}
+		
+		long selfNanos = nanos - childTimes.get().leave(nanos);
+		
+		long sizeOut = (measureSizes && result != null) ? textLength(result) : -1;
+		
+		metric.record(selfNanos, nanos, sizeIn, sizeOut, nodes(result));
+	}
+	
+	public void reset()
+	{
+		for (Metric metric : stages.values())
+			metric.reset();
+		invocations.clear();
+	}
+	
+	public Snapshot snapshot()
+	{
+		EnumMap<Stage, MetricSnapshot> stageSnapshots =
+				new EnumMap<Stage, MetricSnapshot>(Stage.class);
+		
+		for (Entry<Stage, Metric> e : stages.entrySet())
+			stageSnapshots.put(e.getKey(), e.getValue().snapshot(null, e.getKey().name()));
+		
+		List<MetricSnapshot> invocationSnapshots = new ArrayList<MetricSnapshot>();
+		for (Entry<InvocationKey, Metric> e : invocations.entrySet())
+			invocationSnapshots.add(e.getValue().snapshot(e.getKey().kind, e.getKey().name));
+		
+		Collections.sort(invocationSnapshots, new Comparator<MetricSnapshot>()
+		{
+			@Override
+			public int compare(MetricSnapshot o1, MetricSnapshot o2)
+			{
+				if (o1.getTotalNanos() != o2.getTotalNanos())
+					return (o1.getTotalNanos() > o2.getTotalNanos()) ? -1 : 1;
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		
+		return new Snapshot(
+				Collections.unmodifiableMap(stageSnapshots),
+				Collections.unmodifiableList(invocationSnapshots));
+	}
+	
+	// =========================================================================
+	
+	private long nodes(WtNode ast)
+	{
+		if (!countNodes || ast == null)
+			return -1;
+		return countNodes(ast);
+	}
+	
+	private static long countNodes(WtNode n)
+	{
+		long count = 1;
+		for (WtNode c : n)
+			count += countNodes(c);
+		return count;
+	}
+	
+	/**
+	 * Returns the length of the text in the given AST. Text nodes that are
+	 * windows of a source buffer are not materialized.
+	 */
+	public static long textLength(WtNode node)
+	{
+		long length = 0;
+		if (node instanceof WtText)
+		{
+			length += ((WtText) node).getContentLength();
+		}
+		else if (node instanceof WtStringNode)
+		{
+			String content = ((WtStringNode) node).getContent();
+			if (content != null)
+				length += content.length();
+		}
+		
+		for (WtNode n : node)
+			length += textLength(n);
+		
+		return length;
+	}
+	
+	public static long textLength(List<? extends WtNode> nodes)
+	{
+		long length = 0;
+		for (WtNode n : nodes)
+			length += textLength(n);
+		return length;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * The time spent in nested invocations, one slot per invocation currently
+	 * in progress on a thread.
+	 */
+	private static final class ChildTimes
+	{
+		private long[] slots = new long[16];
+		
+		private int depth = 0;
+		
+		public void enter()
+		{
+			if (depth == slots.length)
+				slots = Arrays.copyOf(slots, depth * 2);
+			slots[depth++] = 0;
+		}
+		
+		/**
+		 * Ends the innermost invocation, charges its inclusive time to the
+		 * enclosing invocation and returns the time spent in its own nested
+		 * invocations.
+		 */
+		public long leave(long nanos)
+		{
+			if (depth == 0)
+				throw new IllegalStateException("Invocation was not entered");
+			
+			long children = slots[--depth];
+			if (depth > 0)
+				slots[depth - 1] += nanos;
+			return children;
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class Metric
+	{
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		
+		private final AtomicLong inclusiveNanos = new AtomicLong();
+		
+		private final AtomicLong sizeIn = new AtomicLong();
+		
+		private final AtomicLong sizeOut = new AtomicLong();
+		
+		private final AtomicLong nodes = new AtomicLong();
+		
+		public void record(
+				long selfNanos,
+				long nanos,
+				long in,
+				long out,
+				long nodeCount)
+		{
+			histogram.record(selfNanos);
+			inclusiveNanos.addAndGet(nanos);
+			if (in >= 0)
+				sizeIn.addAndGet(in);
+			if (out >= 0)
+				sizeOut.addAndGet(out);
+			if (nodeCount >= 0)
+				nodes.addAndGet(nodeCount);
+		}
+		
+		public void reset()
+		{
+			histogram.reset();
+			inclusiveNanos.set(0);
+			sizeIn.set(0);
+			sizeOut.set(0);
+			nodes.set(0);
+		}
+		
+		public MetricSnapshot snapshot(InvocationKind kind, String name)
+		{
+			return new MetricSnapshot(
+					kind,
+					name,
+					histogram.getCount(),
+					histogram.getTotalNanos(),
+					inclusiveNanos.get(),
+					histogram.getPercentile(0.5),
+					histogram.getPercentile(0.99),
+					histogram.getMaxNanos(),
+					sizeIn.get(),
+					sizeOut.get(),
+					nodes.get());
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class InvocationKey
+	{
+		private final InvocationKind kind;
+		
+		private final String name;
+		
+		public InvocationKey(InvocationKind kind, String name)
+		{
+			this.kind = kind;
+			this.name = name;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return 31 * kind.hashCode() + name.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			InvocationKey other = (InvocationKey) obj;
+			return kind == other.kind && name.equals(other.name);
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * An immutable copy of the values of one metric.
+	 */
+	public static final class MetricSnapshot
+	{
+		private final InvocationKind kind;
+		
+		private final String name;
+		
+		private final long count;
+		
+		private final long totalNanos;
+		
+		private final long inclusiveNanos;
+		
+		private final long p50Nanos;
+		
+		private final long p99Nanos;
+		
+		private final long maxNanos;
+		
+		private final long sizeIn;
+		
+		private final long sizeOut;
+		
+		private final long nodes;
+		
+		private MetricSnapshot(
+				InvocationKind kind,
+				String name,
+				long count,
+				long totalNanos,
+				long inclusiveNanos,
+				long p50Nanos,
+				long p99Nanos,
+				long maxNanos,
+				long sizeIn,
+				long sizeOut,
+				long nodes)
+		{
+			this.kind = kind;
+			this.name = name;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.inclusiveNanos = inclusiveNanos;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+			this.sizeIn = sizeIn;
+			this.sizeOut = sizeOut;
+			this.nodes = nodes;
+		}
+		
+		/**
+		 * @return The kind of invocation or null if this is a stage metric.
+		 */
+		public InvocationKind getKind()
+		{
+			return kind;
+		}
+		
+		public String getName()
+		{
+			return name;
+		}
+		
+		public long getCount()
+		{
+			return count;
+		}
+		
+		/**
+		 * @return The accumulated self time. For stages this is the same as
+		 *         the inclusive time.
+		 */
+		public long getTotalNanos()
+		{
+			return totalNanos;
+		}
+		
+		/**
+		 * @return The accumulated time including nested invocations.
+		 */
+		public long getInclusiveNanos()
+		{
+			return inclusiveNanos;
+		}
+		
+		public long getP50Nanos()
+		{
+			return p50Nanos;
+		}
+		
+		public long getP99Nanos()
+		{
+			return p99Nanos;
+		}
+		
+		public long getMaxNanos()
+		{
+			return maxNanos;
+		}
+		
+		/**
+		 * @return The accumulated length of the text consumed or 0 if sizes
+		 *         are not measured.
+		 */
+		public long getSizeIn()
+		{
+			return sizeIn;
+		}
+		
+		/**
+		 * @return The accumulated length of the text produced or 0 if sizes
+		 *         are not measured.
+		 */
+		public long getSizeOut()
+		{
+			return sizeOut;
+		}
+		
+		/**
+		 * @return The accumulated number of AST nodes produced.
+		 */
+		public long getNodes()
+		{
+			return nodes;
+		}
+		
+		/**
+		 * @return The share of the given total time in the range [0, 1].
+		 */
+		public double getShareOf(long totalNanos)
+		{
+			return (totalNanos > 0) ? (double) this.totalNanos / totalNanos : 0.;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format(
+					"%-16s %-32s %10d %12.3f %12.3f %10.3f %10.3f %10.3f %12d %12d %12d",
+					(kind != null) ? kind : "STAGE",
+					name,
+					count,
+					totalNanos / 1e6,
+					inclusiveNanos / 1e6,
+					p50Nanos / 1e6,
+					p99Nanos / 1e6,
+					maxNanos / 1e6,
+					sizeIn,
+					sizeOut,
+					nodes);
+		}
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * An immutable copy of all metrics of a registry at a point in time.
+	 */
+	public static final class Snapshot
+	{
+		private final Map<Stage, MetricSnapshot> stages;
+		
+		private final List<MetricSnapshot> invocations;
+		
+		private Snapshot(
+				Map<Stage, MetricSnapshot> stages,
+				List<MetricSnapshot> invocations)
+		{
+			this.stages = stages;
+			this.invocations = invocations;
+		}
+		
+		public Map<Stage, MetricSnapshot> getStages()
+		{
+			return stages;
+		}
+		
+		public MetricSnapshot getStage(Stage stage)
+		{
+			return stages.get(stage);
+		}
+		
+		/**
+		 * @return All invocations, most expensive first.
+		 */
+		public List<MetricSnapshot> getInvocations()
+		{
+			return invocations;
+		}
+		
+		public MetricSnapshot getInvocation(InvocationKind kind, String name)
+		{
+			for (MetricSnapshot s : invocations)
+			{
+				if (s.getKind() == kind && s.getName().equals(name))
+					return s;
+			}
+			return null;
+		}
+		
+		/**
+		 * @return The share of the expansion time spent in the given
+		 *         invocation itself, excluding nested invocations, in the
+		 *         range [0, 1].
+		 */
+		public double getShareOfExpansion(MetricSnapshot invocation)
+		{
+			return invocation.getShareOf(getStage(Stage.EXPANSION).getTotalNanos());
+		}
+		
+		/**
+		 * Renders the snapshot as a table. Times are given in milliseconds.
+		 */
+		@Override
+		public String toString()
+		{
+			StringBuilder b = new StringBuilder();
+			b.append(String.format(
+					"%-16s %-32s %10s %12s %12s %10s %10s %10s %12s %12s %12s %7s\n",
+					"KIND", "NAME", "COUNT", "TOTAL", "INCL", "P50", "P99", "MAX",
+					"SIZE_IN", "SIZE_OUT", "NODES", "%EXP"));
+			
+			for (MetricSnapshot s : stages.values())
+			{
+				b.append(s);
+				b.append('\n');
+			}
+			
+			for (MetricSnapshot s : invocations)
+			{
+				b.append(s);
+				b.append(String.format(" %6.1f%%", getShareOfExpansion(s) * 100.));
+				b.append('\n');
+			}
+			
+			return b.toString();
+		}
+	}
+}
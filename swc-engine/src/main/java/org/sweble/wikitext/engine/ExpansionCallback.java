@@ -57,7 +57,10 @@ public interface ExpansionCallback
 	 * Retrieves the specified revision of the article.
 	 *
 	String retrieveWikitext(ExpansionFrame expansionFrame, PageId pageId) throws Exception;
-	void cachePreprocessedPage(ExpansionFrame expansionFrame, FullPreprocessedPage page);
-	FullPreprocessedPage retrievePreprocessedPage(ExpansionFrame expansionFrame, PageTitle pageTitle, boolean forInclusion);
+	 */
+	
+	/*
+	 * Caching of preprocessed pages is not the business of the callback. See
+	 * WtEngine.setPreprocessedPageCache(PreprocessedPageCache).
 	 */
 }
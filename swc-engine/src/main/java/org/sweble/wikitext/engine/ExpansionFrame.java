@@ -57,6 +57,8 @@ public class ExpansionFrame
 	
 	private ExpansionVisitor expansionVisitor;
 	
+	private int frameDependencyCount = 0;
+	
 	// FIXME: That should have been initialized from a request!
 	//        And only once for the whole expansion process!
 	private UrlService urlService = new UrlService();
@@ -208,6 +210,27 @@ public class ExpansionFrame
 		return urlService;
 	}
 	
+	/**
+	 * Returns how often something that depends on more than the arguments
+	 * of a frame was encountered in this frame or any of its descendant
+	 * frames.
+	 */
+	public int getFrameDependencyCount()
+	{
+		return frameDependencyCount;
+	}
+	
+	/**
+	 * Records that the expansion of this frame depends on more than its
+	 * arguments. This also affects all ancestors of this frame since the
+	 * expansion of this frame becomes part of their expansion.
+	 */
+	public void markFrameDependent()
+	{
+		for (ExpansionFrame f = this; f != null; f = f.parentFrame)
+			++f.frameDependencyCount;
+	}
+	
 	// =========================================================================
 	
 	public WtNode expand(WtNode ppAst) throws ExpansionException
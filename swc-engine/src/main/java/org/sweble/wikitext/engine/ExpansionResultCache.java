@@ -0,0 +1,342 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtNodeList;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+import org.sweble.wikitext.parser.nodes.WtText;
+
+import de.fau.cs.osr.ptk.common.Warning;
+import de.fau.cs.osr.ptk.common.ast.AstNodePropertyIterator;
+
+/**
+ * A thread-safe, size-bounded cache of expanded transclusions.
+ * 
+ * A transclusion is only memoized if the expansion of the transcluded page
+ * (including all pages it transcludes in turn) did not invoke a parser
+ * function, magic word or tag extension that declared itself frame dependent
+ * (see {@link ParserFunctionBase#isFrameDependent()} and
+ * {@link TagExtensionBase#isFrameDependent()}). The expanded arguments
+ * passed to the transcluded page are compared by structure (see
+ * {@link #makeKey(PageId, boolean, Map)}).
+ * 
+ * Like the {@link PreprocessedPageCache} this cache hands out private copies
+ * of the cached ASTs.
+ * 
+ * Entries are weighed by the size of the cached AST: the length of all text
+ * it contains plus a fixed charge per node (see {@link #weigh(WtNode)}).
+ */
+public class ExpansionResultCache
+{
+	private static final int DEFAULT_SEGMENT_COUNT = 16;
+	
+	/**
+	 * The weight of a node without its text. Roughly the number of bytes an
+	 * empty node occupies, counted in characters.
+	 */
+	private static final int NODE_WEIGHT = 16;
+	
+	// =========================================================================
+	
+	private final SegmentedLruCache<Key, CachedExpansion> cache;
+	
+	// =========================================================================
+	
+	/**
+	 * @param maxWeight
+	 *            The maximum accumulated weight of all cached expansion
+	 *            results as computed by {@link #weigh(WtNode)}.
+	 */
+	public ExpansionResultCache(long maxWeight)
+	{
+		this(maxWeight, DEFAULT_SEGMENT_COUNT);
+	}
+	
+	public ExpansionResultCache(long maxWeight, int segmentCount)
+	{
+		this.cache = new SegmentedLruCache<Key, CachedExpansion>(
+				maxWeight,
+				segmentCount);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Builds the key under which the expansion of a transclusion is cached.
+	 * 
+	 * Arguments are compared by the types, properties, contents and RtData
+	 * of all their nodes. Unlike their text, this covers comments, ignored
+	 * nodes and unresolved entities, which can change the expansion.
+	 * 
+	 * @param arguments
+	 *            The expanded arguments passed to the transcluded page.
+	 */
+	public Key makeKey(
+			PageId pageId,
+			boolean forInclusion,
+			Map<String, WtNodeList> arguments)
+	{
+		TreeMap<String, String> structuralArgs = new TreeMap<String, String>();
+		StringBuilder sb = new StringBuilder();
+		for (Entry<String, WtNodeList> arg : arguments.entrySet())
+		{
+			sb.setLength(0);
+			appendStructure(sb, arg.getValue());
+			structuralArgs.put(arg.getKey(), sb.toString());
+		}
+		
+		return new Key(pageId, forInclusion, structuralArgs);
+	}
+	
+	/**
+	 * Describes a tree such that different trees never have the same
+	 * description. Strings are therefore prefixed with their length.
+	 */
+	private static void appendStructure(StringBuilder sb, WtNode node)
+	{
+		if (node == null)
+		{
+			sb.append('-');
+			return;
+		}
+		
+		sb.append(node.getNodeType()).append('(');
+		
+		// Properties include the content of string nodes and the RtData
+		AstNodePropertyIterator i = node.propertyIterator();
+		while (i.next())
+		{
+			appendString(sb, i.getName());
+			appendString(sb, String.valueOf(i.getValue()));
+		}
+		
+		for (WtNode n : node)
+			appendStructure(sb, n);
+		
+		sb.append(')');
+	}
+	
+	private static void appendString(StringBuilder sb, String s)
+	{
+		sb.append(s.length()).append(':').append(s);
+	}
+	
+	/**
+	 * Retrieves a copy of a cached expansion result.
+	 * 
+	 * @return The cached expansion or null if no expansion is cached under the
+	 *         given key.
+	 */
+	public CachedExpansion retrieve(Key key)
+	{
+		CachedExpansion cached = cache.get(key);
+		if (cached == null)
+			return null;
+		
+		return new CachedExpansion(
+				(WtNode) cached.getResult().deepCloneWrapException(),
+				cached.getWarnings());
+	}
+	
+	/**
+	 * Stores a copy of an expansion result. The entry is weighed by the size
+	 * of the result.
+	 */
+	public void store(Key key, WtNode result, List<Warning> warnings)
+	{
+		long weight = weigh(result);
+		if (!cache.accepts(key, weight))
+			return;
+		
+		CachedExpansion copy = new CachedExpansion(
+				(WtNode) result.deepCloneWrapException(),
+				Collections.unmodifiableList(new ArrayList<Warning>(warnings)));
+		
+		cache.put(key, copy, weight);
+	}
+	
+	/**
+	 * Estimates the memory a cached AST retains: the length of the text of
+	 * all text and string nodes plus a fixed charge for every node.
+	 */
+	public static long weigh(WtNode node)
+	{
+		long weight = NODE_WEIGHT;
+		if (node instanceof WtText)
+		{
+			weight += ((WtText) node).getContentLength();
+		}
+		else if (node instanceof WtStringNode)
+		{
+			String content = ((WtStringNode) node).getContent();
+			if (content != null)
+				weight += content.length();
+		}
+		
+		for (WtNode n : node)
+			weight += weigh(n);
+		
+		return weight;
+	}
+	
+	public void clear()
+	{
+		cache.clear();
+	}
+	
+	// =========================================================================
+	
+	public long getMaxWeight()
+	{
+		return cache.getMaxWeight();
+	}
+	
+	public long getWeight()
+	{
+		return cache.getWeight();
+	}
+	
+	public int getSize()
+	{
+		return cache.getSize();
+	}
+	
+	public long getHits()
+	{
+		return cache.getHits();
+	}
+	
+	public long getMisses()
+	{
+		return cache.getMisses();
+	}
+	
+	public long getEvictions()
+	{
+		return cache.getEvictions();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format(
+				"ExpansionResultCache(size=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d)",
+				getSize(),
+				getWeight(),
+				getMaxWeight(),
+				getHits(),
+				getMisses(),
+				getEvictions());
+	}
+	
+	// =========================================================================
+	
+	public static final class CachedExpansion
+	{
+		private final WtNode result;
+		
+		private final List<Warning> warnings;
+		
+		private CachedExpansion(WtNode result, List<Warning> warnings)
+		{
+			this.result = result;
+			this.warnings = warnings;
+		}
+		
+		public WtNode getResult()
+		{
+			return result;
+		}
+		
+		public List<Warning> getWarnings()
+		{
+			return warnings;
+		}
+	}
+	
+	// =========================================================================
+	
+	public static final class Key
+	{
+		private final PageTitle title;
+		
+		private final long revision;
+		
+		private final boolean forInclusion;
+		
+		private final TreeMap<String, String> arguments;
+		
+		private final int hash;
+		
+		private Key(
+				PageId pageId,
+				boolean forInclusion,
+				TreeMap<String, String> arguments)
+		{
+			this.title = pageId.getTitle();
+			this.revision = pageId.getRevision();
+			this.forInclusion = forInclusion;
+			this.arguments = arguments;
+			
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + title.hashCode();
+			result = prime * result + (int) (revision ^ (revision >>> 32));
+			result = prime * result + (forInclusion ? 1231 : 1237);
+			result = prime * result + arguments.hashCode();
+			this.hash = result;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			if (hash != other.hash)
+				return false;
+			if (revision != other.revision)
+				return false;
+			if (forInclusion != other.forInclusion)
+				return false;
+			if (!title.equals(other.title))
+				return false;
+			if (!arguments.equals(other.arguments))
+				return false;
+			return true;
+		}
+	}
+}
@@ -27,6 +27,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.sweble.wikitext.engine.EngineMetrics.InvocationKind;
+import org.sweble.wikitext.engine.ExpansionResultCache.CachedExpansion;
 import org.sweble.wikitext.engine.config.Namespace;
 import org.sweble.wikitext.engine.config.WikiConfig;
 import org.sweble.wikitext.engine.nodes.EngLogContainer;
@@ -60,8 +62,6 @@ import org.sweble.wikitext.parser.parser.LinkTargetException;
 import org.sweble.wikitext.parser.utils.AstTextUtils.PartialConversion;
 import org.sweble.wikitext.parser.utils.StringConversionException;
 
-import de.fau.cs.osr.utils.StopWatch;
-
 public final class ExpansionVisitor
 		extends
 			NodeTypeEngVisitor
@@ -87,6 +87,8 @@ public final class ExpansionVisitor
 	
 	private final EngineAstTextUtils tu;
 	
+	private final EngineMetrics metrics;
+	
 	private boolean hadNewlineGlobal;
 	
 	// =========================================================================
@@ -105,6 +107,7 @@ public final class ExpansionVisitor
 		this.catchAll = catchAll;
 		this.nf = expFrame.getWikiConfig().getNodeFactory();
 		this.tu = expFrame.getWikiConfig().getAstTextUtils();
+		this.metrics = expFrame.getEngine().getMetrics();
 	}
 	
 	// =========================================================================
@@ -255,12 +258,7 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		long startNanos = System.nanoTime();
 		
 		WtNode result = null;
 		try
@@ -279,8 +277,10 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
 		}
 		
 		return (hooks != null) ?
@@ -343,7 +343,8 @@ public final class ExpansionVisitor
 					expFrame.getRootFrame(),
 					expFrame);
 			
-			log.setSuccess(true);
+			if (log != null)
+				log.setSuccess(true);
 			
 			return mergeLogsAndWarnings(log, processedPage);
 		}
@@ -646,12 +647,13 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		if (metrics != null)
+			metrics.enterInvocation();
+		
+		long startNanos = System.nanoTime();
+		
+		if (pfn.isFrameDependent())
+			expFrame.markFrameDependent();
 		
 		WtNode result = null;
 		try
@@ -663,7 +665,8 @@ public final class ExpansionVisitor
 			if (result != n)
 				result = treatBlockElements(n, result);
 			
-			log.setSuccess(true);
+			if (log != null)
+				log.setSuccess(true);
 		}
 		catch (Exception e)
 		{
@@ -677,8 +680,20 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
+			
+			if (metrics != null)
+			{
+				metrics.recordInvocation(
+						InvocationKind.PARSER_FUNCTION,
+						pfn.getId(),
+						nanos,
+						metrics.isMeasureSizes() ? EngineMetrics.textLength(argsValues) : -1,
+						result);
+			}
 		}
 		
 		return (hooks != null) ?
@@ -714,12 +729,10 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		if (metrics != null)
+			metrics.enterInvocation();
+		
+		long startNanos = System.nanoTime();
 		
 		WtNode result = null;
 		try
@@ -738,8 +751,20 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
+			
+			if (metrics != null)
+			{
+				metrics.recordInvocation(
+						InvocationKind.TRANSCLUSION,
+						transclusionMetricName(title),
+						nanos,
+						metrics.isMeasureSizes() ? EngineMetrics.textLength(args) : -1,
+						result);
+			}
 		}
 		
 		return (hooks != null) ?
@@ -781,7 +806,8 @@ public final class ExpansionVisitor
 		
 		checkTransclusionRecursion(title);
 		
-		log.setCanonical(title.getDenormalizedFullTitle());
+		if (log != null)
+			log.setCanonical(title.getDenormalizedFullTitle());
 		
 		FullPage page = getWikitext(title);
 		if (page != null)
@@ -789,6 +815,27 @@ public final class ExpansionVisitor
 			// EXPANDS ARGUMENTS!
 			Map<String, WtNodeList> tmplArgs = prepareTransclusionArguments(args, log);
 			
+			ExpansionResultCache cache = getEngine().getExpansionResultCache();
+			
+			ExpansionResultCache.Key cacheKey = null;
+			if (cache != null)
+			{
+				cacheKey = cache.makeKey(page.getId(), true, tmplArgs);
+				
+				CachedExpansion cached = cache.retrieve(cacheKey);
+				if (cached != null)
+				{
+					if (log != null)
+						log.setSuccess(true);
+					
+					expFrame.addWarnings(cached.getWarnings());
+					
+					return treatBlockElements(n, cached.getResult());
+				}
+			}
+			
+			int frameDependencyCount = expFrame.getFrameDependencyCount();
+			
 			EngProcessedPage processedPage = getEngine().preprocessAndExpand(
 					expFrame.getCallback(),
 					page.getId(),
@@ -799,10 +846,20 @@ public final class ExpansionVisitor
 					expFrame.getRootFrame(),
 					expFrame);
 			
-			log.setSuccess(true);
+			if (log != null)
+				log.setSuccess(true);
 			
 			WtNode tResult = mergeLogsAndWarnings(log, processedPage);
 			
+			if (cacheKey != null &&
+					expFrame.getFrameDependencyCount() == frameDependencyCount)
+			{
+				cache.store(
+						cacheKey,
+						tResult,
+						processedPage.getWarnings());
+			}
+			
 			return treatBlockElements(n, tResult);
 		}
 		else
@@ -813,6 +870,25 @@ public final class ExpansionVisitor
 		}
 	}
 	
+	/**
+	 * Transclusions are recorded under the canonical title of the transcluded
+	 * page so that different spellings of a template name are aggregated.
+	 */
+	private String transclusionMetricName(String target)
+	{
+		try
+		{
+			return PageTitle.make(
+					getWikiConfig(),
+					target,
+					getWikiConfig().getTemplateNamespace()).getDenormalizedFullTitle();
+		}
+		catch (LinkTargetException e)
+		{
+			return target;
+		}
+	}
+	
 	/**
 	 * Check if a page transcludes itself more than once (directly or
 	 * indirectly).
@@ -827,7 +903,13 @@ public final class ExpansionVisitor
 			if (f.getTitle().equals(title))
 			{
 				if (++count > 2)
+				{
+					// Whether we hit the limit depends on the chain of frames
+					// and not only on the arguments of this frame.
+					expFrame.markFrameDependent();
+					
 					throw new RecursiveTransclusionException(title, count);
+				}
 			}
 			
 			f = f.getParentFrame();
@@ -973,12 +1055,7 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		long startNanos = System.nanoTime();
 		
 		WtNode result = null;
 		try
@@ -997,8 +1074,10 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
 		}
 		
 		return (hooks != null) ?
@@ -1029,7 +1108,8 @@ public final class ExpansionVisitor
 		
 		if (value != null)
 		{
-			log.setSuccess(true);
+			if (log != null)
+				log.setSuccess(true);
 			
 			//value = treatBlockElements(n, value);
 		}
@@ -1075,12 +1155,10 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		if (metrics != null)
+			metrics.enterInvocation();
+		
+		long startNanos = System.nanoTime();
 		
 		WtNode result = null;
 		try
@@ -1099,8 +1177,20 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
+			
+			if (metrics != null)
+			{
+				metrics.recordInvocation(
+						InvocationKind.TAG_EXTENSION,
+						name,
+						nanos,
+						metrics.isMeasureSizes() ? EngineMetrics.textLength(wtTagExtensionBody) : -1,
+						result);
+			}
 		}
 		
 		return (hooks != null) ?
@@ -1127,11 +1217,15 @@ public final class ExpansionVisitor
 			//throw new InternalError("Cannot find tag extension: " + name);
 			return null;
 		
+		if (te.isFrameDependent())
+			expFrame.markFrameDependent();
+		
 		HashMap<String, WtNodeList> attrMap = prepareTagExtensionAttributes(attrs);
 		
 		WtNode result = te.invoke(expFrame, n, attrMap, wtTagExtensionBody);
 		
-		log.setSuccess(true);
+		if (log != null)
+			log.setSuccess(true);
 		
 		return result;
 	}
@@ -1194,12 +1288,10 @@ public final class ExpansionVisitor
 			frameLog.add(log);
 		}
 		
-		StopWatch stopWatch = null;
-		if (timingEnabled)
-		{
-			stopWatch = new StopWatch();
-			stopWatch.start();
-		}
+		if (metrics != null)
+			metrics.enterInvocation();
+		
+		long startNanos = System.nanoTime();
 		
 		WtNode result = null;
 		try
@@ -1218,8 +1310,20 @@ public final class ExpansionVisitor
 		}
 		finally
 		{
+			long nanos = System.nanoTime() - startNanos;
+			
 			if (timingEnabled && log != null)
-				log.setTimeNeeded(stopWatch.getElapsedTime());
+				log.setTimeNeeded(nanos / 1000000);
+			
+			if (metrics != null)
+			{
+				metrics.recordInvocation(
+						InvocationKind.MAGIC_WORD,
+						name,
+						nanos,
+						0,
+						result);
+			}
 		}
 		
 		return (hooks != null) ?
@@ -1242,12 +1346,16 @@ public final class ExpansionVisitor
 			 */
 			throw new InternalError("Cannot find tag extension: " + name);
 		
+		if (mw.isFrameDependent())
+			expFrame.markFrameDependent();
+		
 		WtNode result = mw.invoke(
 				n,
 				expFrame,
 				Collections.<WtNode> emptyList());
 		
-		log.setSuccess(true);
+		if (log != null)
+			log.setSuccess(true);
 		
 		return result;
 	}
@@ -0,0 +1,550 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sweble.wikitext.engine.nodes.EngLogProcessingPass;
+import org.sweble.wikitext.engine.nodes.EngPage;
+import org.sweble.wikitext.engine.nodes.EngProcessedPage;
+import org.sweble.wikitext.engine.nodes.EngineNodeFactory;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtNodeList;
+import org.sweble.wikitext.parser.nodes.WtSection;
+
+import de.fau.cs.osr.ptk.common.Warning;
+import de.fau.cs.osr.ptk.common.ast.AstLocation;
+
+/**
+ * Processes a page such that an edit of the page only requires the
+ * top-level sections touched by the edit to be processed again.
+ * 
+ * The wikitext of a page is split into chunks at the headings of the
+ * outermost section level. The first chunk holds the text before the first
+ * of these headings. Every chunk is processed on its own and the top-level
+ * nodes of all chunks make up the page. When the page is edited, only the
+ * chunks that overlap the edit are processed again. The nodes of all other
+ * chunks are taken over from the previous page. If the engine has an
+ * {@link ExpansionResultCache}, the re-processed chunks also reuse the
+ * expansions of the previous pass.
+ * 
+ * A page is processed as a whole if a chunk boundary would cut through a
+ * structure: an unclosed table, template, comment, HTML element, tag
+ * extension or nowiki region, or a template that produces a heading of an
+ * outer level. An edit falls back to processing the whole page in the same
+ * cases, and also if it changes the outermost section level.
+ * 
+ * The previous page is consumed by
+ * {@link #reprocess(PageId, EngProcessedPage, WikitextEdit, ExpansionCallback)}:
+ * the unchanged nodes are moved into the new page. Their native locations
+ * are shifted if the edit changed the number of lines before them.
+ * Warnings are kept per chunk. Their spans refer to lines relative to the
+ * start of their chunk.
+ */
+public class IncrementalPostprocessor
+{
+	public static final String ATTR_NAME = "incremental";
+	
+	private static final Pattern HEADING =
+			Pattern.compile("^(=+)(.*?)(=+)[ \\t]*$", Pattern.MULTILINE);
+	
+	private static final Pattern TABLE_OPEN =
+			Pattern.compile("^[ \\t]*\\{\\|", Pattern.MULTILINE);
+	
+	private static final Pattern TABLE_CLOSE =
+			Pattern.compile("^[ \\t]*\\|\\}", Pattern.MULTILINE);
+	
+	private static final Pattern TAG =
+			Pattern.compile("<(/?)([a-zA-Z][a-zA-Z0-9]*)\\b([^<>]*?)(/?)>");
+	
+	/**
+	 * Elements that have no end tag or whose end tag may be omitted.
+	 */
+	private static final Set<String> NO_END_TAG = new HashSet<String>(Arrays.asList(
+			"area", "base", "br", "col", "dd", "dt", "hr", "img", "input",
+			"li", "link", "meta", "p", "param", "tbody", "td", "tfoot", "th",
+			"thead", "tr", "wbr"));
+	
+	private final WtEngineImpl engine;
+	
+	// =========================================================================
+	
+	public IncrementalPostprocessor(WtEngineImpl engine)
+	{
+		this.engine = engine;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Processes a page like
+	 * {@link WtEngineImpl#postprocess(PageId, String, ExpansionCallback)}
+	 * does, but chunk by chunk. The returned page can be passed to
+	 * {@link #reprocess(PageId, EngProcessedPage, WikitextEdit, ExpansionCallback)}.
+	 */
+	public EngProcessedPage postprocess(
+			PageId pageId,
+			String wikitext,
+			ExpansionCallback callback)
+			throws EngineException
+	{
+		Split split = split(wikitext);
+		if (split != null)
+		{
+			int[] starts = split.starts;
+			int[] lines = lineOffsets(wikitext, starts);
+			
+			Chunk[] chunks = new Chunk[starts.length];
+			for (int i = 0; i < starts.length; ++i)
+			{
+				chunks[i] = processChunk(pageId, wikitext, starts, lines, i, split.level, callback);
+				if (chunks[i] == null)
+					return processWhole(pageId, wikitext, callback);
+			}
+			
+			return assemble(pageId, wikitext, split.level, starts, chunks);
+		}
+		
+		return processWhole(pageId, wikitext, callback);
+	}
+	
+	/**
+	 * Applies an edit to a page that was processed by this class. Only the
+	 * chunks that overlap the edit are processed again.
+	 */
+	public EngProcessedPage reprocess(
+			PageId pageId,
+			EngProcessedPage previous,
+			WikitextEdit edit,
+			ExpansionCallback callback)
+			throws EngineException
+	{
+		Layout old = (Layout) previous.getAttribute(ATTR_NAME);
+		if (old == null)
+			throw new IllegalArgumentException(
+					"The previous page was not processed incrementally");
+		
+		String wikitext = edit.apply(old.source);
+		
+		if (old.level == 0)
+			return postprocess(pageId, wikitext, callback);
+		
+		Split split = split(wikitext);
+		if (split == null || split.level != old.level)
+			return postprocess(pageId, wikitext, callback);
+		
+		int[] starts = split.starts;
+		int oldCount = old.starts.length;
+		int newCount = starts.length;
+		
+		// Leading chunks that end before the edit are unchanged. A chunk that
+		// ends where the edit starts gets the inserted text appended.
+		int prefix = 0;
+		while (prefix < oldCount
+				&& prefix < newCount
+				&& old.starts[prefix] == starts[prefix]
+				&& end(old.starts, prefix, old.source) < edit.getStart()
+				&& end(starts, prefix, wikitext) == end(old.starts, prefix, old.source))
+			++prefix;
+		
+		// Trailing chunks that start after the edit are only shifted.
+		int suffix = 0;
+		while (suffix < oldCount - prefix && suffix < newCount - prefix)
+		{
+			int o = oldCount - 1 - suffix;
+			int n = newCount - 1 - suffix;
+			if (old.starts[o] < edit.getEnd()
+					|| starts[n] != old.starts[o] + edit.getDelta())
+				break;
+			++suffix;
+		}
+		
+		int[] lines = lineOffsets(wikitext, starts);
+		int[] oldLines = lineOffsets(old.source, old.starts);
+		
+		Chunk[] chunks = new Chunk[newCount];
+		for (int i = prefix; i < newCount - suffix; ++i)
+		{
+			chunks[i] = processChunk(pageId, wikitext, starts, lines, i, split.level, callback);
+			if (chunks[i] == null)
+				return postprocess(pageId, wikitext, callback);
+		}
+		
+		int[] firstChild = new int[oldCount];
+		for (int i = 1; i < oldCount; ++i)
+			firstChild[i] = firstChild[i - 1] + old.counts[i - 1];
+		
+		EngPage oldPage = previous.getPage();
+		for (int i = 0; i < prefix; ++i)
+			chunks[i] = reuse(oldPage, old, firstChild, i, 0);
+		
+		for (int k = 0; k < suffix; ++k)
+		{
+			int o = oldCount - suffix + k;
+			int n = newCount - suffix + k;
+			chunks[n] = reuse(oldPage, old, firstChild, o, lines[n] - oldLines[o]);
+		}
+		
+		return assemble(pageId, wikitext, split.level, starts, chunks);
+	}
+	
+	// =========================================================================
+	
+	private EngProcessedPage processWhole(
+			PageId pageId,
+			String wikitext,
+			ExpansionCallback callback)
+			throws EngineException
+	{
+		EngProcessedPage page = engine.postprocess(pageId, wikitext, callback);
+		
+		List<List<Warning>> warnings = new ArrayList<List<Warning>>();
+		warnings.add(page.getWarnings());
+		
+		page.setAttribute(ATTR_NAME, new Layout(
+				wikitext,
+				0,
+				new int[] { 0 },
+				new int[] { page.getPage().size() },
+				warnings));
+		
+		return page;
+	}
+	
+	/**
+	 * @return The processed chunk or null if the chunk cannot be processed on
+	 *         its own.
+	 */
+	private Chunk processChunk(
+			PageId pageId,
+			String wikitext,
+			int[] starts,
+			int[] lines,
+			int i,
+			int level,
+			ExpansionCallback callback)
+			throws EngineException
+	{
+		String text = wikitext.substring(starts[i], end(starts, i, wikitext));
+		if (!isSelfContained(text))
+			return null;
+		
+		EngProcessedPage page = engine.postprocess(pageId, text, callback);
+		
+		List<WtNode> nodes = new ArrayList<WtNode>(page.getPage());
+		for (WtNode n : nodes)
+		{
+			// A template produced a section that would enclose the
+			// following chunks.
+			if (n instanceof WtSection && ((WtSection) n).getLevel() < level)
+				return null;
+		}
+		
+		if (lines[i] != 0)
+		{
+			for (WtNode n : nodes)
+				shiftLines(n, lines[i]);
+		}
+		
+		return new Chunk(nodes, page.getWarnings(), page.getLog());
+	}
+	
+	private static Chunk reuse(
+			EngPage page,
+			Layout layout,
+			int[] firstChild,
+			int i,
+			int lineDelta)
+	{
+		int from = firstChild[i];
+		List<WtNode> nodes = new ArrayList<WtNode>(
+				page.subList(from, from + layout.counts[i]));
+		
+		if (lineDelta != 0)
+		{
+			for (WtNode n : nodes)
+				shiftLines(n, lineDelta);
+		}
+		
+		return new Chunk(nodes, layout.warnings.get(i), null);
+	}
+	
+	private EngProcessedPage assemble(
+			PageId pageId,
+			String wikitext,
+			int level,
+			int[] starts,
+			Chunk[] chunks)
+	{
+		EngineNodeFactory nf = engine.nf();
+		
+		EngLogProcessingPass log = nf.logProcessingPass();
+		log.setTitle(pageId.getTitle().getDenormalizedFullTitle());
+		log.setRevision(pageId.getRevision());
+		
+		WtNodeList content = nf.list();
+		List<Warning> warnings = new ArrayList<Warning>();
+		
+		int[] counts = new int[chunks.length];
+		List<List<Warning>> chunkWarnings = new ArrayList<List<Warning>>();
+		for (int i = 0; i < chunks.length; ++i)
+		{
+			Chunk chunk = chunks[i];
+			content.addAll(chunk.nodes);
+			warnings.addAll(chunk.warnings);
+			counts[i] = chunk.nodes.size();
+			chunkWarnings.add(chunk.warnings);
+			if (chunk.log != null)
+				log.add(chunk.log);
+		}
+		
+		EngProcessedPage page = nf.processedPage(nf.page(content), log, warnings);
+		
+		page.setAttribute(ATTR_NAME, new Layout(
+				wikitext,
+				level,
+				starts,
+				counts,
+				chunkWarnings));
+		
+		return page;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Finds the chunk boundaries.
+	 * 
+	 * @return The boundaries or null if the wikitext has no headings.
+	 */
+	private static Split split(String wikitext)
+	{
+		List<int[]> headings = new ArrayList<int[]>();
+		int level = Integer.MAX_VALUE;
+		
+		Matcher m = HEADING.matcher(wikitext);
+		while (m.find())
+		{
+			int l = Math.min(6, Math.min(m.group(1).length(), m.group(3).length()));
+			headings.add(new int[] { m.start(), l });
+			level = Math.min(level, l);
+		}
+		
+		if (headings.isEmpty())
+			return null;
+		
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		for (int[] h : headings)
+		{
+			if (h[1] == level && h[0] > 0)
+				starts.add(h[0]);
+		}
+		
+		int[] result = new int[starts.size()];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = starts.get(i);
+		
+		return new Split(level, result);
+	}
+	
+	private static int end(int[] starts, int i, String wikitext)
+	{
+		return (i + 1 < starts.length) ? starts[i + 1] : wikitext.length();
+	}
+	
+	/**
+	 * Returns the number of lines before each chunk.
+	 */
+	private static int[] lineOffsets(String wikitext, int[] starts)
+	{
+		int[] lines = new int[starts.length];
+		int line = 0;
+		int pos = 0;
+		for (int i = 0; i < starts.length; ++i)
+		{
+			for (; pos < starts[i]; ++pos)
+			{
+				if (wikitext.charAt(pos) == '\n')
+					++line;
+			}
+			lines[i] = line;
+		}
+		return lines;
+	}
+	
+	/**
+	 * Whether the given text does not open a structure that it doesn't
+	 * close or close a structure that it didn't open.
+	 */
+	private static boolean isSelfContained(String text)
+	{
+		if (count(text, "{{") != count(text, "}}"))
+			return false;
+		
+		if (count(text, "<!--") != count(text, "-->"))
+			return false;
+		
+		if (count(TABLE_OPEN, text) != count(TABLE_CLOSE, text))
+			return false;
+		
+		Map<String, Integer> open = new HashMap<String, Integer>();
+		
+		Matcher m = TAG.matcher(text);
+		while (m.find())
+		{
+			String name = m.group(2).toLowerCase();
+			if (NO_END_TAG.contains(name) || !m.group(4).isEmpty())
+				continue;
+			
+			Integer n = open.get(name);
+			int c = (n == null) ? 0 : n;
+			if (m.group(1).isEmpty())
+			{
+				++c;
+			}
+			else if (--c < 0)
+			{
+				return false;
+			}
+			open.put(name, c);
+		}
+		
+		for (int c : open.values())
+		{
+			if (c != 0)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static int count(String text, String s)
+	{
+		int count = 0;
+		int i = text.indexOf(s);
+		while (i != -1)
+		{
+			++count;
+			i = text.indexOf(s, i + s.length());
+		}
+		return count;
+	}
+	
+	private static int count(Pattern p, String text)
+	{
+		int count = 0;
+		Matcher m = p.matcher(text);
+		while (m.find())
+			++count;
+		return count;
+	}
+	
+	private static void shiftLines(WtNode node, int delta)
+	{
+		AstLocation l = node.getNativeLocation();
+		if (l != null)
+			node.setNativeLocation(new AstLocation(l.getFile(), l.getLine() + delta, l.getColumn()));
+		
+		for (WtNode n : node)
+			shiftLines(n, delta);
+	}
+	
+	// =========================================================================
+	
+	private static final class Split
+	{
+		final int level;
+		
+		final int[] starts;
+		
+		public Split(int level, int[] starts)
+		{
+			this.level = level;
+			this.starts = starts;
+		}
+	}
+	
+	private static final class Chunk
+	{
+		final List<WtNode> nodes;
+		
+		final List<Warning> warnings;
+		
+		final EngLogProcessingPass log;
+		
+		public Chunk(
+				List<WtNode> nodes,
+				List<Warning> warnings,
+				EngLogProcessingPass log)
+		{
+			this.nodes = nodes;
+			this.warnings = warnings;
+			this.log = log;
+		}
+	}
+	
+	/**
+	 * Attached to pages processed by this class.
+	 */
+	private static final class Layout
+			implements
+				Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		final String source;
+		
+		/**
+		 * The outermost section level or 0 if the page is a single chunk.
+		 */
+		final int level;
+		
+		final int[] starts;
+		
+		/**
+		 * The number of top-level nodes of each chunk.
+		 */
+		final int[] counts;
+		
+		final List<List<Warning>> warnings;
+		
+		public Layout(
+				String source,
+				int level,
+				int[] starts,
+				int[] counts,
+				List<List<Warning>> warnings)
+		{
+			this.source = source;
+			this.level = level;
+			this.starts = starts;
+			this.counts = counts;
+			this.warnings = warnings;
+		}
+	}
+}
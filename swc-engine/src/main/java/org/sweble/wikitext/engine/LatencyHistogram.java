@@ -0,0 +1,156 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * 
+ * Durations are sorted into log-linear buckets: every power of two is split
+ * into {@link #SUB_BUCKETS} equally sized buckets. Percentiles are therefore
+ * accurate to within 1 / SUB_BUCKETS of the actual value. Recording a value
+ * costs a handful of atomic increments and never allocates.
+ * 
+ * The article cruncher's telemetry has a histogram with the same bucket
+ * layout but 16 buckets per power of two. This one is coarser because
+ * {@link EngineMetrics} keeps a histogram for every template and parser
+ * function it sees, each of which costs about 4 KB this way.
+ */
+final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	// =========================================================================
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	private final AtomicLong count = new AtomicLong();
+	
+	private final AtomicLong totalNanos = new AtomicLong();
+	
+	private final AtomicLong maxNanos = new AtomicLong();
+	
+	// =========================================================================
+	
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		
+		long max;
+		while (nanos > (max = maxNanos.get()))
+		{
+			if (maxNanos.compareAndSet(max, nanos))
+				break;
+		}
+	}
+	
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; ++i)
+			counts.set(i, 0);
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	
+	// =========================================================================
+	
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	public long getTotalNanos()
+	{
+		return totalNanos.get();
+	}
+	
+	public long getMaxNanos()
+	{
+		return maxNanos.get();
+	}
+	
+	/**
+	 * @param p
+	 *            The percentile in the range [0, 1].
+	 * @return The upper bound of the bucket that contains the given
+	 *         percentile or 0 if nothing was recorded yet.
+	 */
+	public long getPercentile(double p)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		
+		if (total == 0)
+			return 0;
+		
+		long rank = (long) Math.ceil(p * total);
+		if (rank < 1)
+			rank = 1;
+		
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+		{
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), getMaxNanos());
+		}
+		
+		return getMaxNanos();
+	}
+	
+	// =========================================================================
+	
+	static int bucketOf(long nanos)
+	{
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+		
+		int msb = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = msb - SUB_BUCKET_BITS;
+		int sub = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+	
+	static long upperBoundOf(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lower = (SUB_BUCKETS + sub) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -18,7 +18,10 @@
 package org.sweble.wikitext.engine;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlTransient;
@@ -40,6 +43,37 @@ public abstract class ParserFunctionBase
 {
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * The ids of the built-in parser functions and magic words whose result
+	 * depends on more than their arguments. Kept in one place so that the
+	 * {@link ExpansionResultCache} cannot miss one by accident.
+	 */
+	private static final Set<String> FRAME_DEPENDENT = new HashSet<String>(Arrays.asList(
+			// The title of the page that is being rendered
+			"fullpagename",
+			"fullpagenamee",
+			"pagename",
+			"pagenamee",
+			"basepagename",
+			"subjectpagename",
+			"talkpagename",
+			"namespace",
+			"subjectspace",
+			"talkspace",
+			// The current date and time
+			"currentyear",
+			"currentmonth",
+			"currentday",
+			"time",
+			// Other pages and the callback of the frame
+			"ifexist",
+			"filepath",
+			// Properties of the page that is being rendered
+			"protectionlevel",
+			"defaultsort"));
+	
+	// =========================================================================
+	
 	private final String id;
 	
 	private final PfnArgumentMode argMode;
@@ -147,6 +181,23 @@ public abstract class ParserFunctionBase
 		return pageSwitch;
 	}
 	
+	/**
+	 * Returns whether the result of this parser function depends on more
+	 * than its arguments, e.g. on the title of the page that is being
+	 * rendered, the current time or on whether some other page exists.
+	 * 
+	 * The expansion of a transclusion which (indirectly) invokes a frame
+	 * dependent parser function will not be memoized by the
+	 * {@link ExpansionResultCache}. Parser functions that access the
+	 * expansion frame for anything but expanding their arguments MUST be
+	 * listed in {@link #FRAME_DEPENDENT} or, if they are not built in,
+	 * override this method and return true.
+	 */
+	public boolean isFrameDependent()
+	{
+		return FRAME_DEPENDENT.contains(id);
+	}
+	
 	protected EngineNodeFactory nf()
 	{
 		return nf;
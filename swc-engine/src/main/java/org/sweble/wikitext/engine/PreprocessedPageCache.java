@@ -0,0 +1,232 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.ArrayList;
+
+import org.sweble.wikitext.parser.WtEntityMap;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.nodes.WtPage;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+
+import de.fau.cs.osr.ptk.common.Warning;
+
+/**
+ * A thread-safe, size-bounded cache of validated and preprocessed pages.
+ * 
+ * The engine consults this cache whenever a page is pulled in for
+ * transclusion or redirection. Cached ASTs are never handed out directly
+ * since the expansion process alters the AST in place. Instead every hit
+ * yields a deep copy of the cached AST which is considerably cheaper than
+ * validating and preprocessing the page's wikitext again.
+ * 
+ * The cache is split into a number of segments, each of which is a weighted
+ * LRU list guarded by its own lock. The weight of an entry is the length of
+ * the wikitext from which the AST was generated.
+ */
+public class PreprocessedPageCache
+{
+	private static final int DEFAULT_SEGMENT_COUNT = 16;
+	
+	// =========================================================================
+	
+	private final SegmentedLruCache<Key, WtPreproWikitextPage> cache;
+	
+	// =========================================================================
+	
+	/**
+	 * @param maxWeight
+	 *            The maximum accumulated length of the wikitext of all cached
+	 *            pages.
+	 */
+	public PreprocessedPageCache(long maxWeight)
+	{
+		this(maxWeight, DEFAULT_SEGMENT_COUNT);
+	}
+	
+	public PreprocessedPageCache(long maxWeight, int segmentCount)
+	{
+		this.cache = new SegmentedLruCache<Key, WtPreproWikitextPage>(
+				maxWeight,
+				segmentCount);
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Retrieves a copy of a cached preprocessed page.
+	 * 
+	 * @param entityMap
+	 *            The entity map the returned copy will be attached to. If
+	 *            null, a fresh entity map is attached.
+	 * @return A private copy of the cached AST or null if the page is not in
+	 *         the cache.
+	 */
+	public WtPreproWikitextPage retrieve(
+			PageId pageId,
+			boolean forInclusion,
+			WtEntityMap entityMap)
+	{
+		WtPreproWikitextPage cached = cache.get(new Key(pageId, forInclusion));
+		if (cached == null)
+			return null;
+		
+		WtPreproWikitextPage copy =
+				(WtPreproWikitextPage) cached.deepCloneWrapException();
+		
+		copy.setWarnings(new ArrayList<Warning>(cached.getWarnings()));
+		
+		copy.setEntityMap((entityMap != null) ? entityMap : new WtEntityMapImpl());
+		
+		return copy;
+	}
+	
+	/**
+	 * Stores a preprocessed page in the cache. The cache takes a copy of the
+	 * given AST. The caller is free to alter the given AST afterwards.
+	 * 
+	 * @param weight
+	 *            The weight of the entry, usually the length of the wikitext
+	 *            of the page.
+	 */
+	public void store(
+			PageId pageId,
+			boolean forInclusion,
+			WtPreproWikitextPage ppAst,
+			long weight)
+	{
+		Key key = new Key(pageId, forInclusion);
+		if (!cache.accepts(key, weight))
+			return;
+		
+		WtPreproWikitextPage copy =
+				(WtPreproWikitextPage) ppAst.deepCloneWrapException();
+		
+		// Entities have already been substituted by the preprocessor. Don't
+		// keep the entity map of the page that triggered the transclusion alive.
+		copy.setEntityMap(WtPage.NO_ENTITIES);
+		
+		copy.setWarnings(new ArrayList<Warning>(ppAst.getWarnings()));
+		
+		cache.put(key, copy, weight);
+	}
+	
+	public void clear()
+	{
+		cache.clear();
+	}
+	
+	// =========================================================================
+	
+	public long getMaxWeight()
+	{
+		return cache.getMaxWeight();
+	}
+	
+	public long getWeight()
+	{
+		return cache.getWeight();
+	}
+	
+	public int getSize()
+	{
+		return cache.getSize();
+	}
+	
+	public long getHits()
+	{
+		return cache.getHits();
+	}
+	
+	public long getMisses()
+	{
+		return cache.getMisses();
+	}
+	
+	public long getEvictions()
+	{
+		return cache.getEvictions();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format(
+				"PreprocessedPageCache(size=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d)",
+				getSize(),
+				getWeight(),
+				getMaxWeight(),
+				getHits(),
+				getMisses(),
+				getEvictions());
+	}
+	
+	// =========================================================================
+	
+	private static final class Key
+	{
+		private final PageTitle title;
+		
+		private final long revision;
+		
+		private final boolean forInclusion;
+		
+		private final int hash;
+		
+		public Key(PageId pageId, boolean forInclusion)
+		{
+			this.title = pageId.getTitle();
+			this.revision = pageId.getRevision();
+			this.forInclusion = forInclusion;
+			
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + title.hashCode();
+			result = prime * result + (int) (revision ^ (revision >>> 32));
+			result = prime * result + (forInclusion ? 1231 : 1237);
+			this.hash = result;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			if (hash != other.hash)
+				return false;
+			if (revision != other.revision)
+				return false;
+			if (forInclusion != other.forInclusion)
+				return false;
+			if (!title.equals(other.title))
+				return false;
+			return true;
+		}
+	}
+}
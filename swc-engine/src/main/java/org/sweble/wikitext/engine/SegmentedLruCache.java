@@ -0,0 +1,223 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, weight-bounded LRU map. The map is split into a number of
+ * segments, each of which is an LRU list guarded by its own lock.
+ */
+final class SegmentedLruCache<K, V>
+{
+	private final Segment<K, V>[] segments;
+	
+	private final long maxWeight;
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	private final AtomicLong evictions = new AtomicLong();
+	
+	// =========================================================================
+	
+	@SuppressWarnings("unchecked")
+	public SegmentedLruCache(long maxWeight, int segmentCount)
+	{
+		if (maxWeight < 0 || segmentCount < 1)
+			throw new IllegalArgumentException();
+		
+		this.maxWeight = maxWeight;
+		this.segments = new Segment[segmentCount];
+		
+		long segmentWeight = (maxWeight + segmentCount - 1) / segmentCount;
+		for (int i = 0; i < segmentCount; ++i)
+			segments[i] = new Segment<K, V>(segmentWeight);
+	}
+	
+	// =========================================================================
+	
+	public V get(K key)
+	{
+		V value = segmentFor(key).get(key);
+		if (value == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return value;
+	}
+	
+	/**
+	 * @return False if the value is heavier than a whole segment and was
+	 *         therefore not stored.
+	 */
+	public boolean put(K key, V value, long weight)
+	{
+		Segment<K, V> segment = segmentFor(key);
+		if (weight > segment.maxWeight)
+			return false;
+		
+		evictions.addAndGet(segment.put(key, value, weight));
+		return true;
+	}
+	
+	/**
+	 * @return True if the value would be stored by put().
+	 */
+	public boolean accepts(K key, long weight)
+	{
+		return weight <= segmentFor(key).maxWeight;
+	}
+	
+	public void clear()
+	{
+		for (Segment<K, V> segment : segments)
+			segment.clear();
+	}
+	
+	// =========================================================================
+	
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+	
+	public long getWeight()
+	{
+		long weight = 0;
+		for (Segment<K, V> segment : segments)
+			weight += segment.getWeight();
+		return weight;
+	}
+	
+	public int getSize()
+	{
+		int size = 0;
+		for (Segment<K, V> segment : segments)
+			size += segment.getSize();
+		return size;
+	}
+	
+	public long getHits()
+	{
+		return hits.get();
+	}
+	
+	public long getMisses()
+	{
+		return misses.get();
+	}
+	
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+	
+	// =========================================================================
+	
+	private Segment<K, V> segmentFor(K key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7FFFFFFF) % segments.length];
+	}
+	
+	// =========================================================================
+	
+	private static final class CacheEntry<V>
+	{
+		private final V value;
+		
+		private final long weight;
+		
+		public CacheEntry(V value, long weight)
+		{
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+	
+	// =========================================================================
+	
+	private static final class Segment<K, V>
+	{
+		private final long maxWeight;
+		
+		private final LinkedHashMap<K, CacheEntry<V>> lru =
+				new LinkedHashMap<K, CacheEntry<V>>(64, 0.75f, true /* access order */);
+		
+		private long weight = 0;
+		
+		public Segment(long maxWeight)
+		{
+			this.maxWeight = maxWeight;
+		}
+		
+		public synchronized V get(K key)
+		{
+			CacheEntry<V> e = lru.get(key);
+			return (e != null) ? e.value : null;
+		}
+		
+		/**
+		 * @return The number of evicted entries.
+		 */
+		public synchronized int put(K key, V value, long w)
+		{
+			CacheEntry<V> old = lru.put(key, new CacheEntry<V>(value, w));
+			if (old != null)
+				weight -= old.weight;
+			weight += w;
+			
+			int evicted = 0;
+			Iterator<Entry<K, CacheEntry<V>>> i = lru.entrySet().iterator();
+			while (weight > maxWeight && i.hasNext())
+			{
+				Entry<K, CacheEntry<V>> eldest = i.next();
+				if (eldest.getKey().equals(key))
+					continue;
+				
+				weight -= eldest.getValue().weight;
+				i.remove();
+				++evicted;
+			}
+			
+			return evicted;
+		}
+		
+		public synchronized void clear()
+		{
+			lru.clear();
+			weight = 0;
+		}
+		
+		public synchronized long getWeight()
+		{
+			return weight;
+		}
+		
+		public synchronized int getSize()
+		{
+			return lru.size();
+		}
+	}
+}
@@ -97,6 +97,16 @@ public abstract class TagExtensionBase
 		return id;
 	}
 	
+	/**
+	 * Returns whether the result of this tag extension depends on more than
+	 * its attributes and body. See
+	 * {@link ParserFunctionBase#isFrameDependent()}.
+	 */
+	public boolean isFrameDependent()
+	{
+		return false;
+	}
+	
 	protected EngineNodeFactory nf()
 	{
 		return nf;
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+/**
+ * Replacement of the range [start, end) of a wikitext with another text.
+ */
+public final class WikitextEdit
+{
+	private final int start;
+	
+	private final int end;
+	
+	private final String replacement;
+	
+	// =========================================================================
+	
+	public WikitextEdit(int start, int end, String replacement)
+	{
+		if (replacement == null)
+			throw new NullPointerException();
+		if (start < 0 || end < start)
+			throw new IllegalArgumentException();
+		
+		this.start = start;
+		this.end = end;
+		this.replacement = replacement;
+	}
+	
+	/**
+	 * Computes the smallest edit that turns the old text into the new text.
+	 */
+	public static WikitextEdit diff(String oldText, String newText)
+	{
+		int max = Math.min(oldText.length(), newText.length());
+		
+		int prefix = 0;
+		while (prefix < max && oldText.charAt(prefix) == newText.charAt(prefix))
+			++prefix;
+		
+		int suffix = 0;
+		while (suffix < max - prefix
+				&& oldText.charAt(oldText.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix))
+			++suffix;
+		
+		return new WikitextEdit(
+				prefix,
+				oldText.length() - suffix,
+				newText.substring(prefix, newText.length() - suffix));
+	}
+	
+	// =========================================================================
+	
+	public int getStart()
+	{
+		return start;
+	}
+	
+	public int getEnd()
+	{
+		return end;
+	}
+	
+	public String getReplacement()
+	{
+		return replacement;
+	}
+	
+	/**
+	 * The change in length of the text caused by this edit.
+	 */
+	public int getDelta()
+	{
+		return replacement.length() - (end - start);
+	}
+	
+	public String apply(String text)
+	{
+		if (end > text.length())
+			throw new IllegalArgumentException("Edit exceeds the text");
+		
+		return text.substring(0, start) + replacement + text.substring(end);
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String toString()
+	{
+		return "WikitextEdit [start=" + start + ", end=" + end + ", replacement=" + replacement + "]";
+	}
+}
@@ -33,6 +33,16 @@ public interface WtEngine
 	
 	public void setCatchAll(boolean catchAll);
 	
+	public void setPreprocessedPageCache(
+			PreprocessedPageCache preprocessedPageCache);
+	
+	public void setExpansionResultCache(
+			ExpansionResultCache expansionResultCache);
+	
+	public void setMetrics(EngineMetrics metrics);
+	
+	public void setLogMode(EngineLogMode logMode);
+	
 	public WikiConfig getWikiConfig();
 	
 	public ExpansionDebugHooks getDebugHooks();
@@ -43,6 +53,14 @@ public interface WtEngine
 	
 	public boolean isCatchAll();
 	
+	public PreprocessedPageCache getPreprocessedPageCache();
+	
+	public ExpansionResultCache getExpansionResultCache();
+	
+	public EngineMetrics getMetrics();
+	
+	public EngineLogMode getLogMode();
+	
 	public EngineNodeFactory nf();
 	
 	/**
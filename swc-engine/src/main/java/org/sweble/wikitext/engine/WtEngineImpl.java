@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.sweble.wikitext.engine.EngineMetrics.Stage;
 import org.sweble.wikitext.engine.config.EngineConfig;
 import org.sweble.wikitext.engine.config.WikiConfig;
 import org.sweble.wikitext.engine.nodes.EngLogContainer;
@@ -45,7 +46,10 @@ import org.sweble.wikitext.parser.WikitextPostprocessor;
 import org.sweble.wikitext.parser.WikitextPreprocessor;
 import org.sweble.wikitext.parser.WtEntityMap;
 import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.WtLazyRtData;
+import org.sweble.wikitext.parser.WtLazyRtData.Reprocessor;
 import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtNodeList;
 import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
 import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
@@ -53,7 +57,6 @@ import org.sweble.wikitext.parser.parser.PreprocessorToParserTransformer;
 import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
 
 import de.fau.cs.osr.ptk.common.Warning;
-import de.fau.cs.osr.utils.StopWatch;
 
 public class WtEngineImpl
 		implements
@@ -77,6 +80,57 @@ public class WtEngineImpl
 	
 	private boolean catchAll = true;
 	
+	private PreprocessedPageCache preprocessedPageCache;
+	
+	private ExpansionResultCache expansionResultCache;
+	
+	private EngineMetrics metrics;
+	
+	private EngineLogMode logMode = EngineLogMode.FULL;
+	
+	private boolean fusedParsing = true;
+	
+	/**
+	 * The nesting depth of expansions on the current thread. Stage metrics
+	 * are only recorded for the page at depth 0.
+	 */
+	private final ThreadLocal<int[]> expansionDepth =
+			new ThreadLocal<int[]>()
+			{
+				@Override
+				protected int[] initialValue()
+				{
+					return new int[1];
+				}
+			};
+	
+	/**
+	 * The validator reuses its lexer and is therefore confined to a thread.
+	 */
+	private final ThreadLocal<WikitextEncodingValidator> validator =
+			new ThreadLocal<WikitextEncodingValidator>()
+			{
+				@Override
+				protected WikitextEncodingValidator initialValue()
+				{
+					return new WikitextEncodingValidator();
+				}
+			};
+	
+	private final WikitextPreprocessor preprocessor;
+	
+	private final WikitextParser parser;
+	
+	private final WikitextPostprocessor postprocessor;
+	
+	private final boolean gatherRtData;
+	
+	/**
+	 * Handed out with pages processed for transclusion or redirection if the
+	 * log mode is not FULL. Such logs are never attached to a log tree.
+	 */
+	private final EngLogProcessingPass emptyNestedLog;
+	
 	// =========================================================================
 	
 	public WtEngineImpl(WikiConfig wikiConfig)
@@ -85,6 +139,41 @@ public class WtEngineImpl
 		this.wikiConfig = wikiConfig;
 		this.parserConfig = wikiConfig.getParserConfig();
 		this.engineConfig = wikiConfig.getEngineConfig();
+		
+		this.preprocessor = new WikitextPreprocessor(parserConfig);
+		this.parser = new WikitextParser(parserConfig);
+		this.postprocessor = new WikitextPostprocessor(parserConfig);
+		this.gatherRtData = parserConfig.isGatherRtData();
+		
+		this.emptyNestedLog = nf().logProcessingPass();
+	}
+	
+	/**
+	 * Creates an engine that gathers RtData regardless of the configuration.
+	 * It has no caches, hooks or metrics and does not log.
+	 */
+	private WtEngineImpl(
+			WikiConfig wikiConfig,
+			boolean noRedirect,
+			boolean catchAll,
+			boolean fusedParsing)
+	{
+		super();
+		this.wikiConfig = wikiConfig;
+		this.parserConfig = wikiConfig.getParserConfig();
+		this.engineConfig = wikiConfig.getEngineConfig();
+		
+		this.preprocessor = new WikitextPreprocessor(parserConfig, true);
+		this.parser = new WikitextParser(parserConfig, true);
+		this.postprocessor = new WikitextPostprocessor(parserConfig);
+		this.gatherRtData = true;
+		
+		this.noRedirect = noRedirect;
+		this.catchAll = catchAll;
+		this.fusedParsing = fusedParsing;
+		this.logMode = EngineLogMode.OFF;
+		
+		this.emptyNestedLog = nf().logProcessingPass();
 	}
 	
 	// =========================================================================
@@ -109,6 +198,61 @@ public class WtEngineImpl
 		this.catchAll = catchAll;
 	}
 	
+	/**
+	 * Sets a cache for the preprocessed ASTs of pages that are pulled in for
+	 * transclusion or redirection. The cache may be shared by multiple engine
+	 * instances and threads. Pass null to disable caching.
+	 */
+	public void setPreprocessedPageCache(
+			PreprocessedPageCache preprocessedPageCache)
+	{
+		this.preprocessedPageCache = preprocessedPageCache;
+	}
+	
+	/**
+	 * Sets a cache for the expanded ASTs of transclusions. The cache may be
+	 * shared by multiple engine instances and threads. Pass null to disable
+	 * caching.
+	 */
+	public void setExpansionResultCache(
+			ExpansionResultCache expansionResultCache)
+	{
+		this.expansionResultCache = expansionResultCache;
+	}
+	
+	/**
+	 * Sets a registry which aggregates timings and sizes of the processing
+	 * stages and of all invocations of parser functions, tag extensions and
+	 * transclusions. The registry may be shared by multiple engine instances
+	 * and threads. Pass null to disable metrics.
+	 */
+	public void setMetrics(EngineMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Determines how much of the log tree is built while processing a page.
+	 * Defaults to {@link EngineLogMode#FULL}.
+	 */
+	public void setLogMode(EngineLogMode logMode)
+	{
+		if (logMode == null)
+			throw new NullPointerException();
+		this.logMode = logMode;
+	}
+	
+	/**
+	 * Determines whether the parser reads the expanded page as a list of
+	 * text windows and entity segments. Otherwise the page is rendered into
+	 * a string with encoded entities first. Both ways yield the same tree,
+	 * including locations. Defaults to true.
+	 */
+	public void setFusedParsing(boolean fusedParsing)
+	{
+		this.fusedParsing = fusedParsing;
+	}
+	
 	public WikiConfig getWikiConfig()
 	{
 		return wikiConfig;
@@ -134,6 +278,31 @@ public class WtEngineImpl
 		return catchAll;
 	}
 	
+	public PreprocessedPageCache getPreprocessedPageCache()
+	{
+		return preprocessedPageCache;
+	}
+	
+	public ExpansionResultCache getExpansionResultCache()
+	{
+		return expansionResultCache;
+	}
+	
+	public EngineMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	public EngineLogMode getLogMode()
+	{
+		return logMode;
+	}
+	
+	public boolean isFusedParsing()
+	{
+		return fusedParsing;
+	}
+	
 	public EngineNodeFactory nf()
 	{
 		return wikiConfig.getNodeFactory();
@@ -163,9 +332,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, false);
 		
 		WtPreproWikitextPage pprAst;
 		try
@@ -192,7 +359,7 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pprAst),
-				log,
+				pageLog(log),
 				pprAst.getWarnings());
 	}
 	
@@ -237,9 +404,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, false);
 		
 		WtPreproWikitextPage pAst;
 		try
@@ -267,7 +432,7 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pAst),
-				log,
+				pageLog(log),
 				pAst.getWarnings(),
 				pAst.getEntityMap());
 	}
@@ -295,9 +460,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, false);
 		
 		WtParsedWikitextPage pAst;
 		try
@@ -326,7 +489,7 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pAst),
-				log,
+				pageLog(log),
 				pAst.getWarnings());
 	}
 	
@@ -354,9 +517,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, false);
 		
 		WtParsedWikitextPage pAst;
 		try
@@ -385,10 +546,15 @@ public class WtEngineImpl
 			throw new EngineException(title, "Compilation failed!", e, log);
 		}
 		
-		return nf().processedPage(
+		EngProcessedPage page = nf().processedPage(
 				nf().page(pAst),
-				log,
+				pageLog(log),
 				pAst.getWarnings());
+		
+		if (!gatherRtData && parserConfig.isLazyRtData())
+			attachLazyRtData(page, pageId, wikitext, callback);
+		
+		return page;
 	}
 	
 	/**
@@ -410,9 +576,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, false);
 		
 		WtParsedWikitextPage pAst;
 		try
@@ -433,7 +597,7 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pAst),
-				log,
+				pageLog(log),
 				pAst.getWarnings());
 	}
 	
@@ -469,18 +633,25 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, true);
 		
 		WtPreproWikitextPage pprAst;
 		try
 		{
-			ValidatedWikitext validatedWikitext =
-					validate(title, wikitext, log, entityMap);
+			WtPreproWikitextPage ppAst = retrieveCachedPreprocessedPage(
+					pageId,
+					forInclusion,
+					entityMap);
 			
-			WtPreproWikitextPage ppAst =
-					preprocess(title, validatedWikitext, forInclusion, log);
+			if (ppAst == null)
+			{
+				ValidatedWikitext validatedWikitext =
+						validate(title, wikitext, log, entityMap);
+				
+				ppAst = preprocess(title, validatedWikitext, forInclusion, log);
+				
+				cachePreprocessedPage(pageId, forInclusion, ppAst, wikitext);
+			}
 			
 			pprAst = expand(
 					callback,
@@ -504,7 +675,7 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pprAst),
-				log,
+				nestedPageLog(log),
 				pprAst.getWarnings());
 	}
 	
@@ -527,9 +698,7 @@ public class WtEngineImpl
 		
 		PageTitle title = pageId.getTitle();
 		
-		EngLogProcessingPass log = nf().logProcessingPass();
-		log.setTitle(title.getDenormalizedFullTitle());
-		log.setRevision(pageId.getRevision());
+		EngLogProcessingPass log = newProcessingPassLog(pageId, true);
 		
 		WtPreproWikitextPage pprAst;
 		try
@@ -556,93 +725,274 @@ public class WtEngineImpl
 		
 		return nf().processedPage(
 				nf().page(pprAst),
-				log,
+				nestedPageLog(log),
 				pprAst.getWarnings());
 	}
 	
 	// =========================================================================
 	
+	/**
+	 * Records the wikitext of a page so that its RtData can be reconstructed
+	 * by processing the page again with RtData gathering enabled.
+	 */
+	private void attachLazyRtData(
+			EngProcessedPage page,
+			PageId pageId,
+			String wikitext,
+			ExpansionCallback callback)
+	{
+		WtLazyRtData.attach(
+				page.getPage(),
+				wikitext,
+				pageId.getTitle().getDenormalizedFullTitle(),
+				new LazyRtDataReprocessor(this, pageId.getRevision(), callback));
+	}
+	
+	/**
+	 * Processes a page once more with RtData gathering enabled. The page
+	 * keeps its reprocessor, which therefore only holds the configuration
+	 * and the settings the page was processed with, not the engine and its
+	 * caches. The source and the title are kept by the page's record. The
+	 * callback is kept as well, since an expanded page can only be
+	 * reproduced by expanding it again.
+	 */
+	private static final class LazyRtDataReprocessor
+			implements
+				Reprocessor
+	{
+		private final WikiConfig wikiConfig;
+		
+		private final boolean noRedirect;
+		
+		private final boolean catchAll;
+		
+		private final boolean fusedParsing;
+		
+		private final long revision;
+		
+		private final ExpansionCallback callback;
+		
+		public LazyRtDataReprocessor(
+				WtEngineImpl engine,
+				long revision,
+				ExpansionCallback callback)
+		{
+			this.wikiConfig = engine.wikiConfig;
+			this.noRedirect = engine.noRedirect;
+			this.catchAll = engine.catchAll;
+			this.fusedParsing = engine.fusedParsing;
+			this.revision = revision;
+			this.callback = callback;
+		}
+		
+		@Override
+		public WtNode reprocess(String source, String title) throws Exception
+		{
+			WtEngineImpl engine = new WtEngineImpl(
+					wikiConfig,
+					noRedirect,
+					catchAll,
+					fusedParsing);
+			
+			PageId pageId = new PageId(PageTitle.make(wikiConfig, title), revision);
+			
+			return engine.postprocess(pageId, source, callback).getPage();
+		}
+	}
+	
+	// =========================================================================
+	
+	private WtPreproWikitextPage retrieveCachedPreprocessedPage(
+			PageId pageId,
+			boolean forInclusion,
+			WtEntityMap entityMap)
+	{
+		PreprocessedPageCache cache = preprocessedPageCache;
+		if (cache == null)
+			return null;
+		
+		return cache.retrieve(pageId, forInclusion, entityMap);
+	}
+	
+	private void cachePreprocessedPage(
+			PageId pageId,
+			boolean forInclusion,
+			WtPreproWikitextPage ppAst,
+			String wikitext)
+	{
+		PreprocessedPageCache cache = preprocessedPageCache;
+		if (cache == null)
+			return;
+		
+		cache.store(pageId, forInclusion, ppAst, wikitext.length());
+	}
+	
+	private void recordStage(
+			Stage stage,
+			long startNanos,
+			long sizeIn,
+			long sizeOut,
+			WtNode ast)
+	{
+		EngineMetrics m = metrics;
+		if (m == null || expansionDepth.get()[0] > 0)
+			return;
+		
+		m.recordStage(stage, System.nanoTime() - startNanos, sizeIn, sizeOut, ast);
+	}
+	
+	/**
+	 * @param nested
+	 *            Whether the page is processed for transclusion or
+	 *            redirection. The logs of such pages are only attached to the
+	 *            log of the transcluding page in FULL mode.
+	 * @return A new processing pass log or null if no log is to be built.
+	 */
+	private EngLogProcessingPass newProcessingPassLog(
+			PageId pageId,
+			boolean nested)
+	{
+		if (logMode == EngineLogMode.OFF)
+			return null;
+		if (nested && logMode != EngineLogMode.FULL)
+			return null;
+		
+		EngLogProcessingPass log = nf().logProcessingPass();
+		log.setTitle(pageId.getTitle().getDenormalizedFullTitle());
+		log.setRevision(pageId.getRevision());
+		return log;
+	}
+	
+	/**
+	 * A processed page always carries a log, even if logging is turned off.
+	 */
+	private EngLogProcessingPass pageLog(EngLogProcessingPass log)
+	{
+		return (log != null) ? log : nf().logProcessingPass();
+	}
+	
+	private EngLogProcessingPass nestedPageLog(EngLogProcessingPass log)
+	{
+		return (log != null) ? log : emptyNestedLog;
+	}
+	
+	private void logUnhandledError(EngLogContainer log, Exception e)
+	{
+		if (log == null)
+			return;
+		
+		String dump;
+		if (logMode == EngineLogMode.FULL)
+		{
+			StringWriter w = new StringWriter();
+			e.printStackTrace(new PrintWriter(w));
+			dump = w.toString();
+		}
+		else
+		{
+			dump = e.toString();
+		}
+		
+		log.add(nf().logUnhandledError(e, dump));
+	}
+	
+	// =========================================================================
+	
 	/**
 	 * Validates wikitext.
 	 */
-	private ValidatedWikitext validate(
+	ValidatedWikitext validate(
 			PageTitle title,
 			String wikitext,
 			EngLogContainer parentLog,
 			WtEntityMap entityMap)
 			throws EngineException
 	{
-		EngLogValidatorPass log = nf().logValidatorPass();
-		parentLog.add(log);
+		EngLogValidatorPass log = null;
+		if (parentLog != null)
+		{
+			log = nf().logValidatorPass();
+			parentLog.add(log);
+		}
 		
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
+		long startNanos = System.nanoTime();
 		
 		try
 		{
-			WikitextEncodingValidator validator = new WikitextEncodingValidator();
-			
 			if (entityMap == null)
 				entityMap = new WtEntityMapImpl();
 			
-			ValidatedWikitext validatedWikitext = validator.validate(
+			ValidatedWikitext validatedWikitext = validator.get().validate(
 					parserConfig,
 					entityMap,
 					title.getDenormalizedFullTitle(),
 					wikitext);
 			
+			recordStage(
+					Stage.VALIDATION,
+					startNanos,
+					wikitext.length(),
+					validatedWikitext.getWikitext().length(),
+					null);
+			
 			return validatedWikitext;
 		}
 		catch (Exception e)
 		{
 			logger.error("Validation failed!", e);
 			
-			StringWriter w = new StringWriter();
-			e.printStackTrace(new PrintWriter(w));
-			log.add(nf().logUnhandledError(e, w.toString()));
+			logUnhandledError(log, e);
 			
 			throw new EngineException(title, "Validation failed!", e);
 		}
 		finally
 		{
-			stopWatch.stop();
-			log.setTimeNeeded(stopWatch.getElapsedTime());
+			if (log != null)
+				log.setTimeNeeded((System.nanoTime() - startNanos) / 1000000);
 		}
 	}
 	
 	/**
 	 * Preprocesses validated wikitext and substitutes entities.
 	 */
-	private WtPreproWikitextPage preprocess(
+	WtPreproWikitextPage preprocess(
 			PageTitle title,
 			ValidatedWikitext validatedWikitext,
 			boolean forInclusion,
 			EngLogContainer parentLog)
 			throws EngineException
 	{
-		EngLogPreprocessorPass log = nf().logPreprocessorPass();
-		parentLog.add(log);
-		
-		log.setForInclusion(forInclusion);
+		EngLogPreprocessorPass log = null;
+		if (parentLog != null)
+		{
+			log = nf().logPreprocessorPass();
+			log.setForInclusion(forInclusion);
+			parentLog.add(log);
+		}
 		
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
+		long startNanos = System.nanoTime();
 		
 		try
 		{
-			WikitextPreprocessor preprocessor = new WikitextPreprocessor(parserConfig);
-			
 			WtPreproWikitextPage preprocessedAst =
 					(WtPreproWikitextPage) preprocessor.parseArticle(
 							validatedWikitext,
 							title.getDenormalizedFullTitle(),
 							forInclusion);
 			
+			recordStage(
+					Stage.PREPROCESSING,
+					startNanos,
+					validatedWikitext.getWikitext().length(),
+					-1,
+					preprocessedAst);
+			
 			return preprocessedAst;
 		}
 		catch (xtc.parser.ParseException e)
 		{
-			log.add(nf().logParserError(e.getMessage()));
+			if (log != null)
+				log.add(nf().logParserError(e.getMessage()));
 			
 			throw new EngineException(title, "Preprocessing failed!", e);
 		}
@@ -650,16 +1000,14 @@ public class WtEngineImpl
 		{
 			logger.error("Preprocessing failed!", e);
 			
-			StringWriter w = new StringWriter();
-			e.printStackTrace(new PrintWriter(w));
-			log.add(nf().logUnhandledError(e, w.toString()));
+			logUnhandledError(log, e);
 			
 			throw new EngineException(title, "Preprocessing failed!", e);
 		}
 		finally
 		{
-			stopWatch.stop();
-			log.setTimeNeeded(stopWatch.getElapsedTime());
+			if (log != null)
+				log.setTimeNeeded((System.nanoTime() - startNanos) / 1000000);
 		}
 	}
 	
@@ -667,7 +1015,7 @@ public class WtEngineImpl
 	 * Starts the expansion process of a preprocessed page with the preprocessed
 	 * page as root of the expansion process.
 	 */
-	private WtPreproWikitextPage expand(
+	WtPreproWikitextPage expand(
 			ExpansionCallback callback,
 			PageTitle title,
 			WtPreproWikitextPage ppAst,
@@ -690,7 +1038,7 @@ public class WtEngineImpl
 	/**
 	 * Starts the expansion process of a preprocessed page.
 	 */
-	private WtPreproWikitextPage expand(
+	WtPreproWikitextPage expand(
 			ExpansionCallback callback,
 			PageTitle title,
 			WtPreproWikitextPage ppAst,
@@ -701,14 +1049,17 @@ public class WtEngineImpl
 			EngLogContainer parentLog)
 			throws EngineException
 	{
-		EngLogExpansionPass log = nf().logExpansionPass();
-		parentLog.add(log);
+		EngLogExpansionPass log = null;
+		if (parentLog != null)
+		{
+			log = nf().logExpansionPass();
+			parentLog.add(log);
+		}
 		
 		if (arguments == null)
 			arguments = new HashMap<String, WtNodeList>();
 		
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
+		long startNanos = System.nanoTime();
 		
 		try
 		{
@@ -716,6 +1067,11 @@ public class WtEngineImpl
 			List<Warning> warnings =
 					new LinkedList<Warning>(ppAst.getWarnings());
 			
+			// Only a full log records the resolution of each transclusion,
+			// parameter, parser function, etc.
+			EngLogContainer frameLog =
+					(logMode == EngineLogMode.FULL) ? log : null;
+			
 			ExpansionFrame frame;
 			if (rootFrame != null)
 			{
@@ -731,7 +1087,7 @@ public class WtEngineImpl
 						rootFrame,
 						parentFrame,
 						warnings,
-						log,
+						frameLog,
 						timingEnabled,
 						catchAll);
 			}
@@ -745,59 +1101,71 @@ public class WtEngineImpl
 						ppAst.getEntityMap(),
 						noRedirect,
 						warnings,
-						log,
+						frameLog,
 						timingEnabled,
 						catchAll);
 			}
 			
-			WtPreproWikitextPage expanded =
-					(WtPreproWikitextPage) frame.expand(ppAst);
+			int[] depth = expansionDepth.get();
+			
+			WtPreproWikitextPage expanded;
+			++depth[0];
+			try
+			{
+				expanded = (WtPreproWikitextPage) frame.expand(ppAst);
+			}
+			finally
+			{
+				--depth[0];
+			}
 			
 			if (!warnings.isEmpty())
 				ppAst.setWarnings(warnings);
 			
+			recordStage(Stage.EXPANSION, startNanos, -1, -1, expanded);
+			
 			return expanded;
 		}
 		catch (Exception e)
 		{
 			logger.error("Resolution failed!", e);
 			
-			StringWriter w = new StringWriter();
-			e.printStackTrace(new PrintWriter(w));
-			log.add(nf().logUnhandledError(e, w.toString()));
+			logUnhandledError(log, e);
 			
 			throw new EngineException(title, "Resolution failed!", e);
 		}
 		finally
 		{
-			stopWatch.stop();
-			log.setTimeNeeded(stopWatch.getElapsedTime());
+			if (log != null)
+				log.setTimeNeeded((System.nanoTime() - startNanos) / 1000000);
 		}
 	}
 	
 	/**
 	 * Parses a preprocessed page and substitutes entities.
 	 */
-	private WtParsedWikitextPage parse(
+	WtParsedWikitextPage parse(
 			PageTitle title,
 			WtPreproWikitextPage ppAst,
 			EngLogContainer parentLog)
 			throws EngineException
 	{
-		EngLogParserPass log = nf().logParserPass();
-		parentLog.add(log);
+		EngLogParserPass log = null;
+		if (parentLog != null)
+		{
+			log = nf().logParserPass();
+			parentLog.add(log);
+		}
 		
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
+		long startNanos = System.nanoTime();
 		
 		try
 		{
-			PreprocessedWikitext preprocessedWikitext =
-					PreprocessorToParserTransformer.transform(
-							ppAst,
-							engineConfig.isTrimTransparentBeforeParsing());
+			boolean trim = engineConfig.isTrimTransparentBeforeParsing();
 			
-			WikitextParser parser = new WikitextParser(parserConfig);
+			PreprocessedWikitext preprocessedWikitext = fusedParsing ?
+					PreprocessorToParserTransformer.transformToSegments(ppAst, trim) :
+					PreprocessorToParserTransformer.transform(ppAst, trim);
 			
 			WtParsedWikitextPage parsedAst =
 					(WtParsedWikitextPage) parser.parseArticle(
@@ -814,11 +1182,19 @@ public class WtEngineImpl
 				parsedAst.getWarnings().addAll(ppAst.getWarnings());
 			}
 			
+			recordStage(
+					Stage.PARSING,
+					startNanos,
+					preprocessedWikitext.length(),
+					-1,
+					parsedAst);
+			
 			return parsedAst;
 		}
 		catch (xtc.parser.ParseException e)
 		{
-			log.add(nf().logParserError(e.getMessage()));
+			if (log != null)
+				log.add(nf().logParserError(e.getMessage()));
 			
 			throw new EngineException(title, "Parsing failed!", e);
 		}
@@ -826,36 +1202,37 @@ public class WtEngineImpl
 		{
 			logger.error("Parsing failed!", e);
 			
-			StringWriter w = new StringWriter();
-			e.printStackTrace(new PrintWriter(w));
-			log.add(nf().logUnhandledError(e, w.toString()));
+			logUnhandledError(log, e);
 			
 			throw new EngineException(title, "Parsing failed!", e);
 		}
 		finally
 		{
-			stopWatch.stop();
-			log.setTimeNeeded(stopWatch.getElapsedTime());
+			if (log != null)
+				log.setTimeNeeded((System.nanoTime() - startNanos) / 1000000);
 		}
 	}
 	
-	private WtParsedWikitextPage postprocess(
+	WtParsedWikitextPage postprocess(
 			PageTitle title,
 			WtParsedWikitextPage pAst,
-			EngLogProcessingPass parentLog)
+			EngLogContainer parentLog)
 			throws EngineException
 	{
-		EngLogPostprocessorPass log = nf().logPostprocessorPass();
-		parentLog.add(log);
+		EngLogPostprocessorPass log = null;
+		if (parentLog != null)
+		{
+			log = nf().logPostprocessorPass();
+			parentLog.add(log);
+		}
 		
-		StopWatch stopWatch = new StopWatch();
-		stopWatch.start();
+		long startNanos = System.nanoTime();
 		
 		try
 		{
-			WikitextPostprocessor lpp = new WikitextPostprocessor(parserConfig);
+			pAst = (WtParsedWikitextPage) postprocessor.postprocess(pAst, title.getTitle());
 			
-			pAst = (WtParsedWikitextPage) lpp.postprocess(pAst, title.getTitle());
+			recordStage(Stage.POSTPROCESSING, startNanos, -1, -1, pAst);
 			
 			return pAst;
 		}
@@ -863,16 +1240,14 @@ public class WtEngineImpl
 		{
 			logger.error("Postprocessing failed!", e);
 			
-			StringWriter w = new StringWriter();
-			e.printStackTrace(new PrintWriter(w));
-			log.add(nf().logUnhandledError(e, w.toString()));
+			logUnhandledError(log, e);
 			
 			throw new EngineException(title, "Postprocessing failed!", e);
 		}
 		finally
 		{
-			stopWatch.stop();
-			log.setTimeNeeded(stopWatch.getElapsedTime());
+			if (log != null)
+				log.setTimeNeeded((System.nanoTime() - startNanos) / 1000000);
 		}
 	}
 }
@@ -50,6 +50,8 @@ import org.sweble.wikitext.parser.utils.AstTextUtils;
 		"minSeverity",
 		"autoCorrect",
 		"gatherRtData",
+		"lazyRtData",
+		"windowedTextNodes",
 		"internalLinkPrefixPattern",
 		"internalLinkPostfixPattern",
 		"jaxbAllowedUrlProtocols",
@@ -79,6 +81,12 @@ public class ParserConfigImpl
 	@XmlElement
 	private boolean gatherRtData;
 	
+	@XmlElement
+	private boolean lazyRtData;
+	
+	@XmlElement
+	private boolean windowedTextNodes;
+	
 	private final Set<String> allowedUrlProtocols = new HashSet<String>();
 	
 	@XmlElement
@@ -185,6 +193,28 @@ public class ParserConfigImpl
 		return gatherRtData;
 	}
 	
+	public void setLazyRtData(boolean lazyRtData)
+	{
+		this.lazyRtData = lazyRtData;
+	}
+	
+	@Override
+	public boolean isLazyRtData()
+	{
+		return lazyRtData;
+	}
+	
+	public void setWindowedTextNodes(boolean windowedTextNodes)
+	{
+		this.windowedTextNodes = windowedTextNodes;
+	}
+	
+	@Override
+	public boolean isWindowedTextNodes()
+	{
+		return windowedTextNodes;
+	}
+	
 	// ==[ AST creation ]=======================================================
 	
 	@Override
@@ -588,12 +618,14 @@ public class ParserConfigImpl
 		result = prime * result + ((allowedUrlProtocols == null) ? 0 : allowedUrlProtocols.hashCode());
 		result = prime * result + (autoCorrect ? 1231 : 1237);
 		result = prime * result + (gatherRtData ? 1231 : 1237);
+		result = prime * result + (lazyRtData ? 1231 : 1237);
 		result = prime * result + ((internalLinkPostfixPattern == null) ? 0 : internalLinkPostfixPattern.hashCode());
 		result = prime * result + ((internalLinkPrefixPattern == null) ? 0 : internalLinkPrefixPattern.hashCode());
 		result = prime * result + ((lctFlagMap == null) ? 0 : lctFlagMap.hashCode());
 		result = prime * result + ((lctVariantMap == null) ? 0 : lctVariantMap.hashCode());
 		result = prime * result + ((minSeverity == null) ? 0 : minSeverity.hashCode());
 		result = prime * result + (warningsEnabled ? 1231 : 1237);
+		result = prime * result + (windowedTextNodes ? 1231 : 1237);
 		result = prime * result + ((xmlEntities == null) ? 0 : xmlEntities.hashCode());
 		return result;
 	}
@@ -619,6 +651,8 @@ public class ParserConfigImpl
 			return false;
 		if (gatherRtData != other.gatherRtData)
 			return false;
+		if (lazyRtData != other.lazyRtData)
+			return false;
 		if (internalLinkPostfixPattern == null)
 		{
 			if (other.internalLinkPostfixPattern != null)
@@ -651,6 +685,8 @@ public class ParserConfigImpl
 			return false;
 		if (warningsEnabled != other.warningsEnabled)
 			return false;
+		if (windowedTextNodes != other.windowedTextNodes)
+			return false;
 		if (xmlEntities == null)
 		{
 			if (other.xmlEntities != null)
@@ -98,6 +98,8 @@ public class DefaultConfig
 		
 		pc.setAutoCorrect(false);
 		pc.setGatherRtData(true);
+		pc.setLazyRtData(false);
+		pc.setWindowedTextNodes(false);
 		pc.setMinSeverity(WarningSeverity.INFORMATIVE);
 		pc.setWarningsEnabled(true);
 		
@@ -24,10 +24,17 @@ import org.sweble.wikitext.engine.nodes.EngProcessedPage;
 import org.sweble.wikitext.engine.nodes.EngNowiki;
 import org.sweble.wikitext.engine.nodes.EngPage;
 import org.sweble.wikitext.engine.nodes.EngSoftErrorNode;
+import org.sweble.wikitext.parser.WtLazyRtData;
 import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtXmlElement;
 import org.sweble.wikitext.parser.utils.WtRtDataPrettyPrinter;
 
+/**
+ * Prints a processed page with the help of its RtData.
+ * 
+ * Like {@link WtRtDataPrettyPrinter}, this printer restores the RtData of
+ * pages processed in lazy RtData mode and thereby modifies the page.
+ */
 public class EngineRtDataPrettyPrinter
 		extends
 			WtRtDataPrettyPrinter
@@ -51,6 +58,7 @@ public class EngineRtDataPrettyPrinter
 	@Override
 	public void visit(EngProcessedPage n)
 	{
+		WtLazyRtData.restore(n.getPage());
 		dispatch(n.getPage());
 	}
 	
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.nodes.EngLogPass;
+import org.sweble.wikitext.engine.nodes.EngLogProcessingPass;
+import org.sweble.wikitext.engine.nodes.EngLogResolution;
+import org.sweble.wikitext.engine.nodes.EngProcessedPage;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+import org.sweble.wikitext.parser.nodes.WtNode;
+
+public class EngineLogModeTest
+{
+	private static final String WIKITEXT = "{{Hello|World}} and {{Hello}}";
+	
+	private final WikiConfig config = DefaultConfigEnWp.generate();
+	
+	// =========================================================================
+	
+	@Test
+	public void testFullLogRecordsResolutions() throws Exception
+	{
+		EngProcessedPage page = process(EngineLogMode.FULL);
+		
+		assertTrue(count(page.getLog(), EngLogResolution.class) > 0);
+		assertTrue(count(page.getLog(), EngLogProcessingPass.class) > 1);
+	}
+	
+	@Test
+	public void testSummaryLogOnlyRecordsPasses() throws Exception
+	{
+		EngProcessedPage page = process(EngineLogMode.SUMMARY);
+		
+		assertEquals("Page", page.getLog().getTitle());
+		// The processing pass and one pass per stage
+		assertEquals(6, count(page.getLog(), EngLogPass.class));
+		assertEquals(0, count(page.getLog(), EngLogResolution.class));
+	}
+	
+	@Test
+	public void testNoLogIsBuiltWhenLoggingIsOff() throws Exception
+	{
+		EngProcessedPage page = process(EngineLogMode.OFF);
+		
+		EngLogProcessingPass log = page.getLog();
+		assertNotNull(log);
+		assertEquals(1, count(log, WtNode.class));
+	}
+	
+	@Test
+	public void testLogModeDoesNotAffectTheResult() throws Exception
+	{
+		EngProcessedPage full = process(EngineLogMode.FULL);
+		EngProcessedPage off = process(EngineLogMode.OFF);
+		
+		assertEquals(full.getPage(), off.getPage());
+		assertEquals(full.getWarnings(), off.getWarnings());
+	}
+	
+	// =========================================================================
+	
+	private EngProcessedPage process(EngineLogMode mode) throws Exception
+	{
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setLogMode(mode);
+		
+		PageId pageId = new PageId(PageTitle.make(config, "Page"), -1);
+		return engine.postprocess(pageId, WIKITEXT, new HelloCallback());
+	}
+	
+	private static int count(WtNode n, Class<?> clazz)
+	{
+		int count = clazz.isInstance(n) ? 1 : 0;
+		for (WtNode c : n)
+			count += count(c, clazz);
+		return count;
+	}
+	
+	private final class HelloCallback
+			implements
+				ExpansionCallback
+	{
+		@Override
+		public FullPage retrieveWikitext(
+				ExpansionFrame expansionFrame,
+				PageTitle pageTitle) throws Exception
+		{
+			if (!pageTitle.getDenormalizedFullTitle().equals("Template:Hello"))
+				return null;
+			
+			return new FullPage(
+					new PageId(pageTitle, 1),
+					"Hello {{#if:{{{1|}}}|{{{1}}}|nobody}}!");
+		}
+		
+		@Override
+		public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.EngineMetrics.InvocationKind;
+import org.sweble.wikitext.engine.EngineMetrics.MetricSnapshot;
+import org.sweble.wikitext.engine.EngineMetrics.Snapshot;
+import org.sweble.wikitext.engine.EngineMetrics.Stage;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+
+public class EngineMetricsTest
+{
+	private final WikiConfig config = DefaultConfigEnWp.generate();
+	
+	// =========================================================================
+	
+	@Test
+	public void testStagesAreOnlyRecordedForTheTopLevelPage() throws Exception
+	{
+		EngineMetrics metrics = new EngineMetrics(false, true);
+		
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setMetrics(metrics);
+		
+		String wikitext = "{{Hello|World}} and {{hello|Moon}}";
+		engine.postprocess(pageId("Page"), wikitext, new HelloCallback());
+		
+		Snapshot snapshot = metrics.snapshot();
+		
+		for (Stage stage : Stage.values())
+			assertEquals(stage.name(), 1, snapshot.getStage(stage).getCount());
+		
+		MetricSnapshot validation = snapshot.getStage(Stage.VALIDATION);
+		assertEquals(wikitext.length(), validation.getSizeIn());
+		assertEquals(wikitext.length(), validation.getSizeOut());
+		
+		assertTrue(snapshot.getStage(Stage.PARSING).getNodes() > 0);
+		
+		MetricSnapshot hello = snapshot.getInvocation(
+				InvocationKind.TRANSCLUSION,
+				"Template:Hello");
+		
+		assertNotNull(hello);
+		assertEquals(2, hello.getCount());
+		
+		MetricSnapshot ifPfn = snapshot.getInvocation(
+				InvocationKind.PARSER_FUNCTION,
+				"if");
+		
+		assertNotNull(ifPfn);
+		assertEquals(2, ifPfn.getCount());
+		
+		assertTrue(snapshot.getShareOfExpansion(hello) <= 1.);
+		
+		assertTrue(hello.getInclusiveNanos() >= hello.getTotalNanos());
+		assertEquals(0, hello.getSizeIn());
+	}
+	
+	@Test
+	public void testSelfTimesDoNotCountNestedInvocations() throws Exception
+	{
+		EngineMetrics metrics = new EngineMetrics();
+		
+		metrics.enterInvocation();
+		metrics.enterInvocation();
+		metrics.recordInvocation(InvocationKind.PARSER_FUNCTION, "inner", 300, -1, null);
+		metrics.enterInvocation();
+		metrics.recordInvocation(InvocationKind.PARSER_FUNCTION, "inner", 200, -1, null);
+		metrics.recordInvocation(InvocationKind.TRANSCLUSION, "Template:Outer", 1000, -1, null);
+		
+		Snapshot snapshot = metrics.snapshot();
+		
+		MetricSnapshot outer = snapshot.getInvocation(
+				InvocationKind.TRANSCLUSION,
+				"Template:Outer");
+		
+		assertEquals(500, outer.getTotalNanos());
+		assertEquals(1000, outer.getInclusiveNanos());
+		
+		MetricSnapshot inner = snapshot.getInvocation(
+				InvocationKind.PARSER_FUNCTION,
+				"inner");
+		
+		assertEquals(500, inner.getTotalNanos());
+		assertEquals(500, inner.getInclusiveNanos());
+	}
+	
+	@Test
+	public void testInvocationsRecordTheSizeOfArgumentsAndResult() throws Exception
+	{
+		EngineMetrics metrics = new EngineMetrics(true, false);
+		assertFalse(metrics.isCountNodes());
+		
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setMetrics(metrics);
+		engine.postprocess(pageId("Page"), "{{Hello|World}} and {{hello|Moon}}", new HelloCallback());
+		
+		MetricSnapshot hello = metrics.snapshot().getInvocation(
+				InvocationKind.TRANSCLUSION,
+				"Template:Hello");
+		
+		assertEquals("World".length() + "Moon".length(), hello.getSizeIn());
+		assertEquals("Hello World!".length() + "Hello Moon!".length(), hello.getSizeOut());
+		assertEquals(0, hello.getNodes());
+		
+		MetricSnapshot ifPfn = metrics.snapshot().getInvocation(
+				InvocationKind.PARSER_FUNCTION,
+				"if");
+		
+		assertTrue(ifPfn.getSizeIn() > 0);
+		assertEquals("World".length() + "Moon".length(), ifPfn.getSizeOut());
+	}
+	
+	@Test
+	public void testResetClearsAllMetrics() throws Exception
+	{
+		EngineMetrics metrics = new EngineMetrics();
+		
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setMetrics(metrics);
+		engine.postprocess(pageId("Page"), "{{Hello|World}}", new HelloCallback());
+		
+		MetricSnapshot parsing = metrics.snapshot().getStage(Stage.PARSING);
+		assertEquals(1, parsing.getCount());
+		assertEquals(0, parsing.getNodes());
+		
+		metrics.reset();
+		
+		Snapshot snapshot = metrics.snapshot();
+		assertEquals(0, snapshot.getStage(Stage.EXPANSION).getCount());
+		assertTrue(snapshot.getInvocations().isEmpty());
+	}
+	
+	@Test
+	public void testHistogramPercentilesAreWithinBucketResolution() throws Exception
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		for (long i = 1; i <= 1000; ++i)
+			h.record(i * 1000);
+		
+		assertEquals(1000, h.getCount());
+		assertEquals(1000000, h.getMaxNanos());
+		assertEquals(500000, h.getPercentile(0.5), 500000 / 8.);
+		assertEquals(990000, h.getPercentile(0.99), 990000 / 8.);
+	}
+	
+	// =========================================================================
+	
+	private PageId pageId(String title) throws Exception
+	{
+		return new PageId(PageTitle.make(config, title), -1);
+	}
+	
+	private final class HelloCallback
+			implements
+				ExpansionCallback
+	{
+		@Override
+		public FullPage retrieveWikitext(
+				ExpansionFrame expansionFrame,
+				PageTitle pageTitle) throws Exception
+		{
+			if (!pageTitle.getDenormalizedFullTitle().equals("Template:Hello"))
+				return null;
+			
+			return new FullPage(
+					new PageId(pageTitle, 1),
+					"Hello {{#if:{{{1|}}}|{{{1}}}|nobody}}!");
+		}
+		
+		@Override
+		public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.nodes.EngineNodeFactory;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtNodeList;
+import org.sweble.wikitext.parser.nodes.WtText;
+
+public class ExpansionResultCacheTest
+{
+	private final WikiConfig config = DefaultConfigEnWp.generate();
+	
+	// =========================================================================
+	
+	@Test
+	public void testPageNamesAreNotReusedAcrossPages() throws Exception
+	{
+		ExpansionResultCache cache = new ExpansionResultCache(1024 * 1024);
+		
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setExpansionResultCache(cache);
+		
+		String first = expand(engine, "First", "{{Names}}");
+		String second = expand(engine, "Second", "{{Names}}");
+		
+		assertEquals("Talk:First|First", first);
+		assertEquals("Talk:Second|Second", second);
+		
+		assertEquals(0, cache.getSize());
+	}
+	
+	@Test
+	public void testFrameIndependentTemplateIsReused() throws Exception
+	{
+		ExpansionResultCache cache = new ExpansionResultCache(1024 * 1024);
+		
+		WtEngineImpl engine = new WtEngineImpl(config);
+		engine.setExpansionResultCache(cache);
+		
+		assertEquals("Hello World!", expand(engine, "First", "{{Hello|World}}"));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getSize());
+		
+		assertEquals("Hello World!", expand(engine, "Second", "{{Hello|World}}"));
+		assertEquals(1, cache.getHits());
+	}
+	
+	@Test
+	public void testArgumentsAreComparedByStructure() throws Exception
+	{
+		ExpansionResultCache cache = new ExpansionResultCache(1024 * 1024);
+		PageId pageId = new PageId(PageTitle.make(config, "Template:Hello"), 1);
+		EngineNodeFactory nf = config.getNodeFactory();
+		
+		// All arguments have the text "World"
+		ExpansionResultCache.Key plain = cache.makeKey(pageId, true,
+				arguments(nf.list(nf.text("World"))));
+		ExpansionResultCache.Key same = cache.makeKey(pageId, true,
+				arguments(nf.list(nf.text("World"))));
+		ExpansionResultCache.Key commented = cache.makeKey(pageId, true,
+				arguments(nf.list(nf.text("World"), nf.comment(" note "))));
+		ExpansionResultCache.Key ignored = cache.makeKey(pageId, true,
+				arguments(nf.list(nf.text("World"), nf.ignored("\n"))));
+		
+		assertEquals(plain, same);
+		assertFalse(plain.equals(commented));
+		assertFalse(plain.equals(ignored));
+	}
+	
+	@Test
+	public void testEntriesAreWeighedByTheirResult() throws Exception
+	{
+		WtNode small = config.getNodeFactory().text("a");
+		WtNode large = config.getNodeFactory().list(
+				config.getNodeFactory().text("0123456789"),
+				config.getNodeFactory().text("0123456789"));
+		
+		assertTrue(ExpansionResultCache.weigh(large) > ExpansionResultCache.weigh(small) + 20);
+	}
+	
+	// =========================================================================
+	
+	private String expand(WtEngineImpl engine, String title, String wikitext) throws Exception
+	{
+		PageId pageId = new PageId(PageTitle.make(config, title), -1);
+		WtNode page = engine.expand(pageId, wikitext, new TemplateCallback()).getPage();
+		
+		StringBuilder sb = new StringBuilder();
+		appendText(page, sb);
+		return sb.toString();
+	}
+	
+	private static Map<String, WtNodeList> arguments(WtNodeList first)
+	{
+		Map<String, WtNodeList> arguments = new HashMap<String, WtNodeList>();
+		arguments.put("1", first);
+		return arguments;
+	}
+	
+	private static void appendText(WtNode node, StringBuilder sb)
+	{
+		if (node instanceof WtText)
+			sb.append(((WtText) node).getContent());
+		for (WtNode n : node)
+			appendText(n, sb);
+	}
+	
+	private static final class TemplateCallback
+			implements
+				ExpansionCallback
+	{
+		@Override
+		public FullPage retrieveWikitext(
+				ExpansionFrame expansionFrame,
+				PageTitle pageTitle) throws Exception
+		{
+			String title = pageTitle.getDenormalizedFullTitle();
+			if (title.equals("Template:Names"))
+				return new FullPage(new PageId(pageTitle, 1), "{{TALKPAGENAME}}|{{PAGENAME}}");
+			if (title.equals("Template:Hello"))
+				return new FullPage(new PageId(pageTitle, 1), "Hello {{{1}}}!");
+			return null;
+		}
+		
+		@Override
+		public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.nodes.EngPage;
+import org.sweble.wikitext.engine.nodes.EngProcessedPage;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtSection;
+
+public class IncrementalPostprocessorTest
+{
+	private static final String WIKITEXT = "" +
+			"Intro\n" +
+			"== One ==\n" +
+			"First section\n" +
+			"=== Sub ===\n" +
+			"Nested\n" +
+			"== Two ==\n" +
+			"Second section\n" +
+			"== Three ==\n" +
+			"Third section\n";
+	
+	private final WikiConfig config = DefaultConfigEnWp.generate();
+	
+	private final WtEngineImpl engine = new WtEngineImpl(config);
+	
+	private final IncrementalPostprocessor incremental = new IncrementalPostprocessor(engine);
+	
+	// =========================================================================
+	
+	@Test
+	public void testOnlyTheEditedSectionIsProcessedAgain() throws Exception
+	{
+		EngProcessedPage previous = incremental.postprocess(pageId(), WIKITEXT, new NoCallback());
+		EngPage oldPage = previous.getPage();
+		
+		assertEquals(wholePage(WIKITEXT), oldPage);
+		
+		WtNode intro = oldPage.get(0);
+		WtSection one = findSection(oldPage, "One");
+		WtSection two = findSection(oldPage, "Two");
+		WtSection three = findSection(oldPage, "Three");
+		
+		String newText = WIKITEXT.replace("Second section", "Second\nsection");
+		WikitextEdit edit = WikitextEdit.diff(WIKITEXT, newText);
+		
+		EngPage page = incremental.reprocess(pageId(), previous, edit, new NoCallback()).getPage();
+		
+		assertSame(intro, page.get(0));
+		assertSame(one, findSection(page, "One"));
+		assertNotSame(two, findSection(page, "Two"));
+		assertSame(three, findSection(page, "Three"));
+		
+		assertEquals(wholePage(newText), page);
+	}
+	
+	@Test
+	public void testPageIsProcessedAsAWholeIfATableSpansSections() throws Exception
+	{
+		String wikitext = "{|\n| cell\n== In table ==\n| cell\n|}\n== After ==\nText\n";
+		
+		EngProcessedPage page = incremental.postprocess(pageId(), wikitext, new NoCallback());
+		
+		assertEquals(wholePage(wikitext), page.getPage());
+	}
+	
+	@Test
+	public void testInsertingATopLevelHeading() throws Exception
+	{
+		String newText = WIKITEXT.replace(
+				"Second section\n",
+				"Second section\n== Two and a half ==\nMore\n");
+		
+		EngPage page = reprocess(WIKITEXT, newText);
+		findSection(page, "Two and a half");
+	}
+	
+	@Test
+	public void testRemovingATopLevelHeading() throws Exception
+	{
+		reprocess(WIKITEXT, WIKITEXT.replace("== Two ==\n", ""));
+	}
+	
+	@Test
+	public void testEditAtAChunkBoundary() throws Exception
+	{
+		String newText = WIKITEXT.replace("== Two ==", "Inserted\n== Two ==");
+		
+		WikitextEdit edit = WikitextEdit.diff(WIKITEXT, newText);
+		assertEquals(WIKITEXT.indexOf("== Two =="), edit.getStart());
+		
+		reprocess(WIKITEXT, newText);
+	}
+	
+	@Test
+	public void testChangingTheOutermostSectionLevel() throws Exception
+	{
+		// The outermost level becomes 1
+		String newText = WIKITEXT.replace("== One ==", "= One =");
+		reprocess(WIKITEXT, newText);
+		
+		// And back to 2
+		reprocess(newText, WIKITEXT);
+	}
+	
+	@Test
+	public void testUnbalancedCommentCrossingAHeading() throws Exception
+	{
+		String newText = WIKITEXT.replace("Second section", "Second <!-- section");
+		reprocess(WIKITEXT, newText);
+		
+		// Closed in a later chunk
+		reprocess(newText, newText.replace("Third section", "Third --> section"));
+	}
+	
+	@Test
+	public void testUnbalancedNowikiCrossingAHeading() throws Exception
+	{
+		String newText = WIKITEXT
+				.replace("Second section", "Second <nowiki>section")
+				.replace("Third section", "Third</nowiki> section");
+		
+		reprocess(WIKITEXT, newText);
+		
+		// Removing the end tag again
+		reprocess(newText, newText.replace("</nowiki>", ""));
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Processes <code>oldText</code> chunk by chunk, applies the edit to
+	 * <code>newText</code> and asserts that both results equal the pages the
+	 * engine produces when it processes the texts as a whole.
+	 */
+	private EngPage reprocess(String oldText, String newText) throws Exception
+	{
+		EngProcessedPage previous = incremental.postprocess(pageId(), oldText, new NoCallback());
+		assertEquals(wholePage(oldText), previous.getPage());
+		
+		WikitextEdit edit = WikitextEdit.diff(oldText, newText);
+		EngPage page = incremental.reprocess(pageId(), previous, edit, new NoCallback()).getPage();
+		
+		assertEquals(wholePage(newText), page);
+		
+		return page;
+	}
+	
+	private EngPage wholePage(String wikitext) throws Exception
+	{
+		return engine.postprocess(pageId(), wikitext, new NoCallback()).getPage();
+	}
+	
+	private PageId pageId() throws Exception
+	{
+		return new PageId(PageTitle.make(config, "Page"), -1);
+	}
+	
+	private static WtSection findSection(EngPage page, String title)
+	{
+		for (WtNode n : page)
+		{
+			if (n instanceof WtSection
+					&& ((WtSection) n).getHeading().toString().contains(title))
+				return (WtSection) n;
+		}
+		fail("Section " + title + " not found");
+		return null;
+	}
+	
+	private static final class NoCallback
+			implements
+				ExpansionCallback
+	{
+		@Override
+		public FullPage retrieveWikitext(
+				ExpansionFrame expansionFrame,
+				PageTitle pageTitle) throws Exception
+		{
+			return null;
+		}
+		
+		@Override
+		public String fileUrl(PageTitle pageTitle, int width, int height) throws Exception
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.engine.config.WikiConfig;
+import org.sweble.wikitext.engine.utils.DefaultConfigEnWp;
+import org.sweble.wikitext.parser.WikitextPreprocessor;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+
+public class PreprocessedPageCacheTest
+{
+	private final WikiConfig config = DefaultConfigEnWp.generate();
+	
+	// =========================================================================
+	
+	@Test
+	public void testHitReturnsEqualButDistinctCopy() throws Exception
+	{
+		PreprocessedPageCache cache = new PreprocessedPageCache(1024, 1);
+		
+		PageId id = pageId("Template:Hello", 1);
+		WtPreproWikitextPage ppAst = preprocess("Hello {{{1}}}!");
+		
+		cache.store(id, true, ppAst, 14);
+		
+		WtPreproWikitextPage copy1 = cache.retrieve(id, true, new WtEntityMapImpl());
+		WtPreproWikitextPage copy2 = cache.retrieve(id, true, null);
+		
+		assertNotNull(copy1);
+		assertNotNull(copy2);
+		assertNotSame(copy1, copy2);
+		assertEquals(ppAst, copy1);
+		assertEquals(copy1, copy2);
+		
+		assertEquals(2, cache.getHits());
+		assertEquals(0, cache.getMisses());
+	}
+	
+	@Test
+	public void testKeyDistinguishesRevisionAndInclusionMode() throws Exception
+	{
+		PreprocessedPageCache cache = new PreprocessedPageCache(1024, 1);
+		
+		cache.store(pageId("Template:Hello", 1), true, preprocess("Hello"), 5);
+		
+		assertNull(cache.retrieve(pageId("Template:Hello", 2), true, null));
+		assertNull(cache.retrieve(pageId("Template:Hello", 1), false, null));
+		assertNotNull(cache.retrieve(pageId("Template:Hello", 1), true, null));
+		
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedEntriesAreEvictedByWeight() throws Exception
+	{
+		PreprocessedPageCache cache = new PreprocessedPageCache(10, 1);
+		
+		PageId a = pageId("Template:A", 1);
+		PageId b = pageId("Template:B", 1);
+		PageId c = pageId("Template:C", 1);
+		
+		cache.store(a, true, preprocess("aaaa"), 4);
+		cache.store(b, true, preprocess("bbbb"), 4);
+		
+		// Touch A so that B becomes the eldest entry
+		assertNotNull(cache.retrieve(a, true, null));
+		
+		cache.store(c, true, preprocess("cccc"), 4);
+		
+		assertEquals(1, cache.getEvictions());
+		assertEquals(8, cache.getWeight());
+		assertNotNull(cache.retrieve(a, true, null));
+		assertNull(cache.retrieve(b, true, null));
+		assertNotNull(cache.retrieve(c, true, null));
+	}
+	
+	@Test
+	public void testEntriesHeavierThanTheCacheAreNotStored() throws Exception
+	{
+		PreprocessedPageCache cache = new PreprocessedPageCache(4, 1);
+		
+		PageId id = pageId("Template:Big", 1);
+		cache.store(id, true, preprocess("too big"), 7);
+		
+		assertEquals(0, cache.getSize());
+		assertNull(cache.retrieve(id, true, null));
+	}
+	
+	// =========================================================================
+	
+	private PageId pageId(String title, long revision) throws Exception
+	{
+		return new PageId(PageTitle.make(config, title), revision);
+	}
+	
+	private WtPreproWikitextPage preprocess(String wikitext) throws Exception
+	{
+		WikitextPreprocessor preprocessor =
+				new WikitextPreprocessor(config.getParserConfig());
+		
+		return (WtPreproWikitextPage) preprocessor.parseArticle(wikitext, "-");
+	}
+}
@@ -25,6 +25,8 @@ import java.util.concurrent.BlockingQueue;
 import joptsimple.OptionException;
 
 import org.apache.log4j.Logger;
+import org.sweble.wikitext.articlecruncher.Checkpoint;
+import org.sweble.wikitext.articlecruncher.CheckpointTracker;
 import org.sweble.wikitext.articlecruncher.Job;
 import org.sweble.wikitext.articlecruncher.JobGeneratorFactory;
 import org.sweble.wikitext.articlecruncher.JobTrace;
@@ -36,6 +38,7 @@ import org.sweble.wikitext.articlecruncher.StorerFactory;
 import org.sweble.wikitext.articlecruncher.pnodes.LocalProcessingNode;
 import org.sweble.wikitext.articlecruncher.pnodes.LpnJobProcessorFactory;
 import org.sweble.wikitext.articlecruncher.storers.DummyStorer;
+import org.sweble.wikitext.articlecruncher.telemetry.TelemetryReporter;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 import org.sweble.wikitext.engine.config.WikiConfig;
@@ -56,6 +59,8 @@ public class DumpCruncher
 	
 	private WikiConfig wikiConfig;
 	
+	private CheckpointTracker checkpointTracker;
+	
 	// =========================================================================
 	
 	public static void main(String[] args) throws Throwable
@@ -94,10 +99,47 @@ public class DumpCruncher
 		
 		final File dumpFile = new File(options.value("dump"));
 		
-		nexus.setUp(
-				options.value("Nexus.InTrayCapacity", int.class),
-				options.value("Nexus.ProcessedJobsCapacity", int.class),
-				options.value("Nexus.OutTrayCapacity", int.class));
+		final File checkpointFile = options.has("checkpoint") ?
+				new File(options.value("checkpoint")) :
+				null;
+		
+		Checkpoint checkpoint = null;
+		if (options.has("resume"))
+		{
+			if (checkpointFile == null)
+				throw new IllegalArgumentException("Cannot resume without a checkpoint file");
+			
+			if (checkpointFile.exists())
+			{
+				checkpoint = Checkpoint.read(checkpointFile);
+				logger.info("Resuming from " + checkpoint);
+			}
+			else
+			{
+				logger.warn("Checkpoint file " + checkpointFile + " does not exist, starting from the beginning");
+			}
+		}
+		
+		final Checkpoint resumeFrom = checkpoint;
+		
+		final long queueBytes = Long.parseLong(options.value("Nexus.QueueBytes"));
+		
+		final boolean adaptive = options.has("adaptive");
+		
+		if (queueBytes > 0)
+		{
+			nexus.setUpByteWeighted(queueBytes, queueBytes, queueBytes, adaptive);
+		}
+		else
+		{
+			if (adaptive)
+				throw new IllegalArgumentException("Adaptive queues require Nexus.QueueBytes");
+			
+			nexus.setUp(
+					options.value("Nexus.InTrayCapacity", int.class),
+					options.value("Nexus.ProcessedJobsCapacity", int.class),
+					options.value("Nexus.OutTrayCapacity", int.class));
+		}
 		
 		nexus.addJobGenerator(new JobGeneratorFactory()
 		{
@@ -109,12 +151,24 @@ public class DumpCruncher
 			{
 				try
 				{
+					if (checkpointFile != null)
+					{
+						checkpointTracker = new CheckpointTracker(jobTraces, resumeFrom);
+						checkpointTracker.start(
+								checkpointFile,
+								options.value("DumpCruncher.CheckpointInterval", int.class) * 1000L);
+					}
+					
 					return new DumpReaderJobGenerator(
 							DumpCruncher.this,
 							dumpFile,
 							abortHandler,
 							inTray,
-							jobTraces);
+							jobTraces,
+							options.value("DumpCruncher.BatchSize", int.class),
+							Long.parseLong(options.value("DumpCruncher.BatchBytes")),
+							checkpointTracker,
+							resumeFrom);
 				}
 				catch (Exception e)
 				{
@@ -173,12 +227,23 @@ public class DumpCruncher
 			{
 				final int numWorkers = options.value("Nexus.NumProcessingWorkers", int.class);
 				
-				return new LocalProcessingNode(
+				LocalProcessingNode node = new LocalProcessingNode(
 						abortHandler,
 						inTray,
 						completedJobs,
 						lpnJPFactory,
 						numWorkers);
+				
+				if (adaptive)
+				{
+					nexus.getCapacityController().addLimit(
+							"inFlight",
+							node.getInFlightLimit(),
+							1,
+							numWorkers);
+				}
+				
+				return node;
 			}
 		});
 		
@@ -209,7 +274,27 @@ public class DumpCruncher
 			}
 		});
 		
-		nexus.start();
+		TelemetryReporter telemetryReporter = new TelemetryReporter(nexus.getTelemetry());
+		
+		telemetryReporter.start(
+				options.value("DumpCruncher.TelemetryInterval", int.class) * 1000L,
+				options.has("telemetry") ? new File(options.value("telemetry")) : null);
+		
+		if (options.has("telemetry-port"))
+			telemetryReporter.serveHttp(options.value("telemetry-port", int.class));
+		
+		try
+		{
+			nexus.start();
+		}
+		finally
+		{
+			telemetryReporter.stop();
+			
+			// Whatever has been stored so far need not be crunched again
+			if (checkpointTracker != null)
+				checkpointTracker.stop();
+		}
 		
 		gui.close();
 	}
@@ -274,6 +359,16 @@ public class DumpCruncher
 				.withArgName("N")
 				.create();
 		
+		options.createPropertyOnlyOption("Nexus.QueueBytes")
+				.withDescription("If greater than 0, each queue is limited to this number of text bytes instead of a number of elements.")
+				.withDefault("0")
+				.withArgName("N")
+				.create();
+		
+		options.createOption("adaptive")
+				.withDescription("Grow and shrink the queues and the number of jobs in flight depending on throughput, heap occupancy and storer latency. Requires Nexus.QueueBytes.")
+				.create();
+		
 		options.createOption("processing-workers")
 				.withDescription("The number of processing workers.")
 				.withPropertyKey("Nexus.NumProcessingWorkers")
@@ -281,6 +376,55 @@ public class DumpCruncher
 				.withArgName("N")
 				.create();
 		
+		options.createPropertyOnlyOption("DumpCruncher.BatchSize")
+				.withDescription("The maximum number of revisions per job batch. 1 disables batching.")
+				.withDefault("1")
+				.withArgName("N")
+				.create();
+		
+		options.createPropertyOnlyOption("DumpCruncher.BatchBytes")
+				.withDescription("The maximum number of text bytes per job batch.")
+				.withDefault("1048576")
+				.withArgName("N")
+				.create();
+		
+		options.createOption("checkpoint")
+				.withDescription("The file to periodically write checkpoints to.")
+				.withPropertyKey("DumpCruncher.CheckpointFile")
+				.withArgName("FILE")
+				.withRequiredArg()
+				.create();
+		
+		options.createPropertyOnlyOption("DumpCruncher.CheckpointInterval")
+				.withDescription("The number of seconds between two checkpoints.")
+				.withDefault("60")
+				.withArgName("N")
+				.create();
+		
+		options.createOption("resume")
+				.withDescription("Skip all pages stored before the last checkpoint was written.")
+				.create();
+		
+		options.createOption("telemetry")
+				.withDescription("The JSON file to periodically write throughput and latency figures to.")
+				.withPropertyKey("DumpCruncher.TelemetryFile")
+				.withArgName("FILE")
+				.withRequiredArg()
+				.create();
+		
+		options.createPropertyOnlyOption("DumpCruncher.TelemetryInterval")
+				.withDescription("The number of seconds between two telemetry reports.")
+				.withDefault("60")
+				.withArgName("N")
+				.create();
+		
+		options.createOption("telemetry-port")
+				.withDescription("Serve the telemetry figures as JSON over HTTP on this port of the loopback interface.")
+				.withPropertyKey("DumpCruncher.TelemetryPort")
+				.withArgName("PORT")
+				.withRequiredArg()
+				.create();
+		
 		options.createOption('P', "properties")
 				.withDescription("A properties file to load additional configuration options from.")
 				.withDefault("dump2db.properties")
@@ -309,7 +453,17 @@ public class DumpCruncher
 			options.optional("Nexus.InTrayCapacity");
 			options.optional("Nexus.ProcessedJobsCapacity");
 			options.optional("Nexus.OutTrayCapacity");
+			options.optional("Nexus.QueueBytes");
+			options.optional("adaptive");
 			options.optional("Nexus.NumProcessingWorkers");
+			options.optional("DumpCruncher.BatchSize");
+			options.optional("DumpCruncher.BatchBytes");
+			options.optional("checkpoint");
+			options.optional("DumpCruncher.CheckpointInterval");
+			options.optional("resume");
+			options.optional("telemetry");
+			options.optional("DumpCruncher.TelemetryInterval");
+			options.optional("telemetry-port");
 			
 			options.checkForInvalidOptions();
 			
@@ -19,14 +19,20 @@ package org.example;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 
+import org.sweble.wikitext.articlecruncher.Checkpoint;
+import org.sweble.wikitext.articlecruncher.CheckpointTracker;
 import org.sweble.wikitext.articlecruncher.Job;
-import org.sweble.wikitext.articlecruncher.JobTrace;
+import org.sweble.wikitext.articlecruncher.JobBatcher;
 import org.sweble.wikitext.articlecruncher.JobTraceSet;
+import org.sweble.wikitext.articlecruncher.telemetry.CruncherTelemetry;
+import org.sweble.wikitext.articlecruncher.telemetry.Stage;
 import org.sweble.wikitext.articlecruncher.utils.AbortHandler;
 import org.sweble.wikitext.articlecruncher.utils.WorkerBase;
 import org.sweble.wikitext.dumpreader.DumpReader;
+import org.sweble.wikitext.dumpreader.MultistreamIndex;
 import org.sweble.wikitext.dumpreader.export_0_6.PageType;
 import org.sweble.wikitext.dumpreader.export_0_6.RevisionType;
 
@@ -34,14 +40,28 @@ public class DumpReaderJobGenerator
 		extends
 			WorkerBase
 {
-	private final BlockingQueue<Job> inTray;
-	
-	private final JobTraceSet jobTraces;
+	private final JobBatcher batcher;
 	
 	private final DumpCruncher dumpCruncher;
 	
 	private final DumpReader dumpReader;
 	
+	private final CheckpointTracker checkpointTracker;
+	
+	private final Checkpoint resumeFrom;
+	
+	private long[] pendingPageIds = new long[16];
+	
+	private int pendingPageCount;
+	
+	private long pendingCompressedOffset;
+	
+	private long pendingDecompressedOffset;
+	
+	private long skippedCount;
+	
+	private long lastPageNanos = System.nanoTime();
+	
 	// =========================================================================
 	
 	public DumpReaderJobGenerator(
@@ -50,14 +70,67 @@ public class DumpReaderJobGenerator
 			AbortHandler abortHandler,
 			BlockingQueue<Job> inTray,
 			JobTraceSet jobTraces) throws Exception
+	{
+		this(dumpCruncher, dumpFile, abortHandler, inTray, jobTraces, 1, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @param batchSize
+	 *            The maximum number of revisions per job batch. A value of 1
+	 *            disables batching.
+	 * @param batchBytes
+	 *            The maximum number of text bytes per job batch.
+	 */
+	public DumpReaderJobGenerator(
+			DumpCruncher dumpCruncher,
+			File dumpFile,
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			JobTraceSet jobTraces,
+			int batchSize,
+			long batchBytes) throws Exception
+	{
+		this(dumpCruncher, dumpFile, abortHandler, inTray, jobTraces, batchSize, batchBytes, null, null);
+	}
+	
+	/**
+	 * @param checkpointTracker
+	 *            If not null, all emitted jobs are registered with this
+	 *            tracker.
+	 * @param resumeFrom
+	 *            If not null, pages stored before this checkpoint was taken
+	 *            are skipped. Multistream dumps with an index are read
+	 *            starting from the stream of the last stored page, other
+	 *            dumps are read from the beginning.
+	 */
+	public DumpReaderJobGenerator(
+			DumpCruncher dumpCruncher,
+			File dumpFile,
+			AbortHandler abortHandler,
+			BlockingQueue<Job> inTray,
+			JobTraceSet jobTraces,
+			int batchSize,
+			long batchBytes,
+			CheckpointTracker checkpointTracker,
+			Checkpoint resumeFrom) throws Exception
 	{
 		super(DumpReaderJobGenerator.class.getSimpleName(), abortHandler);
 		
 		this.dumpCruncher = dumpCruncher;
-		this.inTray = inTray;
-		this.jobTraces = jobTraces;
+		this.checkpointTracker = checkpointTracker;
+		this.resumeFrom = resumeFrom;
+		this.batcher = new JobBatcher(
+				inTray,
+				jobTraces,
+				DumpReaderJobGenerator.class,
+				batchSize,
+				batchBytes);
+		
+		long resumeOffset = 0;
+		if (resumeFrom != null)
+			resumeOffset = findResumeOffset(dumpFile, resumeFrom);
 		
-		this.dumpReader = new DumpReader(dumpFile, getLogger())
+		this.dumpReader = new DumpReader(dumpFile, resumeOffset, null, getLogger(), true)
 		{
 			@Override
 			protected void processPage(Object mediaWiki, Object page) throws Exception
@@ -89,30 +162,54 @@ public class DumpReaderJobGenerator
 		return dumpReader.getParsedCount();
 	}
 	
+	public long getSkippedCount()
+	{
+		return skippedCount;
+	}
+	
 	// =========================================================================
 	
 	@Override
 	protected void work() throws Throwable
 	{
 		dumpReader.unmarshal();
+		
+		emitted(batcher.flush());
+	}
+	
+	@Override
+	protected void after()
+	{
+		if (resumeFrom != null)
+			info(getClass().getSimpleName() + " skipped " + skippedCount + " stored pages");
 	}
 	
 	protected void processPage(Object mediaWiki, Object page_) throws Exception
 	{
 		PageType page = (PageType) page_;
 		
+		// The time since the last page was handed over is spent reading
+		long now = System.nanoTime();
+		CruncherTelemetry telemetry = dumpCruncher.getNexus().getTelemetry();
+		telemetry.record(Stage.READ, now - lastPageNanos);
+		
+		long pageId = page.getId().longValue();
+		if (resumeFrom != null && resumeFrom.isStored(pageId))
+		{
+			++skippedCount;
+			lastPageNanos = now;
+			return;
+		}
+		
 		for (Object o : page.getRevisionOrUploadOrLogitem())
 		{
 			if (o instanceof RevisionType)
 			{
 				RevisionJob job = new RevisionJob(page, (RevisionType) o);
 				
-				JobTrace trace = job.getTrace();
-				trace.signOff(getClass(), null);
-				
-				jobTraces.add(trace);
+				addPendingPage(pageId);
 				
-				inTray.put(job);
+				emitted(batcher.add(job));
 				
 				Gui gui = dumpCruncher.getGui();
 				gui.setPageCount((int) getParsedCount());
@@ -120,5 +217,68 @@ public class DumpReaderJobGenerator
 				gui.redrawLater();
 			}
 		}
+		
+		// Don't count the time spent waiting for the in tray
+		lastPageNanos = System.nanoTime();
+	}
+	
+	// =========================================================================
+	
+	private void addPendingPage(long pageId) throws IOException
+	{
+		if (pendingPageCount == 0)
+		{
+			pendingCompressedOffset = getCompressedBytesRead();
+			pendingDecompressedOffset = getDecompressedBytesRead();
+		}
+		else if (pendingPageIds[pendingPageCount - 1] == pageId)
+		{
+			// Another revision of the same page
+			return;
+		}
+		
+		if (pendingPageCount == pendingPageIds.length)
+			pendingPageIds = Arrays.copyOf(pendingPageIds, pendingPageCount * 2);
+		
+		pendingPageIds[pendingPageCount++] = pageId;
+	}
+	
+	private void emitted(Job job)
+	{
+		if (job == null)
+			return;
+		
+		if (checkpointTracker != null)
+		{
+			checkpointTracker.register(
+					job,
+					Arrays.copyOf(pendingPageIds, pendingPageCount),
+					pendingCompressedOffset,
+					pendingDecompressedOffset);
+		}
+		
+		pendingPageCount = 0;
+	}
+	
+	private long findResumeOffset(File dumpFile, Checkpoint resumeFrom) throws IOException
+	{
+		File indexFile = MultistreamIndex.findIndexFile(dumpFile);
+		if (indexFile == null || resumeFrom.getLastStoredPageId() < 0)
+		{
+			info("Reading dump from the beginning to skip stored pages");
+			return 0;
+		}
+		
+		long offset = MultistreamIndex.findStreamOffsetById(
+				indexFile,
+				resumeFrom.getLastStoredPageId());
+		if (offset <= 0)
+		{
+			info("Last stored page not found in index, reading dump from the beginning");
+			return 0;
+		}
+		
+		info("Resuming dump at offset " + offset);
+		return offset;
 	}
 }
@@ -38,7 +38,7 @@ import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 
 import org.apache.log4j.Logger;
-import org.sweble.wikitext.articlecruncher.utils.SpeedMeter;
+import org.sweble.wikitext.articlecruncher.telemetry.Meter;
 
 import de.fau.cs.osr.utils.BinaryPrefix;
 import de.fau.cs.osr.utils.StringUtils;
@@ -55,7 +55,7 @@ final class Gui
 	
 	// =====================================================================
 	
-	private final SpeedMeter speedMeter;
+	private final Meter speedMeter;
 	
 	private final DumpCruncher dumpCruncher;
 	
@@ -95,10 +95,7 @@ final class Gui
 	{
 		this.dumpCruncher = dumpCruncher;
 		
-		this.speedMeter = new SpeedMeter(
-				1.0f,
-				UPDATE_INTERVAL / 1000.f,
-				30.0f);
+		this.speedMeter = new Meter(UPDATE_INTERVAL, 30.0);
 		
 		this.lastUpdate = System.currentTimeMillis();
 		
@@ -476,8 +473,10 @@ final class Gui
 					bytesReadP.getValue(),
 					bytesReadP.makePaddedUnit("B")));
 			
-			speedMeter.update(bytesRead, -1);
-			float speed = speedMeter.getAvgSpeed();
+			speedMeter.mark(bytesRead - speedMeter.getCount());
+			double speed = speedMeter.getRate();
+			if (Double.isNaN(speed))
+				speed = 0;
 			
 			BinaryPrefix p = new BinaryPrefix((long) speed);
 			this.speed.setText(String.format(
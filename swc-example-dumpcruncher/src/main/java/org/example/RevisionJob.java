@@ -57,6 +57,8 @@ public class RevisionJob
 	
 	private final String textText;
 	
+	private final long textBytes;
+	
 	private final boolean isTextDeleted;
 	
 	// =========================================================================
@@ -108,15 +110,21 @@ public class RevisionJob
 		if (rev.getText() != null)
 		{
 			TextType text = rev.getText();
-			text.getBytes();
 			this.isTextDeleted = text.getDeleted() != null;
 			text.getSpace();
 			this.textText = text.getValue();
+			
+			// The dump states the size of the text, fall back to its length
+			if (text.getBytes() != null)
+				this.textBytes = text.getBytes().longValue();
+			else
+				this.textBytes = (textText != null) ? textText.length() : 0;
 		}
 		else
 		{
 			this.isTextDeleted = false;
 			this.textText = null;
+			this.textBytes = 0;
 		}
 		
 		if (rev.getTimestamp() != null)
@@ -194,4 +202,23 @@ public class RevisionJob
 	{
 		return isTextDeleted;
 	}
+	
+	public long getTextBytes()
+	{
+		return textBytes;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public long getSizeHint()
+	{
+		return textBytes;
+	}
+	
+	@Override
+	public String getLabel()
+	{
+		return pageTitle;
+	}
 }
@@ -491,7 +491,7 @@ public class Serializer
 		return xstream;
 	}
 	
-	private Gson getJsonSerializer()
+	static Gson getJsonSerializer()
 	{
 		final AstNodeJsonTypeAdapter<WtNode> nodeConverter =
 				AstNodeJsonTypeAdapter.forNodeType(WtNode.class);
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.example;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.WtEntityMapImpl;
+import org.sweble.wikitext.parser.nodes.WikitextNodeFactory;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
+import org.sweble.wikitext.parser.utils.SimpleParserConfig;
+
+import com.google.gson.Gson;
+
+public class EntityMapSerializationTest
+{
+	private final WikitextNodeFactory nf =
+			new SimpleParserConfig().getNodeFactory();
+	
+	// =========================================================================
+	
+	@Test
+	public void testEntityMapSurvivesJsonRoundTrip() throws Exception
+	{
+		WtEntityMapImpl map = createMap();
+		
+		Gson gson = Serializer.getJsonSerializer();
+		WtEntityMapImpl copy = gson.fromJson(gson.toJson(map), WtEntityMapImpl.class);
+		
+		assertEquals(map, copy);
+		assertEquals(2, copy.registerEntity(nf.text("c")));
+	}
+	
+	@Test
+	public void testEntityMapOfPageSurvivesJsonRoundTrip() throws Exception
+	{
+		WtParsedWikitextPage page = createPage();
+		
+		Gson gson = Serializer.getJsonSerializer();
+		WtNode copy = gson.fromJson(gson.toJson(page), WtNode.class);
+		
+		assertEquals(page.getEntityMap(), ((WtParsedWikitextPage) copy).getEntityMap());
+	}
+	
+	@Test
+	public void testEntityMapOfPageSurvivesJavaRoundTrip() throws Exception
+	{
+		WtParsedWikitextPage page = createPage();
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(page);
+		oos.close();
+		
+		ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(out.toByteArray()));
+		WtParsedWikitextPage copy = (WtParsedWikitextPage) ois.readObject();
+		
+		assertEquals(page.getEntityMap(), copy.getEntityMap());
+	}
+	
+	// =========================================================================
+	
+	private WtEntityMapImpl createMap()
+	{
+		WtEntityMapImpl map = new WtEntityMapImpl();
+		map.registerEntity(nf.text("a"));
+		map.registerEntity(nf.text("b"));
+		return map;
+	}
+	
+	private WtParsedWikitextPage createPage()
+	{
+		return nf.parsedPage(nf.list(nf.text("page")), createMap());
+	}
+}
@@ -40,6 +40,21 @@ public interface ParserConfig
 	
 	boolean isGatherRtData();
 	
+	/**
+	 * If RtData is not gathered, whether the source of a page is recorded
+	 * so that its RtData can be reconstructed on demand.
+	 * 
+	 * @see org.sweble.wikitext.parser.WtLazyRtData
+	 */
+	boolean isLazyRtData();
+	
+	/**
+	 * Whether the preprocessor and the parser create text nodes as windows
+	 * of the buffer they read from instead of copying their content. A
+	 * window keeps the whole buffer reachable until its content is needed.
+	 */
+	boolean isWindowedTextNodes();
+	
 	// ==[ AST creation/processing ]============================================
 	
 	WikitextNodeFactory getNodeFactory();
@@ -23,8 +23,19 @@ import java.io.StringReader;
 import org.sweble.wikitext.parser.encval.EncodingValidatorLexer;
 import org.sweble.wikitext.parser.encval.ValidatedWikitext;
 
+/**
+ * Validates the encoding of wikitext.
+ * 
+ * An instance reuses its lexer and the lexer's buffers for every page it
+ * validates. Instances are therefore NOT thread-safe. Use one instance per
+ * thread.
+ */
 public class WikitextEncodingValidator
 {
+	private EncodingValidatorLexer lexer;
+	
+	// =========================================================================
+	
 	public ValidatedWikitext validate(
 			ParserConfig parserConfig,
 			WtEntityMap entityMap,
@@ -33,7 +44,17 @@ public class WikitextEncodingValidator
 			throws IOException
 	{
 		StringReader in = new StringReader(source);
-		EncodingValidatorLexer lexer = new EncodingValidatorLexer(in);
+		
+		if (lexer == null)
+		{
+			lexer = new EncodingValidatorLexer(in);
+		}
+		else
+		{
+			lexer.reset(in);
+		}
+		
+		lexer.ensureCapacity(source.length());
 		
 		lexer.setFile(title);
 		lexer.setEntityMap(entityMap);
@@ -44,7 +65,15 @@ public class WikitextEncodingValidator
 		
 		in.close();
 		
-		return new ValidatedWikitext(lexer.getWikitext(), entityMap);
+		// Only copy the lexer's buffer if the source had to be changed.
+		String wikitext = lexer.isModified() ? lexer.getWikitext() : source;
+		
+		// Don't keep the entity map alive until the next page is validated.
+		lexer.setEntityMap(null);
+		
+		lexer.trimBuffers();
+		
+		return new ValidatedWikitext(wikitext, entityMap);
 	}
 	
 	public ValidatedWikitext validate(
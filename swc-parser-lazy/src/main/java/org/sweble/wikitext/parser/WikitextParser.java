@@ -20,11 +20,14 @@ package org.sweble.wikitext.parser;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.regex.Pattern;
 
 import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
 import org.sweble.wikitext.parser.parser.RatsWikitextParser;
+import org.sweble.wikitext.parser.parser.WikitextParserState;
 import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
+import org.sweble.wikitext.parser.preprocessor.SegmentedWikitext;
 
 import xtc.parser.ParseError;
 import xtc.parser.ParseException;
@@ -32,19 +35,48 @@ import xtc.parser.Result;
 import xtc.parser.SemanticValue;
 import de.fau.cs.osr.ptk.common.ParserCommon;
 
+/**
+ * Parses preprocessed wikitext.
+ * 
+ * An instance does not keep any state between calls to parseArticle().
+ * Instances can therefore be reused for any number of pages and shared
+ * between threads. Reusing an instance spares the compilation of the
+ * configuration-derived patterns for every page.
+ */
 public class WikitextParser
 		extends
 			ParserCommon<WtNode>
 {
 	private final ParserConfig config;
 	
-	private RatsWikitextParser parser;
+	private final Pattern internalLinkPrefixPattern;
+	
+	private final Pattern internalLinkPostfixPattern;
+	
+	private final boolean gatherRtData;
 	
 	// =========================================================================
 	
 	public WikitextParser(ParserConfig config)
+	{
+		this(config, config.isGatherRtData());
+	}
+	
+	/**
+	 * Creates a parser that gathers RtData if requested, regardless of the
+	 * configuration.
+	 */
+	public WikitextParser(ParserConfig config, boolean gatherRtData)
 	{
 		this.config = config;
+		
+		this.gatherRtData = gatherRtData;
+		
+		this.internalLinkPrefixPattern =
+				WikitextParserState.compileInternalLinkPrefixPattern(config);
+		
+		this.internalLinkPostfixPattern =
+				WikitextParserState.compileInternalLinkPostfixPattern(config);
 	}
 	
 	// =========================================================================
@@ -68,13 +100,42 @@ public class WikitextParser
 	
 	public WtNode parseArticle(PreprocessedWikitext wikitext, String title) throws IOException, ParseException
 	{
-		Reader in = new StringReader(wikitext.getWikitext());
+		// Segmented wikitext is read directly, without rendering it into a
+		// string first.
+		SegmentedWikitext segments = wikitext.getSegments();
+		
+		CharSequence src;
+		Reader in;
+		if (segments != null)
+		{
+			src = segments;
+			in = segments.reader();
+		}
+		else
+		{
+			String str = wikitext.getWikitext();
+			src = str;
+			in = new StringReader(str);
+		}
+		
+		// The Rats! parser buffers characters, not bytes.
+		int inputSize = src.length();
+		
+		RatsWikitextParser parser = new RatsWikitextParser(in, title, inputSize);
 		
-		int inputSize = wikitext.getWikitext().getBytes().length;
+		parser.getState().init(
+				config,
+				wikitext.getEntityMap(),
+				internalLinkPrefixPattern,
+				internalLinkPostfixPattern);
 		
-		parser = new RatsWikitextParser(in, title, inputSize);
+		parser.getState().setGatherRtData(gatherRtData);
 		
-		parser.getState().init(config, wikitext.getEntityMap());
+		// Text nodes become windows of the preprocessed wikitext. Windows of
+		// segments would keep all segments and their sources reachable; text
+		// nodes read from segments get strings of their own instead.
+		if (config.isWindowedTextNodes() && segments == null)
+			parser.getState().setSource(src);
 		
 		parser.setNodeFactory(config.getNodeFactory());
 		
@@ -82,7 +143,7 @@ public class WikitextParser
 		
 		//RatsWikitextParser.enableStats();
 		{
-			r = this.parser.pArticle(0);
+			r = parser.pArticle(0);
 		}
 		if (RatsWikitextParser.isStatsEnabled())
 			RatsWikitextParser.getStats().dump(System.err);
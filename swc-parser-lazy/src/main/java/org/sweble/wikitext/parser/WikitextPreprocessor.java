@@ -32,19 +32,36 @@ import xtc.parser.Result;
 import xtc.parser.SemanticValue;
 import de.fau.cs.osr.ptk.common.ParserCommon;
 
+/**
+ * Preprocesses validated wikitext.
+ * 
+ * An instance does not keep any state between calls to parseArticle().
+ * Instances can therefore be reused for any number of pages and shared
+ * between threads.
+ */
 public class WikitextPreprocessor
 		extends
 			ParserCommon<WtNode>
 {
-	private RatsWikitextPreprocessor preprocessor = null;
-	
 	private final ParserConfig config;
 	
+	private final boolean gatherRtData;
+	
 	// =========================================================================
 	
 	public WikitextPreprocessor(ParserConfig config)
+	{
+		this(config, config.isGatherRtData());
+	}
+	
+	/**
+	 * Creates a preprocessor that gathers RtData if requested, regardless of
+	 * the configuration.
+	 */
+	public WikitextPreprocessor(ParserConfig config, boolean gatherRtData)
 	{
 		this.config = config;
+		this.gatherRtData = gatherRtData;
 	}
 	
 	// =========================================================================
@@ -68,17 +85,27 @@ public class WikitextPreprocessor
 			String title,
 			boolean forInclusion) throws IOException, ParseException
 	{
-		Reader in = new StringReader(wikitext.getWikitext());
+		String src = wikitext.getWikitext();
+		
+		Reader in = new StringReader(src);
 		
-		int inputSize = wikitext.getWikitext().getBytes().length;
+		// The Rats! parser buffers characters, not bytes.
+		int inputSize = src.length();
 		
-		preprocessor = new RatsWikitextPreprocessor(in, title, inputSize);
+		RatsWikitextPreprocessor preprocessor =
+				new RatsWikitextPreprocessor(in, title, inputSize);
 		
 		preprocessor.getState().init(config, wikitext.getEntityMap(), forInclusion);
 		
+		preprocessor.getState().setGatherRtData(gatherRtData);
+		
+		// Text nodes become windows of the validated wikitext.
+		if (config.isWindowedTextNodes())
+			preprocessor.getState().setSource(src);
+		
 		preprocessor.setNodeFactory(config.getNodeFactory());
 		
-		Result r = this.preprocessor.pArticle(0);
+		Result r = preprocessor.pArticle(0);
 		
 		if (r.hasValue())
 		{
@@ -17,10 +17,35 @@
 
 package org.sweble.wikitext.parser;
 
+import java.io.ObjectStreamField;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
 import org.sweble.wikitext.parser.nodes.WtNode;
 
 import de.fau.cs.osr.ptk.common.AstEntityMapImpl;
 
+/**
+ * Stores entities in a dense, growable array. The id of an entity is its
+ * index. Neither ids nor map entries are boxed unless the map view returned
+ * by {@link #getMap()} is used.
+ * 
+ * A map can be reused for another page after a call to {@link #clear()} if
+ * the pages processed with it before are no longer needed. The array keeps
+ * its capacity in that case.
+ * 
+ * The map still extends {@link AstEntityMapImpl} so that its Java serialized
+ * form stays the one of earlier versions: the entities are written into the
+ * map of the super class and read back from there. The inherited map is
+ * otherwise left empty. JSON serializers that work on the fields of an
+ * object see the array and the size.
+ */
 public class WtEntityMapImpl
 		extends
 			AstEntityMapImpl<WtNode>
@@ -28,4 +53,235 @@ public class WtEntityMapImpl
 			WtEntityMap
 {
 	private static final long serialVersionUID = -5463361855129034446L;
+	
+	/**
+	 * The array and the size are not part of the Java serialized form. See
+	 * {@link #writeReplace()}.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {};
+	
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	private WtNode[] entities;
+	
+	private int size;
+	
+	// =========================================================================
+	
+	public WtEntityMapImpl()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public WtEntityMapImpl(int capacity)
+	{
+		if (capacity < 0)
+			throw new IllegalArgumentException();
+		this.entities = new WtNode[Math.max(capacity, 1)];
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public int registerEntity(WtNode entity)
+	{
+		if (size == entities.length)
+			entities = Arrays.copyOf(entities, size * 2);
+		entities[size] = entity;
+		return size++;
+	}
+	
+	@Override
+	public WtNode getEntity(int id)
+	{
+		return (id >= 0 && id < size) ? entities[id] : null;
+	}
+	
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Removes all entities. The capacity of the map is retained.
+	 */
+	public void clear()
+	{
+		Arrays.fill(entities, 0, size, null);
+		size = 0;
+	}
+	
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity > entities.length)
+			entities = Arrays.copyOf(entities, Math.max(capacity, entities.length * 2));
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public Set<Entry<Integer, WtNode>> getEntities()
+	{
+		return getMap().entrySet();
+	}
+	
+	/**
+	 * Returns a read-only view of this map.
+	 */
+	@Override
+	public Map<Integer, WtNode> getMap()
+	{
+		return new MapView();
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public int hashCode()
+	{
+		int result = 1;
+		for (int i = 0; i < size; ++i)
+			result = 31 * result + ((entities[i] == null) ? 0 : entities[i].hashCode());
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		WtEntityMapImpl other = (WtEntityMapImpl) obj;
+		if (size != other.size)
+			return false;
+		for (int i = 0; i < size; ++i)
+		{
+			WtNode a = entities[i];
+			WtNode b = other.entities[i];
+			if (a == null ? b != null : !a.equals(b))
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "WtEntityMapImpl [size=" + size + "]";
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Writes the entities in the shape of earlier versions, which kept them
+	 * in the map of the super class.
+	 */
+	private Object writeReplace()
+	{
+		WtEntityMapImpl replacement = new WtEntityMapImpl(0);
+		for (int i = 0; i < size; ++i)
+			replacement.registerInherited(entities[i]);
+		return replacement;
+	}
+	
+	/**
+	 * Moves the entities read into the map of the super class into the array
+	 * of a new map.
+	 */
+	private Object readResolve()
+	{
+		WtEntityMapImpl resolved = new WtEntityMapImpl();
+		for (Entry<Integer, WtNode> e : super.getEntities())
+		{
+			int id = e.getKey();
+			resolved.ensureCapacity(id + 1);
+			resolved.entities[id] = e.getValue();
+			resolved.size = Math.max(resolved.size, id + 1);
+		}
+		return resolved;
+	}
+	
+	private void registerInherited(WtNode entity)
+	{
+		super.registerEntity(entity);
+	}
+	
+	// =========================================================================
+	
+	private final class MapView
+			extends
+				AbstractMap<Integer, WtNode>
+	{
+		@Override
+		public int size()
+		{
+			return size;
+		}
+		
+		@Override
+		public boolean containsKey(Object key)
+		{
+			return (key instanceof Integer)
+					&& (Integer) key >= 0
+					&& (Integer) key < size;
+		}
+		
+		@Override
+		public WtNode get(Object key)
+		{
+			return (key instanceof Integer) ? getEntity((Integer) key) : null;
+		}
+		
+		@Override
+		public Set<Entry<Integer, WtNode>> entrySet()
+		{
+			return new AbstractSet<Entry<Integer, WtNode>>()
+			{
+				@Override
+				public int size()
+				{
+					return size;
+				}
+				
+				@Override
+				public Iterator<Entry<Integer, WtNode>> iterator()
+				{
+					return new Iterator<Entry<Integer, WtNode>>()
+					{
+						private int next = 0;
+						
+						@Override
+						public boolean hasNext()
+						{
+							return next < size;
+						}
+						
+						@Override
+						public Entry<Integer, WtNode> next()
+						{
+							if (next >= size)
+								throw new NoSuchElementException();
+							int id = next++;
+							return new SimpleImmutableEntry<Integer, WtNode>(id, entities[id]);
+						}
+						
+						@Override
+						public void remove()
+						{
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
 }
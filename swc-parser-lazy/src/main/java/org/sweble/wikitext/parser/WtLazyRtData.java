@@ -0,0 +1,338 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sweble.wikitext.parser.nodes.WtNode;
+
+import de.fau.cs.osr.ptk.common.ast.AstLocation;
+
+/**
+ * Reconstructs the RtData of a page that was parsed without gathering
+ * RtData.
+ * 
+ * If {@link ParserConfig#isLazyRtData()} is set and RtData is not gathered,
+ * the parsing pipeline only records the source of the page and a way to
+ * process it again. The record is attached to the page node. When RtData is
+ * requested for the page or one of its subtrees, the source is processed
+ * once more with RtData gathering enabled and the RtData of the resulting
+ * tree is copied onto the matching nodes of the requested subtree. Pages
+ * that are never printed with RtData only pay for the recorded source.
+ * 
+ * Nodes that were added to the page after parsing or that have no
+ * counterpart in the reprocessed tree do not receive RtData and are
+ * printed as if RtData was not gathered. A node only receives the RtData of
+ * its counterpart if both start at the same position in the source. If they
+ * don't, the reprocessed tree does not belong to the page and restoring
+ * fails with an {@link IllegalStateException}.
+ * 
+ * Restoring RtData modifies the nodes of the page. It must not happen while
+ * other threads read the page.
+ * 
+ * The reprocessed tree is kept until the RtData of the whole page was
+ * restored, so that restoring several subtrees reprocesses the page only
+ * once. Until then, the page costs about twice its usual memory. Call
+ * {@link #restore(WtNode)} or {@link #discard(WtNode)} to release it.
+ */
+public final class WtLazyRtData
+		implements
+			Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	public static final String ATTR_NAME = "lazyRtd";
+	
+	// =========================================================================
+	
+	/**
+	 * Processes the source of a page again, this time gathering RtData. The
+	 * returned node must correspond to the page node the record is attached
+	 * to.
+	 */
+	public interface Reprocessor
+	{
+		WtNode reprocess(String source, String title) throws Exception;
+	}
+	
+	// =========================================================================
+	
+	private final String source;
+	
+	private final String title;
+	
+	/**
+	 * The reprocessor is not serialized. A de-serialized page cannot
+	 * reconstruct its RtData anymore.
+	 */
+	private transient Reprocessor reprocessor;
+	
+	private transient WtNode rtdPage;
+	
+	// =========================================================================
+	
+	private WtLazyRtData(String source, String title, Reprocessor reprocessor)
+	{
+		this.source = source;
+		this.title = title;
+		this.reprocessor = reprocessor;
+	}
+	
+	/**
+	 * Records the source of a page that was parsed without RtData.
+	 */
+	public static void attach(
+			WtNode page,
+			String source,
+			String title,
+			Reprocessor reprocessor)
+	{
+		if (source == null || reprocessor == null)
+			throw new NullPointerException();
+		
+		page.setAttribute(ATTR_NAME, new WtLazyRtData(source, title, reprocessor));
+	}
+	
+	public static WtLazyRtData get(WtNode page)
+	{
+		return (WtLazyRtData) page.getAttribute(ATTR_NAME);
+	}
+	
+	// =========================================================================
+	
+	public String getSource()
+	{
+		return source;
+	}
+	
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Reconstructs the RtData of a whole page. Does nothing if the page does
+	 * not carry a record.
+	 * 
+	 * @return Whether RtData was reconstructed.
+	 */
+	public static boolean restore(WtNode page)
+	{
+		return restore(page, page);
+	}
+	
+	/**
+	 * Reconstructs the RtData of a subtree of a page. Does nothing if the
+	 * page does not carry a record or the subtree is not part of the page.
+	 * 
+	 * Unless the subtree is the page itself, the reprocessed page stays in
+	 * memory for further calls.
+	 * 
+	 * @return Whether RtData was reconstructed.
+	 */
+	public static boolean restore(WtNode page, WtNode subtree)
+	{
+		WtLazyRtData lazy = get(page);
+		if (lazy == null)
+			return false;
+		
+		synchronized (lazy)
+		{
+			WtNode rtdPage = lazy.getRtdPage();
+			if (rtdPage == null)
+				return false;
+			
+			List<Integer> path = new ArrayList<Integer>();
+			if (!findPath(page, subtree, path))
+				return false;
+			
+			WtNode counterpart = rtdPage;
+			WtNode node = page;
+			for (int i : path)
+			{
+				counterpart = findCounterpart(node, i, counterpart);
+				if (counterpart == null)
+					return false;
+				node = node.get(i);
+			}
+			
+			transplant(subtree, counterpart);
+			
+			if (subtree == page)
+			{
+				// Every node that can have RtData got it. The record and the
+				// reprocessed tree are not needed anymore.
+				page.removeAttribute(ATTR_NAME);
+				lazy.rtdPage = null;
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Releases the reprocessed page kept for restoring subtrees. It will be
+	 * reprocessed again if RtData is requested once more.
+	 */
+	public static void discard(WtNode page)
+	{
+		WtLazyRtData lazy = get(page);
+		if (lazy == null)
+			return;
+		
+		synchronized (lazy)
+		{
+			lazy.rtdPage = null;
+		}
+	}
+	
+	private WtNode getRtdPage()
+	{
+		if (rtdPage == null && reprocessor != null)
+		{
+			try
+			{
+				rtdPage = reprocessor.reprocess(source, title);
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException(
+						"Reprocessing the page for RtData failed", e);
+			}
+		}
+		return rtdPage;
+	}
+	
+	// =========================================================================
+	
+	private static boolean findPath(WtNode node, WtNode target, List<Integer> path)
+	{
+		if (node == target)
+			return true;
+		
+		for (int i = 0; i < node.size(); ++i)
+		{
+			path.add(i);
+			if (findPath(node.get(i), target, path))
+				return true;
+			path.remove(path.size() - 1);
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the child of the reprocessed node that corresponds to the i-th
+	 * child of the given node.
+	 * 
+	 * If both nodes have the same number of children, children are matched
+	 * by position. Otherwise the postprocessor did not produce the same
+	 * tree (e.g. because repair nodes with RtData are kept) and children are
+	 * matched by type and source position in order.
+	 */
+	private static WtNode findCounterpart(WtNode node, int i, WtNode rtdNode)
+	{
+		WtNode child = node.get(i);
+		if (node.size() == rtdNode.size())
+		{
+			WtNode c = rtdNode.get(i);
+			return isSameKind(child, c) ? c : null;
+		}
+		
+		int j = 0;
+		for (int k = 0; k < node.size(); ++k)
+		{
+			WtNode n = node.get(k);
+			int l = j;
+			while (l < rtdNode.size() && !isCounterpart(n, rtdNode.get(l)))
+				++l;
+			if (l == rtdNode.size())
+			{
+				if (k == i)
+					return null;
+				continue;
+			}
+			if (k == i)
+				return rtdNode.get(l);
+			j = l + 1;
+		}
+		return null;
+	}
+	
+	private static boolean isCounterpart(WtNode a, WtNode b)
+	{
+		return isSameKind(a, b) && isSameSpan(a, b);
+	}
+	
+	private static boolean isSameKind(WtNode a, WtNode b)
+	{
+		return a.getClass() == b.getClass();
+	}
+	
+	/**
+	 * Whether two nodes start at the same position in the source. Nodes
+	 * without a location, like nodes added after parsing, match any node.
+	 */
+	private static boolean isSameSpan(WtNode a, WtNode b)
+	{
+		AstLocation x = a.getNativeLocation();
+		AstLocation y = b.getNativeLocation();
+		if (x == null || y == null)
+			return true;
+		
+		return (x.getLine() == y.getLine()) && (x.getColumn() == y.getColumn());
+	}
+	
+	private static void transplant(WtNode node, WtNode rtdNode)
+	{
+		// The fields of the RtData only fit if the children match.
+		WtRtData rtd = rtdNode.getRtd();
+		if (rtd != null
+				&& node.getRtd() == null
+				&& node.size() == rtdNode.size()
+				&& node.getNodeType() != WtNode.NT_TEXT)
+		{
+			if (!isSameSpan(node, rtdNode))
+			{
+				throw new IllegalStateException(
+						"Reprocessed page does not match: " + node.getNodeName()
+								+ " at " + node.getNativeLocation()
+								+ " corresponds to a node at " + rtdNode.getNativeLocation());
+			}
+			
+			try
+			{
+				node.setRtd(rtd.isSuppress() ? rtd : new WtRtData(rtd));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// Immutable nodes cannot take RtData.
+			}
+		}
+		
+		for (int i = 0; i < node.size(); ++i)
+		{
+			WtNode c = findCounterpart(node, i, rtdNode);
+			if (c != null)
+				transplant(node.get(i), c);
+		}
+	}
+}
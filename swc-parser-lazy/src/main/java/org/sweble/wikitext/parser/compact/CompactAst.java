@@ -0,0 +1,364 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.parser.compact;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+
+import de.fau.cs.osr.ptk.common.ast.AstLocation;
+
+/**
+ * An immutable AST that stores its nodes in a handful of primitive arrays
+ * instead of one object per node.
+ * 
+ * Nodes are numbered breadth-first, starting with the root as node 0. The
+ * children of a node therefore form a contiguous range of node ids. For
+ * every node the AST stores its kind, the range of its children and the
+ * span of source text it was printed from.
+ * 
+ * The content of text nodes and the glue of the round-trip data are
+ * (offset, length) slices of the source whenever they can be found there.
+ * This is the case for every node of an AST that was parsed from the source
+ * with round-trip data gathering enabled. Everything that cannot be sliced
+ * is stored in an object pool; equal strings share one entry.
+ * 
+ * A compact AST is read with a {@link CompactNodeView} or converted back
+ * into ordinary nodes with {@link #toWtNode()}.
+ */
+public final class CompactAst
+{
+	/** Returned by the span accessors if a node has no known source span. */
+	public static final int NO_OFFSET = -1;
+	
+	static final long NO_SPAN = -1L;
+	
+	static final int NONE = -1;
+	
+	/** The content of a string node equals its source span. */
+	static final int CONTENT_IS_SPAN = -2;
+	
+	static final int RTD_SUPPRESS = -2;
+	
+	// =========================================================================
+	
+	private final String source;
+	
+	private final NodeKind[] kindTable;
+	
+	private final int size;
+	
+	private final int[] kinds;
+	
+	private final int[] firstChild;
+	
+	private final int[] childCount;
+	
+	private final long[] spans;
+	
+	private final int[] data;
+	
+	private final int[] props;
+	
+	private final int[] rtd;
+	
+	private final int[] propValues;
+	
+	private final long[] rtdFields;
+	
+	private final Object[] objects;
+	
+	private final long[] locations;
+	
+	private final int[] locationFiles;
+	
+	private final Map<Integer, Map<String, Object>> attributes;
+	
+	// =========================================================================
+	
+	CompactAst(
+			String source,
+			NodeKind[] kindTable,
+			int size,
+			int[] kinds,
+			int[] firstChild,
+			int[] childCount,
+			long[] spans,
+			int[] data,
+			int[] props,
+			int[] rtd,
+			int[] propValues,
+			long[] rtdFields,
+			Object[] objects,
+			long[] locations,
+			int[] locationFiles,
+			Map<Integer, Map<String, Object>> attributes)
+	{
+		this.source = source;
+		this.kindTable = kindTable;
+		this.size = size;
+		this.kinds = kinds;
+		this.firstChild = firstChild;
+		this.childCount = childCount;
+		this.spans = spans;
+		this.data = data;
+		this.props = props;
+		this.rtd = rtd;
+		this.propValues = propValues;
+		this.rtdFields = rtdFields;
+		this.objects = objects;
+		this.locations = locations;
+		this.locationFiles = locationFiles;
+		this.attributes = attributes;
+	}
+	
+	/**
+	 * Converts an AST into its compact form.
+	 * 
+	 * @param root
+	 *            The root of the AST. The AST is not altered.
+	 * @param source
+	 *            The wikitext the AST was parsed from. Text and round-trip
+	 *            data that cannot be found in the source are stored as
+	 *            copies.
+	 */
+	public static CompactAst compact(WtNode root, String source)
+	{
+		return new CompactAstBuilder(source).build(root);
+	}
+	
+	// =========================================================================
+	
+	public String getSource()
+	{
+		return source;
+	}
+	
+	/**
+	 * Returns the number of nodes, including <code>null</code> children.
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	public CompactNodeView getRoot()
+	{
+		return new CompactNodeView(this, 0);
+	}
+	
+	/**
+	 * Returns a view of the given node. Shared immutable nodes and
+	 * <code>null</code> children are returned as they are.
+	 */
+	public WtNode view(int node)
+	{
+		NodeKind kind = kind(node);
+		if (kind == NodeKind.NULL)
+			return null;
+		if (kind == NodeKind.OPAQUE)
+			return (WtNode) objects[data[node]];
+		return new CompactNodeView(this, node);
+	}
+	
+	/**
+	 * Converts the whole AST back into ordinary nodes.
+	 */
+	public WtNode toWtNode()
+	{
+		return toWtNode(0);
+	}
+	
+	/**
+	 * Converts the subtree rooted at the given node back into ordinary
+	 * nodes. The result is a mutable deep copy, except for shared immutable
+	 * nodes.
+	 */
+	public WtNode toWtNode(int node)
+	{
+		NodeKind kind = kind(node);
+		if (kind == NodeKind.NULL)
+			return null;
+		if (kind == NodeKind.OPAQUE)
+			return (WtNode) objects[data[node]];
+		
+		WtNode n = kind.newInstance();
+		
+		if (kind.stringNode)
+			((WtStringNode) n).setContent(getContent(node));
+		
+		int p = props[node];
+		for (int i = 0; i < kind.propertyNames.length; ++i)
+			n.setProperty(kind.propertyNames[i], objects[propValues[p + i]]);
+		
+		int first = firstChild[node];
+		int count = childCount[node];
+		for (int i = 0; i < count; ++i)
+		{
+			WtNode child = toWtNode(first + i);
+			if (kind.list)
+				n.add(child);
+			else
+				n.set(i, child);
+		}
+		
+		if (rtd[node] == RTD_SUPPRESS)
+			n.suppressRtd();
+		else if (rtd[node] != NONE)
+			n.setRtd(getRtd(node));
+		
+		AstLocation location = getNativeLocation(node);
+		if (location != null)
+			n.setNativeLocation(location);
+		
+		Map<String, Object> attrs = attributes.get(node);
+		if (attrs != null)
+			n.setAttributes(new HashMap<String, Object>(attrs));
+		
+		return n;
+	}
+	
+	// =========================================================================
+	
+	public int getNodeType(int node)
+	{
+		return kind(node).nodeType;
+	}
+	
+	public String getNodeName(int node)
+	{
+		return kind(node).nodeName;
+	}
+	
+	public int getChildCount(int node)
+	{
+		return childCount[node];
+	}
+	
+	/**
+	 * Returns the id of the given child.
+	 */
+	public int getChild(int node, int index)
+	{
+		if (index < 0 || index >= childCount[node])
+			throw new IndexOutOfBoundsException();
+		return firstChild[node] + index;
+	}
+	
+	/**
+	 * Returns the offset in the source at which the given node starts or
+	 * {@link #NO_OFFSET} if the node could not be located in the source.
+	 */
+	public int getSourceStart(int node)
+	{
+		long span = spans[node];
+		return (span == NO_SPAN) ? NO_OFFSET : (int) (span >>> 32);
+	}
+	
+	/**
+	 * Returns the offset in the source at which the given node ends or
+	 * {@link #NO_OFFSET} if the node could not be located in the source.
+	 */
+	public int getSourceEnd(int node)
+	{
+		long span = spans[node];
+		return (span == NO_SPAN) ? NO_OFFSET : (int) span;
+	}
+	
+	/**
+	 * Returns the content of a string node like a text node or
+	 * <code>null</code> for all other nodes.
+	 */
+	public String getContent(int node)
+	{
+		if (!kind(node).stringNode)
+			return null;
+		
+		int d = data[node];
+		if (d == CONTENT_IS_SPAN)
+			return source.substring(getSourceStart(node), getSourceEnd(node));
+		return (String) objects[d];
+	}
+	
+	/**
+	 * Rebuilds the round-trip data of the given node.
+	 * 
+	 * @return The round-trip data or <code>null</code> if the node has none.
+	 */
+	public WtRtData getRtd(int node)
+	{
+		int r = rtd[node];
+		if (r == NONE)
+			return null;
+		if (r == RTD_SUPPRESS)
+			return WtRtData.SUPPRESS;
+		
+		int fields = (int) rtdFields[r];
+		WtRtData result = new WtRtData(fields);
+		for (int i = 0; i < fields; ++i)
+		{
+			long field = rtdFields[r + 1 + i];
+			if (field >= 0)
+			{
+				int start = (int) (field >>> 32);
+				int length = (int) field;
+				result.setField(i, source.substring(start, start + length));
+			}
+			else
+			{
+				result.setField(i, (Object[]) objects[(int) (-field - 1)]);
+			}
+		}
+		return result;
+	}
+	
+	public AstLocation getNativeLocation(int node)
+	{
+		if (locations == null || locations[node] == NO_SPAN)
+			return null;
+		
+		long location = locations[node];
+		return new AstLocation(
+				(String) objects[locationFiles[node]],
+				(int) (location >>> 32),
+				(int) location);
+	}
+	
+	public Map<String, Object> getAttributes(int node)
+	{
+		Map<String, Object> attrs = attributes.get(node);
+		if (attrs == null)
+			return Collections.emptyMap();
+		return Collections.unmodifiableMap(attrs);
+	}
+	
+	// =========================================================================
+	
+	NodeKind kind(int node)
+	{
+		return kindTable[kinds[node]];
+	}
+	
+	Object getProperty(int node, int index)
+	{
+		return objects[propValues[props[node] + index]];
+	}
+}
@@ -0,0 +1,474 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.parser.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.nodes.WtContentNode;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+import org.sweble.wikitext.parser.utils.WtRtDataPrinter;
+
+import de.fau.cs.osr.ptk.common.ast.AstLocation;
+
+/**
+ * Builds a {@link CompactAst} in two passes.
+ * 
+ * The first pass numbers the nodes breadth-first and records kinds, child
+ * ranges, properties and locations. The second pass walks the nodes in the
+ * order in which the {@link WtRtDataPrinter} prints them and matches text
+ * and round-trip data against the source. As long as everything matches,
+ * the position in the source is known and nodes get a source span.
+ * 
+ * Text that is not found at the expected position is searched for a little
+ * further ahead. This keeps text nodes sliceable in ASTs without round-trip
+ * data, where the markup between text nodes is not part of the AST.
+ */
+final class CompactAstBuilder
+{
+	/** How far ahead of the expected position text is searched for. */
+	private static final int SEARCH_WINDOW = 256;
+	
+	// =========================================================================
+	
+	private final String source;
+	
+	private final ArrayList<NodeKind> kindTable = new ArrayList<NodeKind>();
+	
+	private final IdentityHashMap<NodeKind, Integer> kindIds =
+			new IdentityHashMap<NodeKind, Integer>();
+	
+	private final ArrayList<Object> objects = new ArrayList<Object>();
+	
+	private final HashMap<Object, Integer> pooledValues = new HashMap<Object, Integer>();
+	
+	private final HashMap<Integer, Map<String, Object>> attributes =
+			new HashMap<Integer, Map<String, Object>>();
+	
+	private int size = 0;
+	
+	private WtNode[] nodes;
+	
+	private int[] kinds;
+	
+	private int[] firstChild;
+	
+	private int[] childCount;
+	
+	private long[] spans;
+	
+	private int[] data;
+	
+	private int[] props;
+	
+	private int[] rtd;
+	
+	private long[] locations;
+	
+	private int[] locationFiles;
+	
+	private int[] propValues = new int[64];
+	
+	private int propValuesSize = 0;
+	
+	private long[] rtdFields = new long[64];
+	
+	private int rtdFieldsSize = 0;
+	
+	private int pos = 0;
+	
+	private int misses = 0;
+	
+	// =========================================================================
+	
+	CompactAstBuilder(String source)
+	{
+		this.source = source;
+		allocate(256);
+	}
+	
+	CompactAst build(WtNode root)
+	{
+		add(root);
+		
+		for (int i = 0; i < size; ++i)
+		{
+			NodeKind kind = kindTable.get(kinds[i]);
+			
+			firstChild[i] = size;
+			if (kind == NodeKind.NULL || kind == NodeKind.OPAQUE)
+				continue;
+			
+			WtNode n = nodes[i];
+			childCount[i] = n.size();
+			for (WtNode child : n)
+				add(child);
+		}
+		
+		align(0);
+		
+		return new CompactAst(
+				source,
+				kindTable.toArray(new NodeKind[kindTable.size()]),
+				size,
+				Arrays.copyOf(kinds, size),
+				Arrays.copyOf(firstChild, size),
+				Arrays.copyOf(childCount, size),
+				Arrays.copyOf(spans, size),
+				Arrays.copyOf(data, size),
+				Arrays.copyOf(props, size),
+				Arrays.copyOf(rtd, size),
+				Arrays.copyOf(propValues, propValuesSize),
+				Arrays.copyOf(rtdFields, rtdFieldsSize),
+				objects.toArray(),
+				(locations != null) ? Arrays.copyOf(locations, size) : null,
+				(locations != null) ? Arrays.copyOf(locationFiles, size) : null,
+				attributes);
+	}
+	
+	// =========================================================================
+	
+	private void add(WtNode node)
+	{
+		if (size == kinds.length)
+			allocate(size * 2);
+		
+		int id = size++;
+		NodeKind kind = NodeKind.of(node);
+		
+		nodes[id] = node;
+		kinds[id] = kindId(kind);
+		spans[id] = CompactAst.NO_SPAN;
+		data[id] = CompactAst.NONE;
+		props[id] = CompactAst.NONE;
+		rtd[id] = CompactAst.NONE;
+		
+		if (kind == NodeKind.NULL)
+			return;
+		
+		if (kind == NodeKind.OPAQUE)
+		{
+			data[id] = pool(node);
+			return;
+		}
+		
+		if (kind.propertyNames.length > 0)
+		{
+			props[id] = propValuesSize;
+			for (String name : kind.propertyNames)
+			{
+				if (propValuesSize == propValues.length)
+					propValues = Arrays.copyOf(propValues, propValuesSize * 2);
+				propValues[propValuesSize++] = pool(node.getProperty(name));
+			}
+		}
+		
+		AstLocation location = node.getNativeLocation();
+		if (location != null)
+		{
+			if (locations == null)
+			{
+				locations = new long[kinds.length];
+				locationFiles = new int[kinds.length];
+				Arrays.fill(locations, CompactAst.NO_SPAN);
+			}
+			
+			locations[id] = pack(location.getLine(), location.getColumn());
+			locationFiles[id] = pool(location.getFile());
+		}
+		
+		if (node.hasAttributes() && !node.getAttributes().isEmpty())
+			attributes.put(id, new HashMap<String, Object>(node.getAttributes()));
+	}
+	
+	private void allocate(int capacity)
+	{
+		if (nodes == null)
+		{
+			nodes = new WtNode[capacity];
+			kinds = new int[capacity];
+			firstChild = new int[capacity];
+			childCount = new int[capacity];
+			spans = new long[capacity];
+			data = new int[capacity];
+			props = new int[capacity];
+			rtd = new int[capacity];
+			return;
+		}
+		
+		nodes = Arrays.copyOf(nodes, capacity);
+		kinds = Arrays.copyOf(kinds, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		childCount = Arrays.copyOf(childCount, capacity);
+		spans = Arrays.copyOf(spans, capacity);
+		data = Arrays.copyOf(data, capacity);
+		props = Arrays.copyOf(props, capacity);
+		rtd = Arrays.copyOf(rtd, capacity);
+		
+		if (locations != null)
+		{
+			int old = locations.length;
+			locations = Arrays.copyOf(locations, capacity);
+			locationFiles = Arrays.copyOf(locationFiles, capacity);
+			Arrays.fill(locations, old, capacity, CompactAst.NO_SPAN);
+		}
+	}
+	
+	private int kindId(NodeKind kind)
+	{
+		Integer id = kindIds.get(kind);
+		if (id == null)
+		{
+			id = kindTable.size();
+			kindTable.add(kind);
+			kindIds.put(kind, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Adds an object to the object pool. Strings and other values share one
+	 * entry if they are equal, everything else is added by reference.
+	 */
+	private int pool(Object value)
+	{
+		boolean shareable = (value == null)
+				|| (value instanceof String)
+				|| (value instanceof Number)
+				|| (value instanceof Boolean)
+				|| (value instanceof Character)
+				|| (value instanceof Enum);
+		
+		if (shareable)
+		{
+			Integer index = pooledValues.get(value);
+			if (index != null)
+				return index;
+			pooledValues.put(value, objects.size());
+		}
+		
+		objects.add(value);
+		return objects.size() - 1;
+	}
+	
+	// =========================================================================
+	
+	private void align(int id)
+	{
+		NodeKind kind = kindTable.get(kinds[id]);
+		if (kind == NodeKind.NULL)
+			return;
+		
+		WtNode n = nodes[id];
+		
+		int start = pos;
+		int missesBefore = misses;
+		
+		if (kind == NodeKind.OPAQUE)
+		{
+			skip(WtRtDataPrinter.print(n));
+		}
+		else if (kind.nodeType == WtNode.NT_TEXT)
+		{
+			alignText(id, ((WtStringNode) n).getContent());
+			return;
+		}
+		else if (kind.nodeType == WtNode.NT_NODE_LIST)
+		{
+			// The printer ignores the RTD of lists
+			WtRtData r = n.getRtd();
+			if (r != null)
+				storeRtd(id, r, 0);
+			alignChildren(id, 0, childCount[id]);
+		}
+		else
+		{
+			WtRtData r = n.getRtd();
+			if (r == null)
+			{
+				if (kind.stringNode)
+				{
+					alignText(id, ((WtStringNode) n).getContent());
+					return;
+				}
+				
+				alignChildren(id, 0, childCount[id]);
+			}
+			else if (r.isSuppress())
+			{
+				rtd[id] = CompactAst.RTD_SUPPRESS;
+				if (kind.stringNode)
+					data[id] = pool(((WtStringNode) n).getContent());
+			}
+			else if (kind.stringNode)
+			{
+				data[id] = pool(((WtStringNode) n).getContent());
+				
+				int f = storeRtd(id, r, 1);
+				setField(f, alignField(r.getField(0)));
+			}
+			else if (n instanceof WtContentNode)
+			{
+				int f = storeRtd(id, r, 2);
+				setField(f, alignField(r.getField(0)));
+				alignChildren(id, 0, childCount[id]);
+				setField(f + 1, alignField(r.getField(1)));
+			}
+			else
+			{
+				int count = childCount[id];
+				int f = storeRtd(id, r, count + 1);
+				for (int i = 0; i < count; ++i)
+				{
+					setField(f + i, alignField(r.getField(i)));
+					alignChildren(id, i, i + 1);
+				}
+				setField(f + count, alignField(r.getField(count)));
+			}
+		}
+		
+		if (misses == missesBefore)
+			spans[id] = pack(start, pos);
+	}
+	
+	private void alignChildren(int id, int from, int to)
+	{
+		int first = firstChild[id];
+		for (int i = from; i < to; ++i)
+			align(first + i);
+	}
+	
+	private void alignText(int id, String content)
+	{
+		int at = find(content);
+		if (at < 0)
+		{
+			data[id] = pool(content);
+			++misses;
+			return;
+		}
+		
+		// Something between here and the text was not printed
+		if (at != pos)
+			++misses;
+		
+		pos = at + content.length();
+		data[id] = CompactAst.CONTENT_IS_SPAN;
+		spans[id] = pack(at, pos);
+	}
+	
+	private int find(String text)
+	{
+		int length = text.length();
+		int limit = Math.min(pos + SEARCH_WINDOW, source.length() - length);
+		for (int at = pos; at <= limit; ++at)
+		{
+			if (source.regionMatches(at, text, 0, length))
+				return at;
+		}
+		return -1;
+	}
+	
+	private void skip(String text)
+	{
+		if (source.startsWith(text, pos))
+			pos += text.length();
+		else
+			++misses;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Reserves the fields of a node's RTD. Fields the printer prints are
+	 * filled in by the caller, starting with the first of the returned
+	 * index. Fields beyond the given number of printed fields are stored
+	 * as they are.
+	 */
+	private int storeRtd(int id, WtRtData r, int printed)
+	{
+		int fields = r.size();
+		
+		int required = rtdFieldsSize + fields + 1;
+		if (required > rtdFields.length)
+			rtdFields = Arrays.copyOf(rtdFields, Math.max(rtdFields.length * 2, required));
+		
+		rtd[id] = rtdFieldsSize;
+		rtdFields[rtdFieldsSize] = fields;
+		
+		int first = rtdFieldsSize + 1;
+		rtdFieldsSize += fields + 1;
+		
+		for (int i = printed; i < fields; ++i)
+			setField(first + i, -pool(r.getField(i)) - 1L);
+		
+		return first;
+	}
+	
+	private void setField(int index, long field)
+	{
+		rtdFields[index] = field;
+	}
+	
+	/**
+	 * Matches a printed field of round-trip data against the source.
+	 * 
+	 * @return Either the source slice of the field or the negative index of
+	 *         the glue in the object pool, minus one.
+	 */
+	private long alignField(Object[] glue)
+	{
+		boolean plain = true;
+		StringBuilder text = new StringBuilder();
+		for (Object o : glue)
+		{
+			if (o instanceof WtNode)
+			{
+				plain = false;
+				text.append(WtRtDataPrinter.print((WtNode) o));
+			}
+			else
+			{
+				text.append(String.valueOf(o));
+			}
+		}
+		
+		int length = text.length();
+		boolean matches = source.regionMatches(pos, text.toString(), 0, length);
+		
+		long field = (plain && matches) ?
+				pack(pos, length) :
+				-pool(glue) - 1L;
+		
+		if (matches)
+			pos += length;
+		else
+			++misses;
+		
+		return field;
+	}
+	
+	private static long pack(int high, int low)
+	{
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+}
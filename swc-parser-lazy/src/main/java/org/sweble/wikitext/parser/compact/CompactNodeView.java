@@ -0,0 +1,558 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.parser.compact;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Map;
+
+import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.nodes.WtNode;
+
+import xtc.tree.Locatable;
+import xtc.tree.Location;
+import xtc.util.Pair;
+import de.fau.cs.osr.ptk.common.ast.AstLocation;
+import de.fau.cs.osr.ptk.common.ast.AstNode;
+import de.fau.cs.osr.ptk.common.ast.AstNodePropertyIterator;
+
+/**
+ * A read-only {@link WtNode} backed by a node of a {@link CompactAst}.
+ * 
+ * A view only holds the AST and a node id. Children, properties and
+ * round-trip data are read from the compact AST when they are asked for,
+ * so walking a compact AST only allocates short-lived views.
+ * 
+ * A view is not an instance of a concrete node class like
+ * <code>WtText</code> or <code>WtBold</code>, nor of interfaces like
+ * <code>WtStringNode</code> or <code>WtContentNode</code>. Only code that
+ * works on node types, children, properties and round-trip data alone can
+ * process a compact AST directly. The round-trip data printer is such code,
+ * it asks {@link #isStringNode()} and {@link #isContentNode()} instead of
+ * checking the class of a view. Other visitors and printers dispatch on
+ * node classes and need ordinary nodes, as does code that modifies the AST;
+ * {@link #toWtNode()} converts the subtree of a view into ordinary nodes.
+ */
+public final class CompactNodeView
+		extends
+			AbstractList<WtNode>
+		implements
+			WtNode
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final CompactAst ast;
+	
+	private final int id;
+	
+	// =========================================================================
+	
+	CompactNodeView(CompactAst ast, int id)
+	{
+		this.ast = ast;
+		this.id = id;
+	}
+	
+	// =========================================================================
+	
+	public CompactAst getAst()
+	{
+		return ast;
+	}
+	
+	public int getId()
+	{
+		return id;
+	}
+	
+	/**
+	 * Converts the subtree of this view into ordinary nodes.
+	 */
+	public WtNode toWtNode()
+	{
+		return ast.toWtNode(id);
+	}
+	
+	/**
+	 * Whether this is a view of a node implementing
+	 * <code>WtStringNode</code>, like a text node.
+	 */
+	public boolean isStringNode()
+	{
+		return ast.kind(id).stringNode;
+	}
+	
+	/**
+	 * Whether this is a view of a node implementing
+	 * <code>WtContentNode</code>, like a bold node.
+	 */
+	public boolean isContentNode()
+	{
+		return ast.kind(id).contentNode;
+	}
+	
+	/**
+	 * Returns the content if this is a view of a string node like a text
+	 * node, otherwise <code>null</code>.
+	 */
+	public String getContent()
+	{
+		return ast.getContent(id);
+	}
+	
+	/**
+	 * @see CompactAst#getSourceStart(int)
+	 */
+	public int getSourceStart()
+	{
+		return ast.getSourceStart(id);
+	}
+	
+	/**
+	 * @see CompactAst#getSourceEnd(int)
+	 */
+	public int getSourceEnd()
+	{
+		return ast.getSourceEnd(id);
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public void setRtd(WtRtData rtd)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public void setRtd(Object... glue)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public void setRtd(String... glue)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public WtRtData getRtd()
+	{
+		return ast.getRtd(id);
+	}
+	
+	@Override
+	public void clearRtd()
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public void suppressRtd()
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	// =========================================================================
+	
+	protected String genMsg()
+	{
+		return "You are operating on a read-only view of a compact " + getNodeName() + " node!";
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public boolean hasLocation()
+	{
+		return ast.getNativeLocation(id) != null;
+	}
+	
+	@Override
+	public Location getLocation()
+	{
+		AstLocation location = ast.getNativeLocation(id);
+		if (location == null)
+			return null;
+		return new Location(location.getFile(), location.getLine(), location.getColumn());
+	}
+	
+	@Override
+	public void setLocation(Location location)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public void setLocation(Locatable locatable)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public AstLocation getNativeLocation()
+	{
+		return ast.getNativeLocation(id);
+	}
+	
+	@Override
+	public void setNativeLocation(AstLocation location)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public boolean hasAttributes()
+	{
+		return !ast.getAttributes(id).isEmpty();
+	}
+	
+	@Override
+	public Map<String, Object> getAttributes()
+	{
+		return ast.getAttributes(id);
+	}
+	
+	@Override
+	public void setAttributes(Map<String, Object> attrs)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public void clearAttributes()
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public boolean hasAttribute(String name)
+	{
+		return ast.getAttributes(id).containsKey(name);
+	}
+	
+	@Override
+	public Object getAttribute(String name)
+	{
+		return ast.getAttributes(id).get(name);
+	}
+	
+	@Override
+	public Object setAttribute(String name, Object value)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public Object removeAttribute(String name)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public int getIntAttribute(String name)
+	{
+		Object value = getAttribute(name);
+		return (value != null) ? (Integer) value : 0;
+	}
+	
+	@Override
+	public Integer setIntAttribute(String name, Integer value)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public boolean getBooleanAttribute(String name)
+	{
+		Object value = getAttribute(name);
+		return (value != null) && (Boolean) value;
+	}
+	
+	@Override
+	public boolean setBooleanAttribute(String name, boolean value)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public String getStringAttribute(String name)
+	{
+		return (String) getAttribute(name);
+	}
+	
+	@Override
+	public String setStringAttribute(String name, String value)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public boolean hasProperties()
+	{
+		return true;
+	}
+	
+	/**
+	 * The stored properties of the node, followed by its content if it is a
+	 * string node, followed by its round-trip data.
+	 */
+	@Override
+	public int getPropertyCount()
+	{
+		NodeKind kind = ast.kind(id);
+		return kind.propertyNames.length + (kind.stringNode ? 2 : 1);
+	}
+	
+	@Override
+	public Object getProperty(String name)
+	{
+		int index = indexOfProperty(name);
+		if (index < 0)
+			throw new IllegalArgumentException("No property " + name + " in " + getNodeName());
+		return getPropertyValue(index);
+	}
+	
+	@Override
+	public Object getProperty(String name, Object default_)
+	{
+		int index = indexOfProperty(name);
+		return (index < 0) ? default_ : getPropertyValue(index);
+	}
+	
+	@Override
+	public boolean hasProperty(String name)
+	{
+		return indexOfProperty(name) >= 0;
+	}
+	
+	@Override
+	public Object setProperty(String name, Object value)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public AstNodePropertyIterator propertyIterator()
+	{
+		return new AstNodePropertyIterator()
+		{
+			@Override
+			protected int getPropertyCount()
+			{
+				return CompactNodeView.this.getPropertyCount();
+			}
+			
+			@Override
+			protected String getName(int index)
+			{
+				return getPropertyName(index);
+			}
+			
+			@Override
+			protected Object getValue(int index)
+			{
+				return getPropertyValue(index);
+			}
+			
+			@Override
+			protected Object setValue(int index, Object value)
+			{
+				throw new UnsupportedOperationException(genMsg());
+			}
+		};
+	}
+	
+	private String getPropertyName(int index)
+	{
+		NodeKind kind = ast.kind(id);
+		int stored = kind.propertyNames.length;
+		if (index < stored)
+			return kind.propertyNames[index];
+		if (kind.stringNode && index == stored)
+			return "content";
+		if (index < getPropertyCount())
+			return "rtd";
+		throw new IndexOutOfBoundsException();
+	}
+	
+	private Object getPropertyValue(int index)
+	{
+		NodeKind kind = ast.kind(id);
+		int stored = kind.propertyNames.length;
+		if (index < stored)
+			return ast.getProperty(id, index);
+		if (kind.stringNode && index == stored)
+			return getContent();
+		if (index < getPropertyCount())
+			return getRtd();
+		throw new IndexOutOfBoundsException();
+	}
+	
+	private int indexOfProperty(String name)
+	{
+		int count = getPropertyCount();
+		for (int i = 0; i < count; ++i)
+		{
+			if (getPropertyName(i).equals(name))
+				return i;
+		}
+		return -1;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public int getNodeType()
+	{
+		return ast.getNodeType(id);
+	}
+	
+	@Override
+	public boolean isNodeType(int testType)
+	{
+		return getNodeType() == testType;
+	}
+	
+	@Override
+	public String getNodeTypeName()
+	{
+		return ast.kind(id).constructor.getDeclaringClass().getName();
+	}
+	
+	@Override
+	public String getNodeName()
+	{
+		return ast.getNodeName(id);
+	}
+	
+	@Override
+	public boolean isList()
+	{
+		return ast.kind(id).list;
+	}
+	
+	@Override
+	public String[] getChildNames()
+	{
+		return ast.kind(id).childNames.clone();
+	}
+	
+	@Override
+	public void toString(Appendable out) throws IOException
+	{
+		toWtNode().toString(out);
+	}
+	
+	/**
+	 * Returns a mutable deep copy of the subtree of this view.
+	 */
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		return toWtNode();
+	}
+	
+	@Override
+	public AstNode<WtNode> cloneWrapException()
+	{
+		return toWtNode();
+	}
+	
+	@Override
+	public AstNode<WtNode> deepClone() throws CloneNotSupportedException
+	{
+		return toWtNode();
+	}
+	
+	@Override
+	public AstNode<WtNode> deepCloneWrapException()
+	{
+		return toWtNode();
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public WtNode get(int index)
+	{
+		return ast.view(ast.getChild(id, index));
+	}
+	
+	@Override
+	public <S extends WtNode> S get(int index, Class<S> clazz)
+	{
+		return clazz.cast(get(index));
+	}
+	
+	@Override
+	public int size()
+	{
+		return ast.getChildCount(id);
+	}
+	
+	@Override
+	public boolean addAll(Pair<? extends WtNode> p)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	@Override
+	public boolean addAll(Collection<? extends WtNode> c)
+	{
+		throw new UnsupportedOperationException(genMsg());
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CompactNodeView))
+			return false;
+		CompactNodeView other = (CompactNodeView) obj;
+		return (ast == other.ast) && (id == other.id);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return System.identityHashCode(ast) * 31 + id;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return toWtNode().toString();
+	}
+	
+	/**
+	 * A view is serialized as ordinary nodes.
+	 */
+	private Object writeReplace()
+	{
+		return toWtNode();
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.parser.compact;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sweble.wikitext.parser.nodes.WtContentNode;
+import org.sweble.wikitext.parser.nodes.WtEmptyImmutableNode;
+import org.sweble.wikitext.parser.nodes.WtInnerImmutableNode1;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+
+import de.fau.cs.osr.ptk.common.ast.AstNodePropertyIterator;
+
+/**
+ * Describes one node class for the compact AST: how to create an instance
+ * and which properties are stored besides children, content and RTD.
+ * 
+ * Nodes that cannot be re-created from their class, like the shared
+ * immutable <code>WtBody.NO_BODY</code> or <code>WtNodeList.EMPTY</code>,
+ * are described by {@link #OPAQUE} and stored by reference.
+ */
+final class NodeKind
+{
+	/** Kind of a <code>null</code> child. */
+	static final NodeKind NULL = new NodeKind();
+	
+	/** Kind of a node that is stored by reference. */
+	static final NodeKind OPAQUE = new NodeKind();
+	
+	private static final ConcurrentHashMap<Class<?>, NodeKind> KINDS =
+			new ConcurrentHashMap<Class<?>, NodeKind>();
+	
+	private static final String[] NO_NAMES = new String[0];
+	
+	// =========================================================================
+	
+	final Constructor<?> constructor;
+	
+	final int nodeType;
+	
+	final String nodeName;
+	
+	final boolean list;
+	
+	final boolean stringNode;
+	
+	final boolean contentNode;
+	
+	final String[] propertyNames;
+	
+	final String[] childNames;
+	
+	// =========================================================================
+	
+	private NodeKind()
+	{
+		this.constructor = null;
+		this.nodeType = -1;
+		this.nodeName = null;
+		this.list = false;
+		this.stringNode = false;
+		this.contentNode = false;
+		this.propertyNames = NO_NAMES;
+		this.childNames = NO_NAMES;
+	}
+	
+	private NodeKind(WtNode node, Constructor<?> constructor)
+	{
+		this.constructor = constructor;
+		this.nodeType = node.getNodeType();
+		this.nodeName = node.getNodeName();
+		this.list = node.isList();
+		this.stringNode = (node instanceof WtStringNode);
+		this.contentNode = (node instanceof WtContentNode);
+		this.childNames = node.getChildNames();
+		
+		ArrayList<String> names = new ArrayList<String>();
+		AstNodePropertyIterator i = node.propertyIterator();
+		while (i.next())
+		{
+			if (isStoredProperty(i.getName()))
+				names.add(i.getName());
+		}
+		this.propertyNames = names.toArray(new String[names.size()]);
+	}
+	
+	// =========================================================================
+	
+	static NodeKind of(WtNode node)
+	{
+		if (node == null)
+			return NULL;
+		
+		// Shared instances must stay shared
+		if (node instanceof WtEmptyImmutableNode || node instanceof WtInnerImmutableNode1)
+			return OPAQUE;
+		
+		Class<?> clazz = node.getClass();
+		NodeKind kind = KINDS.get(clazz);
+		if (kind == null)
+		{
+			kind = create(node);
+			NodeKind previous = KINDS.putIfAbsent(clazz, kind);
+			if (previous != null)
+				kind = previous;
+		}
+		return kind;
+	}
+	
+	private static NodeKind create(WtNode node)
+	{
+		Constructor<?> constructor;
+		try
+		{
+			constructor = node.getClass().getDeclaredConstructor();
+			constructor.setAccessible(true);
+		}
+		catch (NoSuchMethodException e)
+		{
+			return OPAQUE;
+		}
+		catch (SecurityException e)
+		{
+			return OPAQUE;
+		}
+		return new NodeKind(node, constructor);
+	}
+	
+	// =========================================================================
+	
+	boolean isStoredProperty(String name)
+	{
+		// RTD and content are stored separately
+		return !name.equals("rtd") && !(stringNode && name.equals("content"));
+	}
+	
+	WtNode newInstance()
+	{
+		try
+		{
+			return (WtNode) constructor.newInstance();
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(
+					"Cannot instantiate " + constructor.getDeclaringClass().getName(), e);
+		}
+	}
+}
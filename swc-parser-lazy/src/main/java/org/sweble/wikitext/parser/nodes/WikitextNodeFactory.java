@@ -284,4 +284,11 @@ public interface WikitextNodeFactory
 	// -- Text -----------------------------------------------------------------
 	
 	WtText text(String content);
+	
+	/**
+	 * Creates a text node whose content is the window [start, end) of the
+	 * given source buffer. The content is only copied into a string when it
+	 * is requested.
+	 */
+	WtText text(CharSequence source, int start, int end);
 }
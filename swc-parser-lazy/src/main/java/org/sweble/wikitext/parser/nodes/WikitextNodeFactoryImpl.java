@@ -1017,4 +1017,10 @@ public class WikitextNodeFactoryImpl
 	{
 		return new WtText(content);
 	}
+	
+	@Override
+	public WtText text(CharSequence source, int start, int end)
+	{
+		return new WtText(source, start, end);
+	}
 }
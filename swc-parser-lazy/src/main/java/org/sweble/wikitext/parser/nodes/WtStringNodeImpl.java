@@ -17,7 +17,10 @@
 
 package org.sweble.wikitext.parser.nodes;
 
+import java.io.ObjectStreamException;
+
 import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.preprocessor.SegmentedWikitext;
 
 import de.fau.cs.osr.ptk.common.ast.AstNodePropertyIterator;
 import de.fau.cs.osr.ptk.common.ast.AstStringNodeImpl;
@@ -33,6 +36,17 @@ public abstract class WtStringNodeImpl
 	
 	private WtRtData rtd = null;
 	
+	/**
+	 * The window of the source buffer that holds the content or {@code null}
+	 * if the content has been materialized (or was given as string in the
+	 * first place).
+	 * 
+	 * Readers of a finished AST may materialize the content concurrently.
+	 * The field is therefore volatile and read only once per method; the
+	 * content is set before the field is cleared.
+	 */
+	private transient volatile SourceWindow window;
+	
 	// =========================================================================
 	
 	protected WtStringNodeImpl(Uninitialized u)
@@ -45,6 +59,108 @@ public abstract class WtStringNodeImpl
 		super(content);
 	}
 	
+	/**
+	 * Creates a string node whose content is the window [start, end) of the
+	 * given source buffer. The characters are not copied until the content
+	 * is requested via getContent(). The source buffer must not change while
+	 * the node refers to it.
+	 */
+	protected WtStringNodeImpl(CharSequence source, int start, int end)
+	{
+		super(Uninitialized.X);
+		this.window = new SourceWindow(source, start, end);
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String getContent()
+	{
+		materialize();
+		return super.getContent();
+	}
+	
+	@Override
+	public void setContent(String content)
+	{
+		super.setContent(content);
+		window = null;
+	}
+	
+	/**
+	 * Returns whether the content of this node is still a window of a shared
+	 * source buffer and has not been copied into a string of its own yet.
+	 */
+	public boolean isSourceSlice()
+	{
+		return window != null;
+	}
+	
+	/**
+	 * Returns the length of the content without materializing it.
+	 */
+	public int getContentLength()
+	{
+		SourceWindow window = this.window;
+		return (window != null) ? window.length() : super.getContent().length();
+	}
+	
+	/**
+	 * Appends the content to the given builder without materializing it.
+	 */
+	public void appendContentTo(StringBuilder sb)
+	{
+		SourceWindow window = this.window;
+		if (window != null)
+		{
+			window.appendTo(sb);
+		}
+		else
+		{
+			sb.append(super.getContent());
+		}
+	}
+	
+	/**
+	 * Copies the window into a string of its own if the content is still a
+	 * window. Concurrent callers may both copy the window; they store equal
+	 * strings.
+	 */
+	private void materialize()
+	{
+		SourceWindow window = this.window;
+		if (window != null)
+		{
+			super.setContent(window.toString());
+			this.window = null;
+		}
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		materialize();
+		return super.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		materialize();
+		if (obj instanceof WtStringNodeImpl)
+			((WtStringNodeImpl) obj).getContent();
+		return super.equals(obj);
+	}
+	
+	/**
+	 * The source buffer is not serialized, only the materialized content.
+	 */
+	protected Object writeReplace() throws ObjectStreamException
+	{
+		materialize();
+		return this;
+	}
+	
 	// =========================================================================
 	
 	@Override
@@ -101,6 +217,7 @@ public abstract class WtStringNodeImpl
 	@Override
 	public AstNodePropertyIterator propertyIterator()
 	{
+		materialize();
 		return new WtStringContentNodePropertyIterator();
 	}
 	
@@ -157,4 +274,59 @@ public abstract class WtStringNodeImpl
 			}
 		}
 	}
+	
+	// =========================================================================
+	
+	/**
+	 * The window [start, end) of a source buffer that provides the content
+	 * of a string node until the content is requested via getContent(). The
+	 * characters are not copied until then. The source buffer must not
+	 * change while a node refers to it.
+	 * 
+	 * Also used by {@link WtText}, which cannot extend this class because it
+	 * has to be an AstText.
+	 */
+	static final class SourceWindow
+	{
+		private final CharSequence source;
+		
+		private final int start;
+		
+		private final int end;
+		
+		public SourceWindow(CharSequence source, int start, int end)
+		{
+			if (source == null)
+				throw new NullPointerException();
+			if (start < 0 || start > end || end > source.length())
+				throw new IndexOutOfBoundsException();
+			this.source = source;
+			this.start = start;
+			this.end = end;
+		}
+		
+		public int length()
+		{
+			return end - start;
+		}
+		
+		public void appendTo(StringBuilder sb)
+		{
+			sb.append(source, start, end);
+		}
+		
+		public void appendTo(SegmentedWikitext segments)
+		{
+			segments.appendText(source, start, end);
+		}
+		
+		/**
+		 * Copies the window into a string of its own.
+		 */
+		@Override
+		public String toString()
+		{
+			return source.subSequence(start, end).toString();
+		}
+	}
 }
@@ -17,8 +17,13 @@
 
 package org.sweble.wikitext.parser.nodes;
 
+import java.io.ObjectStreamException;
+
 import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.nodes.WtStringNodeImpl.SourceWindow;
+import org.sweble.wikitext.parser.preprocessor.SegmentedWikitext;
 
+import de.fau.cs.osr.ptk.common.ast.AstNodePropertyIterator;
 import de.fau.cs.osr.ptk.common.ast.AstText;
 import de.fau.cs.osr.ptk.common.ast.Uninitialized;
 
@@ -30,6 +35,13 @@ public class WtText
 {
 	private static final long serialVersionUID = 7333107598118095040L;
 	
+	/**
+	 * See {@link WtStringNodeImpl}. The window handling is shared with all
+	 * other string nodes, only the overrides are repeated here since a text
+	 * node has to be an AstText.
+	 */
+	private transient volatile SourceWindow window;
+	
 	// =========================================================================
 	
 	/**
@@ -45,6 +57,124 @@ public class WtText
 		super(content);
 	}
 	
+	/**
+	 * Creates a text node whose content is the window [start, end) of the
+	 * given source buffer.
+	 * 
+	 * @see SourceWindow
+	 */
+	protected WtText(CharSequence source, int start, int end)
+	{
+		super(Uninitialized.X);
+		this.window = new SourceWindow(source, start, end);
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public String getContent()
+	{
+		materialize();
+		return super.getContent();
+	}
+	
+	@Override
+	public void setContent(String content)
+	{
+		super.setContent(content);
+		window = null;
+	}
+	
+	/**
+	 * @see WtStringNodeImpl#isSourceSlice()
+	 */
+	public boolean isSourceSlice()
+	{
+		return window != null;
+	}
+	
+	/**
+	 * @see WtStringNodeImpl#getContentLength()
+	 */
+	public int getContentLength()
+	{
+		SourceWindow window = this.window;
+		return (window != null) ? window.length() : super.getContent().length();
+	}
+	
+	/**
+	 * @see WtStringNodeImpl#appendContentTo(StringBuilder)
+	 */
+	public void appendContentTo(StringBuilder sb)
+	{
+		SourceWindow window = this.window;
+		if (window != null)
+		{
+			window.appendTo(sb);
+		}
+		else
+		{
+			sb.append(super.getContent());
+		}
+	}
+	
+	/**
+	 * Appends the content to the given segments without materializing it.
+	 */
+	public void appendContentTo(SegmentedWikitext segments)
+	{
+		SourceWindow window = this.window;
+		if (window != null)
+		{
+			window.appendTo(segments);
+		}
+		else
+		{
+			segments.appendText(super.getContent());
+		}
+	}
+	
+	private void materialize()
+	{
+		SourceWindow window = this.window;
+		if (window != null)
+		{
+			super.setContent(window.toString());
+			this.window = null;
+		}
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public AstNodePropertyIterator propertyIterator()
+	{
+		materialize();
+		return super.propertyIterator();
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		materialize();
+		return super.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		materialize();
+		if (obj instanceof WtText)
+			((WtText) obj).getContent();
+		return super.equals(obj);
+	}
+	
+	protected Object writeReplace() throws ObjectStreamException
+	{
+		materialize();
+		return this;
+	}
+	
 	// =========================================================================
 	
 	@Override
@@ -26,6 +26,7 @@ import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
 import org.sweble.wikitext.parser.nodes.WtText;
 import org.sweble.wikitext.parser.nodes.WtXmlComment;
 import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
+import org.sweble.wikitext.parser.preprocessor.SegmentedWikitext;
 
 import de.fau.cs.osr.ptk.common.AstVisitor;
 
@@ -41,7 +42,20 @@ public class PreprocessorToParserTransformer
 			WtPreproWikitextPage preprocessedArticle,
 			boolean trim)
 	{
-		TransformVisitor tv = new TransformVisitor(trim);
+		TransformVisitor tv = new TransformVisitor(trim, false);
+		return (PreprocessedWikitext) tv.go(preprocessedArticle);
+	}
+	
+	/**
+	 * Turns the page into a list of text windows and entity segments instead
+	 * of a string. The text of the page is not copied and entities are not
+	 * encoded. The parser reads the segments directly.
+	 */
+	public static PreprocessedWikitext transformToSegments(
+			WtPreproWikitextPage preprocessedArticle,
+			boolean trim)
+	{
+		TransformVisitor tv = new TransformVisitor(trim, true);
 		return (PreprocessedWikitext) tv.go(preprocessedArticle);
 	}
 	
@@ -53,15 +67,20 @@ public class PreprocessorToParserTransformer
 	{
 		private StringBuilder builder;
 		
+		private SegmentedWikitext segments;
+		
 		private WtEntityMap entityMap;
 		
 		private final boolean trim;
 		
+		private final boolean segmented;
+		
 		// =====================================================================
 		
-		public TransformVisitor(boolean trim)
+		public TransformVisitor(boolean trim, boolean segmented)
 		{
 			this.trim = trim;
+			this.segmented = segmented;
 		}
 		
 		// =====================================================================
@@ -69,13 +88,23 @@ public class PreprocessorToParserTransformer
 		@Override
 		protected boolean before(WtNode node)
 		{
-			builder = new StringBuilder();
+			if (segmented)
+			{
+				segments = new SegmentedWikitext();
+			}
+			else
+			{
+				builder = new StringBuilder();
+			}
 			return super.before(node);
 		}
 		
 		@Override
 		protected PreprocessedWikitext after(WtNode node, Object result)
 		{
+			if (segmented)
+				return new PreprocessedWikitext(segments, entityMap);
+			
 			return new PreprocessedWikitext(builder.toString(), entityMap);
 		}
 		
@@ -99,7 +128,15 @@ public class PreprocessorToParserTransformer
 		
 		public void visit(WtText n)
 		{
-			builder.append(n.getContent());
+			// Don't materialize text nodes that are windows of the source.
+			if (segmented)
+			{
+				n.appendContentTo(segments);
+			}
+			else
+			{
+				n.appendContentTo(builder);
+			}
 		}
 		
 		// =====================================================================
@@ -125,10 +162,19 @@ public class PreprocessorToParserTransformer
 		
 		private void makeParserEntity(WtNode n)
 		{
+			// The entity is registered in either case. The entity map of the
+			// parsed page remains complete that way.
 			int id = entityMap.registerEntity(n);
-			builder.append('\uE000');
-			builder.append(id);
-			builder.append('\uE001');
+			if (segmented)
+			{
+				segments.appendEntity(id);
+			}
+			else
+			{
+				builder.append('\uE000');
+				builder.append(id);
+				builder.append('\uE001');
+			}
 		}
 	}
 }
@@ -45,6 +45,8 @@ public class WikitextParserState
 	
 	private boolean gatherRtData;
 	
+	private CharSequence source;
+	
 	// =========================================================================
 	
 	@Override
@@ -73,6 +75,24 @@ public class WikitextParserState
 	}
 	
 	public void init(ParserConfig config, WtEntityMap entityMap)
+	{
+		init(
+				config,
+				entityMap,
+				compileInternalLinkPrefixPattern(config),
+				compileInternalLinkPostfixPattern(config));
+	}
+	
+	/**
+	 * Initializes the state with link prefix and postfix patterns that were
+	 * compiled in advance. This spares the parser from compiling the patterns
+	 * for every page it parses.
+	 */
+	public void init(
+			ParserConfig config,
+			WtEntityMap entityMap,
+			Pattern prefixPattern,
+			Pattern postfixPattern)
 	{
 		this.config = config;
 		
@@ -84,11 +104,41 @@ public class WikitextParserState
 		
 		this.gatherRtData = config.isGatherRtData();
 		
-		this.prefixPattern = Pattern.compile(
-				"(" + config.getInternalLinkPrefixPattern() + ")$");
+		this.prefixPattern = prefixPattern;
 		
-		this.postfixPattern = Pattern.compile(
-				config.getInternalLinkPostfixPattern());
+		this.postfixPattern = postfixPattern;
+	}
+	
+	public static Pattern compileInternalLinkPrefixPattern(ParserConfig config)
+	{
+		return Pattern.compile(
+				"(" + config.getInternalLinkPrefixPattern() + ")$");
+	}
+	
+	public static Pattern compileInternalLinkPostfixPattern(ParserConfig config)
+	{
+		return Pattern.compile(config.getInternalLinkPostfixPattern());
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Sets the buffer the parser reads from. Text nodes are created as
+	 * windows of this buffer instead of copying their content. The buffer
+	 * must not change after parsing.
+	 */
+	public void setSource(CharSequence source)
+	{
+		this.source = source;
+	}
+	
+	/**
+	 * Returns the buffer the parser reads from or {@code null} if the source
+	 * is not shared with the created nodes.
+	 */
+	public CharSequence getSource()
+	{
+		return source;
 	}
 	
 	// =========================================================================
@@ -108,6 +158,14 @@ public class WikitextParserState
 		return gatherRtData;
 	}
 	
+	/**
+	 * Overrides the configuration's choice whether RtData is gathered.
+	 */
+	public void setGatherRtData(boolean gatherRtData)
+	{
+		this.gatherRtData = gatherRtData;
+	}
+	
 	// =========================================================================
 	
 	public Pattern getInternalLinkPrefixPattern()
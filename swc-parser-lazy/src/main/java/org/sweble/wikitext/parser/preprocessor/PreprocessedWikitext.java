@@ -27,19 +27,57 @@ public final class PreprocessedWikitext
 {
 	private String wikitext;
 	
+	private final SegmentedWikitext segments;
+	
 	private WtEntityMap entityMap;
 	
 	public PreprocessedWikitext(String wikitext, WtEntityMap entityMap)
 	{
 		this.wikitext = wikitext;
+		this.segments = null;
+		this.entityMap = entityMap;
+	}
+	
+	/**
+	 * Wraps segmented wikitext. The parser reads the segments directly.
+	 */
+	public PreprocessedWikitext(
+			SegmentedWikitext segments,
+			WtEntityMap entityMap)
+	{
+		this.wikitext = null;
+		this.segments = segments;
 		this.entityMap = entityMap;
 	}
 	
+	/**
+	 * Returns the wikitext with all entities encoded as
+	 * {@code '\uE000' id '\uE001'}. Segmented wikitext is rendered into a
+	 * string on first access.
+	 */
 	public String getWikitext()
 	{
+		if (wikitext == null)
+			wikitext = segments.toString();
 		return wikitext;
 	}
 	
+	/**
+	 * Returns the segments or null if the wikitext was given as string.
+	 */
+	public SegmentedWikitext getSegments()
+	{
+		return segments;
+	}
+	
+	/**
+	 * Returns the number of characters the parser reads.
+	 */
+	public int length()
+	{
+		return (segments != null) ? segments.length() : wikitext.length();
+	}
+	
 	public WtEntityMap getEntityMap()
 	{
 		return entityMap;
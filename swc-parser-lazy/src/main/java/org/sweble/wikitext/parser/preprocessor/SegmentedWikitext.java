@@ -0,0 +1,359 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser.preprocessor;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Preprocessed wikitext as a list of segments. A text segment is a window
+ * of some other character sequence, usually the source of a text node. An
+ * entity segment stands for the entity with the given id.
+ * 
+ * Seen as a character sequence, an entity segment reads exactly like the
+ * encoding PreprocessorToParserTransformer writes into a string:
+ * {@code '\uE000' id '\uE001'}. The parser therefore sees the same input,
+ * and reports the same locations, as if it read that string. The text is
+ * never copied into one string unless someone asks for it with
+ * {@link #toString()}.
+ * 
+ * Instances are not thread-safe.
+ */
+public final class SegmentedWikitext
+		implements
+			CharSequence
+{
+	public static final char ENTITY_START = '\uE000';
+	
+	public static final char ENTITY_END = '\uE001';
+	
+	// =========================================================================
+	
+	/**
+	 * The text of each segment; null for entity segments.
+	 */
+	private CharSequence[] texts;
+	
+	/**
+	 * The start of each text segment in its text; the entity id for entity
+	 * segments.
+	 */
+	private int[] starts;
+	
+	/**
+	 * The offset of each segment; offsets[count] is the length.
+	 */
+	private int[] offsets;
+	
+	private int count;
+	
+	/**
+	 * The segment that was accessed last. Characters are usually read in
+	 * order.
+	 */
+	private int last;
+	
+	// =========================================================================
+	
+	public SegmentedWikitext()
+	{
+		this(16);
+	}
+	
+	public SegmentedWikitext(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		this.texts = new CharSequence[capacity];
+		this.starts = new int[capacity];
+		this.offsets = new int[capacity + 1];
+	}
+	
+	// =========================================================================
+	
+	public void appendText(String text)
+	{
+		appendText(text, 0, text.length());
+	}
+	
+	/**
+	 * Appends a window of the given text. The text must not change
+	 * afterwards.
+	 */
+	public void appendText(CharSequence text, int start, int end)
+	{
+		if (start < 0 || end < start || end > text.length())
+			throw new IndexOutOfBoundsException();
+		
+		if (start == end)
+			return;
+		
+		int length = end - start;
+		
+		// Adjacent windows of the same text become one segment.
+		if (count > 0)
+		{
+			int prev = count - 1;
+			if (texts[prev] == text
+					&& starts[prev] + (offsets[count] - offsets[prev]) == start)
+			{
+				offsets[count] += length;
+				return;
+			}
+		}
+		
+		ensureCapacity();
+		texts[count] = text;
+		starts[count] = start;
+		offsets[count + 1] = offsets[count] + length;
+		++count;
+	}
+	
+	/**
+	 * Appends an entity segment.
+	 * 
+	 * @param id
+	 *            The id of the entity in the entity map of the page.
+	 */
+	public void appendEntity(int id)
+	{
+		if (id < 0)
+			throw new IllegalArgumentException();
+		
+		ensureCapacity();
+		starts[count] = id;
+		offsets[count + 1] = offsets[count] + 2 + digits(id);
+		++count;
+	}
+	
+	private void ensureCapacity()
+	{
+		if (count < texts.length)
+			return;
+		
+		int capacity = texts.length * 2;
+		texts = Arrays.copyOf(texts, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		offsets = Arrays.copyOf(offsets, capacity + 1);
+	}
+	
+	// =========================================================================
+	
+	public int getSegmentCount()
+	{
+		return count;
+	}
+	
+	// =========================================================================
+	
+	@Override
+	public int length()
+	{
+		return offsets[count];
+	}
+	
+	@Override
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length())
+			throw new IndexOutOfBoundsException();
+		
+		int i = segmentAt(index);
+		int rel = index - offsets[i];
+		
+		CharSequence text = texts[i];
+		if (text == null)
+			return entityChar(i, rel);
+		
+		return text.charAt(starts[i] + rel);
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		StringBuilder sb = new StringBuilder(end - start);
+		appendTo(sb, start, end);
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return subSequence(0, length()).toString();
+	}
+	
+	public void appendTo(StringBuilder sb, int start, int end)
+	{
+		checkRange(start, end);
+		
+		for (int i = (start == end) ? count : segmentAt(start); start < end; ++i)
+		{
+			int segEnd = Math.min(end, offsets[i + 1]);
+			
+			CharSequence text = texts[i];
+			if (text == null)
+			{
+				for (int p = start; p < segEnd; ++p)
+					sb.append(entityChar(i, p - offsets[i]));
+			}
+			else
+			{
+				int from = starts[i] + start - offsets[i];
+				sb.append(text, from, from + segEnd - start);
+			}
+			
+			start = segEnd;
+		}
+	}
+	
+	public void getChars(int start, int end, char[] dst, int dstBegin)
+	{
+		checkRange(start, end);
+		
+		for (int i = (start == end) ? count : segmentAt(start); start < end; ++i)
+		{
+			int segEnd = Math.min(end, offsets[i + 1]);
+			int n = segEnd - start;
+			
+			CharSequence text = texts[i];
+			if (text == null)
+			{
+				for (int p = start; p < segEnd; ++p)
+					dst[dstBegin++] = entityChar(i, p - offsets[i]);
+			}
+			else
+			{
+				int from = starts[i] + start - offsets[i];
+				if (text instanceof String)
+				{
+					((String) text).getChars(from, from + n, dst, dstBegin);
+				}
+				else if (text instanceof StringBuilder)
+				{
+					((StringBuilder) text).getChars(from, from + n, dst, dstBegin);
+				}
+				else
+				{
+					for (int p = 0; p < n; ++p)
+						dst[dstBegin + p] = text.charAt(from + p);
+				}
+				dstBegin += n;
+			}
+			
+			start = segEnd;
+		}
+	}
+	
+	/**
+	 * Returns a reader that copies the characters straight out of the
+	 * segments.
+	 */
+	public Reader reader()
+	{
+		return new SegmentReader();
+	}
+	
+	// =========================================================================
+	
+	private void checkRange(int start, int end)
+	{
+		if (start < 0 || end < start || end > length())
+			throw new IndexOutOfBoundsException();
+	}
+	
+	/**
+	 * Returns the character at the given position of the entity segment i.
+	 */
+	private char entityChar(int i, int rel)
+	{
+		int length = offsets[i + 1] - offsets[i];
+		if (rel == 0)
+			return ENTITY_START;
+		if (rel == length - 1)
+			return ENTITY_END;
+		
+		int id = starts[i];
+		for (int k = length - 2; k > rel; --k)
+			id /= 10;
+		return (char) ('0' + id % 10);
+	}
+	
+	private static int digits(int id)
+	{
+		int digits = 1;
+		while (id >= 10)
+		{
+			id /= 10;
+			++digits;
+		}
+		return digits;
+	}
+	
+	private int segmentAt(int offset)
+	{
+		int i = last;
+		if (i < count && offsets[i] <= offset)
+		{
+			if (offset < offsets[i + 1])
+				return i;
+			if (i + 1 < count && offset < offsets[i + 2])
+				return last = i + 1;
+		}
+		
+		// The last offset with offsets[i] <= offset
+		int lo = 0;
+		int hi = count - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return last = lo;
+	}
+	
+	// =========================================================================
+	
+	private final class SegmentReader
+			extends
+				Reader
+	{
+		private int pos;
+		
+		@Override
+		public int read(char[] cbuf, int off, int len)
+		{
+			if (len == 0)
+				return 0;
+			
+			if (pos >= length())
+				return -1;
+			
+			int n = Math.min(len, length() - pos);
+			getChars(pos, pos + n, cbuf, off);
+			pos += n;
+			return n;
+		}
+		
+		@Override
+		public void close()
+		{
+		}
+	}
+}
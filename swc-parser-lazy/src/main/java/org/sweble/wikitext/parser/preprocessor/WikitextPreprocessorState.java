@@ -36,6 +36,8 @@ public class WikitextPreprocessorState
 	
 	private boolean gatherRtData;
 	
+	private CharSequence source;
+	
 	// =========================================================================
 	
 	private boolean hasOnlyInclude;
@@ -100,6 +102,35 @@ public class WikitextPreprocessorState
 		return gatherRtData;
 	}
 	
+	/**
+	 * Overrides the configuration's choice whether RtData is gathered.
+	 */
+	public void setGatherRtData(boolean gatherRtData)
+	{
+		this.gatherRtData = gatherRtData;
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Sets the buffer the preprocessor reads from. Text nodes are created as
+	 * windows of this buffer instead of copying their content. The buffer
+	 * must not change after parsing.
+	 */
+	public void setSource(CharSequence source)
+	{
+		this.source = source;
+	}
+	
+	/**
+	 * Returns the buffer the preprocessor reads from or {@code null} if the source
+	 * is not shared with the created nodes.
+	 */
+	public CharSequence getSource()
+	{
+		return source;
+	}
+	
 	// =========================================================================
 	
 	public void setTagExtensionName(String name)
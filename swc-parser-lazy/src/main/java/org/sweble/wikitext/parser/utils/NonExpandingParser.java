@@ -24,6 +24,8 @@ import org.sweble.wikitext.parser.WikitextEncodingValidator;
 import org.sweble.wikitext.parser.WikitextParser;
 import org.sweble.wikitext.parser.WikitextPostprocessor;
 import org.sweble.wikitext.parser.WikitextPreprocessor;
+import org.sweble.wikitext.parser.WtLazyRtData;
+import org.sweble.wikitext.parser.WtLazyRtData.Reprocessor;
 import org.sweble.wikitext.parser.encval.ValidatedWikitext;
 import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtParsedWikitextPage;
@@ -59,10 +61,57 @@ public final class NonExpandingParser
 				autoCorrect);
 	}
 	
+	/**
+	 * @param lazyRtd
+	 *            If RtData is not gathered, whether RtData can be
+	 *            reconstructed on demand (see {@link WtLazyRtData}).
+	 */
+	public NonExpandingParser(
+			boolean warningsEnabled,
+			boolean gatherRtd,
+			boolean lazyRtd,
+			boolean autoCorrect)
+	{
+		parserConfig = new SimpleParserConfig(
+				warningsEnabled,
+				gatherRtd,
+				lazyRtd,
+				autoCorrect);
+	}
+	
+	public NonExpandingParser(ParserConfig parserConfig)
+	{
+		this.parserConfig = parserConfig;
+	}
+	
 	// =========================================================================
 	
 	@Override
 	public WtNode parseArticle(String source, String title) throws IOException, ParseException
+	{
+		boolean gatherRtData = parserConfig.isGatherRtData();
+		
+		WtNode page = parseArticle(source, title, gatherRtData);
+		
+		if (!gatherRtData && parserConfig.isLazyRtData())
+		{
+			WtLazyRtData.attach(page, source, title, new Reprocessor()
+			{
+				@Override
+				public WtNode reprocess(String source, String title) throws Exception
+				{
+					return parseArticle(source, title, true);
+				}
+			});
+		}
+		
+		return page;
+	}
+	
+	private WtNode parseArticle(
+			String source,
+			String title,
+			boolean gatherRtData) throws IOException, ParseException
 	{
 		// Encoding validation
 		
@@ -72,7 +121,8 @@ public final class NonExpandingParser
 		
 		// Pre-processing
 		
-		WikitextPreprocessor prep = new WikitextPreprocessor(parserConfig);
+		WikitextPreprocessor prep =
+				new WikitextPreprocessor(parserConfig, gatherRtData);
 		
 		WtPreproWikitextPage prepArticle =
 				(WtPreproWikitextPage) prep.parseArticle(validated, title, false);
@@ -82,7 +132,7 @@ public final class NonExpandingParser
 		PreprocessedWikitext ppw = PreprocessorToParserTransformer
 				.transform(prepArticle);
 		
-		WikitextParser p = new WikitextParser(parserConfig);
+		WikitextParser p = new WikitextParser(parserConfig, gatherRtData);
 		
 		WtParsedWikitextPage parsedArticle =
 				(WtParsedWikitextPage) p.parseArticle(ppw, title);
@@ -42,8 +42,12 @@ public class SimpleParserConfig
 	
 	private final boolean gatherRtd;
 	
+	private final boolean lazyRtd;
+	
 	private final boolean autoCorrect;
 	
+	private boolean windowedTextNodes;
+	
 	private final WikitextNodeFactory nodeFactory;
 	
 	private final AstTextUtilsImpl textUtils;
@@ -59,9 +63,19 @@ public class SimpleParserConfig
 			boolean warningsEnabled,
 			boolean gatherRtd,
 			boolean autoCorrect)
+	{
+		this(warningsEnabled, gatherRtd, false, autoCorrect);
+	}
+	
+	public SimpleParserConfig(
+			boolean warningsEnabled,
+			boolean gatherRtd,
+			boolean lazyRtd,
+			boolean autoCorrect)
 	{
 		this.warningsEnabled = warningsEnabled;
 		this.gatherRtd = gatherRtd;
+		this.lazyRtd = lazyRtd;
 		this.autoCorrect = autoCorrect;
 		this.nodeFactory = new WikitextNodeFactoryImpl(this);
 		this.textUtils = new AstTextUtilsImpl(this);
@@ -93,6 +107,23 @@ public class SimpleParserConfig
 		return gatherRtd;
 	}
 	
+	@Override
+	public boolean isLazyRtData()
+	{
+		return lazyRtd;
+	}
+	
+	public void setWindowedTextNodes(boolean windowedTextNodes)
+	{
+		this.windowedTextNodes = windowedTextNodes;
+	}
+	
+	@Override
+	public boolean isWindowedTextNodes()
+	{
+		return windowedTextNodes;
+	}
+	
 	// ==[ AST creation ]=======================================================
 	
 	@Override
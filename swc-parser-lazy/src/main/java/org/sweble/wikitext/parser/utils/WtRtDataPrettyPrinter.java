@@ -20,6 +20,7 @@ package org.sweble.wikitext.parser.utils;
 import java.io.StringWriter;
 import java.io.Writer;
 
+import org.sweble.wikitext.parser.WtLazyRtData;
 import org.sweble.wikitext.parser.WtRtData;
 import org.sweble.wikitext.parser.nodes.WtContentNode;
 import org.sweble.wikitext.parser.nodes.WtIgnored;
@@ -28,6 +29,14 @@ import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtStringNode;
 import org.sweble.wikitext.parser.nodes.WtText;
 
+/**
+ * Prints a tree with the help of its RtData.
+ * 
+ * If the tree is a page parsed in lazy RtData mode, printing restores its
+ * RtData first (see {@link WtLazyRtData#restore(WtNode)}). This reprocesses
+ * the page and sets RtData on its nodes, that is, printing modifies the
+ * tree.
+ */
 public class WtRtDataPrettyPrinter
 		extends
 			WtPrettyPrinter
@@ -49,6 +58,14 @@ public class WtRtDataPrettyPrinter
 	
 	// =========================================================================
 	
+	@Override
+	protected boolean before(WtNode node)
+	{
+		// Pages parsed in lazy RtData mode get their RtData now.
+		WtLazyRtData.restore(node);
+		return super.before(node);
+	}
+	
 	@Override
 	protected Object dispatch(WtNode node)
 	{
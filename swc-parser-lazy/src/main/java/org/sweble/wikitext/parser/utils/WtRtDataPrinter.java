@@ -20,7 +20,9 @@ package org.sweble.wikitext.parser.utils;
 import java.io.StringWriter;
 import java.io.Writer;
 
+import org.sweble.wikitext.parser.WtLazyRtData;
 import org.sweble.wikitext.parser.WtRtData;
+import org.sweble.wikitext.parser.compact.CompactNodeView;
 import org.sweble.wikitext.parser.nodes.WtContentNode;
 import org.sweble.wikitext.parser.nodes.WtNode;
 import org.sweble.wikitext.parser.nodes.WtNodeList;
@@ -29,6 +31,14 @@ import org.sweble.wikitext.parser.nodes.WtText;
 
 import de.fau.cs.osr.utils.PrinterBase;
 
+/**
+ * Prints a tree with the help of its RtData.
+ * 
+ * If the tree is a page parsed in lazy RtData mode, printing restores its
+ * RtData first (see {@link WtLazyRtData#restore(WtNode)}). This reprocesses
+ * the page and sets RtData on its nodes, that is, printing modifies the
+ * tree.
+ */
 public class WtRtDataPrinter
 {
 	protected void iterate(WtNode node)
@@ -39,6 +49,12 @@ public class WtRtDataPrinter
 	
 	protected void dispatch(WtNode node)
 	{
+		if (node instanceof CompactNodeView)
+		{
+			dispatchView((CompactNodeView) node);
+			return;
+		}
+		
 		switch (node.getNodeType())
 		{
 			case WtNode.NT_TEXT:
@@ -67,6 +83,40 @@ public class WtRtDataPrinter
 		}
 	}
 	
+	/**
+	 * A view of a compact AST is not an instance of the node class it stands
+	 * for and is dispatched on what the compact AST knows about that class.
+	 */
+	protected void dispatchView(CompactNodeView view)
+	{
+		switch (view.getNodeType())
+		{
+			case WtNode.NT_TEXT:
+				p.verbatim(view.getContent());
+				break;
+			
+			case WtNode.NT_NODE_LIST:
+				iterate(view);
+				break;
+			
+			default:
+				WtRtData rtd = view.getRtd();
+				if (view.isStringNode())
+				{
+					printString(rtd, view.getContent());
+				}
+				else if (view.isContentNode())
+				{
+					printContent(rtd, view);
+				}
+				else
+				{
+					printAnyOtherNode(rtd, view);
+				}
+				break;
+		}
+	}
+	
 	// =========================================================================
 	
 	protected void printText(WtText text)
@@ -80,53 +130,63 @@ public class WtRtDataPrinter
 	}
 	
 	protected void printContentNode(WtRtData rtd, WtContentNode contentNode)
+	{
+		printContent(rtd, contentNode);
+	}
+	
+	protected void printStringNode(WtRtData rtd, WtStringNode contentNode)
+	{
+		printString(rtd, contentNode.getContent());
+	}
+	
+	protected void printAnyOtherNode(WtRtData rtd, WtNode node)
 	{
 		if (rtd != null)
 		{
 			if (!rtd.isSuppress())
 			{
-				printRtd(rtd.getField(0));
-				iterate(contentNode);
-				printRtd(rtd.getField(1));
+				int i = 0;
+				for (WtNode n : node)
+				{
+					printRtd(rtd.getField(i++));
+					dispatch(n);
+				}
+				printRtd(rtd.getField(i));
 			}
 		}
 		else
 		{
-			iterate(contentNode);
+			iterate(node);
 		}
 	}
 	
-	protected void printStringNode(WtRtData rtd, WtStringNode contentNode)
+	private void printContent(WtRtData rtd, WtNode contentNode)
 	{
 		if (rtd != null)
 		{
 			if (!rtd.isSuppress())
+			{
 				printRtd(rtd.getField(0));
+				iterate(contentNode);
+				printRtd(rtd.getField(1));
+			}
 		}
 		else
 		{
-			p.verbatim(contentNode.getContent());
+			iterate(contentNode);
 		}
 	}
 	
-	protected void printAnyOtherNode(WtRtData rtd, WtNode node)
+	private void printString(WtRtData rtd, String content)
 	{
 		if (rtd != null)
 		{
 			if (!rtd.isSuppress())
-			{
-				int i = 0;
-				for (WtNode n : node)
-				{
-					printRtd(rtd.getField(i++));
-					dispatch(n);
-				}
-				printRtd(rtd.getField(i));
-			}
+				printRtd(rtd.getField(0));
 		}
 		else
 		{
-			iterate(node);
+			p.verbatim(content);
 		}
 	}
 	
@@ -170,6 +230,8 @@ public class WtRtDataPrinter
 	
 	protected void go(WtNode node)
 	{
+		// Pages parsed in lazy RtData mode get their RtData now.
+		WtLazyRtData.restore(node);
 		dispatch(node);
 		p.flush();
 	}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sweble.wikitext.parser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.compact.CompactAst;
+import org.sweble.wikitext.parser.compact.CompactNodeView;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtStringNode;
+import org.sweble.wikitext.parser.utils.NonExpandingParser;
+import org.sweble.wikitext.parser.utils.WtRtDataPrinter;
+
+public class CompactAstTest
+{
+	@Test
+	public void testConversionRoundTrip() throws Exception
+	{
+		WtNode ast = parse(SamplePage.WIKITEXT, true);
+		CompactAst compact = CompactAst.compact(ast, SamplePage.WIKITEXT);
+		
+		WtNode restored = compact.toWtNode();
+		assertSameShape(ast, restored);
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(restored));
+	}
+	
+	@Test
+	public void testTextIsSlicedFromSourceWithRtd() throws Exception
+	{
+		WtNode ast = parse(SamplePage.WIKITEXT, true);
+		CompactAst compact = CompactAst.compact(ast, SamplePage.WIKITEXT);
+		
+		assertEquals(0, compact.getSourceStart(0));
+		assertEquals(SamplePage.WIKITEXT.length(), compact.getSourceEnd(0));
+		
+		for (int i = 0; i < compact.size(); ++i)
+		{
+			if (compact.getNodeType(i) != WtNode.NT_TEXT)
+				continue;
+			
+			int start = compact.getSourceStart(i);
+			int end = compact.getSourceEnd(i);
+			assertTrue(start != CompactAst.NO_OFFSET);
+			assertEquals(SamplePage.WIKITEXT.substring(start, end), compact.getContent(i));
+		}
+	}
+	
+	@Test
+	public void testTextIsSlicedFromSourceWithoutRtd() throws Exception
+	{
+		WtNode ast = parse(SamplePage.WIKITEXT, false);
+		CompactAst compact = CompactAst.compact(ast, SamplePage.WIKITEXT);
+		
+		int texts = 0;
+		int sliced = 0;
+		for (int i = 0; i < compact.size(); ++i)
+		{
+			if (compact.getNodeType(i) != WtNode.NT_TEXT)
+				continue;
+			
+			++texts;
+			if (compact.getSourceStart(i) != CompactAst.NO_OFFSET)
+				++sliced;
+		}
+		
+		// Text is found in the source even without the markup in between
+		assertTrue(texts > 0);
+		assertTrue(sliced > texts / 2);
+		assertEquals(ast, compact.toWtNode());
+	}
+	
+	@Test
+	public void testViewMirrorsOriginalAst() throws Exception
+	{
+		WtNode ast = parse(SamplePage.WIKITEXT, true);
+		CompactNodeView root = CompactAst.compact(ast, SamplePage.WIKITEXT).getRoot();
+		
+		assertSameShape(ast, root);
+		
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(root.toWtNode()));
+	}
+	
+	@Test
+	public void testViewIsPrintedDirectly() throws Exception
+	{
+		WtNode ast = parse(SamplePage.WIKITEXT, true);
+		CompactNodeView root = CompactAst.compact(ast, SamplePage.WIKITEXT).getRoot();
+		
+		// The view itself, not a converted copy
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(root));
+	}
+	
+	// =========================================================================
+	
+	private static WtNode parse(String source, boolean gatherRtd) throws Exception
+	{
+		NonExpandingParser parser = new NonExpandingParser(true, gatherRtd, false);
+		return parser.parseArticle(source, "CompactAstTest");
+	}
+	
+	private static void assertSameShape(WtNode expected, WtNode actual)
+	{
+		if (expected == null)
+		{
+			assertNull(actual);
+			return;
+		}
+		
+		assertEquals(expected.getNodeType(), actual.getNodeType());
+		assertEquals(expected.getNodeName(), actual.getNodeName());
+		assertEquals(expected.getRtd() == null, actual.getRtd() == null);
+		assertEquals(expected.size(), actual.size());
+		
+		if (expected instanceof WtStringNode)
+			assertEquals(((WtStringNode) expected).getContent(), getContent(actual));
+		
+		for (int i = 0; i < expected.size(); ++i)
+			assertSameShape(expected.get(i), actual.get(i));
+	}
+	
+	private static String getContent(WtNode node)
+	{
+		if (node instanceof CompactNodeView)
+			return ((CompactNodeView) node).getContent();
+		return ((WtStringNode) node).getContent();
+	}
+}
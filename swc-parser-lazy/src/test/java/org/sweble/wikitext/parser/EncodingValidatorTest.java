@@ -104,4 +104,23 @@ public class EncodingValidatorTest
 		
 		assertEquals(ref.toString(), validatedWikitext);
 	}
+	
+	@Test
+	public void testReusedValidatorDoesNotLeakStateBetweenPages() throws IOException
+	{
+		SimpleParserConfig parserConfig = new SimpleParserConfig();
+		
+		WikitextEncodingValidator v = new WikitextEncodingValidator();
+		
+		ValidatedWikitext first = v.validate(parserConfig, "Erste \uE800 Seite", "first");
+		assertEquals("Erste \uE0000\uE001 Seite", first.getWikitext());
+		
+		ValidatedWikitext second = v.validate(parserConfig, "Zweite \u0007 Seite", "second");
+		assertEquals("Zweite \uE0000\uE001 Seite", second.getWikitext());
+		assertNotSame(first.getEntityMap(), second.getEntityMap());
+		
+		WtIllegalCodePoint x0 = (WtIllegalCodePoint) second.getEntityMap().getEntity(0);
+		assertEquals("\u0007", x0.getCodePoint());
+		assertEquals(new AstLocation("second", 0, 7), x0.getNativeLocation());
+	}
 }
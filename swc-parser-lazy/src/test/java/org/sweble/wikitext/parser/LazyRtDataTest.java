@@ -0,0 +1,130 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.utils.NonExpandingParser;
+import org.sweble.wikitext.parser.utils.WtRtDataPrinter;
+
+public class LazyRtDataTest
+{
+	@Test
+	public void testPageIsParsedWithoutRtd() throws Exception
+	{
+		WtNode page = parseLazily();
+		
+		assertNotNull(WtLazyRtData.get(page));
+		assertEquals(0, SamplePage.countRtd(page));
+	}
+	
+	@Test
+	public void testPrinterReconstructsRtd() throws Exception
+	{
+		WtNode page = parseLazily();
+		
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(page));
+		
+		// Once the whole page got its RtData, the record is dropped
+		assertNull(WtLazyRtData.get(page));
+		
+		WtNode eager = new NonExpandingParser(true, true, false)
+				.parseArticle(SamplePage.WIKITEXT, "LazyRtDataTest");
+		assertEquals(SamplePage.countRtd(eager), SamplePage.countRtd(page));
+	}
+	
+	@Test
+	public void testRtdIsOnlyReconstructedForSubtree() throws Exception
+	{
+		WtNode page = parseLazily();
+		WtNode subtree = findNodeWithChildren(page, 2);
+		assertNotNull(subtree);
+		
+		assertTrue(WtLazyRtData.restore(page, subtree));
+		
+		int inSubtree = SamplePage.countRtd(subtree);
+		assertTrue(inSubtree > 0);
+		assertEquals(inSubtree, SamplePage.countRtd(page));
+		assertNotNull(WtLazyRtData.get(page));
+		
+		// A discarded page is reprocessed when RtData is requested again
+		WtLazyRtData.discard(page);
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(page));
+		assertNull(WtLazyRtData.get(page));
+	}
+	
+	@Test
+	public void testRestoringFromDifferentSourceFails() throws Exception
+	{
+		WtNode page = parseLazily();
+		
+		// Same structure, but everything after the first character of the
+		// first line moved one column to the right
+		final String shifted = "X" + SamplePage.WIKITEXT;
+		WtLazyRtData.attach(page, SamplePage.WIKITEXT, "LazyRtDataTest", new WtLazyRtData.Reprocessor()
+		{
+			@Override
+			public WtNode reprocess(String source, String title) throws Exception
+			{
+				return new NonExpandingParser(true, true, false).parseArticle(shifted, title);
+			}
+		});
+		
+		try
+		{
+			WtLazyRtData.restore(page);
+			fail("Restored RtData from a different source");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	// =========================================================================
+	
+	private static WtNode parseLazily() throws Exception
+	{
+		NonExpandingParser parser = new NonExpandingParser(true, false, true, false);
+		return parser.parseArticle(SamplePage.WIKITEXT, "LazyRtDataTest");
+	}
+	
+	/**
+	 * Finds a node at the given depth below the page that has children.
+	 */
+	private static WtNode findNodeWithChildren(WtNode node, int depth)
+	{
+		for (WtNode n : node)
+		{
+			if (depth == 1)
+			{
+				if (!n.isEmpty() && n.getNodeType() != WtNode.NT_NODE_LIST)
+					return n;
+			}
+			else
+			{
+				WtNode found = findNodeWithChildren(n, depth - 1);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+}
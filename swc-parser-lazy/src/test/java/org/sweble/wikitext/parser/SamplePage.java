@@ -0,0 +1,76 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtText;
+
+/**
+ * A page that uses the common kinds of markup and helpers to inspect the
+ * ASTs parsed from it. Shared by the tests of the compact AST, of text
+ * windows and of lazy RtData.
+ */
+public final class SamplePage
+{
+	public static final String WIKITEXT = ""
+			+ "Intro with '''bold''' and ''italic'' text.\n"
+			+ "\n"
+			+ "== Section ==\n"
+			+ "A [[Target|link]], an [http://example.com external link] and {{Template|arg=1}}.\n"
+			+ "<!-- comment -->\n"
+			+ "* item one\n"
+			+ "* item <span class=\"x\">two</span> &amp; more\n"
+			+ "\n"
+			+ "{|\n"
+			+ "|-\n"
+			+ "| cell || other cell\n"
+			+ "|}\n";
+	
+	// =========================================================================
+	
+	private SamplePage()
+	{
+	}
+	
+	// =========================================================================
+	
+	/**
+	 * Counts the nodes in the given AST that carry RtData.
+	 */
+	public static int countRtd(WtNode node)
+	{
+		int count = (node.getRtd() != null) ? 1 : 0;
+		for (WtNode n : node)
+			count += countRtd(n);
+		return count;
+	}
+	
+	/**
+	 * Counts the text nodes in the given AST that are still windows of their
+	 * source.
+	 */
+	public static int countSlices(WtNode node)
+	{
+		int count = 0;
+		if (node instanceof WtText && ((WtText) node).isSourceSlice())
+			++count;
+		for (WtNode n : node)
+			count += countSlices(n);
+		return count;
+	}
+}
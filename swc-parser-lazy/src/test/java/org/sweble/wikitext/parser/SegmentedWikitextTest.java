@@ -0,0 +1,151 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.Reader;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.encval.ValidatedWikitext;
+import org.sweble.wikitext.parser.nodes.WikitextNodeFactory;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtPreproWikitextPage;
+import org.sweble.wikitext.parser.parser.PreprocessorToParserTransformer;
+import org.sweble.wikitext.parser.preprocessor.PreprocessedWikitext;
+import org.sweble.wikitext.parser.preprocessor.SegmentedWikitext;
+import org.sweble.wikitext.parser.utils.SimpleParserConfig;
+import org.sweble.wikitext.parser.utils.WtRtDataPrinter;
+
+public class SegmentedWikitextTest
+{
+	private static final String SOURCE = ""
+			+ "Intro <!-- comment --> with {{Template|arg=1}}.\n"
+			+ "\n"
+			+ "== Section {{{param}}} ==\n"
+			+ "A [[Target|link {{T}}]] and <span title=\"{{T}}\">text</span>.\n"
+			+ "{|\n"
+			+ "| {{Cell}} || cell\n"
+			+ "|}\n"
+			+ "<!-- a --><!-- b --><!-- c --><!-- d --> {{A}}{{B}}{{C}}\n"
+			+ "After '''many''' entities.\n";
+	
+	private final ParserConfig config = new SimpleParserConfig(true, true, false);
+	
+	private final WikitextNodeFactory nf = config.getNodeFactory();
+	
+	// =========================================================================
+	
+	@Test
+	public void testSegmentsReadLikeTheirText() throws Exception
+	{
+		String source = "abc def ghi";
+		
+		SegmentedWikitext segments = new SegmentedWikitext(1);
+		segments.appendText(source, 0, 4);
+		segments.appendText(source, 4, 8);
+		segments.appendEntity(7);
+		segments.appendEntity(42);
+		segments.appendText("tail");
+		
+		// The first two windows are adjacent and become one segment.
+		assertEquals(4, segments.getSegmentCount());
+		
+		// Entities read like the encoding of the string path.
+		String expected = "abc def \uE0007\uE001\uE00042\uE001tail";
+		assertEquals(expected, segments.toString());
+		assertEquals(expected.length(), segments.length());
+		
+		for (int i = expected.length() - 1; i >= 0; --i)
+			assertEquals(expected.charAt(i), segments.charAt(i));
+		
+		assertEquals("f \uE0007\uE001\uE000", segments.subSequence(6, 12));
+		
+		Reader in = segments.reader();
+		char[] buf = new char[5];
+		StringBuilder sb = new StringBuilder();
+		for (int n; (n = in.read(buf, 0, buf.length)) != -1;)
+			sb.append(buf, 0, n);
+		assertEquals(expected, sb.toString());
+	}
+	
+	@Test
+	public void testParsingSegmentsYieldsTheSameTree() throws Exception
+	{
+		WtNode fromString = parse(false);
+		WtNode fromSegments = parse(true);
+		
+		assertEquals(SOURCE, WtRtDataPrinter.print(fromString));
+		assertEquals(SOURCE, WtRtDataPrinter.print(fromSegments));
+		assertEquals(structure(fromString), structure(fromSegments));
+	}
+	
+	@Test
+	public void testParsingSegmentsYieldsTheSameLocations() throws Exception
+	{
+		assertEquals(locations(parse(false)), locations(parse(true)));
+	}
+	
+	// =========================================================================
+	
+	private WtNode parse(boolean segmented) throws Exception
+	{
+		ValidatedWikitext validated = new WikitextEncodingValidator()
+				.validate(config, SOURCE, "SegmentedWikitextTest");
+		
+		WtPreproWikitextPage ppAst = (WtPreproWikitextPage)
+				new WikitextPreprocessor(config)
+						.parseArticle(validated, "SegmentedWikitextTest", false);
+		
+		PreprocessedWikitext ppw = segmented ?
+				PreprocessorToParserTransformer.transformToSegments(ppAst, false) :
+				PreprocessorToParserTransformer.transform(ppAst, false);
+		
+		return new WikitextParser(config)
+				.parseArticle(ppw, "SegmentedWikitextTest");
+	}
+	
+	private static String locations(WtNode node)
+	{
+		StringBuilder sb = new StringBuilder();
+		locations(node, sb);
+		return sb.toString();
+	}
+	
+	private static void locations(WtNode node, StringBuilder sb)
+	{
+		sb.append(node.getNodeName()).append('@').append(node.getLocation()).append('\n');
+		for (WtNode n : node)
+			locations(n, sb);
+	}
+	
+	private static String structure(WtNode node)
+	{
+		StringBuilder sb = new StringBuilder();
+		structure(node, sb);
+		return sb.toString();
+	}
+	
+	private static void structure(WtNode node, StringBuilder sb)
+	{
+		sb.append(node.getNodeName()).append('(');
+		for (WtNode n : node)
+			structure(n, sb);
+		sb.append(')');
+	}
+}
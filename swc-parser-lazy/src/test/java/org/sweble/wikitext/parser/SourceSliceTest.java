@@ -0,0 +1,132 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.nodes.WikitextNodeFactory;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.nodes.WtText;
+import org.sweble.wikitext.parser.utils.NonExpandingParser;
+import org.sweble.wikitext.parser.utils.SimpleParserConfig;
+import org.sweble.wikitext.parser.utils.WtRtDataPrinter;
+
+public class SourceSliceTest
+{
+	private final WikitextNodeFactory nf =
+			new SimpleParserConfig().getNodeFactory();
+	
+	// =========================================================================
+	
+	@Test
+	public void testSliceIsMaterializedOnDemand() throws Exception
+	{
+		StringBuilder source = new StringBuilder("abc def ghi");
+		WtText text = nf.text(source, 4, 7);
+		
+		assertTrue(text.isSourceSlice());
+		assertEquals(3, text.getContentLength());
+		
+		StringBuilder sb = new StringBuilder();
+		text.appendContentTo(sb);
+		assertEquals("def", sb.toString());
+		assertTrue(text.isSourceSlice());
+		
+		assertEquals("def", text.getContent());
+		assertFalse(text.isSourceSlice());
+		
+		assertEquals(nf.text("def"), nf.text(source, 4, 7));
+	}
+	
+	@Test
+	public void testSliceIsSerializedAsString() throws Exception
+	{
+		WtText text = nf.text(new StringBuilder("abc def"), 0, 3);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(text);
+		oos.close();
+		
+		ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(out.toByteArray()));
+		WtText copy = (WtText) ois.readObject();
+		
+		assertFalse(copy.isSourceSlice());
+		assertEquals("abc", copy.getContent());
+	}
+	
+	@Test
+	public void testParserCreatesNoSlicesByDefault() throws Exception
+	{
+		NonExpandingParser parser = new NonExpandingParser(true, true, false);
+		WtNode ast = parser.parseArticle(SamplePage.WIKITEXT, "SourceSliceTest");
+		
+		assertEquals(0, SamplePage.countSlices(ast));
+	}
+	
+	@Test
+	public void testParserCreatesSlicesOfItsSource() throws Exception
+	{
+		SimpleParserConfig config = new SimpleParserConfig(true, true, false);
+		config.setWindowedTextNodes(true);
+		
+		NonExpandingParser parser = new NonExpandingParser(config);
+		WtNode ast = parser.parseArticle(SamplePage.WIKITEXT, "SourceSliceTest");
+		
+		assertTrue(SamplePage.countSlices(ast) > 0);
+		assertEquals(SamplePage.WIKITEXT, WtRtDataPrinter.print(ast));
+		assertEquals(0, SamplePage.countSlices(ast));
+	}
+	
+	@Test
+	public void testConcurrentReadersSeeTheContent() throws Exception
+	{
+		final WtText text = nf.text(new StringBuilder("abc def ghi"), 4, 7);
+		final String[] contents = new String[8];
+		
+		Thread[] readers = new Thread[contents.length];
+		for (int i = 0; i < readers.length; ++i)
+		{
+			final int reader = i;
+			readers[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					contents[reader] = text.getContent();
+				}
+			};
+		}
+		
+		for (Thread reader : readers)
+			reader.start();
+		for (Thread reader : readers)
+			reader.join();
+		
+		for (String content : contents)
+			assertEquals("def", content);
+		assertFalse(text.isSourceSlice());
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2011 The Open Source Research Group,
+ *                University of Erlangen-Nürnberg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sweble.wikitext.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Map;
+
+import org.junit.Test;
+import org.sweble.wikitext.parser.nodes.WikitextNodeFactory;
+import org.sweble.wikitext.parser.nodes.WtNode;
+import org.sweble.wikitext.parser.utils.SimpleParserConfig;
+
+public class WtEntityMapImplTest
+{
+	private final WikitextNodeFactory nf =
+			new SimpleParserConfig().getNodeFactory();
+	
+	// =========================================================================
+	
+	@Test
+	public void testIdsAreDenseAndTheMapGrows() throws Exception
+	{
+		WtEntityMapImpl map = new WtEntityMapImpl(1);
+		assertTrue(map.isEmpty());
+		
+		WtNode[] nodes = new WtNode[100];
+		for (int i = 0; i < nodes.length; ++i)
+		{
+			nodes[i] = nf.text("e" + i);
+			assertEquals(i, map.registerEntity(nodes[i]));
+		}
+		
+		assertEquals(nodes.length, map.size());
+		for (int i = 0; i < nodes.length; ++i)
+			assertSame(nodes[i], map.getEntity(i));
+		
+		assertNull(map.getEntity(-1));
+		assertNull(map.getEntity(nodes.length));
+		
+		Map<Integer, WtNode> view = map.getMap();
+		assertEquals(nodes.length, view.size());
+		assertSame(nodes[42], view.get(42));
+		assertEquals(nodes.length, map.getEntities().size());
+	}
+	
+	@Test
+	public void testClearedMapIsReused() throws Exception
+	{
+		WtEntityMapImpl map = new WtEntityMapImpl();
+		map.registerEntity(nf.text("a"));
+		map.registerEntity(nf.text("b"));
+		
+		map.clear();
+		
+		assertTrue(map.isEmpty());
+		assertNull(map.getEntity(0));
+		assertEquals(0, map.registerEntity(nf.text("c")));
+	}
+	
+	@Test
+	public void testMapsWithTheSameEntitiesAreEqual() throws Exception
+	{
+		WtNode a = nf.text("a");
+		WtNode b = nf.text("b");
+		
+		WtEntityMapImpl map = new WtEntityMapImpl();
+		map.registerEntity(a);
+		map.registerEntity(b);
+		
+		WtEntityMapImpl other = new WtEntityMapImpl(1);
+		other.registerEntity(a);
+		other.registerEntity(b);
+		assertEquals(map, other);
+		assertEquals(map.hashCode(), other.hashCode());
+		
+		other.registerEntity(nf.text("c"));
+		assertFalse(map.equals(other));
+	}
+	
+	@Test
+	public void testSerialization() throws Exception
+	{
+		WtEntityMapImpl map = new WtEntityMapImpl();
+		map.registerEntity(nf.text("a"));
+		map.registerEntity(nf.text("b"));
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(map);
+		oos.close();
+		
+		ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(out.toByteArray()));
+		WtEntityMapImpl copy = (WtEntityMapImpl) ois.readObject();
+		
+		assertEquals(map, copy);
+		assertEquals(2, copy.registerEntity(nf.text("c")));
+	}
+	
+	@Test
+	public void testSerializedFormIsTheOneOfEarlierVersions() throws Exception
+	{
+		ObjectStreamClass desc = ObjectStreamClass.lookup(WtEntityMapImpl.class);
+		assertEquals(-5463361855129034446L, desc.getSerialVersionUID());
+		assertEquals(0, desc.getFields().length);
+		
+		assertNotNull(ObjectStreamClass.lookup(
+				WtEntityMapImpl.class.getSuperclass()));
+	}
+}